@@ -15,6 +15,11 @@ import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ToggleButton;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -25,6 +30,9 @@ public class DemoAppActivity extends AppCompatActivity {
     private MildlyRichTextEditor editor;
     private TextView htmlTextView;
     private BottomSheetBehavior bottomSheetBehavior;
+    private EditorTraceRecorder traceRecorder;
+    private Writer traceWriter;
+    private File traceFile;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -48,12 +56,6 @@ public class DemoAppActivity extends AppCompatActivity {
         ToggleButton italicButton = (ToggleButton) findViewById(R.id.italic_btn);
         ToggleButton underlineButton = (ToggleButton) findViewById(R.id.underline_btn);
         ToggleButton unorderedList = (ToggleButton) findViewById(R.id.unordered_list_btn);
-        unorderedList.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                showToast(v.getContext(), getString(R.string.coming_soon));
-            }
-        });
         View fontSizeMenu = getLayoutInflater().inflate(R.layout.menu_size_popup_layout, null);
         ToggleButton tenButton = (ToggleButton) fontSizeMenu.findViewById(R.id.size_ten);
         ToggleButton fourteenButton = (ToggleButton) fontSizeMenu.findViewById(R.id.size_fourteen);
@@ -69,6 +71,7 @@ public class DemoAppActivity extends AppCompatActivity {
         editor.setBoldToggleButton(boldButton);
         editor.setItalicsToggleButton(italicButton);
         editor.setUnderlineToggleButton(underlineButton);
+        editor.setBulletedListToggleButton(unorderedList);
         editor.setFontSizeButton(fontSizeButton, fontSizeMenu, sizeToggles);
     }
 
@@ -85,11 +88,55 @@ public class DemoAppActivity extends AppCompatActivity {
                 hideSoftKeyboard();
                 showHtmlBottomSheet();
                 return true;
+            case R.id.action_record_trace:
+                if (traceRecorder == null) {
+                    startTraceRecording();
+                    item.setTitle(R.string.stop_trace);
+                } else {
+                    stopTraceRecording();
+                    item.setTitle(R.string.record_trace);
+                }
+                return true;
         }
 
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onDestroy() {
+        if (traceRecorder != null)
+            stopTraceRecording();
+        super.onDestroy();
+    }
+
+    /**
+     * Records the input the editor receives into a file, to be replayed by the library's trace replay tests.
+     */
+    private void startTraceRecording() {
+        traceFile = new File(getExternalFilesDir(null), "editor-" + System.currentTimeMillis() + ".trace");
+        try {
+            traceWriter = new BufferedWriter(new FileWriter(traceFile));
+        } catch (IOException e) {
+            showToast(this, getString(R.string.trace_failed));
+            return;
+        }
+        traceRecorder = new EditorTraceRecorder(traceWriter);
+        editor.setTraceRecorder(traceRecorder);
+    }
+
+    private void stopTraceRecording() {
+        editor.setTraceRecorder(null);
+        boolean failed = traceRecorder.getError() != null;
+        traceRecorder = null;
+        try {
+            traceWriter.close();
+        } catch (IOException e) {
+            failed = true;
+        }
+        showToast(this, failed ? getString(R.string.trace_failed)
+                : getString(R.string.trace_saved, traceFile.getAbsolutePath()));
+    }
+
     private void showToast(Context context, String text) {
         Toast.makeText(context, text, Toast.LENGTH_SHORT).show();
     }
@@ -0,0 +1,2 @@
+# DocumentChangePublisher is compiled against the Reactive Streams interfaces, which apps not using it do not have
+-dontwarn org.reactivestreams.**
@@ -0,0 +1,163 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.style.URLSpan;
+import android.util.Patterns;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * Turns the web addresses in the text into links while the user types. Instead of running over the whole text after
+ * every change like {@code Linkify} does, only the paragraphs touched by a change are scanned again, so the cost of a
+ * keystroke depends on the length of the paragraph, not of the document.
+ * <p>
+ * The links are {@link AutoLinkSpan}s, which are not user styles: they do not show up on the style controls, in the
+ * style runs or in the deltas, and they are derived from the text again whenever it is set. They are exported as
+ * {@code <a>} tags by {@link MildlyRichTextEditor#getTextHtml()}, like the plain {@link URLSpan}s of links the
+ * author wrote into the HTML, which the linker leaves alone and never links over.
+ */
+final class AutoLinker extends EditableObserver
+{
+	private static final String[] SCHEMES = {"http://", "https://", "rtsp://"};
+
+	// The range of text inserted by the last change, rescanned once the change is complete
+	private int changeStart = -1;
+	private int changeEnd;
+
+	/**
+	 * Link found by {@link AutoLinker}. Its own class keeps it apart from links the text may carry otherwise.
+	 */
+	static final class AutoLinkSpan extends URLSpan
+	{
+		AutoLinkSpan(String url)
+		{
+			super(url);
+		}
+	}
+
+	@Override
+	void onAttached(@Nullable Spannable text)
+	{
+		changeStart = -1;
+		if (text != null)
+			relink(text, 0, text.length());
+	}
+
+	@Override
+	public void onTextChanged(CharSequence s, int start, int before, int count)
+	{
+		changeStart = start;
+		changeEnd = start + count;
+	}
+
+	@Override
+	public void afterTextChanged(Editable s)
+	{
+		if (changeStart < 0 || s != getAttachedText() || changeEnd > s.length())
+			return;
+
+		int start = changeStart;
+		int end = changeEnd;
+		changeStart = -1;
+		relink(s, start, end);
+	}
+
+	/**
+	 * Scans the paragraphs overlapping the given range again, keeping the links that are still valid.
+	 */
+	static void relink(@NonNull Spannable text, int start, int end)
+	{
+		int paragraphStart = start > 0 ? TextUtils.lastIndexOf(text, '\n', start - 1) + 1 : 0;
+		int paragraphEnd = TextUtils.indexOf(text, '\n', end);
+		if (paragraphEnd < 0)
+			paragraphEnd = text.length();
+
+		List<AutoLinkSpan> oldLinks = new ArrayList<>();
+		for (AutoLinkSpan link : text.getSpans(paragraphStart, paragraphEnd, AutoLinkSpan.class))
+			oldLinks.add(link);
+
+		Matcher matcher = Patterns.WEB_URL.matcher(text);
+		matcher.region(paragraphStart, paragraphEnd);
+		while (matcher.find())
+		{
+			int linkStart = matcher.start();
+			int linkEnd = matcher.end();
+			if (linkStart > 0 && text.charAt(linkStart - 1) == '@')
+				continue; // the domain of an email address
+
+			if (hasAuthorLink(text, linkStart, linkEnd))
+				continue;
+
+			String url = withScheme(matcher.group());
+			if (!keepLink(text, oldLinks, linkStart, linkEnd, url))
+				text.setSpan(new AutoLinkSpan(url), linkStart, linkEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		}
+
+		for (AutoLinkSpan link : oldLinks)
+			text.removeSpan(link);
+	}
+
+	/**
+	 * @return true if the link leads to the web address that is its text, like the links of the linker do.
+	 */
+	static boolean isAddressLink(@NonNull Spanned text, @NonNull URLSpan link)
+	{
+		String address = TextUtils.substring(text, text.getSpanStart(link), text.getSpanEnd(link));
+		return !address.isEmpty() && withScheme(address).equals(link.getURL());
+	}
+
+	/**
+	 * @return true if a link other than an {@link AutoLinkSpan}, i.e. one the text was loaded with, overlaps the
+	 * 	range.
+	 */
+	private static boolean hasAuthorLink(Spanned text, int start, int end)
+	{
+		for (URLSpan link : text.getSpans(start, end, URLSpan.class))
+		{
+			if (!(link instanceof AutoLinkSpan) && text.getSpanStart(link) < end && text.getSpanEnd(link) > start)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Takes an existing link for the match out of the list of links to remove, so that an unchanged link does not
+	 * cause a span removal and addition.
+	 *
+	 * @return true if there was such a link.
+	 */
+	private static boolean keepLink(Spanned text, List<AutoLinkSpan> oldLinks, int start, int end, String url)
+	{
+		for (int i = 0; i < oldLinks.size(); i++)
+		{
+			AutoLinkSpan link = oldLinks.get(i);
+			if (text.getSpanStart(link) == start && text.getSpanEnd(link) == end && url.equals(link.getURL()))
+			{
+				oldLinks.remove(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lower-cases a known scheme, or prefixes the address with http:// if it has none, like {@code Linkify} does.
+	 */
+	@NonNull
+	static String withScheme(@NonNull String address)
+	{
+		for (String scheme : SCHEMES)
+		{
+			if (address.regionMatches(true, 0, scheme, 0, scheme.length()))
+				return scheme + address.substring(scheme.length());
+		}
+		return SCHEMES[0] + address;
+	}
+}
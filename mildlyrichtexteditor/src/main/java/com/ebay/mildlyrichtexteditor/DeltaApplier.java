@@ -0,0 +1,109 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+/**
+ * Rebuilds a document from a base version and the deltas recorded by {@link MildlyRichTextEditor#takeDelta()}.
+ * <p>
+ * The document is kept as plain text plus a {@link StyleRunTable}, so applying a delta does not depend on span
+ * bookkeeping; spans are only created when the document is read through {@link #getDocument()}. Text
+ * inserted by a delta is unstyled until a style operation of the same delta sets its styles.
+ */
+public final class DeltaApplier
+{
+	private final StringBuilder text;
+	private final StyleRunTable styles;
+	private long version;
+
+	/**
+	 * @param base The document at the base version, with its spans if it is a Spanned.
+	 * @param baseVersion The version of the base document.
+	 */
+	public DeltaApplier(@NonNull CharSequence base, long baseVersion)
+	{
+		text = new StringBuilder(base);
+		version = baseVersion;
+
+		if (base instanceof Spanned)
+			styles = StyleRunTable.of((Spanned)base);
+		else
+		{
+			styles = new StyleRunTable();
+			styles.replace(0, 0, base.length());
+		}
+	}
+
+	/**
+	 * @return The version of the document, i.e. the base version of the next delta to apply.
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Applies the delta, moving the document to the next version. Nothing is changed if the delta is rejected.
+	 *
+	 * @throws IllegalArgumentException If the delta is based on a different version, or does not fit the document.
+	 */
+	public void apply(@NonNull DocumentDelta delta)
+	{
+		if (delta.getBaseVersion() != version)
+		{
+			throw new IllegalArgumentException("Delta is based on version " + delta.getBaseVersion() +
+				" but the document is at version " + version);
+		}
+
+		int length = text.length();
+		for (DocumentDelta.Op op : delta.getOps())
+		{
+			int affected = op.isText() ? op.removed : op.styledLength();
+			if (op.position < 0 || affected < 0 || op.position > length || affected > length - op.position)
+				throw new IllegalArgumentException("Operation out of range of the document");
+			if (op.isText())
+				length += op.inserted.length() - op.removed;
+		}
+
+		for (DocumentDelta.Op op : delta.getOps())
+		{
+			if (op.isText())
+				replace(op.position, op.removed, op.inserted);
+			else
+			{
+				int position = op.position;
+				for (int i = 0; i < op.runLengths.length; i++)
+				{
+					styles.setMask(position, position + op.runLengths[i], op.runMasks[i]);
+					position += op.runLengths[i];
+				}
+			}
+		}
+		version++;
+	}
+
+	@NonNull
+	public String getText()
+	{
+		return text.toString();
+	}
+
+	/**
+	 * @return The document with its styles as the spans used by the editor.
+	 */
+	@NonNull
+	public SpannableStringBuilder getDocument()
+	{
+		SpannableStringBuilder document = new SpannableStringBuilder(text);
+		styles.materialize(document, 0, document.length());
+		return document;
+	}
+
+	private void replace(int position, int removed, String inserted)
+	{
+		styles.replace(position, removed, inserted.length());
+		styles.setMask(position, position + inserted.length(), 0);
+		text.replace(position, position + removed, inserted);
+	}
+}
@@ -0,0 +1,278 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.Nullable;
+import android.text.Spannable;
+import android.text.Spanned;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the changes made to the editor's text as {@link DocumentDelta} operations.
+ * <p>
+ * Text replacements are recorded as they happen, with consecutive typing and backspacing folded into a single
+ * operation. Style changes, whether made by {@link MildlyRichTextEditor#toggleStyle} or by the editor's text
+ * watcher, are only tracked as dirty ranges; the styles of those ranges are read once when the delta is taken. Spans
+ * that merely move along with inserted or removed text do not make anything dirty, so the size of a delta follows
+ * the size of the edit rather than that of the document.
+ */
+final class DeltaRecorder extends EditableObserver
+{
+	private static final int MAX_DIRTY_RANGES = 16;
+
+	private long version;
+	private final List<DocumentDelta.Op> ops = new ArrayList<>();
+	private final int[] dirtyStarts = new int[MAX_DIRTY_RANGES + 1];
+	private final int[] dirtyEnds = new int[MAX_DIRTY_RANGES + 1];
+	private int dirtyCount;
+	private int knownLength = -1;
+
+	// The last text change, used to recognize the span changes it caused
+	private boolean hasChange;
+	private int changeStart;
+	private int changeBefore;
+	private int changeCount;
+
+	DeltaRecorder(long baseVersion)
+	{
+		version = baseVersion;
+	}
+
+	long getVersion()
+	{
+		return version;
+	}
+
+	@Override
+	void onAttached(@Nullable Spannable text)
+	{
+		hasChange = false;
+		if (text == null)
+			return;
+
+		int previousLength = knownLength;
+		knownLength = text.length();
+		if (previousLength >= 0)
+		{
+			// The editor replaced its Editable, so the whole text was replaced
+			ops.add(DocumentDelta.Op.text(0, previousLength, text.toString()));
+			dirtyCount = 0;
+			markDirty(0, text.length());
+		}
+	}
+
+	/**
+	 * @return The changes recorded since the previous call, or null if there were none.
+	 */
+	@Nullable
+	DocumentDelta takeDelta()
+	{
+		Spannable text = getAttachedText();
+		if (text != null)
+		{
+			for (int i = 0; i < dirtyCount; i++)
+				ops.add(styleOp(text, dirtyStarts[i], Math.min(dirtyEnds[i], text.length())));
+		}
+		dirtyCount = 0;
+
+		if (ops.isEmpty())
+			return null;
+
+		DocumentDelta delta = new DocumentDelta(version++, ops);
+		ops.clear();
+		return delta;
+	}
+
+	@Override
+	public void onTextChanged(CharSequence s, int start, int before, int count)
+	{
+		knownLength = s.length();
+		if (before == 0 && count == 0)
+			return;
+
+		recordText(start, before, s.subSequence(start, start + count).toString());
+
+		for (int i = 0; i < dirtyCount; i++)
+		{
+			dirtyStarts[i] = shift(dirtyStarts[i], start, before, count);
+			dirtyEnds[i] = shift(dirtyEnds[i], start, before, count);
+		}
+		normalizeDirty();
+
+		// Inserted text takes its styles from the spans around it without any span being reported
+		markDirty(start, start + count);
+
+		hasChange = true;
+		changeStart = start;
+		changeBefore = before;
+		changeCount = count;
+	}
+
+	@Override
+	public void onSpanAdded(Spannable text, Object what, int start, int end)
+	{
+		if (MildlyRichTextEditor.isUserStyle(what))
+			markDirty(start, end);
+	}
+
+	@Override
+	public void onSpanRemoved(Spannable text, Object what, int start, int end)
+	{
+		if (MildlyRichTextEditor.isUserStyle(what))
+			markDirty(start, end);
+	}
+
+	@Override
+	public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend)
+	{
+		if (!MildlyRichTextEditor.isUserStyle(what))
+			return;
+
+		if (hasChange)
+		{
+			int shiftedStart = shift(ostart, changeStart, changeBefore, changeCount);
+			int shiftedEnd = shift(oend, changeStart, changeBefore, changeCount);
+			if (shiftedStart == nstart && shiftedEnd == nend)
+				return; // moved along with the text
+
+			// The old position may be from before or after the change, so cover both
+			markDirty(Math.min(ostart, shiftedStart), Math.max(oend, shiftedEnd));
+		}
+		else
+			markDirty(ostart, oend);
+		markDirty(nstart, nend);
+	}
+
+	private void recordText(int start, int before, String inserted)
+	{
+		if (!ops.isEmpty() && ops.get(ops.size() - 1).isText())
+		{
+			DocumentDelta.Op last = ops.get(ops.size() - 1);
+			int lastEnd = last.position + last.inserted.length();
+			if (before == 0 && start == lastEnd)
+			{
+				ops.set(ops.size() - 1, DocumentDelta.Op.text(last.position, last.removed, last.inserted + inserted));
+				return;
+			}
+			if (inserted.isEmpty() && start >= last.position && start + before == lastEnd)
+			{
+				String kept = last.inserted.substring(0, start - last.position);
+				if (kept.isEmpty() && last.removed == 0)
+					ops.remove(ops.size() - 1);
+				else
+					ops.set(ops.size() - 1, DocumentDelta.Op.text(last.position, last.removed, kept));
+				return;
+			}
+		}
+		ops.add(DocumentDelta.Op.text(start, before, inserted));
+	}
+
+	private static DocumentDelta.Op styleOp(Spanned text, int start, int end)
+	{
+		int[] lengths = new int[4];
+		int[] masks = new int[4];
+		int runs = 0;
+		for (int runStart = start, runEnd; runStart < end; runStart = runEnd)
+		{
+			runEnd = StyleMask.runEnd(text, runStart, end);
+			int mask = StyleMask.of(text, runStart, runEnd);
+			if (runs > 0 && masks[runs - 1] == mask)
+			{
+				lengths[runs - 1] += runEnd - runStart;
+				continue;
+			}
+
+			if (runs == lengths.length)
+			{
+				lengths = grow(lengths);
+				masks = grow(masks);
+			}
+			lengths[runs] = runEnd - runStart;
+			masks[runs] = mask;
+			runs++;
+		}
+
+		int[] runLengths = new int[runs];
+		int[] runMasks = new int[runs];
+		System.arraycopy(lengths, 0, runLengths, 0, runs);
+		System.arraycopy(masks, 0, runMasks, 0, runs);
+		return DocumentDelta.Op.style(start, runLengths, runMasks);
+	}
+
+	private static int[] grow(int[] array)
+	{
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private void markDirty(int start, int end)
+	{
+		start = Math.max(0, start);
+		end = Math.min(knownLength, end);
+		if (start >= end)
+			return;
+
+		dirtyStarts[dirtyCount] = start;
+		dirtyEnds[dirtyCount] = end;
+		dirtyCount++;
+		normalizeDirty();
+	}
+
+	/**
+	 * Sorts the dirty ranges, merges the ones that touch and, if there are too many, the ones closest to each other.
+	 */
+	private void normalizeDirty()
+	{
+		for (int i = 1; i < dirtyCount; i++)
+		{
+			for (int k = i; k > 0 && dirtyStarts[k - 1] > dirtyStarts[k]; k--)
+			{
+				swap(dirtyStarts, k);
+				swap(dirtyEnds, k);
+			}
+		}
+
+		int merged = 0;
+		for (int i = 0; i < dirtyCount; i++)
+		{
+			if (dirtyStarts[i] >= dirtyEnds[i])
+				continue;
+
+			if (merged > 0 && dirtyStarts[i] <= dirtyEnds[merged - 1])
+				dirtyEnds[merged - 1] = Math.max(dirtyEnds[merged - 1], dirtyEnds[i]);
+			else
+			{
+				dirtyStarts[merged] = dirtyStarts[i];
+				dirtyEnds[merged] = dirtyEnds[i];
+				merged++;
+			}
+		}
+		dirtyCount = merged;
+
+		while (dirtyCount > MAX_DIRTY_RANGES)
+		{
+			int closest = 0;
+			for (int i = 1; i < dirtyCount - 1; i++)
+			{
+				if (dirtyStarts[i + 1] - dirtyEnds[i] < dirtyStarts[closest + 1] - dirtyEnds[closest])
+					closest = i;
+			}
+
+			dirtyEnds[closest] = dirtyEnds[closest + 1];
+			dirtyCount--;
+			for (int i = closest + 1; i < dirtyCount; i++)
+			{
+				dirtyStarts[i] = dirtyStarts[i + 1];
+				dirtyEnds[i] = dirtyEnds[i + 1];
+			}
+		}
+	}
+
+	private static void swap(int[] array, int index)
+	{
+		int swapped = array[index];
+		array[index] = array[index - 1];
+		array[index - 1] = swapped;
+	}
+}
@@ -0,0 +1,182 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A change of the text of a {@link MildlyRichTextEditor}, as delivered to its
+ * {@link MildlyRichTextEditor.OnDocumentChangeListener}s and {@link DocumentChangePublisher} subscribers.
+ * <p>
+ * A change takes the document from one version to the next. It replaced a range of the text, changed the styles
+ * of a range, or both. A listener still busy with a change when the next ones happen gets a single change in their
+ * place, going from the version it last saw to the latest one: its text replacement then covers all the text
+ * replaced in between, and its style range all the styles changed in between, so some of the text and styles it
+ * covers may be unchanged.
+ */
+public final class DocumentChange
+{
+	private final long baseVersion;
+	private final long version;
+	private final int textStart;
+	private final int removedLength;
+	private final String insertedText;
+	private final int styleStart;
+	private final int styleEnd;
+	private final int length;
+
+	DocumentChange(long baseVersion, long version, int textStart, int removedLength, @NonNull String insertedText,
+		int styleStart, int styleEnd, int length)
+	{
+		this.baseVersion = baseVersion;
+		this.version = version;
+		this.textStart = textStart;
+		this.removedLength = removedLength;
+		this.insertedText = insertedText;
+		this.styleStart = styleStart;
+		this.styleEnd = styleEnd;
+		this.length = length;
+	}
+
+	/**
+	 * @return The version of the document before the change.
+	 */
+	public long getBaseVersion()
+	{
+		return baseVersion;
+	}
+
+	/**
+	 * @return The version of the document after the change. Versions count the changes made while the editor had
+	 * 	listeners, so a change standing for several changes skips versions.
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * @return The number of changes this change stands for, 1 unless the listener was still busy with an earlier
+	 * 	change when they happened.
+	 */
+	public int getConflatedChanges()
+	{
+		return (int)(version - baseVersion);
+	}
+
+	public boolean hasTextChange()
+	{
+		return removedLength > 0 || !insertedText.isEmpty();
+	}
+
+	/**
+	 * @return The start of the replaced text, the same before and after the change.
+	 */
+	public int getTextStart()
+	{
+		return textStart;
+	}
+
+	/**
+	 * @return The number of characters the change removed at {@link #getTextStart()}.
+	 */
+	public int getRemovedLength()
+	{
+		return removedLength;
+	}
+
+	/**
+	 * @return The text that took the place of the removed characters.
+	 */
+	@NonNull
+	public String getInsertedText()
+	{
+		return insertedText;
+	}
+
+	public boolean hasStyleChange()
+	{
+		return styleStart < styleEnd;
+	}
+
+	/**
+	 * @return The start of the range of the changed text whose styles changed. Text inserted by the change takes
+	 * 	the styles around it, and is only part of the range if they changed after it was inserted.
+	 */
+	public int getStyleStart()
+	{
+		return styleStart;
+	}
+
+	/**
+	 * @return The end of the range whose styles changed, equal to its start if no style changed.
+	 */
+	public int getStyleEnd()
+	{
+		return styleEnd;
+	}
+
+	/**
+	 * @return The length of the text after the change.
+	 */
+	public int length()
+	{
+		return length;
+	}
+
+	/**
+	 * Combines the change with the one following it into a single change.
+	 *
+	 * @param text The text after the next change, for the text the combined replacement inserts.
+	 */
+	@NonNull
+	DocumentChange followedBy(@NonNull DocumentChange next, @NonNull CharSequence text)
+	{
+		int start = textStart;
+		int removed = removedLength;
+		String inserted = insertedText;
+		if (!hasTextChange())
+		{
+			start = next.textStart;
+			removed = next.removedLength;
+			inserted = next.insertedText;
+		}
+		else if (next.hasTextChange())
+		{
+			// The range of the text between the changes that covers what both replaced
+			start = Math.min(textStart, next.textStart);
+			int end = Math.max(textStart + insertedText.length(), next.textStart + next.removedLength);
+			removed = end - start - insertedText.length() + removedLength;
+			int insertedLength = end - start - next.removedLength + next.insertedText.length();
+			inserted = text.subSequence(start, start + insertedLength).toString();
+		}
+
+		int combinedStyleStart = next.styleStart;
+		int combinedStyleEnd = next.styleEnd;
+		if (hasStyleChange())
+		{
+			int shiftedStart = EditableObserver.shift(styleStart, next.textStart, next.removedLength,
+				next.insertedText.length());
+			int shiftedEnd = EditableObserver.shift(styleEnd, next.textStart, next.removedLength,
+				next.insertedText.length());
+			if (!next.hasStyleChange())
+			{
+				combinedStyleStart = shiftedStart;
+				combinedStyleEnd = shiftedEnd;
+			}
+			else if (shiftedStart < shiftedEnd)
+			{
+				combinedStyleStart = Math.min(shiftedStart, next.styleStart);
+				combinedStyleEnd = Math.max(shiftedEnd, next.styleEnd);
+			}
+		}
+
+		return new DocumentChange(baseVersion, next.version, start, removed, inserted, combinedStyleStart,
+			combinedStyleEnd, next.length);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "DocumentChange{" + baseVersion + "->" + version + ", text " + textStart + "-" + removedLength +
+			"+" + insertedText.length() + ", styles " + styleStart + ".." + styleEnd + ", length " + length + "}";
+	}
+}
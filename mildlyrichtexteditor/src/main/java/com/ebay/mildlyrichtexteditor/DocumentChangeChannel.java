@@ -0,0 +1,153 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers the changes of an editor to one consumer on the consumer's executor. The channel holds at most one change:
+ * a change made while the consumer is still busy with the previous one, or has not asked for more, is combined with
+ * the change waiting, so a slow consumer gets the latest state of the document rather than a backlog of changes.
+ * <p>
+ * Changes are delivered one at a time, never concurrently, by a single task that keeps delivering while changes
+ * come in and the consumer wants them.
+ */
+abstract class DocumentChangeChannel implements Runnable
+{
+	private final Executor executor;
+	private final AtomicInteger scheduled = new AtomicInteger();
+	@Nullable private DocumentChange pending;
+	@Nullable private Throwable error;
+	private long demand;
+	private volatile boolean cancelled;
+
+	/**
+	 * @param demand The number of changes the consumer wants before it asks for more, or {@link Long#MAX_VALUE} for
+	 * 	all of them.
+	 */
+	DocumentChangeChannel(@NonNull Executor executor, long demand)
+	{
+		this.executor = executor;
+		this.demand = demand;
+	}
+
+	/**
+	 * Called on the delivering thread with the next change.
+	 */
+	abstract void onChange(@NonNull DocumentChange change);
+
+	/**
+	 * Called on the delivering thread once the channel failed, after which it delivers nothing more.
+	 */
+	abstract void onError(@NonNull Throwable error);
+
+	/**
+	 * Hands a change over for delivery, combining it with the change waiting, if any.
+	 *
+	 * @param text The text after the change.
+	 */
+	@MainThread
+	void offer(@NonNull DocumentChange change, @NonNull CharSequence text)
+	{
+		synchronized (this)
+		{
+			if (cancelled)
+				return;
+			pending = pending != null ? pending.followedBy(change, text) : change;
+		}
+		schedule();
+	}
+
+	/**
+	 * Lets the channel deliver more changes.
+	 */
+	public void request(long changes)
+	{
+		synchronized (this)
+		{
+			demand = demand + changes < 0 ? Long.MAX_VALUE : demand + changes;
+		}
+		schedule();
+	}
+
+	/**
+	 * Stops the delivery; a change being delivered may still arrive.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+		synchronized (this)
+		{
+			pending = null;
+		}
+	}
+
+	boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Stops the delivery with an error, delivered after the change being delivered, if any.
+	 */
+	void fail(@NonNull Throwable error)
+	{
+		synchronized (this)
+		{
+			if (cancelled || this.error != null)
+				return;
+			this.error = error;
+		}
+		schedule();
+	}
+
+	private void schedule()
+	{
+		// Only the first of the calls arriving while the delivery task runs starts it, the others make it loop
+		if (scheduled.getAndIncrement() == 0)
+			executor.execute(this);
+	}
+
+	@Override
+	public void run()
+	{
+		int missed = 1;
+		do
+		{
+			while (true)
+			{
+				DocumentChange change;
+				Throwable failure = null;
+				synchronized (this)
+				{
+					change = null;
+					if (error != null)
+					{
+						failure = error;
+						error = null;
+						pending = null;
+						cancelled = true;
+					}
+					else if (!cancelled && pending != null && demand > 0)
+					{
+						change = pending;
+						pending = null;
+						if (demand != Long.MAX_VALUE)
+							demand--;
+					}
+				}
+
+				if (failure != null)
+					onError(failure);
+				if (change == null)
+					break;
+				onChange(change);
+			}
+			missed = scheduled.addAndGet(-missed);
+		}
+		while (missed != 0);
+	}
+}
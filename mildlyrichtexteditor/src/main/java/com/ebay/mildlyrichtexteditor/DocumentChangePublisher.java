@@ -0,0 +1,128 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Publishes the {@link DocumentChange}s of an editor as a Reactive Streams {@link Publisher}, for use with RxJava,
+ * Reactor or any other Reactive Streams library, e.g. {@code Flowable.fromPublisher(publisher)}. The library only
+ * compiles against the Reactive Streams interfaces, so an app using this class needs them on its own class path,
+ * which any of these libraries brings along.
+ * <p>
+ * Every subscriber gets the changes made after it subscribed, on the executor of the publisher, as many as it
+ * requested. Changes made while a subscriber has no outstanding request, or is still handling the previous change,
+ * are combined into one, so the subscriber gets the latest state of the document once it asks for more rather than
+ * every change in between. The stream never completes; cancelling the subscription ends it.
+ */
+public final class DocumentChangePublisher implements Publisher<DocumentChange>
+{
+	private final MildlyRichTextEditor editor;
+	private final Executor executor;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * @param executor Runs the subscribers' {@code onNext}, one change at a time per subscriber.
+	 */
+	public DocumentChangePublisher(@NonNull MildlyRichTextEditor editor, @NonNull Executor executor)
+	{
+		this.editor = editor;
+		this.executor = executor;
+	}
+
+	/**
+	 * Publishes the changes on the main thread, after the event that made them has been handled.
+	 */
+	public DocumentChangePublisher(@NonNull MildlyRichTextEditor editor)
+	{
+		this(editor, DocumentChangeStream.getMainThreadExecutor());
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super DocumentChange> subscriber)
+	{
+		if (subscriber == null)
+			throw new NullPointerException("subscriber");
+
+		final SubscriberChannel channel = new SubscriberChannel(subscriber);
+		subscriber.onSubscribe(channel);
+		runOnMainThread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (!channel.isCancelled())
+					editor.addDocumentChangeChannel(channel);
+			}
+		});
+	}
+
+	/**
+	 * The editor follows its text on the main thread only, while subscriptions come and go on any thread.
+	 */
+	private void runOnMainThread(Runnable task)
+	{
+		if (Looper.myLooper() == Looper.getMainLooper())
+			task.run();
+		else
+			mainHandler.post(task);
+	}
+
+	private final class SubscriberChannel extends DocumentChangeChannel implements Subscription
+	{
+		private final Subscriber<? super DocumentChange> subscriber;
+
+		SubscriberChannel(Subscriber<? super DocumentChange> subscriber)
+		{
+			super(executor, 0);
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long changes)
+		{
+			if (changes <= 0)
+				fail(new IllegalArgumentException("Requested " + changes + " changes, must be positive (rule 3.9)"));
+			else
+				super.request(changes);
+		}
+
+		@Override
+		public void cancel()
+		{
+			super.cancel();
+			removeFromEditor();
+		}
+
+		@Override
+		void onChange(@NonNull DocumentChange change)
+		{
+			subscriber.onNext(change);
+		}
+
+		@Override
+		void onError(@NonNull Throwable error)
+		{
+			subscriber.onError(error);
+			removeFromEditor();
+		}
+
+		private void removeFromEditor()
+		{
+			runOnMainThread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					editor.removeDocumentChangeChannel(SubscriberChannel.this);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.Spannable;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Collects the changes made to the editor's text into {@link DocumentChange}s and hands them to the channels of the
+ * editor's listeners and subscribers.
+ * <p>
+ * Between two calls to {@link #flush()} the text replacements are folded into one replacement and the style changes
+ * into one range, keeping only their bounds, so following the text costs the same whatever the size of the
+ * document. The editor flushes once it is done with an edit, after its text watcher has styled the entered text, so
+ * that the text and the styles it got make a single change. Spans that merely move along with inserted or removed
+ * text do not count as style changes.
+ */
+final class DocumentChangeStream extends EditableObserver
+{
+	@Nullable private static Executor mainThreadExecutor;
+
+	private final List<DocumentChangeChannel> channels = new CopyOnWriteArrayList<>();
+	private long version;
+	private int knownLength = -1;
+
+	// The changes since the last flush
+	private boolean textChanged;
+	private int textStart;
+	private int removedLength;
+	private int insertedLength;
+	private int styleStart = Integer.MAX_VALUE;
+	private int styleEnd = -1;
+
+	// The last text change, used to recognize the span changes it caused
+	private boolean hasChange;
+	private int changeStart;
+	private int changeBefore;
+	private int changeCount;
+
+	/**
+	 * Delivers the changes of a listener.
+	 */
+	static final class ListenerChannel extends DocumentChangeChannel
+	{
+		private final MildlyRichTextEditor.OnDocumentChangeListener listener;
+
+		ListenerChannel(@NonNull MildlyRichTextEditor.OnDocumentChangeListener listener, @NonNull Executor executor)
+		{
+			super(executor, Long.MAX_VALUE);
+			this.listener = listener;
+		}
+
+		@Override
+		void onChange(@NonNull DocumentChange change)
+		{
+			listener.onDocumentChanged(change);
+		}
+
+		@Override
+		void onError(@NonNull Throwable error)
+		{
+			// listeners are never failed
+		}
+	}
+
+	/**
+	 * @return An executor running its tasks on the main thread, after the event being handled.
+	 */
+	@NonNull
+	static synchronized Executor getMainThreadExecutor()
+	{
+		if (mainThreadExecutor == null)
+		{
+			final Handler mainHandler = new Handler(Looper.getMainLooper());
+			mainThreadExecutor = new Executor()
+			{
+				@Override
+				public void execute(@NonNull Runnable task)
+				{
+					mainHandler.post(task);
+				}
+			};
+		}
+		return mainThreadExecutor;
+	}
+
+	void add(@NonNull DocumentChangeChannel channel)
+	{
+		channels.add(channel);
+	}
+
+	void remove(@NonNull DocumentChangeChannel channel)
+	{
+		channels.remove(channel);
+	}
+
+	/**
+	 * Stops delivering to the listener, in all the channels it was added with.
+	 */
+	void remove(@NonNull MildlyRichTextEditor.OnDocumentChangeListener listener)
+	{
+		for (DocumentChangeChannel channel : channels)
+		{
+			if (channel instanceof ListenerChannel && ((ListenerChannel)channel).listener == listener)
+			{
+				channel.cancel();
+				channels.remove(channel);
+			}
+		}
+	}
+
+	boolean hasChannels()
+	{
+		return !channels.isEmpty();
+	}
+
+	/**
+	 * Hands the changes made since the previous call to the channels as a single change.
+	 */
+	void flush()
+	{
+		Spannable text = getAttachedText();
+		boolean styleChanged = styleStart < styleEnd;
+		if (text == null || !textChanged && !styleChanged)
+			return;
+
+		int insertedEnd = Math.min(textStart + insertedLength, text.length());
+		String inserted = textChanged ? text.subSequence(textStart, insertedEnd).toString() : "";
+		DocumentChange change = new DocumentChange(version, ++version, textChanged ? textStart : 0,
+			textChanged ? removedLength : 0, inserted, styleChanged ? styleStart : 0, styleChanged ? styleEnd : 0,
+			text.length());
+		reset();
+
+		for (DocumentChangeChannel channel : channels)
+			channel.offer(change, text);
+	}
+
+	@Override
+	void onAttached(@Nullable Spannable text)
+	{
+		hasChange = false;
+		if (text == null)
+		{
+			knownLength = -1;
+			reset();
+			return;
+		}
+
+		int previousLength = knownLength;
+		knownLength = text.length();
+		if (previousLength > 0 || previousLength == 0 && knownLength > 0)
+		{
+			// The editor replaced its Editable, so the whole text was replaced
+			reset();
+			recordText(0, previousLength, text.length());
+		}
+	}
+
+	@Override
+	public void onTextChanged(CharSequence s, int start, int before, int count)
+	{
+		knownLength = s.length();
+		if (before == 0 && count == 0)
+			return;
+
+		recordText(start, before, count);
+		if (styleStart < styleEnd)
+		{
+			styleStart = shift(styleStart, start, before, count);
+			styleEnd = shift(styleEnd, start, before, count);
+			if (styleStart >= styleEnd)
+			{
+				styleStart = Integer.MAX_VALUE;
+				styleEnd = -1;
+			}
+		}
+
+		hasChange = true;
+		changeStart = start;
+		changeBefore = before;
+		changeCount = count;
+	}
+
+	@Override
+	public void onSpanAdded(Spannable text, Object what, int start, int end)
+	{
+		if (MildlyRichTextEditor.isUserStyle(what))
+			markStyled(start, end);
+	}
+
+	@Override
+	public void onSpanRemoved(Spannable text, Object what, int start, int end)
+	{
+		if (MildlyRichTextEditor.isUserStyle(what))
+			markStyled(start, end);
+	}
+
+	@Override
+	public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend)
+	{
+		if (!MildlyRichTextEditor.isUserStyle(what))
+			return;
+
+		if (hasChange)
+		{
+			int shiftedStart = shift(ostart, changeStart, changeBefore, changeCount);
+			int shiftedEnd = shift(oend, changeStart, changeBefore, changeCount);
+			if (shiftedStart == nstart && shiftedEnd == nend)
+				return; // moved along with the text
+
+			// The old position may be from before or after the change, so cover both
+			markStyled(Math.min(ostart, shiftedStart), Math.max(oend, shiftedEnd));
+		}
+		else
+			markStyled(ostart, oend);
+		markStyled(nstart, nend);
+	}
+
+	/**
+	 * Folds a replacement into the one recorded since the last flush.
+	 */
+	private void recordText(int start, int before, int count)
+	{
+		if (!textChanged)
+		{
+			textChanged = true;
+			textStart = start;
+			removedLength = before;
+			insertedLength = count;
+			return;
+		}
+
+		// The range of the text between the replacements that covers what both replaced
+		int end = Math.max(textStart + insertedLength, start + before);
+		int combinedStart = Math.min(textStart, start);
+		removedLength = end - combinedStart - insertedLength + removedLength;
+		insertedLength = end - combinedStart - before + count;
+		textStart = combinedStart;
+	}
+
+	private void markStyled(int start, int end)
+	{
+		start = Math.max(0, start);
+		end = Math.min(knownLength, end);
+		if (start >= end)
+			return;
+
+		styleStart = Math.min(styleStart, start);
+		styleEnd = Math.max(styleEnd, end);
+	}
+
+	private void reset()
+	{
+		textChanged = false;
+		styleStart = Integer.MAX_VALUE;
+		styleEnd = -1;
+	}
+}
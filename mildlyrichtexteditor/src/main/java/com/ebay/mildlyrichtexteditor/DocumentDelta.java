@@ -0,0 +1,256 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes that take a document from one version to the next, as recorded by
+ * {@link MildlyRichTextEditor#takeDelta()} and applied by {@link DeltaApplier}.
+ * <p>
+ * A delta is a sequence of operations applied in order: text operations replace a range of the text, and style
+ * operations set the styles of a range as runs of {@link StyleMask} values. The binary form written by
+ * {@link #toByteArray()} stores all numbers as variable-length integers, so its size is proportional to the change
+ * rather than the document.
+ */
+public final class DocumentDelta
+{
+	private static final int FORMAT_VERSION = 1;
+	private static final int TEXT = 0;
+	private static final int STYLE = 1;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final long baseVersion;
+	private final List<Op> ops;
+
+	/**
+	 * A single operation of a delta.
+	 */
+	static final class Op
+	{
+		final int type;
+		final int position;
+		final int removed;
+		final String inserted;
+		final int[] runLengths;
+		final int[] runMasks;
+
+		private Op(int type, int position, int removed, String inserted, int[] runLengths, int[] runMasks)
+		{
+			this.type = type;
+			this.position = position;
+			this.removed = removed;
+			this.inserted = inserted;
+			this.runLengths = runLengths;
+			this.runMasks = runMasks;
+		}
+
+		/**
+		 * Replaces the given number of characters at the position with the inserted text.
+		 */
+		static Op text(int position, int removed, String inserted)
+		{
+			return new Op(TEXT, position, removed, inserted, null, null);
+		}
+
+		/**
+		 * Sets the styles of the text starting at the position, one mask per run of characters.
+		 */
+		static Op style(int position, int[] runLengths, int[] runMasks)
+		{
+			return new Op(STYLE, position, 0, null, runLengths, runMasks);
+		}
+
+		boolean isText()
+		{
+			return type == TEXT;
+		}
+
+		/**
+		 * @return The length of the text a style operation applies to.
+		 */
+		int styledLength()
+		{
+			int length = 0;
+			for (int runLength : runLengths)
+				length += runLength;
+			return length;
+		}
+	}
+
+	DocumentDelta(long baseVersion, @NonNull List<Op> ops)
+	{
+		this.baseVersion = baseVersion;
+		this.ops = Collections.unmodifiableList(new ArrayList<>(ops));
+	}
+
+	/**
+	 * @return The version of the document this delta applies to. Applying it yields the next version.
+	 */
+	public long getBaseVersion()
+	{
+		return baseVersion;
+	}
+
+	public boolean isEmpty()
+	{
+		return ops.isEmpty();
+	}
+
+	List<Op> getOps()
+	{
+		return ops;
+	}
+
+	/**
+	 * @return The compact binary form of the delta.
+	 */
+	@NonNull
+	public byte[] toByteArray()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(FORMAT_VERSION);
+		writeVarint(out, baseVersion);
+		writeVarint(out, ops.size());
+		for (Op op : ops)
+		{
+			out.write(op.type);
+			writeVarint(out, op.position);
+			if (op.isText())
+			{
+				byte[] inserted = op.inserted.getBytes(UTF_8);
+				writeVarint(out, op.removed);
+				writeVarint(out, inserted.length);
+				out.write(inserted, 0, inserted.length);
+			}
+			else
+			{
+				writeVarint(out, op.runLengths.length);
+				for (int i = 0; i < op.runLengths.length; i++)
+				{
+					writeVarint(out, op.runLengths[i]);
+					writeVarint(out, op.runMasks[i]);
+				}
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads a delta written by {@link #toByteArray()}.
+	 *
+	 * @throws IllegalArgumentException If the bytes are not a valid delta.
+	 */
+	@NonNull
+	public static DocumentDelta fromByteArray(@NonNull byte[] bytes)
+	{
+		Reader in = new Reader(bytes);
+		if (in.readByte() != FORMAT_VERSION)
+			throw new IllegalArgumentException("Unsupported delta format");
+
+		long baseVersion = in.readVarint();
+		int count = in.readInt();
+		List<Op> ops = new ArrayList<>(Math.min(count, bytes.length));
+		for (int i = 0; i < count; i++)
+		{
+			int type = in.readByte();
+			int position = in.readInt();
+			if (type == TEXT)
+			{
+				int removed = in.readInt();
+				int length = in.readInt();
+				ops.add(Op.text(position, removed, new String(in.readBytes(length), UTF_8)));
+			}
+			else if (type == STYLE)
+			{
+				int runs = in.readInt();
+				if (runs > bytes.length)
+					throw new IllegalArgumentException("Truncated delta");
+
+				int[] runLengths = new int[runs];
+				int[] runMasks = new int[runs];
+				for (int k = 0; k < runs; k++)
+				{
+					runLengths[k] = in.readInt();
+					runMasks[k] = in.readInt();
+				}
+				ops.add(Op.style(position, runLengths, runMasks));
+			}
+			else
+				throw new IllegalArgumentException("Unknown operation " + type);
+		}
+
+		if (!in.isAtEnd())
+			throw new IllegalArgumentException("Trailing bytes after delta");
+		return new DocumentDelta(baseVersion, ops);
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			out.write((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int)value);
+	}
+
+	private static final class Reader
+	{
+		private final byte[] bytes;
+		private int pos;
+
+		Reader(byte[] bytes)
+		{
+			this.bytes = bytes;
+		}
+
+		int readByte()
+		{
+			if (pos >= bytes.length)
+				throw new IllegalArgumentException("Truncated delta");
+			return bytes[pos++] & 0xFF;
+		}
+
+		long readVarint()
+		{
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7)
+			{
+				int b = readByte();
+				value |= (long)(b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+			throw new IllegalArgumentException("Malformed number in delta");
+		}
+
+		int readInt()
+		{
+			long value = readVarint();
+			if (value > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Number out of range in delta");
+			return (int)value;
+		}
+
+		byte[] readBytes(int length)
+		{
+			if (length > bytes.length - pos)
+				throw new IllegalArgumentException("Truncated delta");
+
+			byte[] result = new byte[length];
+			System.arraycopy(bytes, pos, result, 0, length);
+			pos += length;
+			return result;
+		}
+
+		boolean isAtEnd()
+		{
+			return pos == bytes.length;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.URLSpan;
+
+import java.util.Arrays;
+
+/**
+ * Immutable copy of the content of a {@link MildlyRichTextEditor}: its text, the styles the user applied to it, its
+ * lists and its links. A snapshot never changes after it has been taken, so it can be handed to any thread, e.g. to
+ * save or validate the document in the background while the user keeps typing.
+ * <p>
+ * Taking a snapshot copies the characters of the text once. The styles are taken from the editor's run-length style
+ * table, whose arrays the snapshot shares with the editor until the editor changes a style.
+ */
+public final class DocumentSnapshot
+{
+	private static final int BULLETED = 0;
+	private static final int NUMBERED = 1;
+
+	private final String text;
+	private final StyleRunTable styles;
+	private final int[] itemStarts;
+	private final int[] itemKinds;
+	// The links set on the text, as opposed to the web addresses the AutoLinker finds in it
+	private final int[] linkStarts;
+	private final int[] linkEnds;
+	private final String[] linkUrls;
+	private final boolean linked;
+
+	private DocumentSnapshot(String text, StyleRunTable styles, int[] itemStarts, int[] itemKinds, int[] linkStarts,
+		int[] linkEnds, String[] linkUrls, boolean linked)
+	{
+		this.text = text;
+		this.styles = styles;
+		this.itemStarts = itemStarts;
+		this.itemKinds = itemKinds;
+		this.linkStarts = linkStarts;
+		this.linkEnds = linkEnds;
+		this.linkUrls = linkUrls;
+		this.linked = linked;
+	}
+
+	/**
+	 * Copies the content of an editor's text, or of text parsed from HTML.
+	 *
+	 * @param styles The up to date style table of the text, which the snapshot shares.
+	 * @param linked Whether the web addresses of the text are links.
+	 */
+	@NonNull
+	static DocumentSnapshot of(@NonNull Spanned text, @NonNull StyleRunTable styles, boolean linked)
+	{
+		ListItemSpan[] items = ListMaintainer.sortByStart(text, text.getSpans(0, text.length(), ListItemSpan.class));
+		int[] itemStarts = new int[items.length];
+		int[] itemKinds = new int[items.length];
+		int count = 0;
+		for (ListItemSpan item : items)
+		{
+			// Text that is not attached to an editor may have several items in a paragraph
+			int start = ListMaintainer.paragraphStart(text, text.getSpanStart(item));
+			if (count > 0 && itemStarts[count - 1] == start)
+				continue;
+			itemStarts[count] = start;
+			itemKinds[count++] = item.isNumbered() ? NUMBERED : BULLETED;
+		}
+
+		URLSpan[] links = text.getSpans(0, text.length(), URLSpan.class);
+		int[] linkStarts = new int[links.length];
+		int[] linkEnds = new int[links.length];
+		String[] linkUrls = new String[links.length];
+		int linkCount = 0;
+		for (URLSpan link : links)
+		{
+			int start = text.getSpanStart(link);
+			int end = text.getSpanEnd(link);
+			if (link instanceof AutoLinker.AutoLinkSpan || start >= end)
+				continue;
+			linkStarts[linkCount] = start;
+			linkEnds[linkCount] = end;
+			linkUrls[linkCount++] = link.getURL();
+		}
+		return new DocumentSnapshot(text.toString(), styles.copy(), Arrays.copyOf(itemStarts, count),
+			Arrays.copyOf(itemKinds, count), Arrays.copyOf(linkStarts, linkCount), Arrays.copyOf(linkEnds, linkCount),
+			Arrays.copyOf(linkUrls, linkCount), linked);
+	}
+
+	public int length()
+	{
+		return text.length();
+	}
+
+	/**
+	 * @return The plain text of the document.
+	 */
+	@NonNull
+	public String getText()
+	{
+		return text;
+	}
+
+	/**
+	 * @return The plain text of the given range.
+	 */
+	@NonNull
+	public String getText(int start, int end)
+	{
+		return text.substring(start, end);
+	}
+
+	/**
+	 * Tells whether all characters of the range have the given style. For {@link MildlyRichTextEditor.Style#FONT_SIZE}
+	 * that is any size but the default, for the list styles it is whether all paragraphs overlapping the range are
+	 * items of that kind of list. For an empty range, the character at its start decides.
+	 *
+	 * @param style The style to look for.
+	 */
+	public boolean hasStyle(int start, int end, @NonNull MildlyRichTextEditor.Style style)
+	{
+		switch (style)
+		{
+		case BOLD:
+			return (styles.commonMask(start, end) & StyleMask.BOLD) != 0;
+		case ITALIC:
+			return (styles.commonMask(start, end) & StyleMask.ITALIC) != 0;
+		case UNDERLINE:
+			return (styles.commonMask(start, end) & StyleMask.UNDERLINE) != 0;
+		case FONT_SIZE:
+			return StyleMask.size(styles.commonMask(start, end)) != 0;
+		case SERIF:
+		case SANS_SERIF:
+		case MONOSPACE:
+			return StyleMask.family(styles.commonMask(start, end)) == FontFamilySpan.familyOf(style);
+		case BULLETED_LIST:
+		case NUMBERED_LIST:
+			int kind = style == MildlyRichTextEditor.Style.NUMBERED_LIST ? NUMBERED : BULLETED;
+			int last = paragraphStart(Math.max(start, end - 1));
+			for (int p = paragraphStart(start); p >= 0 && p <= last; p = nextParagraph(p))
+			{
+				int item = findItem(p);
+				if (item < 0 || itemKinds[item] != kind)
+					return false;
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return The absolute font size of the character at the given offset, in the units of the editor's size
+	 * 	buttons.
+	 */
+	public int getFontSize(int index)
+	{
+		int size = StyleMask.size(styles.maskAt(index));
+		return size != 0 ? size : StyleMask.DEFAULT_ABSOLUTE_SIZE;
+	}
+
+	/**
+	 * @return The end of the run of uniformly styled characters the character at the given offset belongs to, so
+	 * 	that the style runs can be walked with {@code for (int i = 0; i < length(); i = getStyleRunEnd(i))}.
+	 */
+	public int getStyleRunEnd(int index)
+	{
+		if (index < 0 || index >= text.length())
+			return text.length();
+		return styles.getRunEnd(styles.findRun(index));
+	}
+
+	/**
+	 * @return {@link MildlyRichTextEditor.Style#BULLETED_LIST} or {@link MildlyRichTextEditor.Style#NUMBERED_LIST}
+	 * 	if the paragraph containing the given offset is a list item, null otherwise.
+	 */
+	@Nullable
+	public MildlyRichTextEditor.Style getListStyle(int index)
+	{
+		int item = findItem(paragraphStart(index));
+		if (item < 0)
+			return null;
+		return itemKinds[item] == NUMBERED ? MildlyRichTextEditor.Style.NUMBERED_LIST :
+			MildlyRichTextEditor.Style.BULLETED_LIST;
+	}
+
+	/**
+	 * Converts the snapshot to HTML, in the format of {@link MildlyRichTextEditor#getTextHtml()}. Spans the editor
+	 * splits up, e.g. after styling adjacent words one by one, are written as a single element.
+	 */
+	@NonNull
+	public String toHtml()
+	{
+		SpannableStringBuilder content = new SpannableStringBuilder(text);
+		styles.materialize(content, 0, text.length());
+		for (int i = 0; i < itemStarts.length; i++)
+		{
+			content.setSpan(new ListItemSpan(itemKinds[i] == NUMBERED), itemStarts[i],
+				ListMaintainer.paragraphEnd(content, itemStarts[i]), Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+		}
+		ListMaintainer.renumber(content, 0, content.length());
+		for (int i = 0; i < linkStarts.length; i++)
+			content.setSpan(new URLSpan(linkUrls[i]), linkStarts[i], linkEnds[i], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		if (linked)
+			AutoLinker.relink(content, 0, content.length());
+		return ListHtml.toHtml(content);
+	}
+
+	private int paragraphStart(int position)
+	{
+		position = Math.max(0, Math.min(position, text.length()));
+		return position > 0 ? text.lastIndexOf('\n', position - 1) + 1 : 0;
+	}
+
+	private int nextParagraph(int paragraphStart)
+	{
+		int lineBreak = text.indexOf('\n', paragraphStart);
+		return lineBreak >= 0 ? lineBreak + 1 : -1;
+	}
+
+	/**
+	 * @return The index of the item starting at the given paragraph start, or -1 if the paragraph is not an item.
+	 */
+	private int findItem(int paragraphStart)
+	{
+		int low = 0;
+		int high = itemStarts.length - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			if (itemStarts[middle] < paragraphStart)
+				low = middle + 1;
+			else if (itemStarts[middle] > paragraphStart)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+}
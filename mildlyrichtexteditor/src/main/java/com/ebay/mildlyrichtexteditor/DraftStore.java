@@ -0,0 +1,574 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps any number of drafts, i.e. the HTML of unfinished documents, in a single file.
+ * <p>
+ * The file is a log of records, each saving or deleting one draft. A saved draft is stored as a header with its id,
+ * title and size, followed by its HTML compressed with {@link Deflater}. When the store is opened, only the headers
+ * are read, so drafts can be listed without decompressing any of them. A save is appended to the file and synced to
+ * the disk before it returns, and a record cut off by a crash is dropped the next time the store is opened, so a
+ * draft is either saved completely or keeps its previous version.
+ * <p>
+ * Records of drafts that have been saved again or deleted are left in the file until it is compacted, which the store
+ * does on a background thread once they take up more space than the drafts themselves. Recently opened drafts are
+ * kept decompressed in memory, up to a total size set when the store is opened.
+ * <p>
+ * All methods may be called from any thread, but those reading or writing the file should not be called on the main
+ * thread. A file must not be opened by more than one store at a time.
+ */
+public final class DraftStore
+{
+	private static final int FILE_MAGIC = 0x4D525444; // "MRTD"
+	private static final int FORMAT_VERSION = 1;
+	private static final int FILE_HEADER_BYTES = 8;
+	private static final int RECORD_MAGIC = 0x44524654; // "DRFT"
+	private static final byte SAVE = 1;
+	private static final byte DELETE = 2;
+	private static final int MAX_TITLE_LENGTH = 200;
+	private static final int MIN_COMPACTION_BYTES = 64 * 1024;
+	private static final int DEFAULT_CACHE_CHARS = 512 * 1024;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final SharedExecutor SHARED_EXECUTOR = new SharedExecutor("DraftStore", 1, Thread.MIN_PRIORITY);
+
+	private final File file;
+	private final Executor compactionExecutor;
+	private final LruCache<String, String> cache;
+	private final Map<String, Draft> drafts = new HashMap<>();
+	private RandomAccessFile data;
+	private long liveBytes;
+	private boolean compactionScheduled;
+	private boolean closed;
+
+	/**
+	 * A saved draft, as listed by {@link #list()}.
+	 */
+	public static final class Draft
+	{
+		private final String id;
+		private final String title;
+		private final long updatedTime;
+		private final int htmlBytes;
+		private final int storedBytes;
+		private final int crc;
+		private long recordOffset;
+		private final int recordLength;
+
+		private Draft(String id, String title, long updatedTime, int htmlBytes, int storedBytes, int crc,
+			long recordOffset, int recordLength)
+		{
+			this.id = id;
+			this.title = title;
+			this.updatedTime = updatedTime;
+			this.htmlBytes = htmlBytes;
+			this.storedBytes = storedBytes;
+			this.crc = crc;
+			this.recordOffset = recordOffset;
+			this.recordLength = recordLength;
+		}
+
+		@NonNull
+		public String getId()
+		{
+			return id;
+		}
+
+		@NonNull
+		public String getTitle()
+		{
+			return title;
+		}
+
+		/**
+		 * @return When the draft was last saved, in milliseconds since the epoch.
+		 */
+		public long getUpdatedTime()
+		{
+			return updatedTime;
+		}
+
+		/**
+		 * @return The size of the draft's HTML, in bytes of UTF-8.
+		 */
+		public int getHtmlBytes()
+		{
+			return htmlBytes;
+		}
+
+		/**
+		 * @return The size of the compressed HTML in the file.
+		 */
+		public int getStoredBytes()
+		{
+			return storedBytes;
+		}
+	}
+
+	/**
+	 * Opens the store in the given file, creating the file if it does not exist yet.
+	 *
+	 * @throws IOException If the file cannot be read or is not a draft store.
+	 */
+	@WorkerThread
+	public DraftStore(@NonNull File file) throws IOException
+	{
+		this(file, DEFAULT_CACHE_CHARS, SHARED_EXECUTOR.get());
+	}
+
+	/**
+	 * Opens the store in the given file, creating the file if it does not exist yet.
+	 *
+	 * @param cacheChars The total length of the drafts to keep decompressed in memory.
+	 * @throws IOException If the file cannot be read or is not a draft store.
+	 */
+	@WorkerThread
+	public DraftStore(@NonNull File file, int cacheChars) throws IOException
+	{
+		this(file, cacheChars, SHARED_EXECUTOR.get());
+	}
+
+	@VisibleForTesting
+	DraftStore(@NonNull File file, int cacheChars, @NonNull Executor compactionExecutor) throws IOException
+	{
+		this.file = file;
+		this.compactionExecutor = compactionExecutor;
+		cache = new LruCache<String, String>(Math.max(1, cacheChars))
+		{
+			@Override
+			protected int sizeOf(String id, String html)
+			{
+				return Math.max(1, html.length());
+			}
+		};
+		data = new RandomAccessFile(file, "rw");
+		try
+		{
+			readIndex();
+		}
+		catch (IOException e)
+		{
+			data.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The drafts in the store, most recently saved first. Their HTML is not read.
+	 */
+	@NonNull
+	public synchronized List<Draft> list()
+	{
+		List<Draft> list = new ArrayList<>(drafts.values());
+		Collections.sort(list, new Comparator<Draft>()
+		{
+			@Override
+			public int compare(Draft a, Draft b)
+			{
+				if (a.updatedTime != b.updatedTime)
+					return a.updatedTime > b.updatedTime ? -1 : 1;
+				return a.recordOffset > b.recordOffset ? -1 : a.recordOffset == b.recordOffset ? 0 : 1;
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * @return The HTML of the draft, or null if there is no draft with the given id.
+	 * @throws IOException If the draft cannot be read or is damaged.
+	 */
+	@WorkerThread
+	@Nullable
+	public synchronized String load(@NonNull String id) throws IOException
+	{
+		String html = cache.get(id);
+		if (html != null)
+			return html;
+
+		Draft draft = drafts.get(id);
+		if (draft == null)
+			return null;
+
+		html = new String(inflate(readPayload(draft), draft.htmlBytes), UTF_8);
+		cache.put(id, html);
+		return html;
+	}
+
+	/**
+	 * Saves a draft, replacing the draft with the same id. The draft is on the disk when the method returns.
+	 *
+	 * @param title The title listed for the draft. Long titles are shortened.
+	 * @throws IOException If the draft cannot be written. The previous version of the draft is kept then.
+	 */
+	@WorkerThread
+	public synchronized void save(@NonNull String id, @NonNull String title, @NonNull String html) throws IOException
+	{
+		if (title.length() > MAX_TITLE_LENGTH)
+			title = title.substring(0, MAX_TITLE_LENGTH);
+		byte[] htmlBytes = html.getBytes(UTF_8);
+		byte[] payload = deflate(htmlBytes);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		long offset = data.length();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		long updatedTime = System.currentTimeMillis();
+		writeHeader(out, SAVE, id, title, updatedTime, htmlBytes.length, payload.length, (int)crc.getValue());
+		out.write(payload);
+		append(offset, bytes.toByteArray());
+
+		Draft draft = new Draft(id, title, updatedTime, htmlBytes.length, payload.length, (int)crc.getValue(),
+			offset, bytes.size());
+		replace(id, draft);
+		cache.put(id, html);
+		compactIfNeeded();
+	}
+
+	/**
+	 * Saves the content of an editor as a draft, see {@link #save(String, String, String)}.
+	 */
+	@WorkerThread
+	public void save(@NonNull String id, @NonNull String title, @NonNull DocumentSnapshot snapshot)
+		throws IOException
+	{
+		save(id, title, snapshot.toHtml());
+	}
+
+	/**
+	 * Deletes a draft.
+	 *
+	 * @return false if there was no draft with the given id.
+	 * @throws IOException If the deletion cannot be written. The draft is kept then.
+	 */
+	@WorkerThread
+	public synchronized boolean delete(@NonNull String id) throws IOException
+	{
+		if (!drafts.containsKey(id))
+			return false;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		writeHeader(new DataOutputStream(bytes), DELETE, id, "", System.currentTimeMillis(), 0, 0, 0);
+		append(data.length(), bytes.toByteArray());
+		replace(id, null);
+		compactIfNeeded();
+		return true;
+	}
+
+	/**
+	 * Rewrites the file with only the current version of each draft. The new file replaces the old one only once it
+	 * is complete, so the drafts are kept if compaction fails.
+	 *
+	 * @throws IOException If the new file cannot be written.
+	 */
+	@WorkerThread
+	public synchronized void compact() throws IOException
+	{
+		List<Draft> live = new ArrayList<>(drafts.values());
+		Collections.sort(live, new Comparator<Draft>()
+		{
+			@Override
+			public int compare(Draft a, Draft b)
+			{
+				return a.recordOffset < b.recordOffset ? -1 : a.recordOffset == b.recordOffset ? 0 : 1;
+			}
+		});
+
+		File compacted = new File(file.getPath() + ".compact");
+		long[] offsets = new long[live.size()];
+		RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+		try
+		{
+			out.setLength(0);
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			for (int i = 0; i < live.size(); i++)
+			{
+				Draft draft = live.get(i);
+				byte[] record = new byte[draft.recordLength];
+				data.seek(draft.recordOffset);
+				data.readFully(record);
+				offsets[i] = out.getFilePointer();
+				out.write(record);
+			}
+			out.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+
+		data.close();
+		if (!compacted.renameTo(file))
+		{
+			data = new RandomAccessFile(file, "rw");
+			throw new IOException("Cannot replace " + file + " by its compacted version");
+		}
+
+		data = new RandomAccessFile(file, "rw");
+		for (int i = 0; i < live.size(); i++)
+			live.get(i).recordOffset = offsets[i];
+	}
+
+	/**
+	 * @return The size of the store's file.
+	 * @throws IOException If the size cannot be read.
+	 */
+	public synchronized long getFileBytes() throws IOException
+	{
+		return data.length();
+	}
+
+	/**
+	 * Closes the file. The store cannot be used afterwards.
+	 */
+	public synchronized void close() throws IOException
+	{
+		closed = true;
+		data.close();
+	}
+
+	/**
+	 * Reads the headers of all records, dropping a record at the end of the file that was not written completely.
+	 */
+	private void readIndex() throws IOException
+	{
+		if (data.length() == 0)
+		{
+			data.writeInt(FILE_MAGIC);
+			data.writeInt(FORMAT_VERSION);
+			data.getFD().sync();
+			return;
+		}
+
+		data.seek(0);
+		if (data.length() < FILE_HEADER_BYTES || data.readInt() != FILE_MAGIC)
+			throw new IOException(file + " is not a draft store");
+		if (data.readInt() != FORMAT_VERSION)
+			throw new IOException("Unsupported draft store version in " + file);
+
+		long fileLength = data.length();
+		long offset = FILE_HEADER_BYTES;
+		Draft last = null;
+		while (offset < fileLength)
+		{
+			data.seek(offset);
+			Draft draft;
+			byte type;
+			try
+			{
+				if (data.readInt() != RECORD_MAGIC)
+					break;
+				type = data.readByte();
+				String id = data.readUTF();
+				String title = data.readUTF();
+				long updatedTime = data.readLong();
+				int htmlBytes = data.readInt();
+				int storedBytes = data.readInt();
+				int crc = data.readInt();
+				long end = data.getFilePointer() + storedBytes;
+				if ((type != SAVE && type != DELETE) || htmlBytes < 0 || storedBytes < 0 || end > fileLength)
+					break;
+				draft = new Draft(id, title, updatedTime, htmlBytes, storedBytes, crc, offset,
+					(int)(end - offset));
+			}
+			catch (EOFException | UTFDataFormatException e)
+			{
+				break;
+			}
+
+			replace(draft.id, type == SAVE ? draft : null);
+			last = type == SAVE ? draft : null;
+			offset += draft.recordLength;
+		}
+
+		// Only the last record can have been cut off, since records are only ever appended
+		if (last != null && !hasValidPayload(last))
+		{
+			// The previous version of the draft was dropped from the index when the damaged record was read
+			truncate(last.recordOffset);
+			drafts.clear();
+			liveBytes = 0;
+			readIndex();
+		}
+		else if (offset < fileLength)
+			truncate(offset);
+	}
+
+	private void truncate(long length) throws IOException
+	{
+		data.setLength(length);
+		data.getFD().sync();
+	}
+
+	private boolean hasValidPayload(Draft draft) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		crc.update(readPayload(draft));
+		return (int)crc.getValue() == draft.crc;
+	}
+
+	private byte[] readPayload(Draft draft) throws IOException
+	{
+		byte[] payload = new byte[draft.storedBytes];
+		data.seek(draft.recordOffset + draft.recordLength - draft.storedBytes);
+		data.readFully(payload);
+		return payload;
+	}
+
+	private static void writeHeader(DataOutputStream out, byte type, String id, String title, long updatedTime,
+		int htmlBytes, int storedBytes, int crc) throws IOException
+	{
+		out.writeInt(RECORD_MAGIC);
+		out.writeByte(type);
+		out.writeUTF(id);
+		out.writeUTF(title);
+		out.writeLong(updatedTime);
+		out.writeInt(htmlBytes);
+		out.writeInt(storedBytes);
+		out.writeInt(crc);
+	}
+
+	/**
+	 * Writes a record at the end of the file and syncs it to the disk. If that fails, the file is cut back to where
+	 * it was.
+	 */
+	private void append(long offset, byte[] record) throws IOException
+	{
+		try
+		{
+			data.seek(offset);
+			data.write(record);
+			data.getFD().sync();
+		}
+		catch (IOException e)
+		{
+			try
+			{
+				data.setLength(offset);
+			}
+			catch (IOException ignored)
+			{
+				// the damaged record is dropped when the store is opened again
+			}
+			throw e;
+		}
+	}
+
+	private void replace(String id, @Nullable Draft draft)
+	{
+		Draft old = draft != null ? drafts.put(id, draft) : drafts.remove(id);
+		if (old != null)
+			liveBytes -= old.recordLength;
+		if (draft != null)
+			liveBytes += draft.recordLength;
+		else
+			cache.remove(id);
+	}
+
+	/**
+	 * Schedules a compaction once the replaced records take up more space than the drafts.
+	 */
+	private void compactIfNeeded() throws IOException
+	{
+		long garbageBytes = data.length() - FILE_HEADER_BYTES - liveBytes;
+		if (compactionScheduled || garbageBytes <= MIN_COMPACTION_BYTES || garbageBytes <= liveBytes)
+			return;
+
+		compactionScheduled = true;
+		compactionExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				synchronized (DraftStore.this)
+				{
+					compactionScheduled = false;
+					if (closed)
+						return;
+					try
+					{
+						compact();
+					}
+					catch (IOException e)
+					{
+						// the file keeps its replaced records until the next compaction
+					}
+				}
+			}
+		});
+	}
+
+	private static byte[] deflate(byte[] input)
+	{
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try
+		{
+			deflater.setInput(input);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4 + 16);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished())
+				out.write(buffer, 0, deflater.deflate(buffer));
+			return out.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] input, int length) throws IOException
+	{
+		Inflater inflater = new Inflater(true);
+		try
+		{
+			inflater.setInput(input);
+			byte[] output = new byte[length];
+			int inflated = 0;
+			while (inflated < length)
+			{
+				int count = inflater.inflate(output, inflated, length - inflated);
+				if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				inflated += count;
+			}
+			if (inflated != length)
+				throw new IOException("Damaged draft");
+			return output;
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Damaged draft", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.Nullable;
+import android.text.Editable;
+import android.text.SpanWatcher;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextWatcher;
+
+/**
+ * Base class for helpers that follow the editor's Editable through text and span changes. The observer attaches
+ * itself to the Editable as a span covering the whole text, so the Editable notifies it of every text replacement
+ * and every span that is added, moved or removed. Because TextWatcher and SpanWatcher are NoCopySpans, the observer
+ * is not carried over when the TextView swaps in a new Editable; {@link MildlyRichTextEditor} re-attaches it instead.
+ */
+abstract class EditableObserver implements TextWatcher, SpanWatcher
+{
+	@Nullable private Spannable text;
+
+	/**
+	 * Attaches the observer to the given text, detaching it from the text it was previously attached to.
+	 *
+	 * @param text The text to observe, or null to stop observing.
+	 */
+	void attach(@Nullable Spannable text)
+	{
+		if (this.text != null)
+			this.text.removeSpan(this);
+
+		this.text = text;
+		if (text != null)
+			text.setSpan(this, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+
+		onAttached(text);
+	}
+
+	/**
+	 * @return The text the observer is currently attached to, if any.
+	 */
+	@Nullable
+	Spannable getAttachedText()
+	{
+		return text;
+	}
+
+	/**
+	 * Called whenever the observer starts following a new text. Implementations rebuild their state from scratch.
+	 *
+	 * @param text The newly attached text, or null if the observer was detached.
+	 */
+	abstract void onAttached(@Nullable Spannable text);
+
+	/**
+	 * Maps a position from before a text change to after it. Positions inside the replaced text move to its start.
+	 */
+	static int shift(int position, int start, int before, int count)
+	{
+		if (position <= start)
+			return position;
+		else if (position >= start + before)
+			return position + count - before;
+		else
+			return start;
+	}
+
+	@Override
+	public void beforeTextChanged(CharSequence s, int start, int count, int after)
+	{
+		//not implemented
+	}
+
+	@Override
+	public void onTextChanged(CharSequence s, int start, int before, int count)
+	{
+		//not implemented
+	}
+
+	@Override
+	public void afterTextChanged(Editable s)
+	{
+		//not implemented
+	}
+
+	@Override
+	public void onSpanAdded(Spannable text, Object what, int start, int end)
+	{
+		//not implemented
+	}
+
+	@Override
+	public void onSpanRemoved(Spannable text, Object what, int start, int end)
+	{
+		//not implemented
+	}
+
+	@Override
+	public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend)
+	{
+		//not implemented
+	}
+}
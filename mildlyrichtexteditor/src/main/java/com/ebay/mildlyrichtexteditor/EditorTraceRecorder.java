@@ -0,0 +1,197 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+
+import java.io.IOException;
+
+/**
+ * Records the input an editor receives, so that it can be replayed later to measure how long the editor takes to
+ * process each event. Install it with {@link MildlyRichTextEditor#setTraceRecorder(EditorTraceRecorder)}.
+ * <p>
+ * A trace is a text file with one event per line. The first line is {@value #HEADER}, and every following line
+ * is an event name, the milliseconds since recording started and the event's arguments, separated by single spaces:
+ * <pre>
+ * init 0 &lt;p dir="ltr"&gt;Initial text&lt;/p&gt;
+ * replace 120 5 0 new
+ * select 121 8 8
+ * toggle 300 BOLD -
+ * toggle 310 FONT_SIZE 1.7142857
+ * batch 400 begin
+ * compose 450 1 wor
+ * region 470 0 5
+ * finish 480
+ * commit 490 1 word
+ * end 900 Final plain text
+ * </pre>
+ * {@code replace} combines a beforeTextChanged/onTextChanged pair: the start, the number of characters removed and
+ * the inserted text. {@code compose}, {@code region}, {@code finish} and {@code commit} are the calls of an input
+ * method to setComposingText, setComposingRegion, finishComposingText and commitText, with the new cursor position
+ * and the text or the start and end of the region. The changes such a call makes to the text and the selection are
+ * not recorded separately, as replaying the call makes them again. {@code init} carries the HTML of the whole text
+ * whenever the editor replaces it, and {@code end} the plain text at the end of the recording, so that a replay can
+ * be checked. Text arguments are last on their line, with backslashes, line breaks and carriage returns escaped as
+ * {@code \\}, {@code \n} and {@code \r}.
+ */
+public final class EditorTraceRecorder extends EditableObserver
+{
+	public static final String HEADER = "mrte-trace 1";
+	static final String INIT = "init";
+	static final String REPLACE = "replace";
+	static final String SELECT = "select";
+	static final String TOGGLE = "toggle";
+	static final String BATCH = "batch";
+	static final String COMPOSE = "compose";
+	static final String COMPOSING_REGION = "region";
+	static final String FINISH_COMPOSING = "finish";
+	static final String COMMIT = "commit";
+	static final String END = "end";
+	static final String BEGIN = "begin";
+	static final String NO_VALUE = "-";
+
+	private final Appendable out;
+	private final long startTime = SystemClock.uptimeMillis();
+	private int pendingRemoved;
+	private int inputMethodDepth;
+	@Nullable private IOException error;
+
+	/**
+	 * @param out The destination of the trace. The recorder does not close it.
+	 */
+	public EditorTraceRecorder(@NonNull Appendable out)
+	{
+		this.out = out;
+		write(HEADER);
+	}
+
+	/**
+	 * @return The error that stopped the recording, if writing the trace failed.
+	 */
+	@Nullable
+	public IOException getError()
+	{
+		return error;
+	}
+
+	@Override
+	void onAttached(@Nullable Spannable text)
+	{
+		if (text != null)
+		{
+			// The HTML of MildlyRichTextEditor#getTextHtml(), which the replay reads back with setTextHtml
+			SpannableStringBuilder copy = new SpannableStringBuilder(text);
+			event(INIT, escape(ListHtml.toHtml(MildlyRichTextEditor.sanitizeUnderlineSpan(copy))));
+		}
+	}
+
+	/**
+	 * Records the end of the trace. Called by the editor when the recorder is removed.
+	 */
+	void finish(@Nullable CharSequence text)
+	{
+		event(END, escape(text != null ? text : ""));
+	}
+
+	@Override
+	public void beforeTextChanged(CharSequence s, int start, int count, int after)
+	{
+		pendingRemoved = count;
+	}
+
+	@Override
+	public void onTextChanged(CharSequence s, int start, int before, int count)
+	{
+		if (inputMethodDepth == 0)
+			event(REPLACE, start + " " + pendingRemoved + " " + escape(s.subSequence(start, start + count)));
+	}
+
+	void onSelectionChanged(int selStart, int selEnd)
+	{
+		if (inputMethodDepth == 0)
+			event(SELECT, selStart + " " + selEnd);
+	}
+
+	void onToggleStyle(MildlyRichTextEditor.Style style, @Nullable Float relativeSize)
+	{
+		event(TOGGLE, style.name() + " " + (relativeSize != null ? relativeSize.toString() : NO_VALUE));
+	}
+
+	void onBatchEdit(boolean begin)
+	{
+		if (inputMethodDepth == 0)
+			event(BATCH, begin ? BEGIN : END);
+	}
+
+	/**
+	 * Records a call of the input method, such as {@link #COMPOSE}. Until {@link #endInputMethodEvent()}, the edits
+	 * the call makes are not recorded.
+	 */
+	void beginInputMethodEvent(String name, String arguments)
+	{
+		if (inputMethodDepth++ == 0)
+			event(name, arguments);
+	}
+
+	void endInputMethodEvent()
+	{
+		inputMethodDepth--;
+	}
+
+	private void event(String name, String arguments)
+	{
+		write(name + " " + (SystemClock.uptimeMillis() - startTime) + " " + arguments);
+	}
+
+	private void write(String line)
+	{
+		if (error != null)
+			return;
+
+		try
+		{
+			out.append(line).append('\n');
+		}
+		catch (IOException e)
+		{
+			error = e;
+		}
+	}
+
+	static String escape(CharSequence text)
+	{
+		StringBuilder escaped = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if (c == '\\')
+				escaped.append("\\\\");
+			else if (c == '\n')
+				escaped.append("\\n");
+			else if (c == '\r')
+				escaped.append("\\r");
+			else
+				escaped.append(c);
+		}
+		return escaped.toString();
+	}
+
+	static String unescape(CharSequence text)
+	{
+		StringBuilder unescaped = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if (c == '\\' && i + 1 < text.length())
+			{
+				char escapedChar = text.charAt(++i);
+				unescaped.append(escapedChar == 'n' ? '\n' : escapedChar == 'r' ? '\r' : escapedChar);
+			}
+			else
+				unescaped.append(c);
+		}
+		return unescaped.toString();
+	}
+}
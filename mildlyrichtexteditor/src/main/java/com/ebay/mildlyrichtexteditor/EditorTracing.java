@@ -0,0 +1,125 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.os.Trace;
+import android.support.annotation.Nullable;
+import android.support.v4.os.TraceCompat;
+import android.text.Spanned;
+import android.text.style.CharacterStyle;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Marks the work of the editor in systrace and Perfetto captures. While tracing is on, the text watcher callbacks,
+ * selection changes, style toggles and the HTML conversions of every editor show up as sections named
+ * {@code MRTE <method>} on the thread that ran them, and the length and the number of style spans of the text as
+ * the counters {@value #LENGTH_COUNTER} and {@value #SPAN_COUNTER}. Capture with the app's category, e.g.
+ * {@code -a <package>} for systrace or {@code atrace_apps} in a Perfetto config.
+ * <p>
+ * Tracing is off by default. While it is off, a traced method only reads a static flag. Counting the spans takes a
+ * span query on every traced text change, so tracing is meant to be turned on for profiling sessions only, e.g. from
+ * a debug menu or a remote flag.
+ */
+public final class EditorTracing
+{
+	static final String BEFORE_TEXT_CHANGED = "MRTE beforeTextChanged";
+	static final String AFTER_TEXT_CHANGED = "MRTE afterTextChanged";
+	static final String SELECTION_CHANGED = "MRTE onSelectionChanged";
+	static final String TOGGLE_STYLE = "MRTE toggleStyle";
+	static final String GET_TEXT_HTML = "MRTE getTextHtml";
+	static final String SET_TEXT_HTML = "MRTE setTextHtml";
+	static final String SANITIZE_UNDERLINE_SPAN = "MRTE sanitizeUnderlineSpan";
+	static final String LENGTH_COUNTER = "MRTE length";
+	static final String SPAN_COUNTER = "MRTE spans";
+
+	private static volatile boolean enabled;
+	// The platform only has a public counter API from Android Q on, earlier versions have the same method hidden
+	@Nullable private static Method traceCounter;
+	private static long traceTag;
+
+	private EditorTracing()
+	{
+		// static methods only
+	}
+
+	/**
+	 * Turns tracing on or off for all editors.
+	 */
+	public static void setEnabled(boolean enabled)
+	{
+		if (enabled && traceCounter == null)
+			findTraceCounter();
+		EditorTracing.enabled = enabled;
+	}
+
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Starts a section if tracing is on. Every call returning true must be followed by a call to {@link #end()} on
+	 * the same thread.
+	 *
+	 * @return Whether a section was started.
+	 */
+	static boolean begin(String section)
+	{
+		if (!enabled)
+			return false;
+
+		TraceCompat.beginSection(section);
+		return true;
+	}
+
+	/**
+	 * Ends the section started last on the calling thread.
+	 */
+	static void end()
+	{
+		TraceCompat.endSection();
+	}
+
+	/**
+	 * Records the length and the number of style spans of the text, if tracing is on and the platform lets counters
+	 * be written.
+	 */
+	static void count(@Nullable Spanned text)
+	{
+		if (!enabled || traceCounter == null || text == null)
+			return;
+
+		counter(LENGTH_COUNTER, text.length());
+		counter(SPAN_COUNTER, text.getSpans(0, text.length(), CharacterStyle.class).length);
+	}
+
+	private static void counter(String name, int value)
+	{
+		Method method = traceCounter;
+		if (method == null)
+			return;
+
+		try
+		{
+			method.invoke(null, traceTag, name, value);
+		}
+		catch (IllegalAccessException | InvocationTargetException | RuntimeException e)
+		{
+			traceCounter = null;
+		}
+	}
+
+	private static synchronized void findTraceCounter()
+	{
+		try
+		{
+			traceTag = Trace.class.getField("TRACE_TAG_APP").getLong(null);
+			traceCounter = Trace.class.getMethod("traceCounter", long.class, String.class, int.class);
+		}
+		catch (NoSuchFieldException | NoSuchMethodException | IllegalAccessException | RuntimeException e)
+		{
+			// Sections still work without counters
+			traceCounter = null;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import java.io.IOException;
+
+/**
+ * Writes the {@link FontFamilySpan}s of the text to HTML. The platform only writes the monospace font family, so
+ * every run of a line with a single family is wrapped in a {@code <tt>} or {@code <font face>} element, which the
+ * platform parser reads back as a TypefaceSpan, and {@link FontFamilySpan#replacePlatformSpans(android.text.Spannable)}
+ * turns into a FontFamilySpan again.
+ */
+final class FontFamilyHtml
+{
+	private FontFamilyHtml()
+	{
+		// static methods only
+	}
+
+	/**
+	 * @return Whether the text has font families, so that it is converted line by line.
+	 */
+	static boolean hasFamilies(@NonNull Spanned text)
+	{
+		return text.getSpans(0, text.length(), FontFamilySpan.class).length > 0;
+	}
+
+	/**
+	 * Writes the HTML of a single line of text with font families, without the paragraph the platform wraps it in.
+	 */
+	static void appendLine(@NonNull Appendable out, @NonNull Spanned text, int start, int end) throws IOException
+	{
+		for (int runStart = start, runEnd; runStart < end; runStart = runEnd)
+		{
+			runEnd = text.nextSpanTransition(runStart, end, FontFamilySpan.class);
+			SpannableStringBuilder run = new SpannableStringBuilder(text, runStart, runEnd);
+			int family = 0;
+			for (FontFamilySpan span : run.getSpans(0, run.length(), FontFamilySpan.class))
+			{
+				if (run.getSpanStart(span) == 0 && run.getSpanEnd(span) == run.length())
+					family = span.getFamilyCode();
+				run.removeSpan(span);
+			}
+
+			String content = ListHtml.lineContent(run);
+			if (family == FontFamilySpan.MONOSPACE)
+				out.append("<tt>").append(content).append("</tt>");
+			else if (family != 0)
+			{
+				out.append("<font face=\"").append(FontFamilySpan.nameOf(family)).append("\">").append(content)
+					.append("</font>");
+			}
+			else
+				out.append(content);
+		}
+	}
+}
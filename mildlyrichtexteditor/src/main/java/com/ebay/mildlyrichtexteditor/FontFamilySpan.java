@@ -0,0 +1,159 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.Spannable;
+import android.text.TextPaint;
+import android.text.style.TypefaceSpan;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sets the font family of the text to one of the generic families the editor offers: serif, sans serif or
+ * monospace. The platform's {@link TypefaceSpan} creates its Typeface anew every time the text is measured or drawn;
+ * this span takes it from a cache shared by the whole process, which holds one Typeface per family and style.
+ * <p>
+ * Being a {@link TypefaceSpan}, it is written to HTML and parcels like one and is read back as one, after which
+ * {@link #familyOf(String)} tells which family it was.
+ */
+final class FontFamilySpan extends TypefaceSpan
+{
+	static final int SERIF = 1;
+	static final int SANS_SERIF = 2;
+	static final int MONOSPACE = 3;
+
+	private static final String[] FAMILY_NAMES = {null, "serif", "sans-serif", "monospace"};
+	private static final int STYLES = 4;
+	private static final AtomicReferenceArray<Typeface> TYPEFACES =
+		new AtomicReferenceArray<>(FAMILY_NAMES.length * STYLES);
+
+	private final int family;
+
+	/**
+	 * @param family {@link #SERIF}, {@link #SANS_SERIF} or {@link #MONOSPACE}.
+	 */
+	FontFamilySpan(int family)
+	{
+		super(FAMILY_NAMES[family]);
+		this.family = family;
+	}
+
+	/**
+	 * @return {@link #SERIF}, {@link #SANS_SERIF} or {@link #MONOSPACE}.
+	 */
+	int getFamilyCode()
+	{
+		return family;
+	}
+
+	/**
+	 * @return The family with the given generic name, or 0 for any other name.
+	 */
+	static int familyOf(@Nullable String name)
+	{
+		if (name == null)
+			return 0;
+
+		name = name.trim();
+		for (int family = SERIF; family < FAMILY_NAMES.length; family++)
+		{
+			if (FAMILY_NAMES[family].equalsIgnoreCase(name))
+				return family;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The generic name of the family, as written to HTML.
+	 */
+	@NonNull
+	static String nameOf(int family)
+	{
+		return FAMILY_NAMES[family];
+	}
+
+	/**
+	 * @return The family of one of the font family styles, or 0 for other styles.
+	 */
+	static int familyOf(@NonNull MildlyRichTextEditor.Style style)
+	{
+		switch (style)
+		{
+		case SERIF:
+			return SERIF;
+		case SANS_SERIF:
+			return SANS_SERIF;
+		case MONOSPACE:
+			return MONOSPACE;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Turns the platform's TypefaceSpans, as created by the HTML parser or restored from a parcel, into spans of
+	 * the families the editor offers. Spans of other families are removed.
+	 */
+	static void replacePlatformSpans(@NonNull Spannable text)
+	{
+		for (TypefaceSpan span : text.getSpans(0, text.length(), TypefaceSpan.class))
+		{
+			if (span instanceof FontFamilySpan)
+				continue;
+
+			int start = text.getSpanStart(span);
+			int end = text.getSpanEnd(span);
+			int flags = text.getSpanFlags(span);
+			text.removeSpan(span);
+			int family = familyOf(span.getFamily());
+			if (family != 0 && end > start)
+				text.setSpan(new FontFamilySpan(family), start, end, flags);
+		}
+	}
+
+	@Override
+	public void updateDrawState(TextPaint paint)
+	{
+		apply(paint);
+	}
+
+	@Override
+	public void updateMeasureState(TextPaint paint)
+	{
+		apply(paint);
+	}
+
+	/**
+	 * Sets the typeface the way the platform's span does, keeping the style of the typeface the paint had, and
+	 * faking bold and italic where the family has no such style.
+	 */
+	private void apply(Paint paint)
+	{
+		Typeface old = paint.getTypeface();
+		int oldStyle = old != null ? old.getStyle() : Typeface.NORMAL;
+		Typeface typeface = getTypeface(family, oldStyle);
+
+		int fake = oldStyle & ~typeface.getStyle();
+		if ((fake & Typeface.BOLD) != 0)
+			paint.setFakeBoldText(true);
+		if ((fake & Typeface.ITALIC) != 0)
+			paint.setTextSkewX(-0.25f);
+		paint.setTypeface(typeface);
+	}
+
+	@NonNull
+	static Typeface getTypeface(int family, int style)
+	{
+		int index = family * STYLES + (style & Typeface.BOLD_ITALIC);
+		Typeface typeface = TYPEFACES.get(index);
+		if (typeface == null)
+		{
+			// Threads racing to create the typeface all use the one stored first
+			TYPEFACES.compareAndSet(index, null, Typeface.create(FAMILY_NAMES[family], style & Typeface.BOLD_ITALIC));
+			typeface = TYPEFACES.get(index);
+		}
+		return typeface;
+	}
+}
@@ -0,0 +1,432 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.text.Spanned;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rewrites stored HTML descriptions in the canonical form of the editor: the HTML is sanitized and parsed the way
+ * {@link MildlyRichTextEditor#setTextHtml(String)} does, reduced to the styles the editor supports, and written again
+ * with every style run as a single element, the way {@link DocumentSnapshot#toHtml()} does. HTML written by older
+ * versions or on other API levels thus comes out the same as if it had been opened and saved by the editor, and
+ * normalizing canonical HTML again leaves it unchanged.
+ * <p>
+ * A batch normalizes a tree of files, one description per file, into a tree with the same layout. The files are read
+ * one after another by the calling thread and converted by a pool with a thread per core. The reader waits while the
+ * descriptions read but not yet written take up more than a given number of characters, so the memory used does not
+ * depend on the number of files. A description that cannot be converted is reported and skipped.
+ * <p>
+ * The conversion uses the HTML parser of {@code android.text}, so {@link #main(String[])} needs the Android classes
+ * on its classpath and does not run on a plain JVM. The {@code normalizeDescriptions} Gradle task runs a batch in
+ * Robolectric's implementation of them:
+ * <pre>
+ * ./gradlew :mildlyrichtexteditor:normalizeDescriptions \
+ *     -PnormalizeIn=&lt;directory&gt; -PnormalizeOut=&lt;directory&gt;
+ * </pre>
+ * {@code -PnormalizeThreads=<count>} sets the number of threads, which defaults to the number of processors.
+ */
+public final class HtmlBatchNormalizer
+{
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int DEFAULT_MAX_IN_FLIGHT_CHARS = 64 * 1024 * 1024;
+	private static final int MAX_REPORTED_FAILURES = 1000;
+
+	private final int threads;
+	private final int maxInFlightChars;
+	private final HtmlSanitizer sanitizer = new HtmlSanitizer();
+
+	/**
+	 * A description that could not be normalized.
+	 */
+	public static final class Failure
+	{
+		private final String path;
+		private final String message;
+
+		private Failure(String path, String message)
+		{
+			this.path = path;
+			this.message = message;
+		}
+
+		/**
+		 * @return The path of the input file, relative to the input directory.
+		 */
+		@NonNull
+		public String getPath()
+		{
+			return path;
+		}
+
+		@NonNull
+		public String getMessage()
+		{
+			return message;
+		}
+
+		@Override
+		public String toString()
+		{
+			return path + ": " + message;
+		}
+	}
+
+	/**
+	 * The outcome of a batch.
+	 */
+	public static final class Result
+	{
+		private final long documents;
+		private final long failed;
+		private final long inputChars;
+		private final long outputChars;
+		private final long nanos;
+		private final List<Failure> failures;
+
+		private Result(long documents, long failed, long inputChars, long outputChars, long nanos,
+			List<Failure> failures)
+		{
+			this.documents = documents;
+			this.failed = failed;
+			this.inputChars = inputChars;
+			this.outputChars = outputChars;
+			this.nanos = nanos;
+			this.failures = failures;
+		}
+
+		/**
+		 * @return The number of descriptions written.
+		 */
+		public long getDocuments()
+		{
+			return documents;
+		}
+
+		/**
+		 * @return The number of descriptions that could not be normalized.
+		 */
+		public long getFailed()
+		{
+			return failed;
+		}
+
+		public long getInputChars()
+		{
+			return inputChars;
+		}
+
+		public long getOutputChars()
+		{
+			return outputChars;
+		}
+
+		public long getNanos()
+		{
+			return nanos;
+		}
+
+		/**
+		 * @return The first failures, in no particular order. {@link #getFailed()} counts all of them.
+		 */
+		@NonNull
+		public List<Failure> getFailures()
+		{
+			return failures;
+		}
+
+		/**
+		 * @return The descriptions normalized or failed per second.
+		 */
+		public double getDocumentsPerSecond()
+		{
+			return (documents + failed) / Math.max(1e-9, nanos / 1e9);
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.US, "%d documents, %d failed, %d -> %d chars in %.1f s, %.0f documents/s, " +
+				"%.2f MB/s", documents, failed, inputChars, outputChars, nanos / 1e9, getDocumentsPerSecond(),
+				inputChars / Math.max(1e-9, nanos / 1e9) / (1024 * 1024));
+		}
+	}
+
+	/**
+	 * Creates a normalizer using a thread per core and holding up to 64M characters of descriptions in memory.
+	 */
+	public HtmlBatchNormalizer()
+	{
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_IN_FLIGHT_CHARS);
+	}
+
+	/**
+	 * @param threads The number of threads converting descriptions.
+	 * @param maxInFlightChars The total length of the descriptions read but not written yet, beyond which reading
+	 * 	waits. A longer description is still read, but only once all others have been written.
+	 */
+	public HtmlBatchNormalizer(int threads, int maxInFlightChars)
+	{
+		if (threads < 1 || maxInFlightChars < 1)
+			throw new IllegalArgumentException("Threads and in-flight characters must be positive");
+		this.threads = threads;
+		this.maxInFlightChars = maxInFlightChars;
+	}
+
+	/**
+	 * Converts a description into the canonical HTML of the editor.
+	 */
+	@NonNull
+	public static String normalize(@NonNull String html)
+	{
+		return normalize(html, new HtmlSanitizer(), null);
+	}
+
+	/**
+	 * Converts a description into the canonical HTML of the editor.
+	 *
+	 * @param sanitizer The sanitizer to filter the HTML with.
+	 * @param report Collects what the sanitizer removed, or null.
+	 */
+	@NonNull
+	public static String normalize(@NonNull String html, @NonNull HtmlSanitizer sanitizer,
+		@Nullable HtmlSanitizer.Report report)
+	{
+		String sanitized = sanitizer.sanitize(html, report);
+		Spanned text = (Spanned)MildlyRichTextEditor.fromHtml(sanitized);
+		return DocumentSnapshot.of(text, StyleRunTable.of(text), true).toHtml();
+	}
+
+	/**
+	 * Normalizes every file in the input directory and its subdirectories into the file with the same relative path
+	 * in the output directory. Failures are collected rather than thrown.
+	 *
+	 * @throws IOException If a directory cannot be listed or created.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for the conversions.
+	 */
+	@WorkerThread
+	@NonNull
+	public Result run(@NonNull File input, @NonNull File output) throws IOException, InterruptedException
+	{
+		if (!input.isDirectory())
+			throw new IOException(input + " is not a directory");
+
+		final Batch batch = new Batch(maxInFlightChars);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		try
+		{
+			walk(batch, pool, input, output, "");
+		}
+		finally
+		{
+			pool.shutdown();
+			while (!pool.awaitTermination(1, TimeUnit.SECONDS))
+			{
+				// keep waiting for the conversions in progress
+			}
+		}
+		return new Result(batch.documents.get(), batch.failed.get(), batch.inputChars.get(), batch.outputChars.get(),
+			System.nanoTime() - start, new ArrayList<>(batch.failures));
+	}
+
+	/**
+	 * Reads the files of a directory and hands them to the pool, then does the same for its subdirectories.
+	 */
+	private void walk(final Batch batch, ExecutorService pool, File directory, File output, String path)
+		throws IOException, InterruptedException
+	{
+		String[] names = directory.list();
+		if (names == null)
+			throw new IOException("Cannot list " + directory);
+		Arrays.sort(names);
+		if (!output.isDirectory() && !output.mkdirs())
+			throw new IOException("Cannot create " + output);
+
+		List<String> subdirectories = new ArrayList<>();
+		for (String name : names)
+		{
+			final File source = new File(directory, name);
+			if (source.isDirectory())
+			{
+				subdirectories.add(name);
+				continue;
+			}
+
+			final String relativePath = path + name;
+			final String html;
+			try
+			{
+				html = read(source);
+			}
+			catch (IOException e)
+			{
+				batch.fail(relativePath, e);
+				continue;
+			}
+
+			final int permits = Math.min(Math.max(1, html.length()), maxInFlightChars);
+			batch.inFlight.acquire(permits);
+			final File target = new File(output, name);
+			pool.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						String normalized = normalize(html, sanitizer, null);
+						write(target, normalized);
+						batch.documents.incrementAndGet();
+						batch.inputChars.addAndGet(html.length());
+						batch.outputChars.addAndGet(normalized.length());
+					}
+					catch (IOException | RuntimeException e)
+					{
+						batch.fail(relativePath, e);
+					}
+					finally
+					{
+						batch.inFlight.release(permits);
+					}
+				}
+			});
+		}
+
+		for (String name : subdirectories)
+			walk(batch, pool, new File(directory, name), new File(output, name), path + name + "/");
+	}
+
+	/**
+	 * Normalizes a tree of descriptions from the command line.
+	 * <p>
+	 * Usage: {@code HtmlBatchNormalizer <input directory> <output directory> [threads]}
+	 */
+	public static void main(String[] args)
+	{
+		int status = run(args, System.out, System.err);
+		if (status != 0)
+			System.exit(status);
+	}
+
+	/**
+	 * Runs {@link #main(String[])}, printing the throughput to {@code out} and the failures to {@code err}.
+	 *
+	 * @return The exit status: 0 if all descriptions were normalized, 1 if some failed, 2 for bad arguments or a
+	 * 	failed batch.
+	 */
+	static int run(String[] args, PrintStream out, PrintStream err)
+	{
+		if (args.length < 2 || args.length > 3)
+		{
+			err.println("Usage: HtmlBatchNormalizer <input directory> <output directory> [threads]");
+			return 2;
+		}
+
+		Result result;
+		try
+		{
+			int threads = args.length > 2 ? Integer.parseInt(args[2]) :
+				Runtime.getRuntime().availableProcessors();
+			result = new HtmlBatchNormalizer(threads, DEFAULT_MAX_IN_FLIGHT_CHARS)
+				.run(new File(args[0]), new File(args[1]));
+		}
+		catch (IOException | InterruptedException | IllegalArgumentException e)
+		{
+			err.println("Batch failed: " + e.getMessage());
+			return 2;
+		}
+
+		List<Failure> failures = new ArrayList<>(result.getFailures());
+		Collections.sort(failures, new Comparator<Failure>()
+		{
+			@Override
+			public int compare(Failure a, Failure b)
+			{
+				return a.path.compareTo(b.path);
+			}
+		});
+		for (Failure failure : failures)
+			err.println(failure);
+		if (result.getFailed() > failures.size())
+			err.println("... and " + (result.getFailed() - failures.size()) + " more failures");
+		out.println(result);
+		return result.getFailed() > 0 ? 1 : 0;
+	}
+
+	private static String read(File file) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream((int)Math.min(file.length(), Integer.MAX_VALUE));
+			byte[] buffer = new byte[8192];
+			for (int count; (count = in.read(buffer)) >= 0; )
+				bytes.write(buffer, 0, count);
+			return new String(bytes.toByteArray(), UTF_8);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static void write(File file, String content) throws IOException
+	{
+		OutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(content.getBytes(UTF_8));
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * The counters of a batch, updated by the converting threads.
+	 */
+	private static final class Batch
+	{
+		final Semaphore inFlight;
+		final AtomicLong documents = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicLong inputChars = new AtomicLong();
+		final AtomicLong outputChars = new AtomicLong();
+		final List<Failure> failures = Collections.synchronizedList(new ArrayList<Failure>());
+
+		Batch(int maxInFlightChars)
+		{
+			inFlight = new Semaphore(maxInFlightChars);
+		}
+
+		void fail(String path, Exception e)
+		{
+			failed.incrementAndGet();
+			if (failures.size() < MAX_REPORTED_FAILURES)
+				failures.add(new Failure(path, e.getClass().getSimpleName() + ": " + e.getMessage()));
+		}
+	}
+}
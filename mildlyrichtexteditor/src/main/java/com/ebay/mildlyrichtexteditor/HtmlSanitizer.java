@@ -0,0 +1,701 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Streaming whitelist filter for untrusted HTML, applied before the HTML is handed to the platform parser. It keeps
+ * only the markup the editor supports, drops everything else together with unsupported attributes, and makes sure
+ * every element it keeps is properly closed.
+ * <p>
+ * The input is read once from start to end. Input beyond {@link #getMaxInputLength()} is ignored, elements nested
+ * deeper than {@link #getMaxDepth()} are dropped, and attribute values and tag names are only buffered when they are
+ * kept, so both time and memory are linear in the (capped) input size regardless of how pathological it is.
+ * <p>
+ * Images are only kept if their source is a web address or an inline data URI. Sources on the device, such as files
+ * and content provider URIs, are only kept by a sanitizer created with {@code allowLocalImages}, since untrusted
+ * HTML could otherwise make the editor show whatever the app can read.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class HtmlSanitizer
+{
+	public static final int DEFAULT_MAX_INPUT_LENGTH = 256 * 1024;
+	public static final int DEFAULT_MAX_DEPTH = 32;
+	private static final int MAX_TAG_NAME_LENGTH = 16;
+	private static final int MAX_ATTRIBUTE_VALUE_LENGTH = 256;
+	private static final int MAX_IMAGE_SOURCE_LENGTH = 64 * 1024;
+	private static final int MAX_ENTITY_LENGTH = 10;
+	private static final int MAX_KEPT_ATTRIBUTES = 4;
+
+	private final int maxInputLength;
+	private final int maxDepth;
+	private final boolean allowLocalImages;
+
+	/**
+	 * Summary of what a sanitizer pass removed from its input.
+	 */
+	public static final class Report
+	{
+		private static final int MAX_REPORTED_TAG_NAMES = 16;
+
+		private int droppedElements;
+		private int droppedAttributes;
+		private int depthLimitedElements;
+		private int truncatedCharacters;
+		private final Set<String> droppedTagNames = new LinkedHashSet<>();
+
+		/**
+		 * @return The number of elements whose tags were removed because the editor does not support them.
+		 */
+		public int getDroppedElements()
+		{
+			return droppedElements;
+		}
+
+		/**
+		 * @return The number of attributes removed from the elements that were kept.
+		 */
+		public int getDroppedAttributes()
+		{
+			return droppedAttributes;
+		}
+
+		/**
+		 * @return The number of elements whose tags were removed because they were nested too deeply.
+		 */
+		public int getDepthLimitedElements()
+		{
+			return depthLimitedElements;
+		}
+
+		/**
+		 * @return The number of input characters ignored because the input was too long.
+		 */
+		public int getTruncatedCharacters()
+		{
+			return truncatedCharacters;
+		}
+
+		/**
+		 * @return The names of the removed elements, up to a small number of distinct names.
+		 */
+		@NonNull
+		public Set<String> getDroppedTagNames()
+		{
+			return Collections.unmodifiableSet(droppedTagNames);
+		}
+
+		/**
+		 * @return true if the sanitizer removed anything from its input.
+		 */
+		public boolean hasDrops()
+		{
+			return droppedElements + droppedAttributes + depthLimitedElements + truncatedCharacters > 0;
+		}
+
+		void dropElement(@Nullable String name)
+		{
+			droppedElements++;
+			if (name != null && droppedTagNames.size() < MAX_REPORTED_TAG_NAMES)
+				droppedTagNames.add(name);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Report{droppedElements=" + droppedElements + ", droppedAttributes=" + droppedAttributes +
+				", depthLimitedElements=" + depthLimitedElements + ", truncatedCharacters=" + truncatedCharacters +
+				", droppedTagNames=" + droppedTagNames + "}";
+		}
+	}
+
+	public HtmlSanitizer()
+	{
+		this(DEFAULT_MAX_INPUT_LENGTH, DEFAULT_MAX_DEPTH);
+	}
+
+	/**
+	 * @param maxInputLength The number of input characters after which the input is ignored.
+	 * @param maxDepth The maximum number of nested elements that are kept.
+	 */
+	public HtmlSanitizer(int maxInputLength, int maxDepth)
+	{
+		this(maxInputLength, maxDepth, false);
+	}
+
+	/**
+	 * @param maxInputLength The number of input characters after which the input is ignored.
+	 * @param maxDepth The maximum number of nested elements that are kept.
+	 * @param allowLocalImages Whether images may come from files and content providers, for HTML that is trusted
+	 * 	not to point at anything on the device it should not show.
+	 */
+	public HtmlSanitizer(int maxInputLength, int maxDepth, boolean allowLocalImages)
+	{
+		if (maxInputLength < 0 || maxDepth < 0)
+			throw new IllegalArgumentException("Limits must not be negative");
+
+		this.maxInputLength = maxInputLength;
+		this.maxDepth = maxDepth;
+		this.allowLocalImages = allowLocalImages;
+	}
+
+	public int getMaxInputLength()
+	{
+		return maxInputLength;
+	}
+
+	public int getMaxDepth()
+	{
+		return maxDepth;
+	}
+
+	public boolean isAllowingLocalImages()
+	{
+		return allowLocalImages;
+	}
+
+	/**
+	 * Filters the HTML down to the markup supported by the editor.
+	 *
+	 * @param html The untrusted HTML.
+	 * @param report If not null, receives a summary of what was removed.
+	 * @return The sanitized HTML.
+	 */
+	@NonNull
+	public String sanitize(@NonNull CharSequence html, @Nullable Report report)
+	{
+		return new Pass(html, report != null ? report : new Report()).run();
+	}
+
+	/**
+	 * @return true for elements that are kept and may contain other content.
+	 */
+	private static boolean isContainer(String name)
+	{
+		switch (name)
+		{
+		case "p":
+		case "div":
+		case "b":
+		case "strong":
+		case "i":
+		case "em":
+		case "cite":
+		case "dfn":
+		case "u":
+		case "big":
+		case "small":
+		case "span":
+		case "font":
+		case "tt":
+		case "a":
+		case "ul":
+		case "ol":
+		case "li":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return true for elements that are kept and never have content.
+	 */
+	private static boolean isVoid(String name)
+	{
+		return "br".equals(name) || "img".equals(name);
+	}
+
+	/**
+	 * @return true for elements that are dropped together with everything inside them, because their content is
+	 * 	not text.
+	 */
+	private static boolean isSkippedWithContent(String name)
+	{
+		switch (name)
+		{
+		case "script":
+		case "style":
+		case "head":
+		case "title":
+		case "template":
+		case "iframe":
+		case "object":
+		case "noscript":
+		case "textarea":
+		case "select":
+		case "svg":
+		case "math":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Validates an attribute of a kept element.
+	 *
+	 * @return The value to write, or null if the attribute is dropped.
+	 */
+	@Nullable
+	private String keptAttributeValue(String element, String attribute, String value)
+	{
+		if ("dir".equals(attribute) && ("p".equals(element) || "div".equals(element)))
+			return "ltr".equalsIgnoreCase(value) || "rtl".equalsIgnoreCase(value) ? value.toLowerCase() : null;
+
+		if ("style".equals(attribute) && "span".equals(element))
+			return fontSizeStyle(value);
+
+		if ("face".equals(attribute) && "font".equals(element))
+			return FontFamilySpan.familyOf(value) != 0 ? FontFamilySpan.nameOf(FontFamilySpan.familyOf(value)) : null;
+
+		if ("href".equals(attribute) && "a".equals(element))
+			return isWebLink(value) ? value : null;
+
+		if ("src".equals(attribute) && "img".equals(element))
+		{
+			boolean kept = isWebLink(value) || isDataImage(value) || allowLocalImages && isLocalImageSource(value);
+			return kept ? value : null;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return true for http and https URLs, the only links the editor produces.
+	 */
+	private static boolean isWebLink(String url)
+	{
+		return url.regionMatches(true, 0, "http://", 0, 7) || url.regionMatches(true, 0, "https://", 0, 8);
+	}
+
+	/**
+	 * @return true for images inlined as base64 data URIs.
+	 */
+	private static boolean isDataImage(String source)
+	{
+		return source.regionMatches(true, 0, "data:image/", 0, 11) && source.indexOf(";base64,") > 0;
+	}
+
+	/**
+	 * @return true for image sources on the device: local files and content provider URIs.
+	 */
+	private static boolean isLocalImageSource(String source)
+	{
+		return source.regionMatches(true, 0, "file:", 0, 5) || source.regionMatches(true, 0, "content:", 0, 8) ||
+			source.startsWith("/") && !source.startsWith("//");
+	}
+
+	/**
+	 * Reduces a style attribute to its font-size declaration, if it has one in em or percent.
+	 */
+	@Nullable
+	private static String fontSizeStyle(String style)
+	{
+		int declaration = style.toLowerCase().indexOf("font-size");
+		if (declaration < 0)
+			return null;
+
+		int i = declaration + "font-size".length();
+		while (i < style.length() && (style.charAt(i) == ':' || Character.isWhitespace(style.charAt(i))))
+			i++;
+		int numberStart = i;
+		while (i < style.length() && (Character.isDigit(style.charAt(i)) || style.charAt(i) == '.'))
+			i++;
+		if (i == numberStart)
+			return null;
+
+		float size;
+		try
+		{
+			size = Float.parseFloat(style.substring(numberStart, i));
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+		if (style.startsWith("%", i))
+			size /= 100f;
+		else if (!style.startsWith("em", i))
+			return null;
+
+		return size > 0 && size <= 10 ? "font-size:" + size + "em;" : null;
+	}
+
+	/**
+	 * The state of a single sanitizer run.
+	 */
+	private final class Pass
+	{
+		private final CharSequence in;
+		private final int end;
+		private final Report report;
+		private final StringBuilder out;
+		private final String[] stack = new String[maxDepth];
+		private final String[] attributeNames = new String[MAX_KEPT_ATTRIBUTES];
+		private final String[] attributeValues = new String[MAX_KEPT_ATTRIBUTES];
+		private int attributeCount;
+		private int droppedAttributeCount;
+		private int depth;
+		private int overflowDepth;
+		private int pos;
+
+		Pass(CharSequence in, Report report)
+		{
+			this.in = in;
+			this.end = Math.min(in.length(), maxInputLength);
+			this.report = report;
+			this.out = new StringBuilder(end);
+			report.truncatedCharacters += in.length() - end;
+		}
+
+		String run()
+		{
+			while (pos < end)
+			{
+				char c = in.charAt(pos);
+				if (c == '<')
+					tag();
+				else if (c == '&')
+					entity();
+				else
+				{
+					int textStart = pos;
+					while (pos < end && in.charAt(pos) != '<' && in.charAt(pos) != '&' && in.charAt(pos) != '>')
+						pos++;
+					if (pos > textStart)
+						out.append(in, textStart, pos);
+					else
+					{
+						out.append("&gt;");
+						pos++;
+					}
+				}
+			}
+
+			while (depth > 0)
+				out.append("</").append(stack[--depth]).append('>');
+			return out.toString();
+		}
+
+		/**
+		 * Copies a character reference, or escapes a lone ampersand.
+		 */
+		private void entity()
+		{
+			int i = pos + 1;
+			int limit = Math.min(end, pos + 1 + MAX_ENTITY_LENGTH);
+			while (i < limit && (Character.isLetterOrDigit(in.charAt(i)) || in.charAt(i) == '#'))
+				i++;
+
+			if (i > pos + 1 && i < end && in.charAt(i) == ';')
+			{
+				out.append(in, pos, i + 1);
+				pos = i + 1;
+			}
+			else
+			{
+				out.append("&amp;");
+				pos++;
+			}
+		}
+
+		private void tag()
+		{
+			if (startsWith("<!--"))
+			{
+				pos = indexOf("-->", pos + 4);
+				pos = pos < 0 ? end : pos + 3;
+				return;
+			}
+
+			char next = pos + 1 < end ? in.charAt(pos + 1) : 0;
+			if (next == '!' || next == '?')
+			{
+				skipPast('>');
+				report.dropElement(null);
+				return;
+			}
+
+			boolean closing = next == '/';
+			int nameStart = pos + (closing ? 2 : 1);
+			if (nameStart >= end || !isAsciiLetter(in.charAt(nameStart)))
+			{
+				out.append("&lt;");
+				pos++;
+				return;
+			}
+
+			pos = nameStart;
+			while (pos < end && isNameChar(in.charAt(pos)))
+				pos++;
+			String name = pos - nameStart <= MAX_TAG_NAME_LENGTH ? lowerCase(nameStart, pos) : "";
+
+			if (closing)
+			{
+				if (skipPast('>'))
+					closeTag(name);
+				return;
+			}
+
+			attributeCount = 0;
+			droppedAttributeCount = 0;
+			boolean complete = attributes(name);
+			if (complete)
+				openTag(name);
+		}
+
+		/**
+		 * Reads the attributes of an opening tag up to and including its closing bracket, keeping only the
+		 * supported ones.
+		 *
+		 * @return true if the tag is complete, false if the input ended inside it.
+		 */
+		private boolean attributes(String element)
+		{
+			while (pos < end)
+			{
+				char c = in.charAt(pos);
+				if (c == '>')
+				{
+					pos++;
+					return true;
+				}
+				if (c == '/' || Character.isWhitespace(c))
+				{
+					pos++;
+					continue;
+				}
+
+				int nameStart = pos;
+				while (pos < end && !Character.isWhitespace(c = in.charAt(pos)) && c != '=' && c != '>' && c != '/')
+					pos++;
+				int nameEnd = pos;
+				skipWhitespace();
+
+				int valueStart = pos;
+				int valueEnd = pos;
+				if (pos < end && in.charAt(pos) == '=')
+				{
+					pos++;
+					skipWhitespace();
+					char quote = pos < end ? in.charAt(pos) : 0;
+					if (quote == '"' || quote == '\'')
+					{
+						valueStart = ++pos;
+						while (pos < end && in.charAt(pos) != quote)
+							pos++;
+						valueEnd = pos;
+						if (pos < end)
+							pos++;
+					}
+					else
+					{
+						valueStart = pos;
+						while (pos < end && !Character.isWhitespace(c = in.charAt(pos)) && c != '>')
+							pos++;
+						valueEnd = pos;
+					}
+				}
+
+				String value = null;
+				if (nameEnd - nameStart <= MAX_TAG_NAME_LENGTH && attributeCount < MAX_KEPT_ATTRIBUTES)
+				{
+					String name = lowerCase(nameStart, nameEnd);
+					// Inline images are longer than any other value, but still bounded
+					int maxValueLength = "img".equals(element) && "src".equals(name) ? MAX_IMAGE_SOURCE_LENGTH
+						: MAX_ATTRIBUTE_VALUE_LENGTH;
+					if (valueEnd - valueStart <= maxValueLength)
+						value = keptAttributeValue(element, name, in.subSequence(valueStart, valueEnd).toString());
+				}
+
+				if (value != null)
+				{
+					attributeNames[attributeCount] = lowerCase(nameStart, nameEnd);
+					attributeValues[attributeCount] = value;
+					attributeCount++;
+				}
+				else if (isContainer(element) || isVoid(element))
+					droppedAttributeCount++;
+			}
+			return false;
+		}
+
+		private void openTag(String name)
+		{
+			if (("img".equals(name) || "font".equals(name)) && attributeCount == 0)
+			{
+				// Nothing to show without a source or a font family the editor offers, and the other attributes go
+				// with it
+				report.dropElement(name);
+				return;
+			}
+			report.droppedAttributes += droppedAttributeCount;
+
+			if (isSkippedWithContent(name))
+			{
+				report.dropElement(name);
+				skipContent(name);
+			}
+			else if (isVoid(name))
+				appendOpeningTag(name);
+			else if (!isContainer(name))
+				report.dropElement(name);
+			else if (depth == maxDepth)
+			{
+				overflowDepth++;
+				report.depthLimitedElements++;
+			}
+			else
+			{
+				stack[depth++] = name;
+				appendOpeningTag(name);
+			}
+		}
+
+		private void appendOpeningTag(String name)
+		{
+			out.append('<').append(name);
+			for (int i = 0; i < attributeCount; i++)
+			{
+				out.append(' ').append(attributeNames[i]).append("=\"");
+				appendAttributeValue(attributeValues[i]);
+				out.append('"');
+			}
+			out.append('>');
+		}
+
+		private void closeTag(String name)
+		{
+			if (!isContainer(name))
+				return;
+
+			if (overflowDepth > 0)
+			{
+				overflowDepth--;
+				return;
+			}
+
+			int open = depth - 1;
+			while (open >= 0 && !stack[open].equals(name))
+				open--;
+			if (open < 0)
+				return; // stray closing tag
+
+			// Close the elements the input left open inside this one
+			while (depth > open)
+				out.append("</").append(stack[--depth]).append('>');
+		}
+
+		/**
+		 * Skips past the closing tag of an element whose content is dropped.
+		 */
+		private void skipContent(String name)
+		{
+			while (pos < end)
+			{
+				int close = indexOf("</", pos);
+				if (close < 0)
+				{
+					pos = end;
+					return;
+				}
+
+				pos = close + 2;
+				int nameEnd = pos;
+				while (nameEnd < end && isNameChar(in.charAt(nameEnd)))
+					nameEnd++;
+				if (nameEnd - pos == name.length() && lowerCase(pos, nameEnd).equals(name))
+				{
+					pos = nameEnd;
+					skipPast('>');
+					return;
+				}
+			}
+		}
+
+		private void appendAttributeValue(String value)
+		{
+			for (int i = 0; i < value.length(); i++)
+			{
+				char c = value.charAt(i);
+				if (c == '"')
+					out.append("&quot;");
+				else if (c == '<')
+					out.append("&lt;");
+				else if (c == '>')
+					out.append("&gt;");
+				else
+					out.append(c);
+			}
+		}
+
+		private boolean skipPast(char c)
+		{
+			while (pos < end)
+			{
+				if (in.charAt(pos++) == c)
+					return true;
+			}
+			return false;
+		}
+
+		private void skipWhitespace()
+		{
+			while (pos < end && Character.isWhitespace(in.charAt(pos)))
+				pos++;
+		}
+
+		private boolean startsWith(String prefix)
+		{
+			if (pos + prefix.length() > end)
+				return false;
+
+			for (int i = 0; i < prefix.length(); i++)
+			{
+				if (in.charAt(pos + i) != prefix.charAt(i))
+					return false;
+			}
+			return true;
+		}
+
+		private int indexOf(String needle, int from)
+		{
+			for (int i = from; i + needle.length() <= end; i++)
+			{
+				int j = 0;
+				while (j < needle.length() && in.charAt(i + j) == needle.charAt(j))
+					j++;
+				if (j == needle.length())
+					return i;
+			}
+			return -1;
+		}
+
+		private String lowerCase(int start, int end)
+		{
+			char[] chars = new char[end - start];
+			for (int i = start; i < end; i++)
+			{
+				char c = in.charAt(i);
+				chars[i - start] = c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c;
+			}
+			return new String(chars);
+		}
+	}
+
+	private static boolean isAsciiLetter(char c)
+	{
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+	}
+
+	private static boolean isNameChar(char c)
+	{
+		return isAsciiLetter(c) || c >= '0' && c <= '9' || c == '-' || c == ':';
+	}
+}
@@ -0,0 +1,273 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.graphics.Typeface;
+import android.support.annotation.Nullable;
+import android.text.InputFilter;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+import android.text.style.URLSpan;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a running estimate of the size of the HTML produced by {@link MildlyRichTextEditor#getTextHtml()} and
+ * enforces an upper bound on it. The estimate is updated from the text and span deltas reported by the Editable, so
+ * a keystroke costs time proportional to the change, never a full serialization.
+ * <p>
+ * The estimate follows the markup of {@link RichTextEditorUtil#compatToHtml(Spanned)}: every line is wrapped in a
+ * paragraph, markup characters and non-ASCII characters are escaped, runs of spaces turn into non-breaking spaces,
+ * and every list item and every non-empty style span and link contributes its opening and closing tags. Spans
+ * crossing a line break are re-opened on the next paragraph by the serializer, which the estimate does not account
+ * for.
+ */
+final class HtmlSizeBudget extends EditableObserver implements InputFilter
+{
+	private static final int PARAGRAPH_BYTES = "<p dir=\"ltr\"></p>\n".length();
+	private static final int BOLD_OR_ITALIC_BYTES = "<b></b>".length();
+	private static final int UNDERLINE_BYTES = "<u></u>".length();
+	private static final int FONT_SIZE_BYTES = "<span style=\"font-size:1.00em;\"></span>".length();
+	private static final int FONT_FAMILY_BYTES = "<font face=\"sans-serif\"></font>".length();
+	private static final int LIST_ITEM_BYTES = "<li></li>\n".length();
+	private static final int LINK_BYTES = "<a href=\"\"></a>".length();
+	private static final int NON_BREAKING_SPACE_BYTES = "&nbsp;".length();
+
+	private final int maxBytes;
+	@Nullable private final MildlyRichTextEditor.OnHtmlBudgetExceededListener listener;
+	private final Map<Object, Integer> spanBytes = new IdentityHashMap<>();
+	private int estimatedBytes;
+	private int pendingRemovedBytes;
+	private boolean exceeded;
+
+	HtmlSizeBudget(int maxBytes, @Nullable MildlyRichTextEditor.OnHtmlBudgetExceededListener listener)
+	{
+		this.maxBytes = maxBytes;
+		this.listener = listener;
+	}
+
+	int getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	int getEstimatedBytes()
+	{
+		return estimatedBytes;
+	}
+
+	@Override
+	void onAttached(@Nullable Spannable text)
+	{
+		spanBytes.clear();
+		estimatedBytes = 0;
+		exceeded = false;
+		if (text == null)
+			return;
+
+		estimatedBytes = textBytes(text, 0, text.length());
+		if (text.length() > 0)
+			estimatedBytes += PARAGRAPH_BYTES;
+
+		for (Object span : text.getSpans(0, text.length(), Object.class))
+			onSpanAdded(text, span, text.getSpanStart(span), text.getSpanEnd(span));
+
+		checkBudget();
+	}
+
+	/**
+	 * Accepts typed or pasted text when it fits into the budget, otherwise keeps as much of its beginning as fits.
+	 * A whole new text, e.g. a loaded description, is never cut: the listener hears about it once it is attached.
+	 */
+	@Override
+	public CharSequence filter(CharSequence source, int start, int end, Spanned dest, int dstart, int dend)
+	{
+		// TextView also runs its filters over a completely new text, in which case dest is an empty placeholder
+		if (dest != getAttachedText())
+			return null;
+
+		boolean replacesEverything = dend - dstart == dest.length();
+		int keptBytes = estimatedBytes - textBytes(dest, dstart, dend);
+		if (replacesEverything && dest.length() > 0)
+			keptBytes -= PARAGRAPH_BYTES;
+
+		int markupBytes = replacesEverything && end > start ? PARAGRAPH_BYTES : 0;
+		if (source instanceof Spanned)
+		{
+			Spanned spanned = (Spanned)source;
+			for (Object span : spanned.getSpans(start, end, Object.class))
+			{
+				markupBytes += Math.max(0, spanBytes(span, Math.max(start, spanned.getSpanStart(span)),
+					Math.min(end, spanned.getSpanEnd(span))));
+			}
+		}
+
+		int incomingBytes = textBytes(source, start, end, charBefore(dest, dstart)) + markupBytes;
+		if (keptBytes + incomingBytes <= maxBytes)
+			return null;
+
+		notifyExceeded(keptBytes + incomingBytes);
+		int allowance = maxBytes - keptBytes - markupBytes;
+		char previous = charBefore(dest, dstart);
+		int cut = start;
+		while (cut < end)
+		{
+			int next = cut + 1;
+			if (Character.isHighSurrogate(source.charAt(cut)) && next < end)
+				next++; // never split a surrogate pair
+
+			int bytes = textBytes(source, cut, next, previous);
+			if (bytes > allowance)
+				break;
+
+			allowance -= bytes;
+			previous = source.charAt(next - 1);
+			cut = next;
+		}
+		return cut == start ? "" : source.subSequence(start, cut);
+	}
+
+	@Override
+	public void beforeTextChanged(CharSequence s, int start, int count, int after)
+	{
+		pendingRemovedBytes = textBytes(s, start, start + count) + nextCharBytes(s, start + count);
+		if (s.length() > 0)
+			pendingRemovedBytes += PARAGRAPH_BYTES;
+	}
+
+	@Override
+	public void onTextChanged(CharSequence s, int start, int before, int count)
+	{
+		estimatedBytes += textBytes(s, start, start + count) + nextCharBytes(s, start + count) - pendingRemovedBytes;
+		if (s.length() > 0)
+			estimatedBytes += PARAGRAPH_BYTES;
+
+		pendingRemovedBytes = 0;
+		checkBudget();
+	}
+
+	@Override
+	public void onSpanAdded(Spannable text, Object what, int start, int end)
+	{
+		int bytes = spanBytes(what, start, end);
+		if (bytes < 0)
+			return;
+
+		Integer previous = spanBytes.put(what, bytes);
+		estimatedBytes += bytes - (previous == null ? 0 : previous);
+		checkBudget();
+	}
+
+	@Override
+	public void onSpanRemoved(Spannable text, Object what, int start, int end)
+	{
+		Integer previous = spanBytes.remove(what);
+		if (previous != null)
+		{
+			estimatedBytes -= previous;
+			checkBudget();
+		}
+	}
+
+	@Override
+	public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend)
+	{
+		onSpanAdded(text, what, nstart, nend);
+	}
+
+	private void checkBudget()
+	{
+		if (estimatedBytes <= maxBytes)
+			exceeded = false;
+		else if (!exceeded)
+		{
+			exceeded = true;
+			notifyExceeded(estimatedBytes);
+		}
+	}
+
+	private void notifyExceeded(int bytes)
+	{
+		if (listener != null)
+			listener.onHtmlBudgetExceeded(bytes, maxBytes);
+	}
+
+	/**
+	 * @return The number of bytes the span's tags add to the HTML, or -1 if the span is not serialized at all.
+	 */
+	private static int spanBytes(Object span, int start, int end)
+	{
+		int bytes;
+		if (span instanceof StyleSpan)
+		{
+			boolean boldItalic = ((StyleSpan)span).getStyle() == Typeface.BOLD_ITALIC;
+			bytes = boldItalic ? 2 * BOLD_OR_ITALIC_BYTES : BOLD_OR_ITALIC_BYTES;
+		}
+		else if (span instanceof MildlyRichTextEditor.CustomUnderlineSpan)
+			bytes = UNDERLINE_BYTES;
+		else if (span instanceof RelativeSizeSpan)
+			bytes = FONT_SIZE_BYTES;
+		else if (span instanceof FontFamilySpan)
+			bytes = FONT_FAMILY_BYTES;
+		else if (span instanceof URLSpan)
+			bytes = LINK_BYTES + ((URLSpan)span).getURL().length();
+		else if (span instanceof ListItemSpan)
+			return LIST_ITEM_BYTES; // written even when empty
+		else
+			return -1;
+
+		return end > start ? bytes : 0;
+	}
+
+	private static int textBytes(CharSequence text, int start, int end)
+	{
+		return textBytes(text, start, end, charBefore(text, start));
+	}
+
+	private static int textBytes(CharSequence text, int start, int end, char previous)
+	{
+		int bytes = 0;
+		for (int i = start; i < end; i++)
+		{
+			char c = text.charAt(i);
+			bytes += charBytes(c, previous);
+			previous = c;
+		}
+		return bytes;
+	}
+
+	/**
+	 * The escaping of a space depends on the character in front of it, so a change can alter the size of the
+	 * character that follows it.
+	 */
+	private static int nextCharBytes(CharSequence text, int index)
+	{
+		return index < text.length() ? charBytes(text.charAt(index), charBefore(text, index)) : 0;
+	}
+
+	private static char charBefore(CharSequence text, int index)
+	{
+		return index > 0 && index <= text.length() ? text.charAt(index - 1) : '\n';
+	}
+
+	private static int charBytes(char c, char previous)
+	{
+		if (c == '\n')
+			return PARAGRAPH_BYTES;
+		else if (c == ' ')
+			return previous == ' ' ? NON_BREAKING_SPACE_BYTES : 1;
+		else if (c == '<' || c == '>')
+			return 4; // &lt; &gt;
+		else if (c == '&')
+			return 5; // &amp;
+		else if (Character.isHighSurrogate(c))
+			return 10; // the whole pair becomes a single &#NNNNNNN;
+		else if (Character.isLowSurrogate(c))
+			return 0;
+		else if (c > 0x7E || c < ' ')
+			return 3 + Integer.toString(c).length(); // &#NNN;
+		else
+			return 1;
+	}
+}
@@ -0,0 +1,93 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.text.Html;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Sanitizes HTML and parses it into the editor's styled text on a background thread, leaving only setting the text
+ * to the main thread.
+ * <p>
+ * Only the most recent load is delivered: starting a new load or calling {@link #cancel()} drops the results of the
+ * loads that have not been delivered yet.
+ */
+final class HtmlTextLoader
+{
+	private static final SharedExecutor SHARED_EXECUTOR = new SharedExecutor("HtmlTextLoader", 1, Thread.NORM_PRIORITY);
+
+	private final Executor executor;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private int generation;
+
+	/**
+	 * Receives the converted text on the main thread.
+	 */
+	interface Callback
+	{
+		/**
+		 * @param text The converted text, as returned by
+		 * 	{@link MildlyRichTextEditor#fromHtml(String, Html.ImageGetter)}.
+		 * @param report What the sanitizer removed from the HTML, or null if it was not sanitized.
+		 */
+		void onLoaded(@NonNull CharSequence text, @Nullable HtmlSanitizer.Report report);
+	}
+
+	HtmlTextLoader()
+	{
+		this(SHARED_EXECUTOR.get());
+	}
+
+	@VisibleForTesting
+	HtmlTextLoader(@NonNull Executor executor)
+	{
+		this.executor = executor;
+	}
+
+	/**
+	 * Starts converting the HTML, cancelling the loads still in progress.
+	 *
+	 * @param sanitizer The sanitizer to filter the HTML with, or null to parse it unfiltered.
+	 * @param imageGetter Provides the drawables of the images, or null for the platform's placeholder. Called on the
+	 * 	background thread.
+	 */
+	@MainThread
+	void load(@NonNull final String html, @Nullable final HtmlSanitizer sanitizer,
+		@Nullable final Html.ImageGetter imageGetter, @NonNull final Callback callback)
+	{
+		final int load = ++generation;
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final HtmlSanitizer.Report report = sanitizer != null ? new HtmlSanitizer.Report() : null;
+				String sanitized = sanitizer != null ? sanitizer.sanitize(html, report) : html;
+				final CharSequence text = MildlyRichTextEditor.fromHtml(sanitized, imageGetter);
+				mainHandler.post(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if (load == generation)
+							callback.onLoaded(text, report);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Drops the results of the loads that have not been delivered yet.
+	 */
+	@MainThread
+	void cancel()
+	{
+		generation++;
+	}
+}
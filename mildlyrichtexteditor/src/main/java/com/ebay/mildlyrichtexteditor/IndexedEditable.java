@@ -0,0 +1,401 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.SpanWatcher;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextWatcher;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Editable that answers span queries from an index instead of scanning every span. The spans are kept in one
+ * {@link SpanIntervalTree} per span class, so {@link #getSpans(int, int, Class)} only visits the classes matching
+ * the query and, within those, the spans around the queried range. Span positions are looked up in the index as
+ * well.
+ * <p>
+ * The text and the spans themselves are still kept by {@link SpannableStringBuilder}, which stays the authority on
+ * how spans move with the text: after a text change, the index shifts the spans following the change and reads the
+ * new positions of the spans around it back from the builder. While the builder is in the middle of a change, the
+ * queries fall back to the builder.
+ * <p>
+ * {@link MildlyRichTextEditor} uses this class by default; other TextViews can install it with
+ * {@code setEditableFactory(IndexedEditable.Factory.getInstance())}.
+ */
+public final class IndexedEditable extends SpannableStringBuilder
+{
+	private static final Comparator<SpanIntervalTree.Node> SPAN_ORDER = new Comparator<SpanIntervalTree.Node>()
+	{
+		@Override
+		public int compare(SpanIntervalTree.Node a, SpanIntervalTree.Node b)
+		{
+			int priorityA = a.flags & Spanned.SPAN_PRIORITY;
+			int priorityB = b.flags & Spanned.SPAN_PRIORITY;
+			if (priorityA != priorityB)
+				return priorityA > priorityB ? -1 : 1;
+			return a.order < b.order ? -1 : a.order == b.order ? 0 : 1;
+		}
+	};
+
+	/**
+	 * Creates {@link IndexedEditable}s for a TextView.
+	 */
+	public static class Factory extends Editable.Factory
+	{
+		private static final Factory INSTANCE = new Factory();
+
+		public static Factory getInstance()
+		{
+			return INSTANCE;
+		}
+
+		@Override
+		public Editable newEditable(CharSequence source)
+		{
+			return new IndexedEditable(source);
+		}
+	}
+
+	// Null while the builder's constructor runs
+	private Map<Class<?>, SpanIntervalTree> trees;
+	private Map<Object, SpanIntervalTree.Node> nodes;
+	private List<SpanIntervalTree.Node> staleNodes;
+	private List<SpanIntervalTree.Node> matches;
+	private IndexUpdater updater;
+	private long nextOrder;
+
+	// A text change has been announced and not applied to the index yet
+	private boolean changePending;
+	// The builder has started moving spans for the pending change, so the index is out of date
+	private boolean stale;
+	// The text being inserted carries spans of its own, which the builder adds without going through setSpan
+	private boolean insertingSpans;
+
+	public IndexedEditable(CharSequence text)
+	{
+		super(text);
+		trees = new HashMap<>();
+		nodes = new IdentityHashMap<>();
+		staleNodes = new ArrayList<>();
+		matches = new ArrayList<>();
+		updater = new IndexUpdater();
+		rebuildIndex();
+	}
+
+	@Override
+	public <T> T[] getSpans(int queryStart, int queryEnd, Class<T> kind)
+	{
+		// Span watchers are looked up while the builder moves spans, before the index has caught up
+		if (trees == null || stale || kind == null || changePending && kind.isAssignableFrom(SpanWatcher.class))
+			return super.getSpans(queryStart, queryEnd, kind);
+
+		List<SpanIntervalTree.Node> found = matches;
+		for (Map.Entry<Class<?>, SpanIntervalTree> entry : trees.entrySet())
+		{
+			if (kind.isAssignableFrom(entry.getKey()))
+				entry.getValue().collect(queryStart, queryEnd, false, found);
+		}
+		if (found.size() > 1)
+			Collections.sort(found, SPAN_ORDER);
+
+		@SuppressWarnings("unchecked")
+		T[] spans = (T[])Array.newInstance(kind, found.size());
+		for (int i = 0; i < spans.length; i++)
+			spans[i] = kind.cast(found.get(i).span);
+
+		found.clear();
+		return spans;
+	}
+
+	@Override
+	public int getSpanStart(Object what)
+	{
+		SpanIntervalTree.Node node = indexedNode(what);
+		return node != null ? trees.get(what.getClass()).startOf(node) : super.getSpanStart(what);
+	}
+
+	@Override
+	public int getSpanEnd(Object what)
+	{
+		SpanIntervalTree.Node node = indexedNode(what);
+		return node != null ? trees.get(what.getClass()).endOf(node) : super.getSpanEnd(what);
+	}
+
+	@Override
+	public int getSpanFlags(Object what)
+	{
+		SpanIntervalTree.Node node = indexedNode(what);
+		return node != null ? node.flags : super.getSpanFlags(what);
+	}
+
+	@Override
+	public void setSpan(Object what, int start, int end, int flags)
+	{
+		if (trees == null || what == null)
+		{
+			super.setSpan(what, start, end, flags);
+			return;
+		}
+
+		SpanIntervalTree.Node node = nodes.get(what);
+		boolean existed = node != null;
+		if (!existed)
+		{
+			node = new SpanIntervalTree.Node(what, nextOrder++);
+			nodes.put(what, node);
+		}
+		else if (node.isAttached())
+			tree(what).remove(node);
+
+		if (stale)
+		{
+			// Read back once the builder has finished the change
+			if (!staleNodes.contains(node))
+				staleNodes.add(node);
+			super.setSpan(what, start, end, flags);
+			return;
+		}
+
+		// Index the span first, so the span watchers notified by the builder see it
+		int oldStart = node.start;
+		int oldEnd = node.end;
+		int oldFlags = node.flags;
+		node.start = start;
+		node.end = end;
+		node.flags = flags;
+		SpanIntervalTree tree = tree(what);
+		tree.insert(node);
+		try
+		{
+			super.setSpan(what, start, end, flags);
+		}
+		catch (RuntimeException e)
+		{
+			if (node.isAttached())
+				tree.remove(node);
+			if (existed)
+			{
+				node.start = oldStart;
+				node.end = oldEnd;
+				node.flags = oldFlags;
+				tree.insert(node);
+			}
+			else
+			{
+				nodes.remove(what);
+				dropIfEmpty(what.getClass());
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public void removeSpan(Object what)
+	{
+		if (what == updater)
+			return; // the index depends on it
+
+		if (trees != null)
+		{
+			SpanIntervalTree.Node node = nodes.remove(what);
+			if (node != null)
+			{
+				if (node.isAttached())
+					tree(what).remove(node);
+				staleNodes.remove(node);
+				dropIfEmpty(what.getClass());
+			}
+		}
+		super.removeSpan(what);
+	}
+
+	@Override
+	public void clearSpans()
+	{
+		if (trees == null)
+		{
+			super.clearSpans();
+			return;
+		}
+
+		stale = true;
+		try
+		{
+			super.clearSpans();
+		}
+		finally
+		{
+			rebuildIndex();
+		}
+	}
+
+	@Override
+	public SpannableStringBuilder replace(int start, int end, CharSequence tb, int tbstart, int tbend)
+	{
+		if (trees != null && tb instanceof Spanned && ((Spanned)tb).getSpans(tbstart, tbend, Object.class).length > 0)
+			insertingSpans = true;
+		return super.replace(start, end, tb, tbstart, tbend);
+	}
+
+	private SpanIntervalTree.Node indexedNode(Object what)
+	{
+		if (trees == null || stale || what == null)
+			return null;
+
+		SpanIntervalTree.Node node = nodes.get(what);
+		return node != null && node.isAttached() ? node : null;
+	}
+
+	@NonNull
+	private SpanIntervalTree tree(Object span)
+	{
+		SpanIntervalTree tree = trees.get(span.getClass());
+		if (tree == null)
+		{
+			tree = new SpanIntervalTree();
+			trees.put(span.getClass(), tree);
+		}
+		return tree;
+	}
+
+	private void dropIfEmpty(Class<?> kind)
+	{
+		SpanIntervalTree tree = trees.get(kind);
+		if (tree != null && tree.isEmpty())
+			trees.remove(kind);
+	}
+
+	/**
+	 * Indexes the spans of the builder from scratch.
+	 */
+	private void rebuildIndex()
+	{
+		trees.clear();
+		nodes.clear();
+		staleNodes.clear();
+		changePending = false;
+		stale = false;
+		insertingSpans = false;
+
+		for (Object span : super.getSpans(0, length(), Object.class))
+		{
+			if (span instanceof IndexUpdater)
+			{
+				// Belongs to the editable the text was copied from, should the builder have copied it
+				if (span != updater)
+					super.removeSpan(span);
+			}
+			else
+				index(new SpanIntervalTree.Node(span, nextOrder++));
+		}
+		setSpan(updater, 0, length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE | Spanned.SPAN_PRIORITY);
+	}
+
+	/**
+	 * Reads the position of the node's span from the builder and adds it to the index, or forgets the span if the
+	 * builder no longer has it.
+	 */
+	private void index(SpanIntervalTree.Node node)
+	{
+		int start = super.getSpanStart(node.span);
+		if (start < 0)
+		{
+			nodes.remove(node.span);
+			dropIfEmpty(node.span.getClass());
+			return;
+		}
+
+		node.start = start;
+		node.end = super.getSpanEnd(node.span);
+		node.flags = super.getSpanFlags(node.span);
+		nodes.put(node.span, node);
+		tree(node.span).insert(node);
+	}
+
+	/**
+	 * Brings the index up to date after {@code before} characters at {@code start} were replaced by {@code count}
+	 * characters. Only the spans touching the replaced text can have moved in other ways than along with the text.
+	 */
+	private void applyChange(int start, int before, int count)
+	{
+		List<SpanIntervalTree.Node> moved = new ArrayList<>(staleNodes);
+		staleNodes.clear();
+		for (SpanIntervalTree tree : trees.values())
+		{
+			int from = moved.size();
+			tree.collect(start, start + before, true, moved);
+			for (int i = from; i < moved.size(); i++)
+				tree.remove(moved.get(i));
+			tree.shift(start + before, count - before);
+		}
+
+		changePending = false;
+		stale = false;
+		for (SpanIntervalTree.Node node : moved)
+			index(node);
+
+		if (insertingSpans)
+		{
+			insertingSpans = false;
+			for (Object span : super.getSpans(start, start + count, Object.class))
+			{
+				if (!nodes.containsKey(span))
+					index(new SpanIntervalTree.Node(span, nextOrder++));
+			}
+		}
+	}
+
+	/**
+	 * Follows the builder's changes. It is attached with the highest priority, so it hears about them before any
+	 * other watcher queries the index.
+	 */
+	private final class IndexUpdater implements TextWatcher, SpanWatcher, NoCopySpan
+	{
+		@Override
+		public void beforeTextChanged(CharSequence s, int start, int count, int after)
+		{
+			changePending = true;
+		}
+
+		@Override
+		public void onTextChanged(CharSequence s, int start, int before, int count)
+		{
+			if (changePending)
+				applyChange(start, before, count);
+		}
+
+		@Override
+		public void afterTextChanged(Editable s)
+		{
+			//not implemented
+		}
+
+		@Override
+		public void onSpanAdded(Spannable text, Object what, int start, int end)
+		{
+			stale |= changePending;
+		}
+
+		@Override
+		public void onSpanRemoved(Spannable text, Object what, int start, int end)
+		{
+			stale |= changePending;
+		}
+
+		@Override
+		public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend)
+		{
+			stale |= changePending;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.Nullable;
+
+/**
+ * Drawable behind an inline image. It shows a grey placeholder until {@link InlineImageLoader} has decoded the
+ * image, and the decoded bitmap scaled to its bounds from then on.
+ */
+final class InlineImageDrawable extends Drawable
+{
+	private static final int PLACEHOLDER_COLOR = 0xFFE0E0E0;
+
+	private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	@Nullable private Bitmap bitmap;
+
+	/**
+	 * @param placeholderSize The width and height of the placeholder, in pixels.
+	 */
+	InlineImageDrawable(int placeholderSize)
+	{
+		setBounds(0, 0, placeholderSize, placeholderSize);
+	}
+
+	@Nullable
+	Bitmap getBitmap()
+	{
+		return bitmap;
+	}
+
+	/**
+	 * Shows the bitmap, sized to its own width or the given width, whichever is smaller.
+	 */
+	void setBitmap(Bitmap bitmap, int maxWidth)
+	{
+		this.bitmap = bitmap;
+		int width = Math.max(1, Math.min(maxWidth, bitmap.getWidth()));
+		int height = Math.max(1, (int)((long)bitmap.getHeight() * width / Math.max(1, bitmap.getWidth())));
+		setBounds(0, 0, width, height);
+		invalidateSelf();
+	}
+
+	@Override
+	public void draw(Canvas canvas)
+	{
+		if (bitmap != null)
+			canvas.drawBitmap(bitmap, null, getBounds(), paint);
+		else
+		{
+			paint.setColor(PLACEHOLDER_COLOR);
+			canvas.drawRect(getBounds(), paint);
+		}
+	}
+
+	@Override
+	public int getIntrinsicWidth()
+	{
+		return getBounds().width();
+	}
+
+	@Override
+	public int getIntrinsicHeight()
+	{
+		return getBounds().height();
+	}
+
+	@Override
+	public void setAlpha(int alpha)
+	{
+		paint.setAlpha(alpha);
+	}
+
+	@Override
+	public void setColorFilter(@Nullable ColorFilter colorFilter)
+	{
+		paint.setColorFilter(colorFilter);
+	}
+
+	@Override
+	public int getOpacity()
+	{
+		return PixelFormat.TRANSLUCENT;
+	}
+}
@@ -0,0 +1,370 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.text.Html;
+import android.text.Spannable;
+import android.text.style.ImageSpan;
+import android.util.Base64;
+import android.util.LruCache;
+import android.widget.TextView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads the images of imported HTML. The {@link Html.ImageGetter} it provides returns a placeholder right away, so
+ * the text can be shown without waiting for any image; the image is decoded on a background thread, downsampled to
+ * the width it is shown at, and swapped in on the main thread.
+ * <p>
+ * Decoded bitmaps are kept in a cache shared by all loaders and bounded by the bytes of the bitmaps, so the same
+ * image shown by several editors is decoded once, and an image that is already being decoded is not decoded again
+ * for the same width.
+ * <p>
+ * Web addresses are downloaded, which needs the {@code INTERNET} permission, and base64 data URIs are decoded in
+ * place. Files and content provider URIs are loaded as well, but {@link HtmlSanitizer} only lets them through when it
+ * is created to allow local images.
+ */
+public final class InlineImageLoader
+{
+	private static final int PLACEHOLDER_SIZE_DP = 48;
+	private static final int DECODE_THREADS = 2;
+	private static final int CACHE_FRACTION_OF_HEAP = 8;
+	private static final int MAX_DOWNLOAD_BYTES = 8 * 1024 * 1024;
+	private static final int TIMEOUT_MILLIS = 15 * 1000;
+
+	private static final SharedExecutor SHARED_EXECUTOR =
+		new SharedExecutor("InlineImageLoader", DECODE_THREADS, Thread.MIN_PRIORITY);
+
+	private static LruCache<String, Bitmap> sharedCache;
+
+	private final Context context;
+	private final Executor decodeExecutor;
+	private final LruCache<String, Bitmap> cache;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	// The images waiting for each decode in progress, by cache key
+	private final Map<String, List<PendingImage>> pending = new HashMap<>();
+
+	/**
+	 * Called on the main thread once an image has been swapped in for its placeholder.
+	 */
+	public interface OnImageLoadedListener
+	{
+		void onImageLoaded(@NonNull Drawable image);
+	}
+
+	public InlineImageLoader(@NonNull Context context)
+	{
+		this(context, SHARED_EXECUTOR.get(), getSharedCache());
+	}
+
+	@VisibleForTesting
+	InlineImageLoader(@NonNull Context context, @NonNull Executor decodeExecutor,
+		@NonNull LruCache<String, Bitmap> cache)
+	{
+		this.context = context.getApplicationContext();
+		this.decodeExecutor = decodeExecutor;
+		this.cache = cache;
+	}
+
+	/**
+	 * Drops all bitmaps from the cache shared by the loaders, e.g. when the app is asked to trim its memory.
+	 */
+	public static synchronized void clearSharedCache()
+	{
+		if (sharedCache != null)
+			sharedCache.evictAll();
+	}
+
+	/**
+	 * Creates an image getter for HTML shown in the given view. Images are sized to fit the view's width, and the
+	 * view's text is laid out again whenever an image has been loaded.
+	 */
+	@NonNull
+	public Html.ImageGetter newImageGetter(@NonNull TextView view)
+	{
+		int width = view.getWidth() - view.getTotalPaddingLeft() - view.getTotalPaddingRight();
+		if (width <= 0)
+			width = view.getResources().getDisplayMetrics().widthPixels; // not laid out yet
+
+		final WeakReference<TextView> viewReference = new WeakReference<>(view);
+		return newImageGetter(width, new OnImageLoadedListener()
+		{
+			@Override
+			public void onImageLoaded(@NonNull Drawable image)
+			{
+				TextView view = viewReference.get();
+				if (view != null && view.getText() instanceof Spannable)
+					relayoutImage((Spannable)view.getText(), image);
+			}
+		});
+	}
+
+	/**
+	 * Creates an image getter whose images are at most the given width.
+	 *
+	 * @param maxWidth The maximum width of the images, in pixels.
+	 * @param listener Notified when an image has replaced its placeholder, e.g. to lay out the text again.
+	 */
+	@NonNull
+	public Html.ImageGetter newImageGetter(final int maxWidth, @Nullable final OnImageLoadedListener listener)
+	{
+		final int placeholderSize = Math.min(maxWidth,
+			Math.round(PLACEHOLDER_SIZE_DP * context.getResources().getDisplayMetrics().density));
+		return new Html.ImageGetter()
+		{
+			@Override
+			public Drawable getDrawable(String source)
+			{
+				InlineImageDrawable image = new InlineImageDrawable(placeholderSize);
+				load(source, image, maxWidth, listener);
+				return image;
+			}
+		};
+	}
+
+	/**
+	 * Makes the text lay out an image span again, after the size of its drawable has changed.
+	 */
+	static void relayoutImage(@NonNull Spannable text, @NonNull Drawable image)
+	{
+		for (ImageSpan span : text.getSpans(0, text.length(), ImageSpan.class))
+		{
+			if (span.getDrawable() == image)
+			{
+				int start = text.getSpanStart(span);
+				int end = text.getSpanEnd(span);
+				int flags = text.getSpanFlags(span);
+				text.removeSpan(span);
+				text.setSpan(span, start, end, flags);
+			}
+		}
+	}
+
+	@AnyThread
+	private void load(final String source, final InlineImageDrawable image, final int maxWidth,
+		@Nullable final OnImageLoadedListener listener)
+	{
+		final String key = maxWidth + " " + source;
+		// The text may be parsed on a background thread, so the decodes in progress are shared between threads
+		synchronized (pending)
+		{
+			Bitmap cached = cache.get(key);
+			if (cached != null)
+			{
+				// The span has not been created yet, so there is nothing to lay out again
+				image.setBitmap(cached, maxWidth);
+				return;
+			}
+
+			List<PendingImage> images = pending.get(key);
+			if (images != null)
+			{
+				images.add(new PendingImage(image, listener));
+				return;
+			}
+
+			images = new ArrayList<>();
+			images.add(new PendingImage(image, listener));
+			pending.put(key, images);
+		}
+
+		decodeExecutor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final Bitmap bitmap = decode(source, maxWidth);
+				final List<PendingImage> images;
+				synchronized (pending)
+				{
+					// Cached before the decode stops being in progress, so a later image finds one or the other
+					if (bitmap != null)
+						cache.put(key, bitmap);
+					images = pending.remove(key);
+				}
+				if (bitmap == null)
+					return; // keep the placeholders
+
+				mainHandler.post(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						for (PendingImage image : images)
+						{
+							image.drawable.setBitmap(bitmap, maxWidth);
+							if (image.listener != null)
+								image.listener.onImageLoaded(image.drawable);
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Decodes the image, skipping pixels if it is at least twice as wide as needed.
+	 *
+	 * @return The bitmap, or null if the image cannot be read.
+	 */
+	@WorkerThread
+	@Nullable
+	private Bitmap decode(String source, int maxWidth)
+	{
+		try
+		{
+			// Images that are not on the device are read once and decoded from memory, rather than fetched twice
+			byte[] data = null;
+			if (source.regionMatches(true, 0, "data:", 0, 5))
+				data = decodeDataUri(source);
+			else if (source.regionMatches(true, 0, "http://", 0, 7) || source.regionMatches(true, 0, "https://", 0, 8))
+				data = download(source);
+
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inJustDecodeBounds = true;
+			decode(source, data, options);
+			if (options.outWidth <= 0 || options.outHeight <= 0)
+				return null;
+
+			options.inSampleSize = sampleSize(options.outWidth, maxWidth);
+			options.inJustDecodeBounds = false;
+			return decode(source, data, options);
+		}
+		catch (IOException | SecurityException | IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+
+	@Nullable
+	private Bitmap decode(String source, @Nullable byte[] data, BitmapFactory.Options options) throws IOException
+	{
+		if (data != null)
+			return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+		Uri uri = source.startsWith("/") ? Uri.fromFile(new File(source)) : Uri.parse(source);
+		return decodeStream(context.getContentResolver(), uri, options);
+	}
+
+	/**
+	 * @throws IllegalArgumentException If the URI is not base64 encoded.
+	 */
+	@NonNull
+	private static byte[] decodeDataUri(String source)
+	{
+		int comma = source.indexOf(',');
+		if (comma < 0 || !source.regionMatches(true, comma - 7, ";base64", 0, 7))
+			throw new IllegalArgumentException("Not a base64 data URI");
+		return Base64.decode(source.substring(comma + 1), Base64.DEFAULT);
+	}
+
+	@NonNull
+	private static byte[] download(String source) throws IOException
+	{
+		URLConnection connection = new URL(source).openConnection();
+		connection.setConnectTimeout(TIMEOUT_MILLIS);
+		connection.setReadTimeout(TIMEOUT_MILLIS);
+		InputStream in = connection.getInputStream();
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+			{
+				if (out.size() + read > MAX_DOWNLOAD_BYTES)
+					throw new IOException("Image larger than " + MAX_DOWNLOAD_BYTES + " bytes");
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	@Nullable
+	private static Bitmap decodeStream(ContentResolver resolver, Uri uri, BitmapFactory.Options options)
+		throws IOException
+	{
+		InputStream in = resolver.openInputStream(uri);
+		if (in == null)
+			return null;
+
+		try
+		{
+			return BitmapFactory.decodeStream(in, null, options);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * An image waiting for a decode, together with whom to tell when it is done.
+	 */
+	private static final class PendingImage
+	{
+		final InlineImageDrawable drawable;
+		@Nullable final OnImageLoadedListener listener;
+
+		PendingImage(InlineImageDrawable drawable, @Nullable OnImageLoadedListener listener)
+		{
+			this.drawable = drawable;
+			this.listener = listener;
+		}
+	}
+
+	/**
+	 * @return The largest power of two by which an image of the given width can be downsampled without getting
+	 * 	narrower than the given width.
+	 */
+	static int sampleSize(int width, int maxWidth)
+	{
+		int sampleSize = 1;
+		while (width / (sampleSize * 2) >= maxWidth)
+			sampleSize *= 2;
+		return sampleSize;
+	}
+
+	private static synchronized LruCache<String, Bitmap> getSharedCache()
+	{
+		if (sharedCache == null)
+		{
+			int maxBytes = (int)Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / CACHE_FRACTION_OF_HEAP);
+			sharedCache = new LruCache<String, Bitmap>(maxBytes)
+			{
+				@Override
+				protected int sizeOf(String key, Bitmap bitmap)
+				{
+					return bitmap.getByteCount();
+				}
+			};
+		}
+		return sharedCache;
+	}
+}
@@ -0,0 +1,238 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+import android.text.Editable;
+import android.text.Html;
+import android.text.Spanned;
+import android.text.TextUtils;
+
+import org.xml.sax.XMLReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Converts the {@link ListItemSpan}s of the text to and from {@code <ul>}, {@code <ol>} and {@code <li>} elements.
+ * The platform's HTML conversion knows nothing about numbered lists, and before Android N nothing about lists at all,
+ * so the list markup is written around the platform's output for every line of text, and parsed by a
+ * {@link Html.TagHandler}. In text with lists, the lines outside the lists are separated by {@code <br>} rather than
+ * put into paragraphs, since the platform parser would add blank lines around paragraphs next to a list.
+ * <p>
+ * Text with font families is converted line by line as well, and {@link FontFamilyHtml} writes its lines.
+ * <p>
+ * The platform parser only hands unknown elements to the tag handler, so the list elements are renamed before
+ * parsing. Nested lists are flattened.
+ */
+final class ListHtml
+{
+	private static final Pattern LIST_TAG = Pattern.compile("<(/?)(ul|ol|li)\\b", Pattern.CASE_INSENSITIVE);
+	private static final String TAG_PREFIX = "mrte";
+	private static final String UNORDERED_LIST_TAG = TAG_PREFIX + "ul";
+	private static final String ORDERED_LIST_TAG = TAG_PREFIX + "ol";
+	private static final String LIST_ITEM_TAG = TAG_PREFIX + "li";
+
+	private ListHtml()
+	{
+		// static methods only
+	}
+
+	/**
+	 * Converts the text to HTML like {@link RichTextEditorUtil#compatToHtml(Spanned)}, writing its lists as HTML
+	 * lists. Text without lists or font families is converted by the platform as a whole.
+	 */
+	@NonNull
+	static String toHtml(@NonNull Spanned text)
+	{
+		if (!hasLines(text))
+			return RichTextEditorUtil.compatToHtml(text);
+
+		StringBuilder html = new StringBuilder();
+		try
+		{
+			write(text, html);
+		}
+		catch (IOException e)
+		{
+			// A StringBuilder does not throw
+			throw new IllegalStateException(e);
+		}
+		return html.toString();
+	}
+
+	/**
+	 * Writes the HTML {@link #toHtml(Spanned)} returns to the given destination, a line at a time.
+	 *
+	 * @throws IOException If writing to the destination fails.
+	 */
+	static void write(@NonNull Spanned text, @NonNull Appendable out) throws IOException
+	{
+		if (!hasLines(text))
+		{
+			out.append(RichTextEditorUtil.compatToHtml(text));
+			return;
+		}
+
+		ListItemSpan[] items = ListMaintainer.sortByStart(text, text.getSpans(0, text.length(), ListItemSpan.class));
+		if (items.length == 0)
+		{
+			appendLines(out, text, 0, text.length(), false);
+			return;
+		}
+
+		int plainStart = 0;
+		ListItemSpan previous = null;
+		for (ListItemSpan item : items)
+		{
+			int start = text.getSpanStart(item);
+			int end = text.getSpanEnd(item);
+			boolean continuesList =
+				previous != null && start == plainStart && previous.isNumbered() == item.isNumbered();
+			if (previous != null && !continuesList)
+				out.append(previous.isNumbered() ? "</ol>\n" : "</ul>\n");
+
+			// The line break in front of the list is implied by the list
+			if (start > plainStart)
+				appendLines(out, text, plainStart, start - 1, true);
+
+			if (!continuesList)
+				out.append(item.isNumbered() ? "<ol>\n" : "<ul>\n");
+			int textEnd = end > start && text.charAt(end - 1) == '\n' ? end - 1 : end;
+			out.append("<li>");
+			appendLine(out, text, start, textEnd);
+			out.append("</li>\n");
+
+			plainStart = end;
+			previous = item;
+		}
+		out.append(previous.isNumbered() ? "</ol>\n" : "</ul>\n");
+
+		if (plainStart < text.length())
+			appendLines(out, text, plainStart, text.length(), false);
+	}
+
+	/**
+	 * @return Whether the text has lists or font families, so that it is converted line by line.
+	 */
+	private static boolean hasLines(Spanned text)
+	{
+		return text.getSpans(0, text.length(), ListItemSpan.class).length > 0 || FontFamilyHtml.hasFamilies(text);
+	}
+
+	/**
+	 * Writes the lines of text in the given range, separated by line breaks.
+	 *
+	 * @param breakAfterLast true to write a line break after the last line as well.
+	 */
+	private static void appendLines(Appendable out, Spanned text, int start, int end, boolean breakAfterLast)
+		throws IOException
+	{
+		int lineStart = start;
+		while (true)
+		{
+			int lineEnd = TextUtils.indexOf(text, '\n', lineStart, end);
+			if (lineEnd < 0)
+				lineEnd = end;
+
+			appendLine(out, text, lineStart, lineEnd);
+			if (lineEnd < end || breakAfterLast)
+				out.append("<br>\n");
+			if (lineEnd >= end)
+				break;
+			lineStart = lineEnd + 1;
+		}
+	}
+
+	/**
+	 * Writes the HTML of a single line of text, without the paragraph the platform wraps it in.
+	 */
+	private static void appendLine(Appendable out, Spanned text, int start, int end) throws IOException
+	{
+		if (end <= start)
+			return;
+
+		if (text.getSpans(start, end, FontFamilySpan.class).length > 0)
+			FontFamilyHtml.appendLine(out, text, start, end);
+		else
+			out.append(lineContent((Spanned)text.subSequence(start, end)));
+	}
+
+	/**
+	 * @return The HTML the platform writes for a single line of text, without the paragraph it wraps it in.
+	 */
+	@NonNull
+	static String lineContent(@NonNull Spanned line)
+	{
+		String html = RichTextEditorUtil.compatToHtml(line);
+		int contentStart = html.startsWith("<p") ? html.indexOf('>') + 1 : 0;
+		int contentEnd = html.lastIndexOf("</p>");
+		return contentEnd >= contentStart ? html.substring(contentStart, contentEnd) : html.substring(contentStart);
+	}
+
+	/**
+	 * Renames the list elements of the HTML, so that the platform parser hands them to a {@link TagHandler}.
+	 */
+	@NonNull
+	static String prepare(@NonNull String html)
+	{
+		return LIST_TAG.matcher(html).replaceAll("<$1" + TAG_PREFIX + "$2");
+	}
+
+	/**
+	 * Turns the renamed list elements into {@link ListItemSpan}s. Each item gets its own paragraph.
+	 */
+	static final class TagHandler implements Html.TagHandler
+	{
+		private final List<Boolean> lists = new ArrayList<>();
+
+		/**
+		 * Marks the start of an item until the item is closed.
+		 */
+		private static final class ItemStart
+		{
+			// no implementation needed
+		}
+
+		@Override
+		public void handleTag(boolean opening, String tag, Editable output, XMLReader xmlReader)
+		{
+			if (UNORDERED_LIST_TAG.equalsIgnoreCase(tag) || ORDERED_LIST_TAG.equalsIgnoreCase(tag))
+			{
+				startParagraph(output);
+				if (opening)
+					lists.add(ORDERED_LIST_TAG.equalsIgnoreCase(tag));
+				else if (!lists.isEmpty())
+					lists.remove(lists.size() - 1);
+			}
+			else if (LIST_ITEM_TAG.equalsIgnoreCase(tag))
+			{
+				startParagraph(output);
+				if (opening)
+					output.setSpan(new ItemStart(), output.length(), output.length(), Spanned.SPAN_MARK_MARK);
+				else
+				{
+					ItemStart[] starts = output.getSpans(0, output.length(), ItemStart.class);
+					if (starts.length == 0)
+						return;
+
+					ItemStart itemStart = starts[starts.length - 1];
+					int start = output.getSpanStart(itemStart);
+					output.removeSpan(itemStart);
+					// An empty item still gets a paragraph of its own
+					if (start == output.length())
+						output.append('\n');
+					boolean numbered = !lists.isEmpty() && lists.get(lists.size() - 1);
+					output.setSpan(new ListItemSpan(numbered), start, output.length(),
+						Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+				}
+			}
+		}
+
+		private static void startParagraph(Editable output)
+		{
+			if (output.length() > 0 && output.charAt(output.length() - 1) != '\n')
+				output.append('\n');
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.style.LeadingMarginSpan;
+
+/**
+ * Marks a paragraph as an item of a bulleted or numbered list, and draws its bullet or number in the leading margin.
+ * An item covers exactly one paragraph, including its line break; {@link ListMaintainer} keeps it that way while the
+ * text is edited, and keeps the numbers of the items of numbered lists up to date.
+ */
+final class ListItemSpan implements LeadingMarginSpan
+{
+	private static final int MARGIN_DP = 28;
+	private static final float BULLET_RADIUS_DP = 2.5f;
+
+	private final boolean numbered;
+	private final int margin;
+	private final float bulletRadius;
+	private int number = 1;
+
+	/**
+	 * @param numbered true for an item of a numbered list, false for a bullet point.
+	 */
+	ListItemSpan(boolean numbered)
+	{
+		this.numbered = numbered;
+		float density = Resources.getSystem().getDisplayMetrics().density;
+		margin = Math.round(MARGIN_DP * density);
+		bulletRadius = BULLET_RADIUS_DP * density;
+	}
+
+	boolean isNumbered()
+	{
+		return numbered;
+	}
+
+	/**
+	 * @return The number of the item within its list, starting at 1. Bullet points are numbered as well.
+	 */
+	int getNumber()
+	{
+		return number;
+	}
+
+	void setNumber(int number)
+	{
+		this.number = number;
+	}
+
+	@Override
+	public int getLeadingMargin(boolean first)
+	{
+		return margin;
+	}
+
+	@Override
+	public void drawLeadingMargin(Canvas c, Paint p, int x, int dir, int top, int baseline, int bottom,
+		CharSequence text, int start, int end, boolean first, Layout layout)
+	{
+		// Only the first line of the item gets a marker
+		if (!first || !(text instanceof Spanned) || ((Spanned)text).getSpanStart(this) != start)
+			return;
+
+		// The marker ends a bullet's width before the text
+		float gap = 3 * bulletRadius;
+		if (numbered)
+		{
+			String label = number + ".";
+			float width = p.measureText(label);
+			c.drawText(label, dir > 0 ? x + margin - gap - width : x - margin + gap, baseline, p);
+		}
+		else
+		{
+			Paint.Style style = p.getStyle();
+			p.setStyle(Paint.Style.FILL);
+			c.drawCircle(x + dir * (margin - gap - bulletRadius), (top + bottom) / 2f, bulletRadius, p);
+			p.setStyle(style);
+		}
+	}
+}
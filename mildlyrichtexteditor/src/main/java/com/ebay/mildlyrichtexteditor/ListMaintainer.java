@@ -0,0 +1,259 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextUtils;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the {@link ListItemSpan}s of the text in shape while it is edited: every item covers exactly one paragraph,
+ * and the items of a numbered list are numbered consecutively.
+ * <p>
+ * After a change, only the paragraphs the change touched are looked at. They all take over the list state of the
+ * paragraph the change started in, so Enter within an item adds an item, pasted lines become items, and paragraphs
+ * merged by Backspace keep the state of the first one. If the change removed the whole text of that first paragraph,
+ * the state of the paragraph that remains is kept instead. Enter on an empty item ends the list. Numbers are only
+ * updated when line breaks were added or removed, and then only from the changed paragraphs up to the first item
+ * that already has the right number.
+ */
+final class ListMaintainer extends EditableObserver
+{
+	private static final int FLAGS = Spanned.SPAN_EXCLUSIVE_INCLUSIVE;
+
+	private boolean changePending;
+	@Nullable private ListItemSpan changeItem;
+	private boolean lineBreaksChanged;
+	private boolean endsList;
+	private int changeStart;
+	private int changeEnd;
+
+	@Override
+	void onAttached(@Nullable Spannable text)
+	{
+		changePending = false;
+		changeItem = null;
+		if (text == null)
+			return;
+
+		// Items imported from HTML may cover several paragraphs, or share one
+		ListItemSpan[] items = sortByStart(text, text.getSpans(0, text.length(), ListItemSpan.class));
+		int previousStart = -1;
+		for (ListItemSpan item : items)
+		{
+			int start = paragraphStart(text, text.getSpanStart(item));
+			if (start == previousStart)
+				text.removeSpan(item);
+			else
+			{
+				setItem(text, item, start);
+				previousStart = start;
+			}
+		}
+		renumber(text, 0, text.length());
+	}
+
+	@Override
+	public void beforeTextChanged(CharSequence s, int start, int count, int after)
+	{
+		if (s != getAttachedText())
+			return;
+
+		Spanned text = (Spanned)s;
+		int first = paragraphStart(text, start);
+		boolean removesLineBreak = count > 0 && TextUtils.indexOf(text, '\n', start, start + count) >= 0;
+		changeItem = itemAt(text, first == start && removesLineBreak ? paragraphStart(text, start + count) : first);
+		endsList = changeItem != null && count == 0 && after == 1 && first == start &&
+			(start == text.length() || text.charAt(start) == '\n');
+		lineBreaksChanged = removesLineBreak;
+		changePending = true;
+	}
+
+	@Override
+	public void onTextChanged(CharSequence s, int start, int before, int count)
+	{
+		if (!changePending)
+			return;
+
+		changeStart = start;
+		changeEnd = start + count;
+		lineBreaksChanged |= count > 0 && TextUtils.indexOf(s, '\n', start, start + count) >= 0;
+		endsList &= count == 1 && s.charAt(start) == '\n';
+	}
+
+	@Override
+	public void afterTextChanged(Editable s)
+	{
+		if (!changePending || s != getAttachedText())
+			return;
+
+		changePending = false;
+		boolean endList = endsList;
+		int start = changeStart;
+		int first = paragraphStart(s, start);
+		int last = paragraphStart(s, Math.min(changeEnd, s.length()));
+		setItems(s, first, last, endList ? null : changeItem);
+		if (lineBreaksChanged)
+			renumber(s, first, last);
+
+		// Take back the line break, which reports a change of its own
+		if (endList)
+			s.delete(start, start + 1);
+	}
+
+	/**
+	 * Turns the paragraphs overlapping the given range into list items, or back into plain paragraphs if they
+	 * already all are items of the requested kind.
+	 *
+	 * @param numbered true for a numbered list, false for a bulleted list.
+	 */
+	static void toggle(@NonNull Spannable text, int selStart, int selEnd, boolean numbered)
+	{
+		int first = paragraphStart(text, Math.min(selStart, selEnd));
+		int last = paragraphStart(text, Math.max(selStart, selEnd));
+
+		boolean remove = true;
+		for (int p = first; p >= 0 && p <= last && remove; p = nextParagraph(text, p))
+		{
+			ListItemSpan item = itemAt(text, p);
+			remove = item != null && item.isNumbered() == numbered;
+		}
+
+		setItems(text, first, last, remove ? null : new ListItemSpan(numbered));
+		renumber(text, first, last);
+	}
+
+	/**
+	 * @return The item of the paragraph at the given position, if it is one.
+	 */
+	@Nullable
+	static ListItemSpan itemAt(@NonNull Spanned text, int position)
+	{
+		int start = paragraphStart(text, position);
+		for (ListItemSpan item : text.getSpans(start, start, ListItemSpan.class))
+		{
+			if (text.getSpanStart(item) == start)
+				return item;
+		}
+		return null;
+	}
+
+	/**
+	 * Gives the paragraphs starting at {@code first} through {@code last} the list state of the given item: the
+	 * first paragraph gets the item itself, the others new items of the same kind. Items that grew into the
+	 * paragraphs from the paragraph before are cut back.
+	 *
+	 * @param item The item, or null to make the paragraphs plain paragraphs.
+	 */
+	private static void setItems(Spannable text, int first, int last, @Nullable ListItemSpan item)
+	{
+		int end = paragraphEnd(text, last);
+		for (ListItemSpan span : text.getSpans(first, end, ListItemSpan.class))
+		{
+			int spanStart = text.getSpanStart(span);
+			if (spanStart < first)
+			{
+				if (text.getSpanEnd(span) > first)
+					text.setSpan(span, spanStart, first, FLAGS);
+			}
+			else if (spanStart < end || spanStart == last)
+			{
+				if (span != item)
+					text.removeSpan(span);
+			}
+		}
+
+		if (item == null)
+			return;
+
+		setItem(text, item, first);
+		for (int p = nextParagraph(text, first); p >= 0 && p <= last; p = nextParagraph(text, p))
+			setItem(text, new ListItemSpan(item.isNumbered()), p);
+	}
+
+	private static void setItem(Spannable text, ListItemSpan item, int paragraphStart)
+	{
+		int end = paragraphEnd(text, paragraphStart);
+		if (text.getSpanStart(item) != paragraphStart || text.getSpanEnd(item) != end)
+			text.setSpan(item, paragraphStart, end, FLAGS);
+	}
+
+	/**
+	 * Numbers the items of the lists from the paragraph at {@code first} on. Past the paragraph at {@code last}, it
+	 * stops at the first plain paragraph or at the first item that already has the right number, since the
+	 * numbers from there on did not change.
+	 */
+	static void renumber(@NonNull Spannable text, int first, int last)
+	{
+		int p = paragraphStart(text, first);
+		ListItemSpan previous = p > 0 ? itemAt(text, p - 1) : null;
+		int number = previous != null ? previous.getNumber() + 1 : 1;
+		boolean numbered = previous != null && previous.isNumbered();
+		for (; p >= 0; p = nextParagraph(text, p))
+		{
+			ListItemSpan item = itemAt(text, p);
+			if (item == null || item.isNumbered() != numbered)
+			{
+				// The item starts a new list
+				if (item == null && p > last)
+					break;
+				number = 1;
+				numbered = item != null && item.isNumbered();
+				if (item == null)
+					continue;
+			}
+
+			if (item.getNumber() != number)
+			{
+				item.setNumber(number);
+				// Setting the span again makes the TextView redraw its marker
+				text.setSpan(item, text.getSpanStart(item), text.getSpanEnd(item), text.getSpanFlags(item));
+			}
+			else if (p > last)
+				break;
+			number++;
+		}
+	}
+
+	static int paragraphStart(Spanned text, int position)
+	{
+		return position > 0 ? TextUtils.lastIndexOf(text, '\n', position - 1) + 1 : 0;
+	}
+
+	/**
+	 * @return The end of the paragraph starting at the given position, after its line break if it has one.
+	 */
+	static int paragraphEnd(Spanned text, int paragraphStart)
+	{
+		int lineBreak = TextUtils.indexOf(text, '\n', paragraphStart);
+		return lineBreak >= 0 ? lineBreak + 1 : text.length();
+	}
+
+	/**
+	 * @return The start of the paragraph after the one starting at the given position, or -1 if it is the last.
+	 */
+	static int nextParagraph(Spanned text, int paragraphStart)
+	{
+		int lineBreak = TextUtils.indexOf(text, '\n', paragraphStart);
+		return lineBreak >= 0 ? lineBreak + 1 : -1;
+	}
+
+	static ListItemSpan[] sortByStart(final Spanned text, ListItemSpan[] items)
+	{
+		Arrays.sort(items, new Comparator<ListItemSpan>()
+		{
+			@Override
+			public int compare(ListItemSpan a, ListItemSpan b)
+			{
+				int startA = text.getSpanStart(a);
+				int startB = text.getSpanStart(b);
+				return startA < startB ? -1 : startA == startB ? 0 : 1;
+			}
+		});
+		return items;
+	}
+}
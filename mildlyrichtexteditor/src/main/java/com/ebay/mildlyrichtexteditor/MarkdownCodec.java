@@ -0,0 +1,294 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import java.io.IOException;
+
+/**
+ * Converts between the editor's spans and Markdown, in a single pass in either direction.
+ * <p>
+ * The markup is {@code **bold**}, {@code *italic*} and {@code ++underline++}, and sizes from the font size palette
+ * are written as {@code [text]{size=24}}, the size being the absolute size shown on the palette buttons. Every line
+ * of the editor is a line of the Markdown.
+ * <p>
+ * Underline and sizes are extensions of this codec, as Markdown has no markup for them. Other Markdown readers show
+ * {@code ++underline++} with its plus signs, and {@code [text]{size=24}} as the bracketed text followed by
+ * {@code {size=24}}; only {@link #read(CharSequence)} applies them.
+ * <p>
+ * Characters that Markdown readers take as markup are escaped with a backslash: {@code \ * + [ ] _} and backticks
+ * anywhere, and {@code # - >} as well as the period or parenthesis of a number such as {@code 1.} at the start of a
+ * line, where they would start a heading, a list or a quote.
+ */
+final class MarkdownCodec
+{
+	private static final String SIZE_SUFFIX = "]{size=";
+	private static final int BOLD = StyleMask.BOLD;
+	private static final int ITALIC = StyleMask.ITALIC;
+	private static final int UNDERLINE = StyleMask.UNDERLINE;
+	private static final int SIZE = 1 << 3;
+
+	// Where a character is in its line, as far as block markup at the start of a line is concerned
+	private static final int LINE_START = 0;
+	private static final int LINE_NUMBER = 1;
+	private static final int LINE_TEXT = 2;
+
+	private MarkdownCodec()
+	{
+	}
+
+	/**
+	 * Writes the text as Markdown. Markers are closed and re-opened around line breaks and nest properly, so that
+	 * every line can be read on its own.
+	 */
+	static void write(@NonNull Spanned text, @NonNull Appendable out) throws IOException
+	{
+		write(text, StyleRunTable.of(text), out);
+	}
+
+	/**
+	 * Writes the text as Markdown, taking its styles from the given table rather than from spans.
+	 */
+	static void write(@NonNull CharSequence text, @NonNull StyleRunTable styles, @NonNull Appendable out)
+		throws IOException
+	{
+		int[] open = new int[4];
+		int openCount = 0;
+		int openSize = 0;
+		int line = LINE_START;
+
+		int length = Math.min(text.length(), styles.length());
+		for (int run = 0; run < styles.getRunCount() && styles.getRunStart(run) < length; run++)
+		{
+			int runStart = styles.getRunStart(run);
+			int runEnd = Math.min(length, styles.getRunEnd(run));
+
+			int mask = styles.getRunMask(run);
+			int size = StyleMask.size(mask);
+			int markers = mask & (BOLD | ITALIC | UNDERLINE) | (size != 0 ? SIZE : 0);
+
+			for (int i = runStart; i < runEnd; i++)
+			{
+				char c = text.charAt(i);
+				if (c == '\n')
+				{
+					while (openCount > 0)
+						close(out, open[--openCount], openSize);
+					out.append('\n');
+					line = LINE_START;
+					continue;
+				}
+
+				// Close from the innermost marker down to the outermost one that no longer applies, then open
+				// what is missing, outermost first
+				int keep = 0;
+				while (keep < openCount && (markers & open[keep]) != 0 && (open[keep] != SIZE || openSize == size))
+					keep++;
+				while (openCount > keep)
+					close(out, open[--openCount], openSize);
+
+				int opened = 0;
+				for (int k = 0; k < openCount; k++)
+					opened |= open[k];
+				for (int marker = SIZE; marker > 0; marker >>= 1)
+				{
+					if ((markers & marker) != 0 && (opened & marker) == 0)
+					{
+						out.append(openingMarker(marker));
+						open[openCount++] = marker;
+						if (marker == SIZE)
+							openSize = size;
+					}
+				}
+
+				if (needsEscape(c, line))
+					out.append('\\');
+				out.append(c);
+				if (c >= '0' && c <= '9' && line != LINE_TEXT)
+					line = LINE_NUMBER;
+				else if (c != ' ' || line != LINE_START)
+					line = LINE_TEXT;
+			}
+		}
+
+		while (openCount > 0)
+			close(out, open[--openCount], openSize);
+	}
+
+	/**
+	 * Reads Markdown written by {@link #write(Spanned, Appendable)}. Markers are applied when they are closed;
+	 * markers that are never closed are kept as literal text.
+	 */
+	@NonNull
+	static SpannableStringBuilder read(@NonNull CharSequence markdown)
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder();
+		int boldStart = -1;
+		int italicStart = -1;
+		int underlineStart = -1;
+		int sizeStart = -1;
+
+		int i = 0;
+		while (i < markdown.length())
+		{
+			char c = markdown.charAt(i);
+			if (c == '\\' && i + 1 < markdown.length() && isEscapable(markdown.charAt(i + 1)))
+			{
+				text.append(markdown.charAt(i + 1));
+				i += 2;
+			}
+			else if (c == '*' && i + 1 < markdown.length() && markdown.charAt(i + 1) == '*')
+			{
+				boldStart = toggle(text, boldStart, new StyleSpan(Typeface.BOLD));
+				i += 2;
+			}
+			else if (c == '*')
+			{
+				italicStart = toggle(text, italicStart, new StyleSpan(Typeface.ITALIC));
+				i++;
+			}
+			else if (c == '+' && i + 1 < markdown.length() && markdown.charAt(i + 1) == '+')
+			{
+				underlineStart = toggle(text, underlineStart, new MildlyRichTextEditor.CustomUnderlineSpan());
+				i += 2;
+			}
+			else if (c == '[' && sizeStart < 0)
+			{
+				sizeStart = text.length();
+				i++;
+			}
+			else if (c == ']' && sizeStart >= 0 && startsWith(markdown, i, SIZE_SUFFIX))
+			{
+				int digitsEnd = i + SIZE_SUFFIX.length();
+				int size = 0;
+				while (digitsEnd < markdown.length() && Character.isDigit(markdown.charAt(digitsEnd)) && size < 1000)
+					size = size * 10 + markdown.charAt(digitsEnd++) - '0';
+
+				if (size > 0 && digitsEnd < markdown.length() && markdown.charAt(digitsEnd) == '}')
+				{
+					setSpan(text, new RelativeSizeSpan(size / (float)StyleMask.DEFAULT_ABSOLUTE_SIZE), sizeStart);
+					sizeStart = -1;
+					i = digitsEnd + 1;
+				}
+				else
+				{
+					text.append(c);
+					i++;
+				}
+			}
+			else
+			{
+				text.append(c);
+				i++;
+			}
+		}
+
+		// Unbalanced markers are text, inserted from the last position backwards so earlier positions stay valid
+		int[] starts = {boldStart, italicStart, underlineStart, sizeStart};
+		String[] markers = {"**", "*", "++", "["};
+		while (true)
+		{
+			int last = -1;
+			for (int k = 0; k < starts.length; k++)
+			{
+				if (starts[k] >= 0 && (last < 0 || starts[k] > starts[last]))
+					last = k;
+			}
+			if (last < 0)
+				break;
+
+			text.insert(starts[last], markers[last]);
+			starts[last] = -1;
+		}
+		return text;
+	}
+
+	private static int toggle(SpannableStringBuilder text, int start, Object span)
+	{
+		if (start < 0)
+			return text.length();
+
+		setSpan(text, span, start);
+		return -1;
+	}
+
+	private static void setSpan(SpannableStringBuilder text, Object span, int start)
+	{
+		if (text.length() > start)
+			text.setSpan(span, start, text.length(), Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+	}
+
+	private static String openingMarker(int marker)
+	{
+		switch (marker)
+		{
+		case BOLD:
+			return "**";
+		case ITALIC:
+			return "*";
+		case UNDERLINE:
+			return "++";
+		default:
+			return "[";
+		}
+	}
+
+	private static void close(Appendable out, int marker, int size) throws IOException
+	{
+		if (marker == SIZE)
+			out.append(SIZE_SUFFIX).append(Integer.toString(size)).append('}');
+		else
+			out.append(openingMarker(marker));
+	}
+
+	/**
+	 * @param line Where the character is in its line: {@link #LINE_START} if only spaces precede it, or
+	 * 	{@link #LINE_NUMBER} if it follows a number at the start of the line.
+	 */
+	private static boolean needsEscape(char c, int line)
+	{
+		switch (c)
+		{
+		case '\\':
+		case '*':
+		case '+':
+		case '[':
+		case ']':
+		case '_':
+		case '`':
+			return true;
+		case '#':
+		case '-':
+		case '>':
+			return line == LINE_START;
+		case '.':
+		case ')':
+			return line == LINE_NUMBER;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean isEscapable(char c)
+	{
+		return needsEscape(c, LINE_START) || needsEscape(c, LINE_NUMBER);
+	}
+
+	private static boolean startsWith(CharSequence text, int index, String prefix)
+	{
+		if (index + prefix.length() > text.length())
+			return false;
+
+		for (int i = 0; i < prefix.length(); i++)
+		{
+			if (text.charAt(index + i) != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
@@ -1,26 +1,42 @@
 package com.ebay.mildlyrichtexteditor;
 
+import android.content.ClipData;
+import android.content.ClipboardManager;
 import android.content.Context;
 import android.graphics.Typeface;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.widget.AppCompatEditText;
 import android.text.Editable;
+import android.text.Html;
+import android.text.InputFilter;
 import android.text.Selection;
 import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.text.TextUtils;
 import android.text.TextWatcher;
+import android.text.style.AbsoluteSizeSpan;
 import android.text.style.CharacterStyle;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.ImageSpan;
 import android.text.style.RelativeSizeSpan;
 import android.text.style.StyleSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.URLSpan;
 import android.text.style.UnderlineSpan;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.WindowManager;
+import android.view.inputmethod.BaseInputConnection;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
 import android.widget.Button;
 import android.widget.CompoundButton;
 import android.widget.ImageButton;
@@ -28,17 +44,24 @@ import android.widget.LinearLayout;
 import android.widget.PopupWindow;
 import android.widget.ToggleButton;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.BOLD;
+import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.BULLETED_LIST;
 import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.FONT_SIZE;
 import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.ITALIC;
+import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.MONOSPACE;
+import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.NUMBERED_LIST;
+import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.SANS_SERIF;
+import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.SERIF;
 import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.UNDERLINE;
 
 /**
- * Standalone rich text editor widget, currently supporting bold, italic, underline and font size.
+ * Standalone rich text editor widget, currently supporting bold, italic, underline, font size and lists.
  * <p>
  * Adapted from https://github.com/agungsijawir/droid-writer/blob/master/DroidWriter/src/hu/scythe/droidwriter
  * /DroidWriterEditText.java
@@ -56,7 +79,9 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		FONT_SIZE("Font Size"),
 		SERIF("Serif"),
 		SANS_SERIF("Sans serif"),
-		MONOSPACE("Monospace");
+		MONOSPACE("Monospace"),
+		BULLETED_LIST("Bulleted list"),
+		NUMBERED_LIST("Numbered list");
 		private final String val;
 
 		Style(String val)
@@ -72,24 +97,69 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		}
 	}
 
+	/**
+	 * Callback invoked when the HTML produced by the editor grows, or would grow, beyond the limit set through
+	 * {@link #setMaxHtmlBytes(int, OnHtmlBudgetExceededListener)}.
+	 */
+	public interface OnHtmlBudgetExceededListener
+	{
+		/**
+		 * @param estimatedBytes The estimated size of the HTML, including the input that was trimmed or rejected.
+		 * @param maxBytes The configured limit.
+		 */
+		void onHtmlBudgetExceeded(int estimatedBytes, int maxBytes);
+	}
+
+	/**
+	 * Callback invoked on the main thread once the text passed to
+	 * {@link #setTextHtmlAsync(String, OnTextLoadedListener)} has been set.
+	 */
+	public interface OnTextLoadedListener
+	{
+		void onTextLoaded();
+	}
+
+	/**
+	 * Callback invoked with the changes of the editor's text, on the executor given to
+	 * {@link #addOnDocumentChangeListener(OnDocumentChangeListener, Executor)}.
+	 */
+	public interface OnDocumentChangeListener
+	{
+		/**
+		 * @param change The change, or the changes made since the previous call combined into one if the listener
+		 * 	was still busy with that call when they were made.
+		 */
+		void onDocumentChanged(@NonNull DocumentChange change);
+	}
+
 	private static final String DEFAULT_ABSOLUTE_SIZE = "14";
-	private static final String ABS_SIZE_10 = "10";
-	private static final String ABS_SIZE_14 = "14";
-	private static final String ABS_SIZE_16 = "16";
-	private static final String ABS_SIZE_18 = "18";
-	private static final String ABS_SIZE_24 = "24";
-	private static final String ABS_SIZE_32 = "32";
-	private static final String ABS_SIZE_48 = "48";
 	private ImageButton fontSizeButton;
 	@VisibleForTesting protected List<ToggleButton> fontSizeButtons;
 	@VisibleForTesting protected PopupWindow popupWindow;
 	@VisibleForTesting protected ToggleButton boldButton;
 	@VisibleForTesting protected ToggleButton italicsButton;
 	@VisibleForTesting protected ToggleButton underlineButton;
+	@Nullable private ToggleButton bulletedListButton;
+	@Nullable private ToggleButton numberedListButton;
+	@Nullable private ToggleButton serifButton;
+	@Nullable private ToggleButton sansSerifButton;
+	@Nullable private ToggleButton monospaceButton;
 	@VisibleForTesting protected Float currentRelativeSize = 1f;
 	@VisibleForTesting protected boolean isDeletion;
 	@VisibleForTesting protected boolean isEditorEmpty;
 	private RichTextEditorTextWatcher textWatcher;
+	private int batchDepth;
+	@Nullable private HtmlSizeBudget htmlSizeBudget;
+	@Nullable private HtmlSanitizer htmlSanitizer = new HtmlSanitizer();
+	@Nullable private HtmlSanitizer.Report lastSanitizerReport;
+	@Nullable private DeltaRecorder deltaRecorder;
+	@Nullable private EditorTraceRecorder traceRecorder;
+	@Nullable private DocumentChangeStream changeStream;
+	private StyleRunTracker styleRuns;
+	@Nullable private AutoLinker autoLinker;
+	private ListMaintainer lists;
+	@Nullable private InlineImageLoader imageLoader;
+	@Nullable private HtmlTextLoader textLoader;
 
 	public MildlyRichTextEditor(Context context, AttributeSet attrs)
 	{
@@ -99,8 +169,19 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 
 	private void initialize()
 	{
+		// Re-wrap the text set by the TextView's constructor in an editable with indexed span queries
+		setEditableFactory(IndexedEditable.Factory.getInstance());
+		setText(getText());
+
 		textWatcher = new RichTextEditorTextWatcher();
 		addTextChangedListener(textWatcher);
+		styleRuns = new StyleRunTracker();
+		styleRuns.attach(getText());
+		autoLinker = new AutoLinker();
+		autoLinker.attach(getText());
+		lists = new ListMaintainer();
+		lists.attach(getText());
+		imageLoader = new InlineImageLoader(getContext());
 	}
 
 	/**
@@ -154,6 +235,91 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		});
 	}
 
+	/**
+	 * Sets the serif font family button and its onClick event listener
+	 *
+	 * @param button A ToggleButton for the serif font family
+	 */
+	public void setSerifToggleButton(ToggleButton button)
+	{
+		serifButton = button;
+		serifButton.setOnClickListener(new Button.OnClickListener()
+		{
+			public void onClick(View v)
+			{
+				toggleFontFamily(SERIF);
+			}
+		});
+	}
+
+	/**
+	 * Sets the sans serif font family button and its onClick event listener
+	 *
+	 * @param button A ToggleButton for the sans serif font family
+	 */
+	public void setSansSerifToggleButton(ToggleButton button)
+	{
+		sansSerifButton = button;
+		sansSerifButton.setOnClickListener(new Button.OnClickListener()
+		{
+			public void onClick(View v)
+			{
+				toggleFontFamily(SANS_SERIF);
+			}
+		});
+	}
+
+	/**
+	 * Sets the monospace font family button and its onClick event listener
+	 *
+	 * @param button A ToggleButton for the monospace font family
+	 */
+	public void setMonospaceToggleButton(ToggleButton button)
+	{
+		monospaceButton = button;
+		monospaceButton.setOnClickListener(new Button.OnClickListener()
+		{
+			public void onClick(View v)
+			{
+				toggleFontFamily(MONOSPACE);
+			}
+		});
+	}
+
+	/**
+	 * Sets the bulleted list button and its onClick event listener
+	 *
+	 * @param button A ToggleButton for bulleted lists
+	 */
+	public void setBulletedListToggleButton(ToggleButton button)
+	{
+		bulletedListButton = button;
+		bulletedListButton.setOnClickListener(new Button.OnClickListener()
+		{
+			public void onClick(View v)
+			{
+				toggleStyle(BULLETED_LIST, null);
+			}
+		});
+	}
+
+	/**
+	 * Sets the numbered list button and its onClick event listener
+	 *
+	 * @param button A ToggleButton for numbered lists
+	 */
+	public void setNumberedListToggleButton(ToggleButton button)
+	{
+		numberedListButton = button;
+		numberedListButton.setOnClickListener(new Button.OnClickListener()
+		{
+			public void onClick(View v)
+			{
+				toggleStyle(NUMBERED_LIST, null);
+			}
+		});
+	}
+
 	/**
 	 * Sets the font size button and its onClick event listener. Initializes the PopupWindow
 	 * containing the various supported font sizes.
@@ -201,14 +367,72 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		if (underlineButton != null)
 			state.isUnderlineButtonOn = underlineButton.isChecked();
 
+		if (fontSizeButtons != null)
+		{
+			for (ToggleButton t : fontSizeButtons)
+			{
+				if (t.isChecked())
+					state.checkedFontSize = t.getText().toString();
+			}
+		}
+		state.currentRelativeSize = currentRelativeSize;
+		state.checkedFontFamily = getCheckedFontFamily();
+
+		// The TextView saves the text with its parcelable spans only: underlines come back as plain UnderlineSpans,
+		// font families as plain TypefaceSpans and list items not at all
+		Editable text = getText();
+		if (text != null)
+		{
+			CustomUnderlineSpan[] underlines = text.getSpans(0, text.length(), CustomUnderlineSpan.class);
+			state.underlineRanges = new int[underlines.length * 2];
+			for (int i = 0; i < underlines.length; i++)
+			{
+				state.underlineRanges[2 * i] = text.getSpanStart(underlines[i]);
+				state.underlineRanges[2 * i + 1] = text.getSpanEnd(underlines[i]);
+			}
+
+			ListItemSpan[] items =
+				ListMaintainer.sortByStart(text, text.getSpans(0, text.length(), ListItemSpan.class));
+			state.listItemStarts = new int[items.length];
+			state.numberedListItems = new boolean[items.length];
+			for (int i = 0; i < items.length; i++)
+			{
+				state.listItemStarts[i] = text.getSpanStart(items[i]);
+				state.numberedListItems[i] = items[i].isNumbered();
+			}
+		}
+
 		return state;
 	}
 
+	/**
+	 * Restores the text, the styles the TextView cannot save and the state of the style controls. The editor keeps
+	 * the text watcher added by its constructor, since the TextView keeps its listeners when its text is replaced.
+	 */
 	@Override
 	public void onRestoreInstanceState(Parcelable state)
 	{
 		EditorState editorState = (EditorState)state;
+		// Like any converted text, the restored text is not treated as typed by the user
+		if (textWatcher != null)
+			removeTextChangedListener(textWatcher);
 		super.onRestoreInstanceState(editorState.getSuperState());
+		if (textWatcher != null)
+			addTextChangedListener(textWatcher);
+
+		Editable text = getText();
+		if (text != null)
+		{
+			restoreUnderlines(text, editorState.underlineRanges);
+			FontFamilySpan.replacePlatformSpans(text);
+			for (int i = 0; i < editorState.listItemStarts.length; i++)
+			{
+				int start = editorState.listItemStarts[i];
+				if (start <= text.length() && ListMaintainer.paragraphStart(text, start) == start &&
+					ListMaintainer.itemAt(text, start) == null)
+					ListMaintainer.toggle(text, start, start, editorState.numberedListItems[i]);
+			}
+		}
 
 		if (boldButton != null)
 			boldButton.setChecked(editorState.isBoldButtonOn);
@@ -219,7 +443,35 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		if (underlineButton != null)
 			underlineButton.setChecked(editorState.isUnderlineButtonOn);
 
-		addTextChangedListener(new RichTextEditorTextWatcher());
+		// Restoring the selection must not apply the size to the text again
+		if (fontSizeButtons != null && editorState.checkedFontSize != null)
+			checkFontSizeButton(editorState.checkedFontSize);
+		currentRelativeSize = editorState.currentRelativeSize;
+		updateFontFamilyButtons(editorState.checkedFontFamily);
+		updateListButtons(getSelectionStart());
+	}
+
+	/**
+	 * Turns the UnderlineSpans the TextView restored in place of CustomUnderlineSpans back into CustomUnderlineSpans.
+	 *
+	 * @param ranges The start and end of every CustomUnderlineSpan, as saved.
+	 */
+	private static void restoreUnderlines(Editable text, int[] ranges)
+	{
+		for (int i = 0; i + 1 < ranges.length; i += 2)
+		{
+			for (UnderlineSpan span : text.getSpans(ranges[i], ranges[i + 1], UnderlineSpan.class))
+			{
+				if (!(span instanceof CustomUnderlineSpan) && text.getSpanStart(span) == ranges[i] &&
+					text.getSpanEnd(span) == ranges[i + 1])
+				{
+					int flags = text.getSpanFlags(span);
+					text.removeSpan(span);
+					text.setSpan(new CustomUnderlineSpan(), ranges[i], ranges[i + 1], flags);
+					break;
+				}
+			}
+		}
 	}
 
 	/**
@@ -235,7 +487,9 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 	{
 		if (isChecked)
 		{
-			toggleStyle(FONT_SIZE, currentRelativeSize);
+			// The size of the button checked, rather than the size of the text typed last
+			float absoluteSize = Float.parseFloat(buttonView.getText().toString());
+			toggleStyle(FONT_SIZE, absoluteSize / StyleMask.DEFAULT_ABSOLUTE_SIZE);
 			for (ToggleButton t : fontSizeButtons)
 			{
 				if (t.getId() != buttonView.getId())
@@ -252,6 +506,22 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		popupWindow.dismiss();
 	}
 
+	/**
+	 * Checks the font size button showing the given size and unchecks the others. Checking a size is no request to
+	 * apply it, so the buttons' listener is left out.
+	 *
+	 * @param absoluteSize The size as the buttons show it.
+	 */
+	private void checkFontSizeButton(String absoluteSize)
+	{
+		for (ToggleButton t : fontSizeButtons)
+		{
+			t.setOnCheckedChangeListener(null);
+			t.setChecked(absoluteSize.equals(t.getText().toString()));
+			t.setOnCheckedChangeListener(this);
+		}
+	}
+
 	/**
 	 * Converts the current Editable in the MildlyRichTextEditor widget to HTML and returns it.
 	 *
@@ -259,7 +529,437 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 	 */
 	public String getTextHtml()
 	{
-		return RichTextEditorUtil.compatToHtml(sanitizeUnderlineSpan(getText()));
+		boolean traced = EditorTracing.begin(EditorTracing.GET_TEXT_HTML);
+		try
+		{
+			Editable text = getText();
+			EditorTracing.count(text);
+			return ListHtml.toHtml(sanitizeUnderlineSpan(text));
+		}
+		finally
+		{
+			if (traced)
+				EditorTracing.end();
+		}
+	}
+
+	/**
+	 * Converts a range of the editor's text to HTML, in the format of {@link #getTextHtml()}. Only the range and
+	 * the spans overlapping it are looked at, with the spans clipped to the range, so the cost does not depend on the
+	 * length of the rest of the document.
+	 *
+	 * @param start The start of the range.
+	 * @param end The end of the range.
+	 * @return The HTML of the range, empty for an empty range.
+	 */
+	@NonNull
+	public String getHtml(int start, int end)
+	{
+		Spanned range = copyRange(start, end);
+		return range != null ? ListHtml.toHtml(range) : "";
+	}
+
+	/**
+	 * Writes the HTML of a range of the editor's text, as returned by {@link #getHtml(int, int)}. The HTML is written
+	 * line by line as it is converted, rather than collected first.
+	 *
+	 * @param start The start of the range.
+	 * @param end The end of the range.
+	 * @param out The destination of the HTML.
+	 * @throws IOException If writing to the destination fails.
+	 */
+	public void writeHtml(int start, int end, @NonNull Appendable out) throws IOException
+	{
+		Spanned range = copyRange(start, end);
+		if (range != null)
+			ListHtml.write(range, out);
+	}
+
+	/**
+	 * Copies a range of the editor's text with the spans its HTML is written from, clipped to the range. The
+	 * underlines the platform adds are left out, like {@link #sanitizeUnderlineSpan(Editable)} does, without changing
+	 * the text.
+	 *
+	 * @return The copy, or null if the range is empty.
+	 */
+	@Nullable
+	private Spanned copyRange(int start, int end)
+	{
+		Editable text = getText();
+		if (text == null)
+			return null;
+
+		start = Math.max(0, Math.min(start, text.length()));
+		end = Math.max(start, Math.min(end, text.length()));
+		if (start == end)
+			return null;
+
+		SpannableStringBuilder copy = new SpannableStringBuilder(TextUtils.substring(text, start, end));
+		for (CharacterStyle span : text.getSpans(start, end, CharacterStyle.class))
+			copySpan(text, span, copyOf(span), start, end, copy);
+		for (ListItemSpan item : text.getSpans(start, end, ListItemSpan.class))
+			copySpan(text, item, new ListItemSpan(item.isNumbered()), start, end, copy);
+		return copy;
+	}
+
+	/**
+	 * @return A new span with the same style as the given one, for the styles HTML is written from, or null for the
+	 * 	others and for the underlines the platform adds.
+	 */
+	@Nullable
+	private static CharacterStyle copyOf(CharacterStyle span)
+	{
+		if (span instanceof StyleSpan)
+			return new StyleSpan(((StyleSpan)span).getStyle());
+		if (span instanceof CustomUnderlineSpan)
+			return new CustomUnderlineSpan();
+		if (span instanceof RelativeSizeSpan)
+			return new RelativeSizeSpan(((RelativeSizeSpan)span).getSizeChange());
+		if (span instanceof AbsoluteSizeSpan)
+		{
+			AbsoluteSizeSpan size = (AbsoluteSizeSpan)span;
+			return new AbsoluteSizeSpan(size.getSize(), size.getDip());
+		}
+		if (span instanceof FontFamilySpan)
+			return new FontFamilySpan(((FontFamilySpan)span).getFamilyCode());
+		if (span instanceof TypefaceSpan)
+			return new TypefaceSpan(((TypefaceSpan)span).getFamily());
+		if (span instanceof ForegroundColorSpan)
+			return new ForegroundColorSpan(((ForegroundColorSpan)span).getForegroundColor());
+		if (span instanceof AutoLinker.AutoLinkSpan)
+			return new AutoLinker.AutoLinkSpan(((URLSpan)span).getURL());
+		if (span instanceof URLSpan)
+			return new URLSpan(((URLSpan)span).getURL());
+		if (span instanceof ImageSpan)
+		{
+			ImageSpan image = (ImageSpan)span;
+			return new ImageSpan(image.getDrawable(), image.getSource(), image.getVerticalAlignment());
+		}
+		return null;
+	}
+
+	private static void copySpan(Spanned text, Object span, @Nullable Object copySpan, int start, int end,
+		SpannableStringBuilder copy)
+	{
+		int spanStart = Math.max(text.getSpanStart(span), start);
+		int spanEnd = Math.min(text.getSpanEnd(span), end);
+		if (copySpan != null && spanEnd > spanStart)
+			copy.setSpan(copySpan, spanStart - start, spanEnd - start, text.getSpanFlags(span));
+	}
+
+	/**
+	 * Puts the selection on the clipboard with its styles, as HTML next to the plain text, when it is copied or cut.
+	 * Pasting it into another editor keeps its styles.
+	 */
+	@Override
+	public boolean onTextContextMenuItem(int id)
+	{
+		if (id != android.R.id.copy && id != android.R.id.cut)
+			return super.onTextContextMenuItem(id);
+
+		int start = Math.min(getSelectionStart(), getSelectionEnd());
+		int end = Math.max(getSelectionStart(), getSelectionEnd());
+		Editable text = getText();
+		if (text == null || start < 0 || start == end)
+			return super.onTextContextMenuItem(id);
+
+		// Cutting removes the text, so the clip is made first
+		ClipData clip = ClipData.newHtmlText(null, TextUtils.substring(text, start, end), getHtml(start, end));
+		boolean handled = super.onTextContextMenuItem(id);
+		ClipboardManager clipboard = (ClipboardManager)getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+		if (handled && clipboard != null)
+			clipboard.setPrimaryClip(clip);
+		return handled;
+	}
+
+	/**
+	 * Converts the current Editable in the MildlyRichTextEditor widget to Markdown and returns it.
+	 *
+	 * @return A string containing the resulting Markdown from conversion of the editor's rich text.
+	 */
+	public String getTextMarkdown()
+	{
+		StringBuilder markdown = new StringBuilder();
+		try
+		{
+			writeTextMarkdown(markdown);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e); // StringBuilder does not throw
+		}
+		return markdown.toString();
+	}
+
+	/**
+	 * Converts the current Editable in the MildlyRichTextEditor widget to Markdown, writing it out as it goes.
+	 *
+	 * @param out The destination of the Markdown.
+	 * @throws IOException If the destination fails.
+	 */
+	public void writeTextMarkdown(@NonNull Appendable out) throws IOException
+	{
+		Editable text = getText();
+		if (text != null)
+			MarkdownCodec.write(text, styleRuns.getTable(), out);
+	}
+
+	/**
+	 * Takes an immutable copy of the editor's content, which can be read on any thread while the editor goes on
+	 * being edited, e.g. to save the document in the background.
+	 *
+	 * @return The snapshot of the current text, its styles and its lists.
+	 */
+	@NonNull
+	public DocumentSnapshot snapshot()
+	{
+		Editable text = getText();
+		return DocumentSnapshot.of(text != null ? text : new SpannableString(""), styleRuns.getTable(),
+			autoLinker != null);
+	}
+
+	/**
+	 * Limits the size of the HTML returned by {@link #getTextHtml()}. The editor keeps an incremental estimate of
+	 * the HTML size while the user types and styles text, trims input that would not fit, and notifies the
+	 * listener whenever the limit is crossed. Text set as a whole, e.g. through {@link #setTextHtml(String)}, is
+	 * kept complete even if it is over the limit, so loading a description never loses part of it.
+	 *
+	 * @param maxBytes The maximum number of bytes of HTML, or 0 to remove the limit.
+	 * @param listener Notified when input is trimmed or the estimate otherwise goes over the limit.
+	 */
+	public void setMaxHtmlBytes(int maxBytes, @Nullable OnHtmlBudgetExceededListener listener)
+	{
+		List<InputFilter> filters = new ArrayList<>(Arrays.asList(getFilters()));
+		if (htmlSizeBudget != null)
+		{
+			filters.remove(htmlSizeBudget);
+			htmlSizeBudget.attach(null);
+			htmlSizeBudget = null;
+		}
+
+		if (maxBytes > 0)
+		{
+			htmlSizeBudget = new HtmlSizeBudget(maxBytes, listener);
+			htmlSizeBudget.attach(getText());
+			filters.add(htmlSizeBudget);
+		}
+		setFilters(filters.toArray(new InputFilter[filters.size()]));
+	}
+
+	/**
+	 * @return The estimated size in bytes of the HTML returned by {@link #getTextHtml()}, or -1 if no limit has
+	 * 	been set through {@link #setMaxHtmlBytes(int, OnHtmlBudgetExceededListener)}.
+	 */
+	public int getEstimatedHtmlBytes()
+	{
+		return htmlSizeBudget != null ? htmlSizeBudget.getEstimatedBytes() : -1;
+	}
+
+	@Override
+	public void setText(CharSequence text, BufferType type)
+	{
+		// Whatever text is set last wins over a load still in progress
+		if (textLoader != null)
+			textLoader.cancel();
+		if (textWatcher != null)
+			textWatcher.cancelPendingStyles();
+		super.setText(text, type);
+
+		// The TextView may have wrapped the text in a new Editable, which does not carry our observers over
+		if (styleRuns != null)
+		{
+			styleRuns.attach(getText());
+			// Before the other observers see the spans, so that they start from the compacted ones
+			styleRuns.compact();
+		}
+		if (autoLinker != null)
+			autoLinker.attach(getText());
+		if (lists != null)
+			lists.attach(getText());
+		if (htmlSizeBudget != null)
+			htmlSizeBudget.attach(getText());
+		if (deltaRecorder != null)
+			deltaRecorder.attach(getText());
+		if (traceRecorder != null)
+			traceRecorder.attach(getText());
+		if (changeStream != null && changeStream.hasChannels())
+		{
+			changeStream.attach(getText());
+			publishChanges();
+		}
+	}
+
+	@Override
+	public void beginBatchEdit()
+	{
+		if (traceRecorder != null)
+			traceRecorder.onBatchEdit(true);
+		batchDepth++;
+		super.beginBatchEdit();
+	}
+
+	@Override
+	public void endBatchEdit()
+	{
+		if (traceRecorder != null)
+			traceRecorder.onBatchEdit(false);
+		super.endBatchEdit();
+		if (batchDepth > 0)
+			batchDepth--;
+
+		// Text entered by an input method is styled once it has committed the word it was composing
+		Editable text = getText();
+		if (batchDepth == 0 && textWatcher != null && text != null &&
+			BaseInputConnection.getComposingSpanStart(text) < 0)
+			textWatcher.applyPendingStyles();
+		finishEdit();
+	}
+
+	/**
+	 * Starts recording the input the editor receives into the given recorder, or stops the current recording.
+	 *
+	 * @param recorder The recorder to use, or null to stop recording.
+	 */
+	public void setTraceRecorder(@Nullable EditorTraceRecorder recorder)
+	{
+		if (traceRecorder != null)
+		{
+			traceRecorder.finish(getText());
+			traceRecorder.attach(null);
+		}
+
+		traceRecorder = recorder;
+		if (recorder != null)
+			recorder.attach(getText());
+	}
+
+	@Override
+	public InputConnection onCreateInputConnection(EditorInfo outAttrs)
+	{
+		InputConnection connection = super.onCreateInputConnection(outAttrs);
+		return connection != null ? new TracedInputConnection(connection) : null;
+	}
+
+	/**
+	 * Starts recording the changes made to the text, so they can be uploaded as deltas instead of the whole
+	 * document. The current content of the editor is taken to be the given version of the document.
+	 *
+	 * @param version The version of the current content, the base version of the first delta.
+	 */
+	public void startChangeTracking(long version)
+	{
+		stopChangeTracking();
+		deltaRecorder = new DeltaRecorder(version);
+		deltaRecorder.attach(getText());
+	}
+
+	/**
+	 * Stops recording changes, discarding the ones that were not taken yet.
+	 */
+	public void stopChangeTracking()
+	{
+		if (deltaRecorder != null)
+		{
+			deltaRecorder.attach(null);
+			deltaRecorder = null;
+		}
+	}
+
+	/**
+	 * Returns the changes recorded since the previous call, or since {@link #startChangeTracking(long)}, as a delta
+	 * from the current version of the document to the next one. Text changes and style changes, including those
+	 * made through the style controls, are all included.
+	 *
+	 * @return The delta, or null if nothing changed or changes are not being recorded.
+	 */
+	@Nullable
+	public DocumentDelta takeDelta()
+	{
+		return deltaRecorder != null ? deltaRecorder.takeDelta() : null;
+	}
+
+	/**
+	 * Starts delivering the changes of the text to the listener on the given executor: text replacements, style
+	 * changes and the version of the document they lead to. The text watcher of the editor has styled the entered
+	 * text by the time a change is made, and the listener gets the text and its styles as one change. A listener that
+	 * is still busy with a change when more are made gets them combined into one, so a slow listener, e.g. one
+	 * updating a preview, does not fall behind the user.
+	 *
+	 * @param executor Runs the listener, one change at a time.
+	 */
+	@MainThread
+	public void addOnDocumentChangeListener(@NonNull OnDocumentChangeListener listener, @NonNull Executor executor)
+	{
+		addDocumentChangeChannel(new DocumentChangeStream.ListenerChannel(listener, executor));
+	}
+
+	/**
+	 * Starts delivering the changes of the text to the listener on the main thread, after the event that made them
+	 * has been handled.
+	 *
+	 * @see #addOnDocumentChangeListener(OnDocumentChangeListener, Executor)
+	 */
+	@MainThread
+	public void addOnDocumentChangeListener(@NonNull OnDocumentChangeListener listener)
+	{
+		addOnDocumentChangeListener(listener, DocumentChangeStream.getMainThreadExecutor());
+	}
+
+	/**
+	 * Stops delivering changes to the listener. A change being delivered may still arrive.
+	 */
+	@MainThread
+	public void removeOnDocumentChangeListener(@NonNull OnDocumentChangeListener listener)
+	{
+		if (changeStream == null)
+			return;
+
+		changeStream.remove(listener);
+		if (!changeStream.hasChannels())
+			changeStream.attach(null);
+	}
+
+	@MainThread
+	void addDocumentChangeChannel(@NonNull DocumentChangeChannel channel)
+	{
+		// The stream only follows the text while somebody listens, and keeps its version in between
+		if (changeStream == null)
+			changeStream = new DocumentChangeStream();
+		if (!changeStream.hasChannels())
+			changeStream.attach(getText());
+		changeStream.add(channel);
+	}
+
+	@MainThread
+	void removeDocumentChangeChannel(@NonNull DocumentChangeChannel channel)
+	{
+		if (changeStream == null)
+			return;
+
+		changeStream.remove(channel);
+		if (!changeStream.hasChannels())
+			changeStream.attach(null);
+	}
+
+	/**
+	 * Ends an edit made outside of any batch edit, or the outermost batch edit: compacts the style spans if the edits
+	 * have fragmented them, then publishes the changes.
+	 */
+	private void finishEdit()
+	{
+		if (styleRuns != null && batchDepth == 0)
+			styleRuns.compactIfFragmented();
+		publishChanges();
+	}
+
+	/**
+	 * Hands the changes of the edit just made to the document change listeners, unless an input method is still
+	 * in the middle of a batch of edits.
+	 */
+	private void publishChanges()
+	{
+		if (changeStream != null && batchDepth == 0)
+			changeStream.flush();
 	}
 
 	/**
@@ -269,57 +969,340 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 	 */
 	@VisibleForTesting
 	@Nullable
-	Editable sanitizeUnderlineSpan(@Nullable Editable editable)
+	static Editable sanitizeUnderlineSpan(@Nullable Editable editable)
 	{
 		if (editable != null && editable.length() > 0)
 		{
-			CharacterStyle[] styles = editable.getSpans(0, editable.length(), CharacterStyle.class);
-			for (CharacterStyle style : styles)
+			boolean traced = EditorTracing.begin(EditorTracing.SANITIZE_UNDERLINE_SPAN);
+			try
 			{
-				if (style instanceof UnderlineSpan && !(style instanceof CustomUnderlineSpan))
-					editable.removeSpan(style);
+				CharacterStyle[] styles = editable.getSpans(0, editable.length(), CharacterStyle.class);
+				for (CharacterStyle style : styles)
+				{
+					if (style instanceof UnderlineSpan && !(style instanceof CustomUnderlineSpan))
+						editable.removeSpan(style);
+				}
+			}
+			finally
+			{
+				if (traced)
+					EditorTracing.end();
 			}
 		}
 		return editable;
 	}
 
 	/**
-	 * Sets the Editable in the MildlyRichTextEditor widget from the provided HTML input.
+	 * Sets the sanitizer that filters the HTML passed to {@link #setTextHtml(String)}. By default the editor uses
+	 * a {@link HtmlSanitizer} with its default limits.
+	 *
+	 * @param sanitizer The sanitizer to use, or null to hand the HTML to the platform parser unfiltered.
+	 */
+	public void setHtmlSanitizer(@Nullable HtmlSanitizer sanitizer)
+	{
+		htmlSanitizer = sanitizer;
+	}
+
+	/**
+	 * Turns the detection of web addresses on or off. While it is on, which is the default, addresses are turned
+	 * into links as they are typed or pasted, and {@link #getTextHtml()} exports them as {@code <a>} tags.
+	 *
+	 * @param enabled true to link web addresses.
+	 */
+	public void setAutoLinkEnabled(boolean enabled)
+	{
+		if (enabled == (autoLinker != null))
+			return;
+
+		Editable text = getText();
+		if (enabled)
+		{
+			autoLinker = new AutoLinker();
+			autoLinker.attach(text);
+		}
+		else
+		{
+			autoLinker.attach(null);
+			autoLinker = null;
+			if (text != null)
+			{
+				for (AutoLinker.AutoLinkSpan link : text.getSpans(0, text.length(), AutoLinker.AutoLinkSpan.class))
+					text.removeSpan(link);
+			}
+		}
+	}
+
+	/**
+	 * Sets the loader of the images in the HTML passed to {@link #setTextHtml(String)}. By default images are
+	 * loaded by an {@link InlineImageLoader} sharing its cache with all other editors.
+	 *
+	 * @param loader The image loader, or null to show the platform's placeholder for all images.
+	 */
+	public void setImageLoader(@Nullable InlineImageLoader loader)
+	{
+		imageLoader = loader;
+	}
+
+	/**
+	 * @return What the sanitizer removed from the HTML last passed to {@link #setTextHtml(String)}, or null if that
+	 * 	HTML was not sanitized.
+	 */
+	@Nullable
+	public HtmlSanitizer.Report getLastSanitizerReport()
+	{
+		return lastSanitizerReport;
+	}
+
+	/**
+	 * Sets the Editable in the MildlyRichTextEditor widget from the provided HTML input. The HTML is first passed
+	 * through the sanitizer set with {@link #setHtmlSanitizer(HtmlSanitizer)}.
 	 *
 	 * @param html A string containing HTML used to set the Editable text in the editor widget.
 	 */
 	public void setTextHtml(@Nullable String html)
 	{
-		if (!TextUtils.isEmpty(html))
+		lastSanitizerReport = null;
+		if (TextUtils.isEmpty(html))
+			return;
+
+		boolean traced = EditorTracing.begin(EditorTracing.SET_TEXT_HTML);
+		try
 		{
-			if (textWatcher != null)
-				removeTextChangedListener(textWatcher);
-			Spanned htmlDescription = RichTextEditorUtil.compatFromHtml(html);
-			// We need to substitute all UnderlineSpan spans on the text by spans of type
-			// CustomUnderlineSpan, since our editor works with this type of span.
-			Editable editableDescription = Editable.Factory.getInstance().newEditable(htmlDescription);
-			CharacterStyle[] styles = editableDescription.getSpans(0, htmlDescription.length(), CharacterStyle.class);
-			for (CharacterStyle style : styles)
-			{
-				if (style instanceof UnderlineSpan)
+			if (htmlSanitizer != null)
+			{
+				lastSanitizerReport = new HtmlSanitizer.Report();
+				html = htmlSanitizer.sanitize(html, lastSanitizerReport);
+			}
+
+			setConvertedText(fromHtml(html, imageLoader != null ? imageLoader.newImageGetter(this) : null));
+			EditorTracing.count(getText());
+		}
+		finally
+		{
+			if (traced)
+				EditorTracing.end();
+		}
+	}
+
+	/**
+	 * Sets the Editable in the MildlyRichTextEditor widget from the provided HTML input like
+	 * {@link #setTextHtml(String)}, but sanitizes and parses the HTML on a background thread, so that only setting
+	 * the text is left to the main thread. Use it for long documents.
+	 * <p>
+	 * The editor keeps its current text until the new text is set. Setting the text in any other way before that
+	 * cancels the load, and so does another call to this method.
+	 *
+	 * @param html A string containing HTML used to set the Editable text in the editor widget.
+	 * @param listener Notified once the text has been set, or null.
+	 */
+	public void setTextHtmlAsync(@Nullable String html, @Nullable final OnTextLoadedListener listener)
+	{
+		if (TextUtils.isEmpty(html))
+		{
+			if (textLoader != null)
+				textLoader.cancel();
+			lastSanitizerReport = null;
+			if (listener != null)
+				listener.onTextLoaded();
+			return;
+		}
+
+		if (textLoader == null)
+			textLoader = new HtmlTextLoader();
+		textLoader.load(html, htmlSanitizer, imageLoader != null ? imageLoader.newImageGetter(this) : null,
+			new HtmlTextLoader.Callback()
+			{
+				@Override
+				public void onLoaded(@NonNull CharSequence text, @Nullable HtmlSanitizer.Report report)
 				{
-					int spanStart = editableDescription.getSpanStart(style);
-					int spanEnd = editableDescription.getSpanEnd(style);
-					editableDescription.removeSpan(style);
-					editableDescription.setSpan(new CustomUnderlineSpan(), spanStart, spanEnd,
-						Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+					lastSanitizerReport = report;
+					setConvertedText(text);
+					if (listener != null)
+						listener.onTextLoaded();
 				}
+			});
+	}
+
+	@VisibleForTesting
+	void setTextLoader(@Nullable HtmlTextLoader loader)
+	{
+		textLoader = loader;
+	}
+
+	/**
+	 * Sets the Editable in the MildlyRichTextEditor widget from the provided Markdown input, in the format written
+	 * by {@link #getTextMarkdown()}.
+	 *
+	 * @param markdown A string containing Markdown used to set the Editable text in the editor widget.
+	 */
+	public void setTextMarkdown(@Nullable CharSequence markdown)
+	{
+		if (!TextUtils.isEmpty(markdown))
+			setConvertedText(MarkdownCodec.read(markdown));
+	}
+
+	/**
+	 * Sets the converted text of a whole document, without treating it as typed by the user.
+	 */
+	private void setConvertedText(CharSequence text)
+	{
+		if (textWatcher != null)
+			removeTextChangedListener(textWatcher);
+		setTextKeepState(text);
+
+		if (textWatcher != null)
+			addTextChangedListener(textWatcher);
+	}
+
+	/**
+	 * Converts HTML into the styled text the editor works with, without touching any editor state.
+	 *
+	 * @param html A string containing HTML.
+	 * @return The converted text, with trailing whitespace trimmed.
+	 */
+	static CharSequence fromHtml(@NonNull String html)
+	{
+		return fromHtml(html, null);
+	}
+
+	/**
+	 * Converts HTML into the styled text the editor works with, without touching any editor state.
+	 *
+	 * @param html A string containing HTML.
+	 * @param imageGetter Provides the drawables of the images, or null for the platform's placeholder.
+	 * @return The converted text, with trailing whitespace trimmed.
+	 */
+	static CharSequence fromHtml(@NonNull String html, @Nullable Html.ImageGetter imageGetter)
+	{
+		Spanned htmlDescription =
+			RichTextEditorUtil.compatFromHtml(ListHtml.prepare(html), imageGetter, new ListHtml.TagHandler());
+		// We need to substitute all UnderlineSpan spans on the text by spans of type
+		// CustomUnderlineSpan, since our editor works with this type of span.
+		Editable editableDescription = Editable.Factory.getInstance().newEditable(htmlDescription);
+		CharacterStyle[] styles = editableDescription.getSpans(0, htmlDescription.length(), CharacterStyle.class);
+		for (CharacterStyle style : styles)
+		{
+			if (style instanceof URLSpan && AutoLinker.isAddressLink(editableDescription, (URLSpan)style))
+			{
+				// The AutoLinker exports the addresses in the text like this, and finds them in the text again
+				editableDescription.removeSpan(style);
+			}
+			else if (style instanceof UnderlineSpan)
+			{
+				int spanStart = editableDescription.getSpanStart(style);
+				int spanEnd = editableDescription.getSpanEnd(style);
+				editableDescription.removeSpan(style);
+				editableDescription.setSpan(new CustomUnderlineSpan(), spanStart, spanEnd,
+					Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
 			}
-			String trimmedHtmlDescription = editableDescription.toString().trim();
-			setTextKeepState(editableDescription.subSequence(0, trimmedHtmlDescription.length()));
+		}
+		// <tt> and <font face> come as TypefaceSpans, which the editor turns into the families it offers
+		FontFamilySpan.replacePlatformSpans(editableDescription);
+		String trimmedHtmlDescription = editableDescription.toString().trim();
+		return editableDescription.subSequence(0, trimmedHtmlDescription.length());
+	}
 
+	/**
+	 * Finds all occurrences of the query in the editor's text.
+	 *
+	 * @param query The text to look for.
+	 * @param options A combination of {@link TextSearch#MATCH_CASE} and {@link TextSearch#WHOLE_WORD}, or 0.
+	 * @return The ranges of the text that match the query, in text order.
+	 */
+	@NonNull
+	public List<TextSearch.Match> find(@NonNull CharSequence query, int options)
+	{
+		Editable text = getText();
+		if (text == null)
+			return new ArrayList<>();
+
+		return TextSearch.find(text, query, options);
+	}
+
+	/**
+	 * Replaces all occurrences of the query in place, in a single batch edit. The bold, italic, underline and font
+	 * size styles covering an occurrence also cover its replacement, and the selection is kept.
+	 *
+	 * @param query The text to look for.
+	 * @param replacement The text to put in place of every occurrence.
+	 * @param options A combination of {@link TextSearch#MATCH_CASE} and {@link TextSearch#WHOLE_WORD}, or 0.
+	 * @return The number of occurrences that were replaced.
+	 */
+	public int replaceAll(@NonNull CharSequence query, @NonNull CharSequence replacement, int options)
+	{
+		Editable text = getText();
+		if (text == null)
+			return 0;
+
+		List<TextSearch.Match> matches = TextSearch.find(text, query, options);
+		if (matches.isEmpty())
+			return 0;
+
+		beginBatchEdit();
+		// The replacements take over the styles of the text they replace, not the state of the style controls
+		if (textWatcher != null)
+			removeTextChangedListener(textWatcher);
+		try
+		{
+			// Going backwards keeps the offsets of the remaining matches valid
+			for (int i = matches.size() - 1; i >= 0; i--)
+				replacePreservingStyles(text, matches.get(i), replacement);
+		}
+		finally
+		{
 			if (textWatcher != null)
 				addTextChangedListener(textWatcher);
+			endBatchEdit();
+		}
+		return matches.size();
+	}
+
+	private static void replacePreservingStyles(Editable text, TextSearch.Match match, CharSequence replacement)
+	{
+		CharacterStyle[] styles = text.getSpans(match.start, match.end, CharacterStyle.class);
+		int covering = 0;
+		int[] starts = new int[styles.length];
+		int[] ends = new int[styles.length];
+		int[] flags = new int[styles.length];
+		for (CharacterStyle style : styles)
+		{
+			int spanStart = text.getSpanStart(style);
+			int spanEnd = text.getSpanEnd(style);
+			if (isUserStyle(style) && spanStart <= match.start && spanEnd >= match.end)
+			{
+				styles[covering] = style;
+				starts[covering] = spanStart;
+				ends[covering] = spanEnd;
+				flags[covering] = text.getSpanFlags(style);
+				covering++;
+			}
+		}
+
+		// The input filters of the text, e.g. the HTML size budget, may shorten the replacement
+		int length = text.length();
+		text.replace(match.start, match.end, replacement, 0, replacement.length());
+
+		// Depending on their flags, spans starting or ending at the edges of the match no longer cover the
+		// replacement, or were dropped because the match was all of their text
+		int delta = text.length() - length;
+		for (int i = 0; i < covering; i++)
+		{
+			if (ends[i] + delta > starts[i])
+				text.setSpan(styles[i], starts[i], ends[i] + delta, flags[i]);
 			else
-				addTextChangedListener(new RichTextEditorTextWatcher());
+				text.removeSpan(styles[i]);
 		}
 	}
 
+	/**
+	 * @return true for the spans that represent styles applied by the user.
+	 */
+	static boolean isUserStyle(Object span)
+	{
+		return span instanceof StyleSpan || span instanceof CustomUnderlineSpan || span instanceof RelativeSizeSpan ||
+			span instanceof FontFamilySpan;
+	}
+
 	/**
 	 * Triggered when the user has (or has not) selected text within the editor widget. Also
 	 * triggered when the user types text, i.e. when the cursor has moved. Responsible for
@@ -333,6 +1316,24 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 	@Override
 	protected void onSelectionChanged(int selStart, int selEnd)
 	{
+		boolean traced = EditorTracing.begin(EditorTracing.SELECTION_CHANGED);
+		try
+		{
+			handleSelectionChanged(selStart, selEnd);
+		}
+		finally
+		{
+			if (traced)
+				EditorTracing.end();
+		}
+	}
+
+	private void handleSelectionChanged(int selStart, int selEnd)
+	{
+		if (traceRecorder != null)
+			traceRecorder.onSelectionChanged(selStart, selEnd);
+		updateListButtons(selStart);
+
 		if (isDeletion)
 		{
 			isDeletion = false;
@@ -345,96 +1346,147 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 			return;
 		}
 
-		if (boldButton == null || italicsButton == null || underlineButton == null || fontSizeButtons == null)
+		if (!hasToolbar())
 			return;
 
-		boolean boldExists = false;
-		boolean italicsExists = false;
-		boolean underlinedExists = false;
-		Float sizeProportion = null;
-
-		Editable text = getText();
-		if (text == null)
+		if (getText() == null)
 			return;
 
-		if (selStart > 0 && selStart == selEnd)
-		{ //user moved cursor
-			CharacterStyle[] styleSpans = text.getSpans(selStart - 1, selStart, CharacterStyle.class);
-			for (CharacterStyle styleSpan : styleSpans)
-			{
-				if (styleSpan instanceof StyleSpan)
-				{
-					if (((StyleSpan)styleSpan).getStyle() == Typeface.BOLD)
-						boldExists = true;
-					else if (((StyleSpan)styleSpan).getStyle() == Typeface.ITALIC)
-						italicsExists = true;
-					else if (((StyleSpan)styleSpan).getStyle() == Typeface.BOLD_ITALIC)
-						boldExists = italicsExists = true;
-				}
-				else if (styleSpan instanceof CustomUnderlineSpan)
-					underlinedExists = true;
-				else if (styleSpan instanceof RelativeSizeSpan)
-					sizeProportion = ((RelativeSizeSpan)styleSpan).getSizeChange();
-			}
-		}
-		else
-		{ //user selected multiple characters
-			CharacterStyle[] styleSpans = text.getSpans(selStart, selEnd, CharacterStyle.class);
-			for (CharacterStyle styleSpan : styleSpans)
-			{
-				if (text.getSpanStart(styleSpan) <= selStart && text.getSpanEnd(styleSpan) >= selEnd)
-				{
-					if (styleSpan instanceof StyleSpan)
-					{
-						if (((StyleSpan)styleSpan).getStyle() == Typeface.BOLD)
-							boldExists = true;
-						else if (((StyleSpan)styleSpan).getStyle() == Typeface.ITALIC)
-							italicsExists = true;
-						else if (((StyleSpan)styleSpan).getStyle() == Typeface.BOLD_ITALIC)
-							boldExists = italicsExists = true;
-					}
-					else if (styleSpan instanceof CustomUnderlineSpan)
-						underlinedExists = true;
-					else if (styleSpan instanceof RelativeSizeSpan)
-						sizeProportion = ((RelativeSizeSpan)styleSpan).getSizeChange();
-				}
-			}
+		// The cursor follows the word the input method is composing, which gets the styles of the style controls once
+		// it is committed, so the controls keep them rather than show the unstyled word
+		if (textWatcher != null && selStart == selEnd && textWatcher.isPending(selStart))
+		{
+			super.onSelectionChanged(selStart, selEnd);
+			return;
 		}
 
+		if (textWatcher != null)
+			textWatcher.cancelToolbarUpdate();
+
+		// The styles of the character before the cursor, or the styles of the whole selection
+		int styles = styleRuns.getSelectionStyles(selStart, selEnd);
+		boolean boldExists = (styles & StyleMask.BOLD) != 0;
+		boolean italicsExists = (styles & StyleMask.ITALIC) != 0;
+		boolean underlinedExists = (styles & StyleMask.UNDERLINE) != 0;
+		int size = StyleMask.size(styles);
+
 		boldButton.setChecked(boldExists);
 		italicsButton.setChecked(italicsExists);
 		underlineButton.setChecked(underlinedExists);
-		if (sizeProportion != null)
-		{
-			switch (sizeProportion.toString())
-			{
-			case ABS_SIZE_10:
-				fontSizeButtons.get(0).setChecked(true);
-				break;
-			case ABS_SIZE_14:
-				fontSizeButtons.get(1).setChecked(true);
-				break;
-			case ABS_SIZE_16:
-				fontSizeButtons.get(2).setChecked(true);
-				break;
-			case ABS_SIZE_18:
-				fontSizeButtons.get(3).setChecked(true);
-				break;
-			case ABS_SIZE_24:
-				fontSizeButtons.get(4).setChecked(true);
-				break;
-			case ABS_SIZE_32:
-				fontSizeButtons.get(5).setChecked(true);
-				break;
-			case ABS_SIZE_48:
-				fontSizeButtons.get(6).setChecked(true);
-				break;
-			}
-		}
+		updateFontFamilyButtons(StyleMask.family(styles));
+		if (size != 0)
+			checkFontSizeButton(Integer.toString(size));
 
 		super.onSelectionChanged(selStart, selEnd);
 	}
 
+	/**
+	 * Checks the list button matching the paragraph at the given position, if any.
+	 */
+	private void updateListButtons(int position)
+	{
+		Editable text = getText();
+		if (text == null || bulletedListButton == null && numberedListButton == null)
+			return;
+
+		ListItemSpan item = ListMaintainer.itemAt(text, Math.max(0, Math.min(position, text.length())));
+		if (bulletedListButton != null)
+			bulletedListButton.setChecked(item != null && !item.isNumbered());
+		if (numberedListButton != null)
+			numberedListButton.setChecked(item != null && item.isNumbered());
+	}
+
+	/**
+	 * Checks the button of the given font family and unchecks the buttons of the other families.
+	 *
+	 * @param family The family to show, or 0 for the default family.
+	 */
+	private void updateFontFamilyButtons(int family)
+	{
+		for (int f = FontFamilySpan.SERIF; f <= FontFamilySpan.MONOSPACE; f++)
+		{
+			ToggleButton button = getFontFamilyButton(f);
+			if (button != null)
+				button.setChecked(f == family);
+		}
+	}
+
+	/**
+	 * @return The font family whose button is checked, or 0 if none is.
+	 */
+	private int getCheckedFontFamily()
+	{
+		for (int family = FontFamilySpan.SERIF; family <= FontFamilySpan.MONOSPACE; family++)
+		{
+			ToggleButton button = getFontFamilyButton(family);
+			if (button != null && button.isChecked())
+				return family;
+		}
+		return 0;
+	}
+
+	@Nullable
+	private ToggleButton getFontFamilyButton(int family)
+	{
+		switch (family)
+		{
+		case FontFamilySpan.SERIF:
+			return serifButton;
+		case FontFamilySpan.SANS_SERIF:
+			return sansSerifButton;
+		case FontFamilySpan.MONOSPACE:
+			return monospaceButton;
+		default:
+			return null;
+		}
+	}
+
+	private boolean hasFontFamilyButtons()
+	{
+		return serifButton != null || sansSerifButton != null || monospaceButton != null;
+	}
+
+	/**
+	 * @return true if all style controls have been set, i.e. there is a style state to show and apply.
+	 */
+	private boolean hasToolbar()
+	{
+		return boldButton != null && italicsButton != null && underlineButton != null && fontSizeButtons != null;
+	}
+
+	/**
+	 * Disconnects the style controls from this editor, so that another editor can take them over. Text changes
+	 * made while the editor has no controls keep their spans as they are.
+	 */
+	void clearToolbar()
+	{
+		if (fontSizeButtons != null)
+		{
+			for (ToggleButton t : fontSizeButtons)
+				t.setOnCheckedChangeListener(null);
+		}
+		// The controls must not keep applying styles to this editor's text once they are handed on
+		for (View control : new View[] {boldButton, italicsButton, underlineButton, serifButton, sansSerifButton,
+			monospaceButton, bulletedListButton, numberedListButton, fontSizeButton})
+		{
+			if (control != null)
+				control.setOnClickListener(null);
+		}
+		if (popupWindow != null)
+			popupWindow.dismiss();
+		boldButton = null;
+		italicsButton = null;
+		underlineButton = null;
+		serifButton = null;
+		sansSerifButton = null;
+		monospaceButton = null;
+		bulletedListButton = null;
+		numberedListButton = null;
+		fontSizeButtons = null;
+		fontSizeButton = null;
+		popupWindow = null;
+	}
+
 	/**
 	 * Determines whether or not the user has made a selection based on the start and end of the
 	 * selection.
@@ -468,8 +1520,38 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 	@VisibleForTesting
 	protected void toggleStyle(Style style, Float relativeSize)
 	{
+		boolean traced = EditorTracing.begin(EditorTracing.TOGGLE_STYLE);
+		try
+		{
+			handleToggleStyle(style, relativeSize);
+			finishEdit();
+		}
+		finally
+		{
+			if (traced)
+				EditorTracing.end();
+		}
+	}
+
+	private void handleToggleStyle(Style style, Float relativeSize)
+	{
+		if (traceRecorder != null)
+			traceRecorder.onToggleStyle(style, relativeSize);
+
 		int selStart = getSelectionStart();
 		int selEnd = getSelectionEnd();
+		if (style == BULLETED_LIST || style == NUMBERED_LIST)
+		{
+			// Lists apply to whole paragraphs, so they do not need a selection
+			Editable text = getText();
+			if (text != null && selStart >= 0)
+			{
+				ListMaintainer.toggle(text, selStart, selEnd, style == NUMBERED_LIST);
+				updateListButtons(selStart);
+			}
+			return;
+		}
+
 		boolean sectionSelected = isTextSelected(selStart, selEnd);
 		if (!sectionSelected)
 			return;
@@ -478,24 +1560,28 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		if (str == null)
 			return;
 
-		boolean exists = false;
-
 		switch (style)
 		{
 		case BOLD:
-			toggleBoldOrItalicStyle(selStart, selEnd, str, Typeface.BOLD);
+			toggleFlagStyle(selStart, selEnd, str, StyleMask.BOLD);
 
 			break;
 		case ITALIC:
-			toggleBoldOrItalicStyle(selStart, selEnd, str, Typeface.ITALIC);
+			toggleFlagStyle(selStart, selEnd, str, StyleMask.ITALIC);
 
 			break;
 		case UNDERLINE:
-			toggleUnderlineStyle(selStart, selEnd, str);
+			toggleFlagStyle(selStart, selEnd, str, StyleMask.UNDERLINE);
 
 			break;
 		case FONT_SIZE:
-			toggleFontSizeStyle(relativeSize, selStart, selEnd, str, exists);
+			toggleFontSizeStyle(relativeSize, selStart, selEnd, str);
+
+			break;
+		case SERIF:
+		case SANS_SERIF:
+		case MONOSPACE:
+			toggleFontFamilyStyle(selStart, selEnd, str, FontFamilySpan.familyOf(style));
 
 			break;
 		}
@@ -503,70 +1589,157 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		setSelection(selStart, selEnd);
 	}
 
-	private void toggleFontSizeStyle(Float relativeSize, int selStart, int selEnd, Spannable str, boolean exists)
+	/**
+	 * Handles a click on a font family button: only one family can be checked at a time, and it also applies to
+	 * the selection, if there is one.
+	 */
+	private void toggleFontFamily(Style style)
 	{
-		CharacterStyle[] sizeSpans = str.getSpans(selStart, selEnd, CharacterStyle.class);
-		for (CharacterStyle sizeSpan : sizeSpans)
-		{
-			if (sizeSpan instanceof RelativeSizeSpan)
-			{
-				str.removeSpan(sizeSpan);
-				exists = true;
-			}
-		}
+		int family = FontFamilySpan.familyOf(style);
+		ToggleButton button = getFontFamilyButton(family);
+		updateFontFamilyButtons(button != null && button.isChecked() ? family : 0);
+		toggleStyle(style, null);
+	}
+
+	private void toggleFontFamilyStyle(int selectionStart, int selectionEnd, Spannable str, int family)
+	{
+		// The family is unset only if all of the selection has it, otherwise it replaces the families there
+		boolean exists = StyleMask.family(styleRuns.getSelectionStyles(selectionStart, selectionEnd)) == family;
+		RangeStyles.setFamily(str, selectionStart, selectionEnd, exists ? 0 : family);
+		updateFontFamilyButtons(exists ? 0 : family);
+	}
 
-		if (!exists)
-			str.setSpan(new RelativeSizeSpan(relativeSize), selStart, selEnd, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+	private void toggleFontSizeStyle(Float relativeSize, int selStart, int selEnd, Spannable str)
+	{
+		// The size is reset only if all of the selection has it, otherwise it replaces the sizes there
+		int size = StyleMask.size(StyleMask.withSize(0, Math.round(relativeSize * StyleMask.DEFAULT_ABSOLUTE_SIZE)));
+		boolean exists = StyleMask.size(styleRuns.getSelectionStyles(selStart, selEnd)) == size;
+		RangeStyles.setSize(str, selStart, selEnd, exists ? 0 : size);
+	}
+
+	/**
+	 * Turns bold, italic or underline off for the selection if all of it has the style, and on for all of it
+	 * otherwise. Text around the selection keeps its styles.
+	 */
+	private void toggleFlagStyle(int selectionStart, int selectionEnd, Spannable str, int flag)
+	{
+		boolean exists = (styleRuns.getSelectionStyles(selectionStart, selectionEnd) & flag) != 0;
+		RangeStyles.setFlag(str, selectionStart, selectionEnd, flag, !exists);
 	}
 
-	private void toggleUnderlineStyle(int selectionStart, int selectionEnd, Spannable str)
+	/**
+	 * TextWatcher that handles both addition and deletion of text. Removes and sets spans based
+	 * on the state of the style controls.
+	 */
+	@VisibleForTesting
+	/**
+	 * Records the composing calls of the input method into the trace recorder, if one is set when they are made.
+	 */
+	private class TracedInputConnection extends InputConnectionWrapper
 	{
-		boolean exists = false;
-		CustomUnderlineSpan[] underlineSpans = str.getSpans(selectionStart, selectionEnd, CustomUnderlineSpan.class);
+		TracedInputConnection(InputConnection target)
+		{
+			super(target, true);
+		}
 
-		//if underline set, unset it
-		for (CustomUnderlineSpan underlineSpan : underlineSpans)
+		@Override
+		public boolean setComposingText(CharSequence text, int newCursorPosition)
 		{
-			str.removeSpan(underlineSpan);
-			exists = true;
+			EditorTraceRecorder recorder = traceRecorder;
+			if (recorder == null)
+				return super.setComposingText(text, newCursorPosition);
+
+			recorder.beginInputMethodEvent(EditorTraceRecorder.COMPOSE,
+				newCursorPosition + " " + EditorTraceRecorder.escape(text));
+			try
+			{
+				return super.setComposingText(text, newCursorPosition);
+			}
+			finally
+			{
+				recorder.endInputMethodEvent();
+			}
 		}
 
-		if (!exists)  //set underline style since it has not been set
-			str.setSpan(new CustomUnderlineSpan(), selectionStart, selectionEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-	}
+		@Override
+		public boolean setComposingRegion(int start, int end)
+		{
+			EditorTraceRecorder recorder = traceRecorder;
+			if (recorder == null)
+				return super.setComposingRegion(start, end);
 
-	private void toggleBoldOrItalicStyle(int selectionStart, int selectionEnd, Spannable str, int typeface)
-	{
-		boolean exists = false;
-		final StyleSpan[] styleSpans;
-		final Iterator<StyleSpan> iterator;
-		styleSpans = str.getSpans(selectionStart, selectionEnd, StyleSpan.class);
+			recorder.beginInputMethodEvent(EditorTraceRecorder.COMPOSING_REGION, start + " " + end);
+			try
+			{
+				return super.setComposingRegion(start, end);
+			}
+			finally
+			{
+				recorder.endInputMethodEvent();
+			}
+		}
 
-		//if typeface already set, unset it
-		iterator = Arrays.asList(styleSpans).iterator();
-		while (iterator.hasNext())
+		@Override
+		public boolean finishComposingText()
 		{
-			StyleSpan styleSpan = iterator.next();
-			if (styleSpan.getStyle() == typeface)
+			EditorTraceRecorder recorder = traceRecorder;
+			if (recorder == null)
+				return super.finishComposingText();
+
+			recorder.beginInputMethodEvent(EditorTraceRecorder.FINISH_COMPOSING, "");
+			try
 			{
-				str.removeSpan(styleSpan);
-				exists = true;
+				return super.finishComposingText();
+			}
+			finally
+			{
+				recorder.endInputMethodEvent();
 			}
 		}
 
-		if (!exists) //set bold style since it has not been set
-			str.setSpan(new StyleSpan(typeface), selectionStart, selectionEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+		@Override
+		public boolean commitText(CharSequence text, int newCursorPosition)
+		{
+			EditorTraceRecorder recorder = traceRecorder;
+			if (recorder == null)
+				return super.commitText(text, newCursorPosition);
+
+			recorder.beginInputMethodEvent(EditorTraceRecorder.COMMIT,
+				newCursorPosition + " " + EditorTraceRecorder.escape(text));
+			try
+			{
+				return super.commitText(text, newCursorPosition);
+			}
+			finally
+			{
+				recorder.endInputMethodEvent();
+			}
+		}
 	}
 
-	/**
-	 * TextWatcher that handles both addition and deletion of text. Removes and sets spans based
-	 * on the state of the style controls.
-	 */
-	@VisibleForTesting
 	class RichTextEditorTextWatcher implements TextWatcher
 	{
-		private CharacterStyle[] prevStyles;
+		private static final int NO_STYLES = -1;
+
 		private int positionOffset = 0;
+		private int deletionStart = -1;
+		// The styles of the text deleted last, shown by the style controls on the next frame
+		private int deletedStyles = NO_STYLES;
+		private boolean toolbarUpdatePosted;
+		private final Runnable toolbarUpdate = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				toolbarUpdatePosted = false;
+				updateToolbar();
+			}
+		};
+		// The range changed while the input method was composing a word or within a batch edit, styled once the
+		// input settles
+		private int pendingStart = -1;
+		private int pendingEnd = -1;
+		private boolean deferred;
 
 		/**
 		 * Minimizing the risk of index out of bound exception.
@@ -587,20 +1760,34 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		@Override
 		public void afterTextChanged(Editable e)
 		{
-			if (TextUtils.isEmpty(e.toString().trim()))
+			boolean traced = EditorTracing.begin(EditorTracing.AFTER_TEXT_CHANGED);
+			try
+			{
+				handleAfterTextChanged(e);
+				finishEdit();
+			}
+			finally
+			{
+				if (traced)
+				{
+					EditorTracing.count(e);
+					EditorTracing.end();
+				}
+			}
+		}
+
+		private void handleAfterTextChanged(Editable e)
+		{
+			if (!hasToolbar())
+				return;
+
+			if (TextUtils.getTrimmedLength(e) == 0)
 			{
 				boldButton.setChecked(false);
 				italicsButton.setChecked(false);
 				underlineButton.setChecked(false);
-				for (ToggleButton t : fontSizeButtons)
-				{
-					t.setOnCheckedChangeListener(null);
-					if (DEFAULT_ABSOLUTE_SIZE.equals(t.getText().toString()))
-						t.setChecked(true);
-					else
-						t.setChecked(false);
-					t.setOnCheckedChangeListener(MildlyRichTextEditor.this);
-				}
+				checkFontSizeButton(DEFAULT_ABSOLUTE_SIZE);
+				updateFontFamilyButtons(0);
 
 				CharacterStyle[] styles = e.getSpans(0, e.length(), CharacterStyle.class);
 				for (CharacterStyle style : styles)
@@ -609,14 +1796,31 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 				}
 
 				isEditorEmpty = true;
+				pendingStart = -1;
 				return;
 			}
 
+			if (deferred)
+				return;
+
 			if (isDeletion)
+			{
+				if (deletionStart >= 0 && deletionStart <= e.length())
+					removeEmptyStyles(e, deletionStart);
+				deletionStart = -1;
 				return;
+			}
 
-			int position = Selection.getSelectionStart(MildlyRichTextEditor.this.getText());
+			applyStyles(e, Selection.getSelectionStart(MildlyRichTextEditor.this.getText()));
+		}
 
+		/**
+		 * Styles the text entered before the given position according to the style controls.
+		 *
+		 * @param position The end of the entered text, which is {@link #positionOffset} characters long.
+		 */
+		private void applyStyles(Editable e, int position)
+		{
 			if (position <= 0)
 				return;
 
@@ -770,6 +1974,11 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 					sizeEnd, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
 				currentRelativeSize = selectedRelativeSize;
 			}
+
+			// The entered text gets the checked font family, and splits the span of any other family it was typed
+			// into. Text typed next to text of the same family extends its span.
+			if (hasFontFamilyButtons())
+				RangeStyles.setFamily(e, position - getPositionOffsetSafe(position), position, getCheckedFontFamily());
 		}
 
 		/**
@@ -785,53 +1994,45 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		@Override
 		public void beforeTextChanged(CharSequence s, int start, int count, int after)
 		{
+			boolean traced = EditorTracing.begin(EditorTracing.BEFORE_TEXT_CHANGED);
+			try
+			{
+				handleBeforeTextChanged(start, count, after);
+			}
+			finally
+			{
+				if (traced)
+					EditorTracing.end();
+			}
+		}
+
+		private void handleBeforeTextChanged(int start, int count, int after)
+		{
+			if (!hasToolbar())
+				return;
+
+			// Input methods replace the whole word they are composing on every keystroke, so the word is styled
+			// once the composition is committed rather than on every character
+			Editable text = MildlyRichTextEditor.this.getText();
+			deferred = text != null && (batchDepth > 0 && after >= count ||
+				BaseInputConnection.getComposingSpanStart(text) >= 0);
+			if (deferred)
+			{
+				deferChange(start, count, after);
+				return;
+			}
+			applyPendingStyles();
+
 			if (after < count)
 			{ //delete
 				isDeletion = true;
-				Editable e = MildlyRichTextEditor.this.getText();
-				if (e == null)
-					return;
-
-				this.prevStyles = e.getSpans(start, start + count, CharacterStyle.class);
-
-				if (this.prevStyles.length > 0)
-				{
-					boldButton.setChecked(false);
-					italicsButton.setChecked(false);
-					underlineButton.setChecked(false);
-
-					for (CharacterStyle appliedStyle : this.prevStyles)
-					{
-						if (appliedStyle instanceof StyleSpan)
-						{
-							if (((StyleSpan)appliedStyle).getStyle() == Typeface.BOLD)
-								boldButton.setChecked(true);
-							else if (((StyleSpan)appliedStyle).getStyle() == Typeface.ITALIC)
-								italicsButton.setChecked(true);
-						}
-						else if (appliedStyle instanceof CustomUnderlineSpan)
-							underlineButton.setChecked(true);
-						else if (appliedStyle instanceof RelativeSizeSpan)
-						{
-							RelativeSizeSpan appliedSizeSpan = (RelativeSizeSpan)appliedStyle;
-							String absoluteSize = Integer.toString(Math.round(appliedSizeSpan.getSizeChange() * 14f));
-							for (ToggleButton t : fontSizeButtons)
-							{
-								if (absoluteSize.equals(t.getText().toString()))
-									t.setChecked(true);
-							}
-						}
-					}
-				}
-				else
-				{
-					boldButton.setChecked(false);
-					italicsButton.setChecked(false);
-					underlineButton.setChecked(false);
-				}
+				deletionStart = start;
+				// The run table has the styles of the deleted text without looking at each of its spans
+				showDeletedStyles(styleRuns.getDeletedStyles(start, start + count));
 			}
 			else
 			{
+				updateToolbar();
 				positionOffset = after;
 				isDeletion = false;
 			}
@@ -842,6 +2043,128 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		{
 			//not implemented
 		}
+
+		/**
+		 * Extends the pending range to cover the given change, which replaces {@code count} characters at
+		 * {@code start} by {@code after} characters.
+		 */
+		private void deferChange(int start, int count, int after)
+		{
+			if (pendingStart < 0)
+			{
+				pendingStart = start;
+				pendingEnd = start + after;
+				return;
+			}
+
+			if (pendingEnd > start + count)
+				pendingEnd += after - count;
+			else
+				pendingEnd = Math.max(Math.min(pendingEnd, start), start + after);
+			pendingStart = Math.min(pendingStart, start);
+		}
+
+		/**
+		 * Styles the text changed while the input was deferred, as a single entry of text. Called once the input
+		 * method has committed its composition and the outermost batch edit has ended.
+		 */
+		void applyPendingStyles()
+		{
+			if (pendingStart < 0)
+				return;
+
+			Editable e = MildlyRichTextEditor.this.getText();
+			int end = Math.min(pendingEnd, e != null ? e.length() : 0);
+			int start = Math.min(pendingStart, end);
+			pendingStart = -1;
+			pendingEnd = -1;
+			if (e == null || end <= start || !hasToolbar() || TextUtils.getTrimmedLength(e) == 0)
+				return;
+
+			updateToolbar();
+			positionOffset = end - start;
+			isDeletion = false;
+			applyStyles(e, end);
+		}
+
+		/**
+		 * Shows the styles of deleted text in the style controls, so that text typed in its place gets them. While
+		 * the editor is on screen, the controls are updated once per frame however many deletions it brings, e.g.
+		 * when a backspace key repeats.
+		 */
+		private void showDeletedStyles(int styles)
+		{
+			deletedStyles = styles;
+			if (!isAttachedToWindow())
+				updateToolbar();
+			else if (!toolbarUpdatePosted)
+			{
+				toolbarUpdatePosted = true;
+				postOnAnimation(toolbarUpdate);
+			}
+		}
+
+		/**
+		 * Shows the styles of the last deletion in the style controls, if they do not show them yet.
+		 */
+		void updateToolbar()
+		{
+			int styles = deletedStyles;
+			deletedStyles = NO_STYLES;
+			if (styles == NO_STYLES || !hasToolbar())
+				return;
+
+			boldButton.setChecked((styles & StyleMask.BOLD) != 0);
+			italicsButton.setChecked((styles & StyleMask.ITALIC) != 0);
+			underlineButton.setChecked((styles & StyleMask.UNDERLINE) != 0);
+			updateFontFamilyButtons(StyleMask.family(styles));
+			int size = StyleMask.size(styles);
+			if (size == 0)
+				return;
+
+			checkFontSizeButton(Integer.toString(size));
+		}
+
+		/**
+		 * Forgets the styles of the last deletion, e.g. because the cursor has moved and the style controls show the
+		 * styles at its new position.
+		 */
+		void cancelToolbarUpdate()
+		{
+			deletedStyles = NO_STYLES;
+		}
+
+		/**
+		 * Removes the spans whose text has all been deleted, which are left empty at the start of the deletion. The
+		 * style controls carry their styles over to the text typed next. Only the spans touching the deletion are
+		 * looked at, so the cost depends on the spans deleted rather than on the length of the text.
+		 */
+		private void removeEmptyStyles(Editable e, int position)
+		{
+			for (CharacterStyle style : e.getSpans(position, position, CharacterStyle.class))
+			{
+				if (isUserStyle(style) && e.getSpanStart(style) == position && e.getSpanEnd(style) == position)
+					e.removeSpan(style);
+			}
+		}
+
+		/**
+		 * @return true if the position is within or at the edges of the text changed while the input was deferred.
+		 */
+		boolean isPending(int position)
+		{
+			return pendingStart >= 0 && position >= pendingStart && position <= pendingEnd;
+		}
+
+		/**
+		 * Forgets the pending range, e.g. because the text has been replaced.
+		 */
+		void cancelPendingStyles()
+		{
+			pendingStart = -1;
+			pendingEnd = -1;
+			deferred = false;
+		}
 	}
 
 	/**
@@ -852,6 +2175,12 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 		boolean isBoldButtonOn;
 		boolean isItalicButtonOn;
 		boolean isUnderlineButtonOn;
+		@Nullable String checkedFontSize;
+		float currentRelativeSize = 1f;
+		int[] underlineRanges = new int[0];
+		int[] listItemStarts = new int[0];
+		boolean[] numberedListItems = new boolean[0];
+		int checkedFontFamily;
 
 		EditorState(Parcelable superState)
 		{
@@ -864,6 +2193,12 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 			isBoldButtonOn = (in.readInt() == 1);
 			isItalicButtonOn = (in.readInt() == 1);
 			isUnderlineButtonOn = (in.readInt() == 1);
+			checkedFontSize = in.readString();
+			currentRelativeSize = in.readFloat();
+			underlineRanges = in.createIntArray();
+			listItemStarts = in.createIntArray();
+			numberedListItems = in.createBooleanArray();
+			checkedFontFamily = in.readInt();
 		}
 
 		@Override
@@ -873,6 +2208,12 @@ public class MildlyRichTextEditor extends AppCompatEditText implements CompoundB
 			dest.writeInt(isBoldButtonOn ? 1 : 0);
 			dest.writeInt(isItalicButtonOn ? 1 : 0);
 			dest.writeInt(isUnderlineButtonOn ? 1 : 0);
+			dest.writeString(checkedFontSize);
+			dest.writeFloat(currentRelativeSize);
+			dest.writeIntArray(underlineRanges);
+			dest.writeIntArray(listItemStarts);
+			dest.writeBooleanArray(numberedListItems);
+			dest.writeInt(checkedFontFamily);
 		}
 
 		public static final Parcelable.Creator<EditorState> CREATOR = new Parcelable.Creator<EditorState>()
@@ -0,0 +1,224 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+/**
+ * Sets one user style over a range of text, the way a selection toggle does. Each style is an attribute with a value
+ * per character: bold, italic and underline are on or off, the font size is an absolute size and the font family one
+ * of the {@link FontFamilySpan} families, 0 meaning the default for both.
+ * <p>
+ * Setting a value only changes the range: spans of other values reaching out of it keep their parts outside of it,
+ * and spans of the same value overlapping or touching it are merged with it into one span. Text styled only through
+ * these methods thus has the fewest spans possible, one per run of characters with the same value.
+ */
+final class RangeStyles
+{
+	private static final int BOLD = 0;
+	private static final int ITALIC = 1;
+	private static final int UNDERLINE = 2;
+	private static final int SIZE = 3;
+	private static final int FAMILY = 4;
+
+	private RangeStyles()
+	{
+		// static methods only
+	}
+
+	/**
+	 * Turns bold, italic or underline on or off over the range.
+	 *
+	 * @param flag {@link StyleMask#BOLD}, {@link StyleMask#ITALIC} or {@link StyleMask#UNDERLINE}.
+	 */
+	static void setFlag(@NonNull Spannable text, int start, int end, int flag, boolean on)
+	{
+		int attribute = flag == StyleMask.BOLD ? BOLD : flag == StyleMask.ITALIC ? ITALIC : UNDERLINE;
+		set(text, start, end, attribute, on ? 1 : 0);
+	}
+
+	/**
+	 * Sets the font size of the range.
+	 *
+	 * @param absoluteSize The size from the size palette, or 0 or {@link StyleMask#DEFAULT_ABSOLUTE_SIZE} for the
+	 * 	default size.
+	 */
+	static void setSize(@NonNull Spannable text, int start, int end, int absoluteSize)
+	{
+		set(text, start, end, SIZE, StyleMask.size(StyleMask.withSize(0, absoluteSize)));
+	}
+
+	/**
+	 * Sets the font family of the range.
+	 *
+	 * @param family One of the {@link FontFamilySpan} families, or 0 for the default family.
+	 */
+	static void setFamily(@NonNull Spannable text, int start, int end, int family)
+	{
+		set(text, start, end, FAMILY, family);
+	}
+
+	private static void set(Spannable text, int start, int end, int attribute, int value)
+	{
+		if (start >= end)
+			return;
+
+		// Spans merely touching a range are only found by a query reaching into them
+		int queryStart = Math.max(0, start - 1);
+		int queryEnd = Math.min(text.length(), end + 1);
+		Object[] spans = text.getSpans(queryStart, queryEnd, spanType(attribute));
+		if ((attribute == BOLD || attribute == ITALIC) && splitBoldItalic(text, spans))
+			spans = text.getSpans(queryStart, queryEnd, spanType(attribute));
+
+		Object merged = null;
+		int mergedStart = start;
+		int mergedEnd = end;
+		for (Object span : spans)
+		{
+			int spanValue = valueOf(span, attribute);
+			int spanStart = text.getSpanStart(span);
+			int spanEnd = text.getSpanEnd(span);
+			if (spanValue < 0 || spanStart < 0 || spanEnd < start || spanStart > end)
+				continue;
+
+			if (spanValue == value && value != 0)
+			{
+				mergedStart = Math.min(mergedStart, spanStart);
+				mergedEnd = Math.max(mergedEnd, spanEnd);
+				if (merged == null)
+					merged = span;
+				else
+					text.removeSpan(span);
+				continue;
+			}
+			if (spanEnd == start || spanStart == end)
+				continue;
+
+			int flags = text.getSpanFlags(span);
+			if (spanStart < start)
+			{
+				text.setSpan(span, spanStart, start, flags);
+				if (spanEnd > end)
+					text.setSpan(copy(span), end, spanEnd, flags);
+			}
+			else if (spanEnd > end)
+				text.setSpan(span, end, spanEnd, flags);
+			else
+				text.removeSpan(span);
+		}
+
+		if (merged == null)
+		{
+			if (value != 0)
+				text.setSpan(create(attribute, value), mergedStart, mergedEnd, defaultFlags(attribute));
+		}
+		// e.g. text typed into the middle of a span of the value, which must not be reported as a span change
+		else if (text.getSpanStart(merged) != mergedStart || text.getSpanEnd(merged) != mergedEnd)
+			text.setSpan(merged, mergedStart, mergedEnd, text.getSpanFlags(merged));
+	}
+
+	/**
+	 * Replaces the bold italic spans among the given ones, as created by the HTML parser, with a bold and an italic
+	 * span each, so that either can be set without the other.
+	 *
+	 * @return Whether there was a bold italic span.
+	 */
+	private static boolean splitBoldItalic(Spannable text, Object[] spans)
+	{
+		boolean split = false;
+		for (Object span : spans)
+		{
+			if (((StyleSpan)span).getStyle() != Typeface.BOLD_ITALIC)
+				continue;
+
+			int spanStart = text.getSpanStart(span);
+			int spanEnd = text.getSpanEnd(span);
+			int flags = text.getSpanFlags(span);
+			text.removeSpan(span);
+			text.setSpan(new StyleSpan(Typeface.BOLD), spanStart, spanEnd, flags);
+			text.setSpan(new StyleSpan(Typeface.ITALIC), spanStart, spanEnd, flags);
+			split = true;
+		}
+		return split;
+	}
+
+	private static Class<?> spanType(int attribute)
+	{
+		switch (attribute)
+		{
+		case BOLD:
+		case ITALIC:
+			return StyleSpan.class;
+		case UNDERLINE:
+			return MildlyRichTextEditor.CustomUnderlineSpan.class;
+		case SIZE:
+			return RelativeSizeSpan.class;
+		default:
+			return FontFamilySpan.class;
+		}
+	}
+
+	/**
+	 * @return The value the span gives the attribute, or -1 if it does not style the attribute.
+	 */
+	private static int valueOf(Object span, int attribute)
+	{
+		switch (attribute)
+		{
+		case BOLD:
+			return ((StyleSpan)span).getStyle() == Typeface.BOLD ? 1 : -1;
+		case ITALIC:
+			return ((StyleSpan)span).getStyle() == Typeface.ITALIC ? 1 : -1;
+		case UNDERLINE:
+			return 1;
+		case SIZE:
+			return StyleMask.size(StyleMask.withSize(0,
+				Math.round(((RelativeSizeSpan)span).getSizeChange() * StyleMask.DEFAULT_ABSOLUTE_SIZE)));
+		default:
+			return ((FontFamilySpan)span).getFamilyCode();
+		}
+	}
+
+	private static Object create(int attribute, int value)
+	{
+		switch (attribute)
+		{
+		case BOLD:
+			return new StyleSpan(Typeface.BOLD);
+		case ITALIC:
+			return new StyleSpan(Typeface.ITALIC);
+		case UNDERLINE:
+			return new MildlyRichTextEditor.CustomUnderlineSpan();
+		case SIZE:
+			return new RelativeSizeSpan(value / (float)StyleMask.DEFAULT_ABSOLUTE_SIZE);
+		default:
+			return new FontFamilySpan(value);
+		}
+	}
+
+	/**
+	 * @return A span styling text like the given one, for the part of it split off after a range.
+	 */
+	private static Object copy(Object span)
+	{
+		if (span instanceof StyleSpan)
+			return new StyleSpan(((StyleSpan)span).getStyle());
+		else if (span instanceof RelativeSizeSpan)
+			return new RelativeSizeSpan(((RelativeSizeSpan)span).getSizeChange());
+		else if (span instanceof FontFamilySpan)
+			return new FontFamilySpan(((FontFamilySpan)span).getFamilyCode());
+		else
+			return new MildlyRichTextEditor.CustomUnderlineSpan();
+	}
+
+	/**
+	 * @return The flags the toggles have always given new spans: size spans grow with text typed at their end.
+	 */
+	private static int defaultFlags(int attribute)
+	{
+		return attribute == SIZE ? Spanned.SPAN_EXCLUSIVE_INCLUSIVE : Spanned.SPAN_EXCLUSIVE_EXCLUSIVE;
+	}
+}
@@ -15,6 +15,19 @@ public class RichTextEditorUtil {
             return Html.fromHtml(input);
     }
 
+    public static Spanned compatFromHtml(final String input, final Html.ImageGetter imageGetter) {
+        return compatFromHtml(input, imageGetter, null);
+    }
+
+    public static Spanned compatFromHtml(final String input, final Html.ImageGetter imageGetter,
+                                         final Html.TagHandler tagHandler) {
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N)
+            return Html.fromHtml(input, Html.FROM_HTML_MODE_LEGACY, imageGetter, tagHandler);
+        else
+            //noinspection deprecation
+            return Html.fromHtml(input, imageGetter, tagHandler);
+    }
+
     public static String compatToHtml(final Spanned input) {
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N)
             return Html.toHtml(input, TO_HTML_PARAGRAPH_LINES_CONSECUTIVE);
@@ -0,0 +1,52 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Background threads shared by all instances of a class. The threads are daemons, so they never keep the process
+ * alive, and they are only started once the executor is first asked for.
+ */
+final class SharedExecutor
+{
+	private final String name;
+	private final int threads;
+	private final int priority;
+	private ExecutorService executor;
+
+	/**
+	 * @param name The name of the threads.
+	 * @param threads The number of threads running tasks at the same time.
+	 * @param priority The priority of the threads, see {@link Thread#setPriority(int)}.
+	 */
+	SharedExecutor(@NonNull String name, int threads, int priority)
+	{
+		this.name = name;
+		this.threads = threads;
+		this.priority = priority;
+	}
+
+	@NonNull
+	synchronized Executor get()
+	{
+		if (executor == null)
+		{
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(@NonNull Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, name);
+					thread.setDaemon(true);
+					thread.setPriority(priority);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
@@ -0,0 +1,285 @@
+package com.ebay.mildlyrichtexteditor;
+
+import java.util.List;
+
+/**
+ * Balanced interval tree of the spans of one class, used by {@link IndexedEditable}. It is a treap ordered by span
+ * start, with every node holding the largest span end of its subtree so that overlap queries can skip subtrees that
+ * end before the query range.
+ * <p>
+ * Text changes move all spans after the change by the same amount. Instead of updating each of them, the offset is
+ * left as a pending shift on the subtrees that follow the change, and only pushed down to the nodes that are visited
+ * later.
+ */
+final class SpanIntervalTree
+{
+	/**
+	 * A span in the tree. The positions are relative to the pending shifts of the node's ancestors.
+	 */
+	static final class Node
+	{
+		final Object span;
+		final long order;
+		private final int priority;
+		int start;
+		int end;
+		int flags;
+		private int maxEnd;
+		private int shift;
+		private Node left;
+		private Node right;
+		private Node parent;
+		private boolean attached;
+
+		/**
+		 * @param span The span.
+		 * @param order Insertion order of the span, which orders the spans returned by queries.
+		 */
+		Node(Object span, long order)
+		{
+			this.span = span;
+			this.order = order;
+
+			// Spread the insertion order over the int range, giving the treap its random priorities
+			long hash = order * 0x9E3779B97F4A7C15L;
+			priority = (int)(hash ^ (hash >>> 32));
+		}
+
+		boolean isAttached()
+		{
+			return attached;
+		}
+	}
+
+	private Node root;
+	private int size;
+
+	boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * Adds a detached node at its {@link Node#start} and {@link Node#end}.
+	 */
+	void insert(Node node)
+	{
+		node.maxEnd = node.end;
+		node.shift = 0;
+		node.left = node.right = node.parent = null;
+		node.attached = true;
+		size++;
+
+		if (root == null)
+		{
+			root = node;
+			return;
+		}
+
+		Node parent = root;
+		while (true)
+		{
+			push(parent);
+			Node next = compare(node, parent) < 0 ? parent.left : parent.right;
+			if (next == null)
+				break;
+			parent = next;
+		}
+		if (compare(node, parent) < 0)
+			parent.left = node;
+		else
+			parent.right = node;
+		node.parent = parent;
+
+		while (node.parent != null && node.parent.priority < node.priority)
+			rotateUp(node);
+		for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent)
+			update(ancestor);
+	}
+
+	/**
+	 * Removes the node from the tree. Its {@link Node#start} and {@link Node#end} are left at the positions it had.
+	 */
+	void remove(Node node)
+	{
+		int offset = offsetOf(node);
+		int start = node.start + offset;
+		int end = node.end + offset;
+
+		while (node.left != null || node.right != null)
+		{
+			rotateUp(node.right == null || node.left != null && node.left.priority > node.right.priority ?
+				node.left : node.right);
+		}
+
+		Node parent = node.parent;
+		if (parent == null)
+			root = null;
+		else if (parent.left == node)
+			parent.left = null;
+		else
+			parent.right = null;
+		for (Node ancestor = parent; ancestor != null; ancestor = ancestor.parent)
+			update(ancestor);
+
+		node.parent = null;
+		node.attached = false;
+		node.start = start;
+		node.end = end;
+		size--;
+	}
+
+	int startOf(Node node)
+	{
+		return node.start + offsetOf(node);
+	}
+
+	int endOf(Node node)
+	{
+		return node.end + offsetOf(node);
+	}
+
+	/**
+	 * Moves the spans starting after the given position by the given amount. The caller makes sure that this does
+	 * not change the order of the spans, i.e. that no span starts or ends between the old and new positions.
+	 */
+	void shift(int after, int delta)
+	{
+		Node node = root;
+		Node last = null;
+		while (node != null)
+		{
+			push(node);
+			last = node;
+			if (node.start > after)
+			{
+				node.start += delta;
+				node.end += delta;
+				apply(node.right, delta);
+				node = node.left;
+			}
+			else
+				node = node.right;
+		}
+
+		for (; last != null; last = last.parent)
+			update(last);
+	}
+
+	/**
+	 * Adds the nodes of the spans overlapping the range to the list, in no particular order.
+	 *
+	 * @param touching Whether non-empty spans that only touch a non-empty range at either end count as overlapping;
+	 * 	{@link android.text.SpannableStringBuilder#getSpans(int, int, Class)} leaves them out.
+	 */
+	void collect(int start, int end, boolean touching, List<Node> nodes)
+	{
+		collect(root, 0, start, end, touching, nodes);
+	}
+
+	private static void collect(Node node, int offset, int queryStart, int queryEnd, boolean touching,
+		List<Node> nodes)
+	{
+		while (node != null && node.maxEnd + offset >= queryStart)
+		{
+			int childOffset = offset + node.shift;
+			collect(node.left, childOffset, queryStart, queryEnd, touching, nodes);
+
+			int start = node.start + offset;
+			if (start > queryEnd)
+				return;
+
+			int end = node.end + offset;
+			if (end >= queryStart && (touching || start == end || queryStart == queryEnd ||
+				start != queryEnd && end != queryStart))
+				nodes.add(node);
+
+			node = node.right;
+			offset = childOffset;
+		}
+	}
+
+	private static int compare(Node a, Node b)
+	{
+		if (a.start != b.start)
+			return a.start < b.start ? -1 : 1;
+		return a.order < b.order ? -1 : a.order == b.order ? 0 : 1;
+	}
+
+	private static int offsetOf(Node node)
+	{
+		int offset = 0;
+		for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent)
+			offset += ancestor.shift;
+		return offset;
+	}
+
+	/**
+	 * Rotates the node above its parent.
+	 */
+	private void rotateUp(Node node)
+	{
+		Node parent = node.parent;
+		push(parent);
+		push(node);
+
+		Node grandparent = parent.parent;
+		if (parent.left == node)
+		{
+			parent.left = node.right;
+			if (node.right != null)
+				node.right.parent = parent;
+			node.right = parent;
+		}
+		else
+		{
+			parent.right = node.left;
+			if (node.left != null)
+				node.left.parent = parent;
+			node.left = parent;
+		}
+		parent.parent = node;
+		node.parent = grandparent;
+
+		if (grandparent == null)
+			root = node;
+		else if (grandparent.left == parent)
+			grandparent.left = node;
+		else
+			grandparent.right = node;
+
+		update(parent);
+		update(node);
+	}
+
+	private static void push(Node node)
+	{
+		if (node.shift != 0)
+		{
+			apply(node.left, node.shift);
+			apply(node.right, node.shift);
+			node.shift = 0;
+		}
+	}
+
+	private static void apply(Node node, int delta)
+	{
+		if (node != null)
+		{
+			node.start += delta;
+			node.end += delta;
+			node.maxEnd += delta;
+			node.shift += delta;
+		}
+	}
+
+	private static void update(Node node)
+	{
+		int maxEnd = node.end;
+		if (node.left != null)
+			maxEnd = Math.max(maxEnd, node.left.maxEnd + node.shift);
+		if (node.right != null)
+			maxEnd = Math.max(maxEnd, node.right.maxEnd + node.shift);
+		node.maxEnd = maxEnd;
+	}
+}
@@ -0,0 +1,116 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.graphics.Typeface;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.style.CharacterStyle;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+/**
+ * Packs the user styles of a range of text into an int: one bit each for bold, italic and underline, two bits for the
+ * font family, 0 meaning the default family, and the absolute font size from the size palette above them, 0 meaning
+ * the default size.
+ */
+final class StyleMask
+{
+	static final int BOLD = 1;
+	static final int ITALIC = 1 << 1;
+	static final int UNDERLINE = 1 << 2;
+	static final int DEFAULT_ABSOLUTE_SIZE = 14;
+	private static final int FAMILY_SHIFT = 3;
+	private static final int FAMILY_BITS = 3 << FAMILY_SHIFT;
+	private static final int SIZE_SHIFT = 8;
+	private static final int FLAGS = BOLD | ITALIC | UNDERLINE;
+
+	private StyleMask()
+	{
+	}
+
+	/**
+	 * @return The styles applied to all of the range, which must not contain a span transition.
+	 */
+	static int of(Spanned text, int start, int end)
+	{
+		int mask = 0;
+		for (CharacterStyle span : text.getSpans(start, end, CharacterStyle.class))
+		{
+			if (!MildlyRichTextEditor.isUserStyle(span) || text.getSpanStart(span) > start ||
+				text.getSpanEnd(span) < end)
+				continue;
+
+			if (span instanceof StyleSpan)
+			{
+				int style = ((StyleSpan)span).getStyle();
+				if (style == Typeface.BOLD || style == Typeface.BOLD_ITALIC)
+					mask |= BOLD;
+				if (style == Typeface.ITALIC || style == Typeface.BOLD_ITALIC)
+					mask |= ITALIC;
+			}
+			else if (span instanceof RelativeSizeSpan)
+				mask = withSize(mask, Math.round(((RelativeSizeSpan)span).getSizeChange() * DEFAULT_ABSOLUTE_SIZE));
+			else if (span instanceof FontFamilySpan)
+				mask = withFamily(mask, ((FontFamilySpan)span).getFamilyCode());
+			else
+				mask |= UNDERLINE;
+		}
+		return mask;
+	}
+
+	/**
+	 * @return The end of the run of uniformly styled text starting at the given position.
+	 */
+	static int runEnd(Spanned text, int start, int end)
+	{
+		return text.nextSpanTransition(start, end, CharacterStyle.class);
+	}
+
+	/**
+	 * @return The absolute font size of the mask, or 0 for the default size.
+	 */
+	static int size(int mask)
+	{
+		return mask >>> SIZE_SHIFT;
+	}
+
+	static int withSize(int mask, int absoluteSize)
+	{
+		if (absoluteSize == DEFAULT_ABSOLUTE_SIZE || absoluteSize <= 0)
+			absoluteSize = 0;
+		return mask & (FLAGS | FAMILY_BITS) | absoluteSize << SIZE_SHIFT;
+	}
+
+	/**
+	 * @return The font family of the mask, one of the {@link FontFamilySpan} families, or 0 for the default family.
+	 */
+	static int family(int mask)
+	{
+		return (mask & FAMILY_BITS) >>> FAMILY_SHIFT;
+	}
+
+	static int withFamily(int mask, int family)
+	{
+		return mask & ~FAMILY_BITS | family << FAMILY_SHIFT & FAMILY_BITS;
+	}
+
+	/**
+	 * Adds the spans of the mask to the range.
+	 */
+	static void apply(Spannable text, int start, int end, int mask)
+	{
+		if (start >= end)
+			return;
+
+		int flags = Spannable.SPAN_EXCLUSIVE_INCLUSIVE;
+		if ((mask & BOLD) != 0)
+			text.setSpan(new StyleSpan(Typeface.BOLD), start, end, flags);
+		if ((mask & ITALIC) != 0)
+			text.setSpan(new StyleSpan(Typeface.ITALIC), start, end, flags);
+		if ((mask & UNDERLINE) != 0)
+			text.setSpan(new MildlyRichTextEditor.CustomUnderlineSpan(), start, end, flags);
+		if (size(mask) != 0)
+			text.setSpan(new RelativeSizeSpan(size(mask) / (float)DEFAULT_ABSOLUTE_SIZE), start, end, flags);
+		if (family(mask) != 0)
+			text.setSpan(new FontFamilySpan(family(mask)), start, end, flags);
+	}
+}
@@ -0,0 +1,390 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.Nullable;
+import android.text.Spannable;
+import android.text.Spanned;
+
+/**
+ * Run-length table of the user styles of a text: the text is divided into runs of uniformly styled characters, and
+ * each run is stored as its end offset and its {@link StyleMask} in two int arrays. Adjacent runs always have
+ * different masks, so the table holds one entry per style change no matter how fragmented the spans it was built
+ * from are.
+ * <p>
+ * The editor's table is derived from the spans of its text, see {@link StyleRunTracker}: the spans remain the source
+ * of truth, and the table is a cache that answers style queries without scanning them. It adds to the memory the
+ * spans take, but it also lets the tracker replace fragmented spans by the fewest spans that describe the same
+ * styles, see {@link #materialize(Spannable, int, int)}.
+ * <p>
+ * Copies made with {@link #copy()} share their arrays until one of them is modified.
+ */
+final class StyleRunTable
+{
+	private static final int ARRAY_HEADER_BYTES = 16;
+	private static final int OBJECT_BYTES = 32;
+	// The styles that get spans of their own: bold, italic, underline, size and font family
+	private static final int PARTS = 5;
+
+	private int[] runEnds;
+	private int[] masks;
+	private int runCount;
+	private int length;
+	private boolean shared;
+
+	StyleRunTable()
+	{
+		runEnds = new int[8];
+		masks = new int[8];
+	}
+
+	private StyleRunTable(StyleRunTable source)
+	{
+		runEnds = source.runEnds;
+		masks = source.masks;
+		runCount = source.runCount;
+		length = source.length;
+		shared = true;
+	}
+
+	/**
+	 * Builds the table of the user style spans of the text.
+	 */
+	static StyleRunTable of(Spanned text)
+	{
+		StyleRunTable table = new StyleRunTable();
+		table.replace(0, 0, text.length());
+		table.setStyles(text, 0, text.length());
+		return table;
+	}
+
+	/**
+	 * @return A table with the same runs. The copies share their arrays until either is modified.
+	 */
+	StyleRunTable copy()
+	{
+		shared = true;
+		return new StyleRunTable(this);
+	}
+
+	int length()
+	{
+		return length;
+	}
+
+	int getRunCount()
+	{
+		return runCount;
+	}
+
+	int getRunStart(int run)
+	{
+		return run == 0 ? 0 : runEnds[run - 1];
+	}
+
+	int getRunEnd(int run)
+	{
+		return runEnds[run];
+	}
+
+	int getRunMask(int run)
+	{
+		return masks[run];
+	}
+
+	/**
+	 * @return The index of the run containing the character at the given offset, or -1 for an empty table.
+	 */
+	int findRun(int index)
+	{
+		int low = 0;
+		int high = runCount - 1;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (runEnds[middle] <= index)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return high;
+	}
+
+	/**
+	 * @return The styles of the character at the given offset, or 0 outside the text.
+	 */
+	int maskAt(int index)
+	{
+		return index >= 0 && index < length ? masks[findRun(index)] : 0;
+	}
+
+	/**
+	 * @return The styles shared by all characters of the range. The size and the font family are only included if
+	 * 	they are the same throughout the range.
+	 */
+	int commonMask(int start, int end)
+	{
+		start = Math.max(0, start);
+		end = Math.min(length, end);
+		if (start >= end)
+			return maskAt(start);
+
+		int run = findRun(start);
+		int common = masks[run];
+		for (run++; run < runCount && getRunStart(run) < end; run++)
+		{
+			int mask = masks[run];
+			common = StyleMask.withSize(common & mask, StyleMask.size(common) == StyleMask.size(mask) ?
+				StyleMask.size(mask) : 0);
+			common = StyleMask.withFamily(common, StyleMask.family(common) == StyleMask.family(mask) ?
+				StyleMask.family(mask) : 0);
+		}
+		return common;
+	}
+
+	/**
+	 * @return The styles of any character of the range, with the size and font family of its first character. The
+	 * 	cost depends on the number of runs in the range.
+	 */
+	int anyMask(int start, int end)
+	{
+		start = Math.max(0, start);
+		end = Math.min(length, end);
+		if (start >= end)
+			return maskAt(start);
+
+		int run = findRun(start);
+		int any = masks[run];
+		int first = any;
+		for (run++; run < runCount && getRunStart(run) < end; run++)
+			any |= masks[run];
+		return StyleMask.withFamily(StyleMask.withSize(any, StyleMask.size(first)), StyleMask.family(first));
+	}
+
+	/**
+	 * Follows a text replacement. Inserted characters take the styles of the character before them, the way
+	 * the editor's spans extend over typed text.
+	 */
+	void replace(int start, int removed, int inserted)
+	{
+		ensureWritable(runCount + 1);
+
+		if (removed > 0)
+		{
+			// The runs ending before the removed range stay as they are
+			int first = Math.max(0, findRun(start));
+			int kept = first;
+			for (int i = first; i < runCount; i++)
+			{
+				int end = runEnds[i];
+				end = end <= start ? end : end >= start + removed ? end - removed : start;
+				if (end == (kept == 0 ? 0 : runEnds[kept - 1]))
+					continue; // the run was removed completely
+
+				if (kept > 0 && masks[kept - 1] == masks[i])
+					runEnds[kept - 1] = end;
+				else
+				{
+					runEnds[kept] = end;
+					masks[kept] = masks[i];
+					kept++;
+				}
+			}
+			runCount = kept;
+			length -= removed;
+		}
+
+		if (inserted > 0)
+		{
+			if (runCount == 0)
+			{
+				runEnds[0] = inserted;
+				masks[0] = 0;
+				runCount = 1;
+			}
+			else
+			{
+				for (int i = runCount - 1; i >= 0 && runEnds[i] >= start; i--)
+					runEnds[i] += inserted;
+			}
+			length += inserted;
+		}
+	}
+
+	/**
+	 * Sets the styles of the range to the given mask.
+	 */
+	void setMask(int start, int end, int mask)
+	{
+		start = Math.max(0, start);
+		end = Math.min(length, end);
+		if (start >= end)
+			return;
+
+		ensureWritable(runCount + 2);
+		int first = findRun(start);
+		int last = findRun(end - 1);
+		int firstStart = getRunStart(first);
+		int lastEnd = runEnds[last];
+		int firstMask = masks[first];
+		int lastMask = masks[last];
+
+		// Replace the runs first..last by up to three runs: the part before the range, the range, the part after it
+		int replacement = (firstStart < start ? 1 : 0) + 1 + (end < lastEnd ? 1 : 0);
+		int removedRuns = last - first + 1;
+		System.arraycopy(runEnds, last + 1, runEnds, first + replacement, runCount - last - 1);
+		System.arraycopy(masks, last + 1, masks, first + replacement, runCount - last - 1);
+		runCount += replacement - removedRuns;
+
+		int run = first;
+		if (firstStart < start)
+		{
+			runEnds[run] = start;
+			masks[run++] = firstMask;
+		}
+		runEnds[run] = end;
+		masks[run++] = mask;
+		if (end < lastEnd)
+		{
+			runEnds[run] = lastEnd;
+			masks[run] = lastMask;
+		}
+
+		coalesce(Math.max(0, first - 1), Math.min(runCount - 1, first + replacement));
+	}
+
+	/**
+	 * Reads the styles of the range from the user style spans of the text.
+	 */
+	void setStyles(Spanned text, int start, int end)
+	{
+		end = Math.min(end, Math.min(length, text.length()));
+		for (int runStart = Math.max(0, start), runEnd; runStart < end; runStart = runEnd)
+		{
+			runEnd = StyleMask.runEnd(text, runStart, end);
+			setMask(runStart, runEnd, StyleMask.of(text, runStart, runEnd));
+		}
+	}
+
+	/**
+	 * Adds spans for the styles of the range to the text: a single span per style and stretch of consecutive runs
+	 * that have it, which is the smallest number of spans that describes the styles.
+	 */
+	void materialize(Spannable text, int start, int end)
+	{
+		addSpans(text, start, end);
+	}
+
+	/**
+	 * @return The number of spans {@link #materialize(Spannable, int, int)} adds for the range.
+	 */
+	int spanCount(int start, int end)
+	{
+		return addSpans(null, start, end);
+	}
+
+	/**
+	 * @param text The text to add the spans to, or null to only count them.
+	 * @return The number of spans.
+	 */
+	private int addSpans(@Nullable Spannable text, int start, int end)
+	{
+		start = Math.max(0, start);
+		end = Math.min(end, length);
+		if (start >= end)
+			return 0;
+
+		int count = 0;
+		int first = findRun(start);
+		for (int part = 0; part < PARTS; part++)
+		{
+			int value = 0;
+			int stretchStart = start;
+			for (int run = first; run < runCount && getRunStart(run) < end; run++)
+			{
+				int runValue = part(masks[run], part);
+				if (runValue == value)
+					continue;
+
+				int runStart = Math.max(start, getRunStart(run));
+				if (value != 0)
+				{
+					count++;
+					if (text != null)
+						StyleMask.apply(text, stretchStart, runStart, value);
+				}
+				value = runValue;
+				stretchStart = runStart;
+			}
+			if (value != 0)
+			{
+				count++;
+				if (text != null)
+					StyleMask.apply(text, stretchStart, end, value);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return The mask with only the given part of the styles.
+	 */
+	private static int part(int mask, int part)
+	{
+		switch (part)
+		{
+		case 0:
+			return mask & StyleMask.BOLD;
+		case 1:
+			return mask & StyleMask.ITALIC;
+		case 2:
+			return mask & StyleMask.UNDERLINE;
+		case 3:
+			return StyleMask.withSize(0, StyleMask.size(mask));
+		default:
+			return StyleMask.withFamily(0, StyleMask.family(mask));
+		}
+	}
+
+	/**
+	 * @return An estimate of the heap used by the table.
+	 */
+	int estimatedBytes()
+	{
+		return OBJECT_BYTES + 2 * (ARRAY_HEADER_BYTES + 4 * runEnds.length);
+	}
+
+	/**
+	 * Merges the runs with equal masks in the given range of run indexes.
+	 */
+	private void coalesce(int from, int to)
+	{
+		int run = from;
+		while (run < to && run + 1 < runCount)
+		{
+			if (masks[run] == masks[run + 1])
+			{
+				runEnds[run] = runEnds[run + 1];
+				System.arraycopy(runEnds, run + 2, runEnds, run + 1, runCount - run - 2);
+				System.arraycopy(masks, run + 2, masks, run + 1, runCount - run - 2);
+				runCount--;
+				to--;
+			}
+			else
+				run++;
+		}
+	}
+
+	private void ensureWritable(int capacity)
+	{
+		if (!shared && capacity <= runEnds.length)
+			return;
+
+		int size = Math.max(capacity, shared ? runEnds.length : runEnds.length * 2);
+		int[] newEnds = new int[size];
+		int[] newMasks = new int[size];
+		System.arraycopy(runEnds, 0, newEnds, 0, runCount);
+		System.arraycopy(masks, 0, newMasks, 0, runCount);
+		runEnds = newEnds;
+		masks = newMasks;
+		shared = false;
+	}
+}
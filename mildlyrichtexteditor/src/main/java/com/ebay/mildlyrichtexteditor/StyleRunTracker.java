@@ -0,0 +1,341 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.graphics.Typeface;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.style.CharacterStyle;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a {@link StyleRunTable} of the editor's text up to date, as a cache of the styles its spans describe. Text
+ * changes are applied to the table right away; span changes only mark a range dirty, which is read back from the
+ * spans the next time the table is used, so a burst of span changes costs a single refresh.
+ * <p>
+ * The table cannot hold empty spans, which the editor leaves behind when all of a styled text is deleted and which
+ * still decide the style of the text typed next, so those are tracked separately.
+ * <p>
+ * Imported HTML and styling while typing leave many spans describing few style changes. {@link #compact()} replaces
+ * them by the spans the table describes, one per style and stretch of text.
+ */
+final class StyleRunTracker extends EditableObserver
+{
+	private static final int MIN_FRAGMENTED_SPANS = 16;
+
+	private StyleRunTable table = new StyleRunTable();
+	private final Map<Object, Integer> emptySpans = new IdentityHashMap<>();
+	// The number of user style spans of the text, and the number of them when the spans were last compacted
+	private int spanCount;
+	private int compactSpanCount;
+	private boolean compacting;
+	private int dirtyStart = Integer.MAX_VALUE;
+	private int dirtyEnd = -1;
+
+	// A text change in progress, and the range of the span changes reported while the table still has the old text
+	private boolean changingText;
+	private int pendingStart;
+	private int pendingBefore;
+	private int pendingCount;
+	private int pendingDirtyStart = Integer.MAX_VALUE;
+	private int pendingDirtyEnd = -1;
+
+	// The last text change, used to recognize the span changes it caused
+	private boolean hasChange;
+	private int changeStart;
+	private int changeBefore;
+	private int changeCount;
+
+	@Override
+	void onAttached(@Nullable Spannable text)
+	{
+		table = text != null ? StyleRunTable.of(text) : new StyleRunTable();
+		emptySpans.clear();
+		dirtyStart = Integer.MAX_VALUE;
+		dirtyEnd = -1;
+		changingText = false;
+		pendingDirtyStart = Integer.MAX_VALUE;
+		pendingDirtyEnd = -1;
+		hasChange = false;
+		spanCount = 0;
+		compactSpanCount = 0;
+
+		if (text != null)
+		{
+			for (CharacterStyle span : text.getSpans(0, text.length(), CharacterStyle.class))
+			{
+				if (MildlyRichTextEditor.isUserStyle(span))
+					spanCount++;
+				trackEmptySpan(span, text.getSpanStart(span), text.getSpanEnd(span));
+			}
+		}
+	}
+
+	/**
+	 * Replaces the user style spans of the text by one span per style and stretch of text that has it, if there are
+	 * more spans than that.
+	 */
+	void compact()
+	{
+		Spannable text = getAttachedText();
+		if (text == null || changingText)
+			return;
+
+		StyleRunTable runs = getTable();
+		int compactCount = runs.spanCount(0, runs.length());
+		compactSpanCount = compactCount;
+		if (spanCount - emptySpans.size() <= compactCount)
+			return;
+
+		// The styles do not change, so the table is left as it is
+		compacting = true;
+		try
+		{
+			for (CharacterStyle span : text.getSpans(0, text.length(), CharacterStyle.class))
+			{
+				if (MildlyRichTextEditor.isUserStyle(span) && text.getSpanStart(span) < text.getSpanEnd(span))
+					text.removeSpan(span);
+			}
+			runs.materialize(text, 0, runs.length());
+		}
+		finally
+		{
+			compacting = false;
+		}
+		spanCount = compactCount + emptySpans.size();
+	}
+
+	/**
+	 * Compacts the spans once edits have made them at least twice as many as after the last compaction, so that
+	 * compacting costs a constant amount per span added.
+	 */
+	void compactIfFragmented()
+	{
+		if (spanCount > 2 * compactSpanCount + MIN_FRAGMENTED_SPANS)
+			compact();
+	}
+
+	/**
+	 * @return The up to date table of the attached text.
+	 */
+	@NonNull
+	StyleRunTable getTable()
+	{
+		Spannable text = getAttachedText();
+		if (text != null && dirtyStart < dirtyEnd && !changingText)
+			table.setStyles(text, dirtyStart, dirtyEnd);
+		dirtyStart = Integer.MAX_VALUE;
+		dirtyEnd = -1;
+		return table;
+	}
+
+	/**
+	 * Looks up the styles the style controls show for a cursor or selection: the styles of the character before the
+	 * cursor, or the styles common to all selected characters.
+	 */
+	int getSelectionStyles(int selStart, int selEnd)
+	{
+		Spannable text = getAttachedText();
+		if (changingText && text != null)
+		{
+			// Some platform versions report the selection moving before the text watchers learn about the change
+			return spanStyles(text, selStart, selEnd);
+		}
+
+		StyleRunTable runs = getTable();
+		if (selStart > 0 && selStart == selEnd)
+			return runs.maskAt(selStart - 1) | emptySpanStyles(selStart - 1) | emptySpanStyles(selStart);
+		else if (selStart == selEnd)
+			return runs.maskAt(selStart) | emptySpanStyles(selStart);
+		else
+			return runs.commonMask(selStart, selEnd);
+	}
+
+	/**
+	 * Looks up the styles of text about to be deleted: the styles of any of its characters and the size of the first
+	 * one. Only valid before the text changes, e.g. in beforeTextChanged, while the table and the spans still
+	 * describe the same text.
+	 */
+	int getDeletedStyles(int start, int end)
+	{
+		Spannable text = getAttachedText();
+		if (text != null && dirtyStart < dirtyEnd)
+			table.setStyles(text, dirtyStart, dirtyEnd);
+		dirtyStart = Integer.MAX_VALUE;
+		dirtyEnd = -1;
+		return table.anyMask(start, end);
+	}
+
+	@Override
+	public void beforeTextChanged(CharSequence s, int start, int count, int after)
+	{
+		changingText = true;
+		pendingStart = start;
+		pendingBefore = count;
+		pendingCount = after;
+	}
+
+	@Override
+	public void onTextChanged(CharSequence s, int start, int before, int count)
+	{
+		changingText = false;
+		table.replace(start, before, count);
+		if (dirtyStart < dirtyEnd)
+		{
+			dirtyStart = shift(dirtyStart, start, before, count);
+			dirtyEnd = shift(dirtyEnd, start, before, count);
+		}
+		markDirty(pendingDirtyStart, pendingDirtyEnd);
+		pendingDirtyStart = Integer.MAX_VALUE;
+		pendingDirtyEnd = -1;
+
+		// Inserted text takes its styles from the spans around it without any span being reported
+		markDirty(start, start + count);
+
+		hasChange = true;
+		changeStart = start;
+		changeBefore = before;
+		changeCount = count;
+	}
+
+	@Override
+	public void onSpanAdded(Spannable text, Object what, int start, int end)
+	{
+		if (MildlyRichTextEditor.isUserStyle(what) && !compacting)
+		{
+			spanCount++;
+			trackEmptySpan(what, start, end);
+			markSpanDirty(start, end, false);
+		}
+	}
+
+	@Override
+	public void onSpanRemoved(Spannable text, Object what, int start, int end)
+	{
+		if (MildlyRichTextEditor.isUserStyle(what) && !compacting)
+		{
+			spanCount--;
+			emptySpans.remove(what);
+			markSpanDirty(start, end, true);
+		}
+	}
+
+	@Override
+	public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend)
+	{
+		if (!MildlyRichTextEditor.isUserStyle(what))
+			return;
+
+		trackEmptySpan(what, nstart, nend);
+		if (hasChange && !changingText)
+		{
+			int shiftedStart = shift(ostart, changeStart, changeBefore, changeCount);
+			int shiftedEnd = shift(oend, changeStart, changeBefore, changeCount);
+			if (shiftedStart == nstart && shiftedEnd == nend)
+				return; // moved along with the text
+
+			markDirty(Math.min(ostart, shiftedStart), Math.max(oend, shiftedEnd));
+		}
+		else
+			markSpanDirty(ostart, oend, true);
+		markSpanDirty(nstart, nend, false);
+	}
+
+	private void trackEmptySpan(Object span, int start, int end)
+	{
+		if (!MildlyRichTextEditor.isUserStyle(span))
+			return;
+
+		if (start == end)
+			emptySpans.put(span, start);
+		else
+			emptySpans.remove(span);
+	}
+
+	private int emptySpanStyles(int position)
+	{
+		if (emptySpans.isEmpty())
+			return 0;
+
+		int styles = 0;
+		for (Map.Entry<Object, Integer> entry : emptySpans.entrySet())
+		{
+			if (entry.getValue() == position)
+				styles |= spanStyle(entry.getKey());
+		}
+		return styles;
+	}
+
+	/**
+	 * Reads the styles for a cursor or selection from the spans, the way the table answers
+	 * {@link #getSelectionStyles(int, int)}.
+	 */
+	private static int spanStyles(Spanned text, int selStart, int selEnd)
+	{
+		boolean cursor = selStart > 0 && selStart == selEnd;
+		int styles = 0;
+		for (CharacterStyle span : text.getSpans(cursor ? selStart - 1 : selStart, selEnd, CharacterStyle.class))
+		{
+			if (MildlyRichTextEditor.isUserStyle(span) && (cursor || text.getSpanStart(span) <= selStart &&
+				text.getSpanEnd(span) >= selEnd))
+				styles |= spanStyle(span);
+		}
+		return styles;
+	}
+
+	private static int spanStyle(Object span)
+	{
+		if (span instanceof StyleSpan)
+		{
+			int style = ((StyleSpan)span).getStyle();
+			return style == Typeface.BOLD_ITALIC ? StyleMask.BOLD | StyleMask.ITALIC :
+				style == Typeface.BOLD ? StyleMask.BOLD : style == Typeface.ITALIC ? StyleMask.ITALIC : 0;
+		}
+		else if (span instanceof RelativeSizeSpan)
+			return StyleMask.withSize(0, Math.round(((RelativeSizeSpan)span).getSizeChange() *
+				StyleMask.DEFAULT_ABSOLUTE_SIZE));
+		else if (span instanceof FontFamilySpan)
+			return StyleMask.withFamily(0, ((FontFamilySpan)span).getFamilyCode());
+		else
+			return StyleMask.UNDERLINE;
+	}
+
+	/**
+	 * Marks the range of a span change dirty. Changes reported in the middle of a text change are held back until
+	 * the table has caught up with the text.
+	 *
+	 * @param old Whether the range is from before the text change, if one is in progress.
+	 */
+	private void markSpanDirty(int start, int end, boolean old)
+	{
+		if (!changingText)
+		{
+			markDirty(start, end);
+			return;
+		}
+
+		// Depending on the platform version, old ranges may already have been moved along with the text
+		pendingDirtyStart = Math.min(pendingDirtyStart, start);
+		pendingDirtyEnd = Math.max(pendingDirtyEnd, end);
+		if (old)
+		{
+			pendingDirtyStart = Math.min(pendingDirtyStart, shift(start, pendingStart, pendingBefore, pendingCount));
+			pendingDirtyEnd = Math.max(pendingDirtyEnd, shift(end, pendingStart, pendingBefore, pendingCount));
+		}
+	}
+
+	private void markDirty(int start, int end)
+	{
+		start = Math.max(0, start);
+		end = Math.min(table.length(), end);
+		if (start >= end)
+			return;
+
+		dirtyStart = Math.min(dirtyStart, start);
+		dirtyEnd = Math.max(dirtyEnd, end);
+	}
+}
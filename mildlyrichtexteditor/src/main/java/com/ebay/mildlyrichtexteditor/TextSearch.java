@@ -0,0 +1,134 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Linear-time text search over a CharSequence, used by {@link MildlyRichTextEditor#find(CharSequence, int)} and
+ * {@link MildlyRichTextEditor#replaceAll(CharSequence, CharSequence, int)}. The text is read through
+ * {@link CharSequence#charAt(int)}, so searching an Editable neither copies it nor touches its spans.
+ */
+public final class TextSearch
+{
+	/**
+	 * Option flag: only report matches with the exact case of the query.
+	 */
+	public static final int MATCH_CASE = 1;
+
+	/**
+	 * Option flag: only report matches that are not part of a longer word.
+	 */
+	public static final int WHOLE_WORD = 1 << 1;
+
+	/**
+	 * A range of the text that matches the query.
+	 */
+	public static final class Match
+	{
+		public final int start;
+		public final int end;
+
+		Match(int start, int end)
+		{
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return o instanceof Match && ((Match)o).start == start && ((Match)o).end == end;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * start + end;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "[" + start + ", " + end + ")";
+		}
+	}
+
+	private TextSearch()
+	{
+	}
+
+	/**
+	 * Finds all non-overlapping occurrences of the query, from the start of the text to its end. Runs in
+	 * O(text length + query length) using the Knuth-Morris-Pratt algorithm.
+	 *
+	 * @param text The text to search.
+	 * @param query The text to look for.
+	 * @param options A combination of {@link #MATCH_CASE} and {@link #WHOLE_WORD}, or 0.
+	 * @return The matches, in text order.
+	 */
+	@NonNull
+	public static List<Match> find(@NonNull CharSequence text, @NonNull CharSequence query, int options)
+	{
+		List<Match> matches = new ArrayList<>();
+		int length = query.length();
+		if (length == 0 || length > text.length())
+			return matches;
+
+		boolean matchCase = (options & MATCH_CASE) != 0;
+		boolean wholeWord = (options & WHOLE_WORD) != 0;
+		char[] pattern = new char[length];
+		for (int i = 0; i < length; i++)
+			pattern[i] = fold(query.charAt(i), matchCase);
+
+		// failure[i] is the length of the longest proper prefix of pattern[0..i] that is also its suffix
+		int[] failure = new int[length];
+		for (int i = 1, k = 0; i < length; i++)
+		{
+			while (k > 0 && pattern[i] != pattern[k])
+				k = failure[k - 1];
+			if (pattern[i] == pattern[k])
+				k++;
+			failure[i] = k;
+		}
+
+		for (int i = 0, k = 0; i < text.length(); i++)
+		{
+			char c = fold(text.charAt(i), matchCase);
+			while (k > 0 && c != pattern[k])
+				k = failure[k - 1];
+			if (c == pattern[k])
+				k++;
+
+			if (k == length)
+			{
+				int start = i + 1 - length;
+				if (!wholeWord || isWordBoundary(text, start) && isWordBoundary(text, i + 1))
+				{
+					matches.add(new Match(start, i + 1));
+					k = 0;
+				}
+				else
+					k = failure[k - 1];
+			}
+		}
+		return matches;
+	}
+
+	private static char fold(char c, boolean matchCase)
+	{
+		return matchCase ? c : Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	private static boolean isWordBoundary(CharSequence text, int index)
+	{
+		return index == 0 || index == text.length() || !isWordChar(text.charAt(index - 1)) || !isWordChar(
+			text.charAt(index));
+	}
+
+	private static boolean isWordChar(char c)
+	{
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+}
@@ -0,0 +1,573 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.Html;
+import android.text.Layout;
+import android.text.SpannableStringBuilder;
+import android.text.TextUtils;
+import android.text.TextWatcher;
+import android.util.AttributeSet;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+import android.widget.ImageButton;
+import android.widget.ToggleButton;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Editing mode for very long documents. Instead of a single {@link MildlyRichTextEditor} holding the whole text, the
+ * document is split into paragraphs, and only the paragraphs on screen are bound to editor widgets inside a
+ * RecyclerView. Layout, span queries and text watchers therefore only ever see a single paragraph.
+ * <p>
+ * The style controls are shared: they are connected to whichever paragraph has the focus. Enter splits a paragraph,
+ * backspace at the start of a paragraph merges it into the previous one, whether it comes from a soft keyboard or a
+ * hardware one, and the arrow keys move the cursor across paragraph boundaries. Selections cannot span more than one
+ * paragraph.
+ */
+public class VirtualizedRichTextEditor extends RecyclerView
+{
+	private static final String EMPTY_PARAGRAPH_HTML = "<br>\n";
+
+	@VisibleForTesting final List<Editable> paragraphs = new ArrayList<>();
+	private final ParagraphAdapter adapter = new ParagraphAdapter();
+	private final HtmlSanitizer htmlSanitizer = new HtmlSanitizer();
+	private final InlineImageLoader imageLoader;
+	private ToggleButton boldButton;
+	private ToggleButton italicsButton;
+	private ToggleButton underlineButton;
+	private ToggleButton serifButton;
+	private ToggleButton sansSerifButton;
+	private ToggleButton monospaceButton;
+	private ImageButton fontSizeButton;
+	private View fontSizeMenu;
+	private List<ToggleButton> fontSizeButtons;
+	@Nullable private MildlyRichTextEditor focusedEditor;
+
+	public VirtualizedRichTextEditor(Context context, AttributeSet attrs)
+	{
+		super(context, attrs);
+		paragraphs.add(new SpannableStringBuilder());
+		imageLoader = new InlineImageLoader(context);
+		setLayoutManager(new LinearLayoutManager(context));
+		setAdapter(adapter);
+	}
+
+	/**
+	 * Sets the bold button shared by all paragraphs.
+	 *
+	 * @param button A ToggleButton for the bold style
+	 */
+	public void setBoldToggleButton(ToggleButton button)
+	{
+		boldButton = button;
+		bindToolbar(focusedEditor);
+	}
+
+	/**
+	 * Sets the italics button shared by all paragraphs.
+	 *
+	 * @param button A ToggleButton for the italic style
+	 */
+	public void setItalicsToggleButton(ToggleButton button)
+	{
+		italicsButton = button;
+		bindToolbar(focusedEditor);
+	}
+
+	/**
+	 * Sets the underline button shared by all paragraphs.
+	 *
+	 * @param button A ToggleButton for the underline style
+	 */
+	public void setUnderlineToggleButton(ToggleButton button)
+	{
+		underlineButton = button;
+		bindToolbar(focusedEditor);
+	}
+
+	/**
+	 * Sets the serif font family button shared by all paragraphs.
+	 *
+	 * @param button A ToggleButton for the serif font family
+	 */
+	public void setSerifToggleButton(ToggleButton button)
+	{
+		serifButton = button;
+		bindToolbar(focusedEditor);
+	}
+
+	/**
+	 * Sets the sans serif font family button shared by all paragraphs.
+	 *
+	 * @param button A ToggleButton for the sans serif font family
+	 */
+	public void setSansSerifToggleButton(ToggleButton button)
+	{
+		sansSerifButton = button;
+		bindToolbar(focusedEditor);
+	}
+
+	/**
+	 * Sets the monospace font family button shared by all paragraphs.
+	 *
+	 * @param button A ToggleButton for the monospace font family
+	 */
+	public void setMonospaceToggleButton(ToggleButton button)
+	{
+		monospaceButton = button;
+		bindToolbar(focusedEditor);
+	}
+
+	/**
+	 * Sets the font size controls shared by all paragraphs.
+	 *
+	 * @param button An ImageButton for opening the PopupWindow menu to select the font size
+	 * @param menu The Menu that pops up when the ImageButton is clicked
+	 * @param buttons The list of ToggleButtons representing the various supported font sizes
+	 */
+	public void setFontSizeButton(ImageButton button, View menu, List<ToggleButton> buttons)
+	{
+		fontSizeButton = button;
+		fontSizeMenu = menu;
+		fontSizeButtons = buttons;
+		bindToolbar(focusedEditor);
+	}
+
+	/**
+	 * Applies a style to the selection of the focused paragraph.
+	 *
+	 * @param style The style to toggle.
+	 * @param relativeSize The size of the font relative to the default absolute size of 14sp.
+	 */
+	public void toggleStyle(MildlyRichTextEditor.Style style, Float relativeSize)
+	{
+		if (focusedEditor != null)
+			focusedEditor.toggleStyle(style, relativeSize);
+	}
+
+	/**
+	 * Sets the document from the provided HTML input, one block per paragraph.
+	 *
+	 * @param html A string containing HTML used to set the document.
+	 */
+	public void setTextHtml(@Nullable String html)
+	{
+		bindToolbar(null);
+		paragraphs.clear();
+		if (!TextUtils.isEmpty(html))
+			addParagraphs(MildlyRichTextEditor.fromHtml(htmlSanitizer.sanitize(html, null), newImageGetter()), 0);
+		else
+			paragraphs.add(new SpannableStringBuilder());
+		adapter.notifyDataSetChanged();
+	}
+
+	/**
+	 * @return An image getter for images as wide as the paragraphs, which lays out the paragraph holding an image
+	 * 	again once the image has been loaded.
+	 */
+	private Html.ImageGetter newImageGetter()
+	{
+		int width = getWidth() - getPaddingLeft() - getPaddingRight();
+		if (width <= 0)
+			width = getResources().getDisplayMetrics().widthPixels; // not laid out yet
+
+		return imageLoader.newImageGetter(width, new InlineImageLoader.OnImageLoadedListener()
+		{
+			@Override
+			public void onImageLoaded(@NonNull Drawable image)
+			{
+				for (Editable paragraph : paragraphs)
+					InlineImageLoader.relayoutImage(paragraph, image);
+			}
+		});
+	}
+
+	/**
+	 * Converts the document to HTML, the same HTML {@link MildlyRichTextEditor#getTextHtml()} returns for the
+	 * whole document. The paragraphs are joined for the conversion, so that lists running across several
+	 * paragraphs are written as a single list.
+	 *
+	 * @return A string containing the resulting HTML from conversion of the document.
+	 */
+	public String getTextHtml()
+	{
+		if (paragraphs.size() == 1 && paragraphs.get(0).length() == 0)
+			return EMPTY_PARAGRAPH_HTML;
+
+		SpannableStringBuilder document = new SpannableStringBuilder();
+		for (int i = 0; i < paragraphs.size(); i++)
+		{
+			int start = document.length();
+			document.append(paragraphs.get(i));
+			if (i == paragraphs.size() - 1)
+				break;
+
+			int lineBreak = document.length();
+			document.append('\n');
+			// In a single text, a list item covers the line break that ends its paragraph
+			for (ListItemSpan item : document.getSpans(start, lineBreak, ListItemSpan.class))
+			{
+				if (document.getSpanEnd(item) == lineBreak)
+					document.setSpan(item, document.getSpanStart(item), lineBreak + 1, document.getSpanFlags(item));
+			}
+		}
+		return ListHtml.toHtml(MildlyRichTextEditor.sanitizeUnderlineSpan(document));
+	}
+
+	/**
+	 * @return The number of paragraphs in the document.
+	 */
+	public int getParagraphCount()
+	{
+		return paragraphs.size();
+	}
+
+	/**
+	 * Splits the text at every line break and inserts the resulting paragraphs into the document.
+	 *
+	 * @return The number of paragraphs inserted.
+	 */
+	private int addParagraphs(CharSequence text, int position)
+	{
+		int added = 0;
+		int start = 0;
+		while (true)
+		{
+			int end = TextUtils.indexOf(text, '\n', start);
+			paragraphs.add(position + added, new SpannableStringBuilder(text, start, end < 0 ? text.length() : end));
+			added++;
+			if (end < 0)
+				return added;
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Moves everything after the first line break of a paragraph into new paragraphs following it.
+	 *
+	 * @param position The index of the paragraph that received a line break.
+	 */
+	@VisibleForTesting
+	void splitParagraph(int position)
+	{
+		Editable paragraph = paragraphs.get(position);
+		int lineBreak = TextUtils.indexOf(paragraph, '\n');
+		if (lineBreak < 0)
+			return;
+
+		// Changes to the paragraph must not be styled according to the controls, so disconnect them first
+		bindToolbar(null);
+		CharSequence tail = paragraph.subSequence(lineBreak + 1, paragraph.length());
+		paragraph.delete(lineBreak, paragraph.length());
+		int added = addParagraphs(tail, position + 1);
+		adapter.notifyItemRangeInserted(position + 1, added);
+		moveCursor(position + 1, 0);
+	}
+
+	/**
+	 * Appends a paragraph to the one in front of it.
+	 *
+	 * @param position The index of the paragraph to merge into its predecessor.
+	 */
+	@VisibleForTesting
+	void mergeWithPrevious(int position)
+	{
+		if (position <= 0 || position >= paragraphs.size())
+			return;
+
+		bindToolbar(null);
+		Editable previous = paragraphs.get(position - 1);
+		int cursor = previous.length();
+		previous.append(paragraphs.remove(position));
+		adapter.notifyItemRemoved(position);
+		moveCursor(position - 1, cursor);
+	}
+
+	/**
+	 * Moves the focus and the cursor to a paragraph, scrolling it into view first if needed.
+	 */
+	private void moveCursor(final int position, final int offset)
+	{
+		ParagraphViewHolder holder = (ParagraphViewHolder)findViewHolderForAdapterPosition(position);
+		if (holder != null && holder.paragraph == paragraphs.get(position))
+		{
+			holder.editor.requestFocus();
+			holder.editor.setSelection(Math.min(offset, holder.editor.length()));
+			return;
+		}
+
+		scrollToPosition(position);
+		post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				ParagraphViewHolder holder = (ParagraphViewHolder)findViewHolderForAdapterPosition(position);
+				if (holder != null)
+				{
+					holder.editor.requestFocus();
+					holder.editor.setSelection(Math.min(offset, holder.editor.length()));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Connects the shared style controls to the given paragraph editor, disconnecting them from the previous one.
+	 */
+	private void bindToolbar(@Nullable MildlyRichTextEditor editor)
+	{
+		if (focusedEditor != null && focusedEditor != editor)
+			focusedEditor.clearToolbar();
+
+		focusedEditor = editor;
+		if (editor == null)
+			return;
+
+		if (boldButton != null)
+			editor.setBoldToggleButton(boldButton);
+		if (italicsButton != null)
+			editor.setItalicsToggleButton(italicsButton);
+		if (underlineButton != null)
+			editor.setUnderlineToggleButton(underlineButton);
+		if (serifButton != null)
+			editor.setSerifToggleButton(serifButton);
+		if (sansSerifButton != null)
+			editor.setSansSerifToggleButton(sansSerifButton);
+		if (monospaceButton != null)
+			editor.setMonospaceToggleButton(monospaceButton);
+		if (fontSizeButton != null)
+			editor.setFontSizeButton(fontSizeButton, fontSizeMenu, fontSizeButtons);
+	}
+
+	/**
+	 * Merges the paragraph into the previous one if the cursor is at its start, where a backspace would otherwise
+	 * have nothing to delete.
+	 *
+	 * @return true if the paragraphs were merged.
+	 */
+	private boolean mergeAtCursor(ParagraphViewHolder holder)
+	{
+		int position = holder.getAdapterPosition();
+		if (position == NO_POSITION || position == 0 || holder.editor.getSelectionStart() != 0 ||
+			holder.editor.getSelectionEnd() != 0)
+			return false;
+
+		mergeWithPrevious(position);
+		return true;
+	}
+
+	/**
+	 * Moves the cursor into the neighbouring paragraph when the arrow keys or the backspace key of a hardware
+	 * keyboard would otherwise stop at the edge of the current one. Soft keyboards delete through the input
+	 * connection instead, see {@link ParagraphEditor}.
+	 */
+	private boolean onParagraphKey(ParagraphViewHolder holder, int keyCode, KeyEvent event)
+	{
+		int position = holder.getAdapterPosition();
+		if (event.getAction() != KeyEvent.ACTION_DOWN || position == NO_POSITION)
+			return false;
+
+		MildlyRichTextEditor editor = holder.editor;
+		int selStart = editor.getSelectionStart();
+		if (selStart != editor.getSelectionEnd())
+			return false;
+
+		Layout layout = editor.getLayout();
+		int line = layout != null ? layout.getLineForOffset(selStart) : 0;
+		switch (keyCode)
+		{
+		case KeyEvent.KEYCODE_DEL:
+			return mergeAtCursor(holder);
+		case KeyEvent.KEYCODE_DPAD_UP:
+			if (line == 0 && position > 0)
+			{
+				moveCursor(position - 1, paragraphs.get(position - 1).length());
+				return true;
+			}
+			return false;
+		case KeyEvent.KEYCODE_DPAD_DOWN:
+			if ((layout == null || line == layout.getLineCount() - 1) && position < paragraphs.size() - 1)
+			{
+				moveCursor(position + 1, 0);
+				return true;
+			}
+			return false;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Binds paragraphs to editor widgets. A bound widget edits the paragraph's Editable in place, so the document
+	 * never has to be copied back from the widgets.
+	 */
+	private class ParagraphAdapter extends RecyclerView.Adapter<ParagraphViewHolder>
+	{
+		@Override
+		public ParagraphViewHolder onCreateViewHolder(ViewGroup parent, int viewType)
+		{
+			ParagraphEditor editor = new ParagraphEditor(parent.getContext());
+			editor.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+				ViewGroup.LayoutParams.WRAP_CONTENT));
+			editor.setBackground(null);
+			return new ParagraphViewHolder(editor);
+		}
+
+		@Override
+		public void onBindViewHolder(ParagraphViewHolder holder, int position)
+		{
+			releaseParagraph(holder);
+			holder.editor.setText(paragraphs.get(position));
+			// The widget copies the text into its own Editable; keep that one as the paragraph from now on
+			holder.paragraph = holder.editor.getText();
+			paragraphs.set(position, holder.paragraph);
+		}
+
+		@Override
+		public void onViewRecycled(ParagraphViewHolder holder)
+		{
+			releaseParagraph(holder);
+		}
+
+		/**
+		 * Hands the paragraph edited by the widget back to the document as a detached copy, so that it no longer
+		 * carries the widget's watchers.
+		 */
+		private void releaseParagraph(ParagraphViewHolder holder)
+		{
+			if (holder.editor == focusedEditor)
+				bindToolbar(null);
+
+			Editable paragraph = holder.paragraph;
+			holder.paragraph = null;
+			if (paragraph == null)
+				return;
+
+			int position = holder.getAdapterPosition();
+			if (position == NO_POSITION || position >= paragraphs.size() || paragraphs.get(position) != paragraph)
+			{
+				// The holder is being rebound to another position; look the paragraph up by identity
+				position = NO_POSITION;
+				for (int i = 0; i < paragraphs.size() && position == NO_POSITION; i++)
+				{
+					if (paragraphs.get(i) == paragraph)
+						position = i;
+				}
+			}
+			if (position != NO_POSITION)
+				paragraphs.set(position, new SpannableStringBuilder(paragraph));
+		}
+
+		@Override
+		public int getItemCount()
+		{
+			return paragraphs.size();
+		}
+	}
+
+	/**
+	 * The editor widget of a paragraph. Soft keyboards delete text through the input connection, mostly without
+	 * sending key events, so a backspace at the start of the paragraph is recognized there.
+	 */
+	private class ParagraphEditor extends MildlyRichTextEditor
+	{
+		@Nullable ParagraphViewHolder holder;
+
+		ParagraphEditor(Context context)
+		{
+			super(context, null);
+		}
+
+		@Override
+		public InputConnection onCreateInputConnection(EditorInfo outAttrs)
+		{
+			InputConnection connection = super.onCreateInputConnection(outAttrs);
+			if (connection == null)
+				return null;
+
+			return new InputConnectionWrapper(connection, true)
+			{
+				@Override
+				public boolean deleteSurroundingText(int beforeLength, int afterLength)
+				{
+					return beforeLength > 0 && afterLength == 0 && holder != null && mergeAtCursor(holder) ||
+						super.deleteSurroundingText(beforeLength, afterLength);
+				}
+
+				@Override
+				public boolean deleteSurroundingTextInCodePoints(int beforeLength, int afterLength)
+				{
+					return beforeLength > 0 && afterLength == 0 && holder != null && mergeAtCursor(holder) ||
+						super.deleteSurroundingTextInCodePoints(beforeLength, afterLength);
+				}
+			};
+		}
+	}
+
+	private class ParagraphViewHolder extends RecyclerView.ViewHolder implements TextWatcher
+	{
+		final MildlyRichTextEditor editor;
+		@Nullable Editable paragraph;
+
+		ParagraphViewHolder(ParagraphEditor editor)
+		{
+			super(editor);
+			this.editor = editor;
+			editor.holder = this;
+			editor.addTextChangedListener(this);
+			editor.setOnFocusChangeListener(new OnFocusChangeListener()
+			{
+				@Override
+				public void onFocusChange(View v, boolean hasFocus)
+				{
+					if (hasFocus)
+						bindToolbar(ParagraphViewHolder.this.editor);
+				}
+			});
+			editor.setOnKeyListener(new OnKeyListener()
+			{
+				@Override
+				public boolean onKey(View v, int keyCode, KeyEvent event)
+				{
+					return onParagraphKey(ParagraphViewHolder.this, keyCode, event);
+				}
+			});
+		}
+
+		@Override
+		public void beforeTextChanged(CharSequence s, int start, int count, int after)
+		{
+			//not implemented
+		}
+
+		@Override
+		public void onTextChanged(CharSequence s, int start, int before, int count)
+		{
+			//not implemented
+		}
+
+		@Override
+		public void afterTextChanged(Editable s)
+		{
+			int position = getAdapterPosition();
+			if (paragraph == null || s != paragraph || position == NO_POSITION)
+				return;
+
+			if (TextUtils.indexOf(s, '\n') >= 0)
+				splitParagraph(position);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.text.Editable;
+import android.text.Spanned;
+import android.text.style.URLSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class AutoLinkerTest
+{
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testTypedAddressIsLinked()
+	{
+		editor.setText("See ");
+		Editable text = editor.getText();
+		for (char c : "www.ebay.co".toCharArray())
+			text.append(c);
+
+		AutoLinker.AutoLinkSpan[] links = links();
+		assertThat(links.length, is(1));
+		assertThat(links[0].getURL(), is("http://www.ebay.co"));
+
+		text.append('m');
+		links = links();
+		assertThat(links.length, is(1));
+		assertThat(links[0].getURL(), is("http://www.ebay.com"));
+		assertThat(text.getSpanStart(links[0]), is(4));
+		assertThat(text.getSpanEnd(links[0]), is(text.length()));
+
+		text.replace(7, 8, " ");
+		assertThat(links()[0].getURL(), is("http://ebay.com"));
+		assertThat(text.getSpanStart(links()[0]), is(8));
+	}
+
+	@Test
+	public void testUnchangedLinkIsKept()
+	{
+		editor.setText("Visit https://Shop.example.com today");
+		AutoLinker.AutoLinkSpan link = links()[0];
+		assertThat(link.getURL(), is("https://Shop.example.com"));
+
+		editor.getText().append(" or tomorrow");
+		assertThat(links().length, is(1));
+		assertThat(links()[0], is(link));
+	}
+
+	@Test
+	public void testOnlyEditedParagraphIsScanned()
+	{
+		editor.setText("first paragraph\nsecond paragraph");
+		Editable text = editor.getText();
+		// Not a web address, so a rescan of the first paragraph would remove it
+		AutoLinker.AutoLinkSpan stale = new AutoLinker.AutoLinkSpan("http://first");
+		text.setSpan(stale, 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+		text.append(" www.ebay.com");
+		assertThat(text.getSpanStart(stale), is(0));
+		assertThat(links().length, is(2));
+
+		text.insert(5, "!");
+		assertThat(text.getSpanStart(stale), is(-1));
+		assertThat(links().length, is(1));
+	}
+
+	@Test
+	public void testEmailAddressIsNotLinked()
+	{
+		editor.setText("Mail seller@ebay.com");
+		assertThat(links().length, is(0));
+	}
+
+	@Test
+	public void testLinksAreExported()
+	{
+		editor.setText("Specs at www.ebay.com");
+		String html = editor.getTextHtml();
+		assertThat(html, containsString("<a href=\"http://www.ebay.com\">www.ebay.com</a>"));
+
+		editor.setTextHtml(html);
+		assertThat(links().length, is(1));
+		assertThat(editor.getLastSanitizerReport().hasDrops(), is(false));
+		assertThat(editor.getTextHtml(), is(html));
+	}
+
+	@Test
+	public void testAuthorLinksAreKept()
+	{
+		String link = "<a href=\"https://www.ebay.com/itm/1\">see details</a>";
+		editor.setTextHtml("<p>Please " + link + " or www.ebay.com</p>");
+
+		URLSpan[] urls = editor.getText().getSpans(0, editor.length(), URLSpan.class);
+		assertThat(urls.length, is(2));
+		assertThat(links().length, is(1));
+		assertThat(editor.getTextHtml(), containsString(link));
+		assertThat(HtmlBatchNormalizer.normalize(editor.getTextHtml()), containsString(link));
+
+		// Typing into the linked text keeps the author's link, without linking over it
+		editor.setTextHtml("<p><a href=\"https://www.ebay.com/itm/1\">www.ebay.com</a></p>");
+		editor.getText().append("/x");
+		assertThat(links().length, is(0));
+		assertThat(editor.getTextHtml(), containsString("href=\"https://www.ebay.com/itm/1\""));
+	}
+
+	@Test
+	public void testLinksAreNotUserStyles()
+	{
+		TestToolbar.attach(editor);
+		editor.setText("www.ebay.com");
+		editor.setSelection(4, 8);
+		assertThat(editor.underlineButton.isChecked(), is(false));
+		assertThat(editor.getTextMarkdown(), not(containsString("www.ebay.com](")));
+	}
+
+	@Test
+	public void testDisablingRemovesLinks()
+	{
+		editor.setText("www.ebay.com");
+		editor.setAutoLinkEnabled(false);
+		assertThat(links().length, is(0));
+
+		editor.getText().append(" www.example.com");
+		assertThat(links().length, is(0));
+
+		editor.setAutoLinkEnabled(true);
+		assertThat(links().length, is(2));
+	}
+
+	private AutoLinker.AutoLinkSpan[] links()
+	{
+		Editable text = editor.getText();
+		return text.getSpans(0, text.length(), AutoLinker.AutoLinkSpan.class);
+	}
+}
@@ -0,0 +1,136 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.style.CharacterStyle;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Measures deleting text from a 50KB document with a style span on every word: deleting all of it at once, as after
+ * select all or cut, and deleting characters one by one from its end, as with a repeating backspace key.
+ * <p>
+ * By default every deletion runs once. The {@code benchmarkDeletion} Gradle task sets {@code mrte.benchmark} to run
+ * warm-up and measured iterations.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class DeletionBenchmarkTest
+{
+	private static final boolean BENCHMARK = Boolean.getBoolean("mrte.benchmark");
+	private static final int WARM_UP_ITERATIONS = BENCHMARK ? 5 : 0;
+	private static final int ITERATIONS = BENCHMARK ? 20 : 1;
+	private static final int DOCUMENT_CHARS = 50 * 1024;
+	private static final int BACKSPACES = 500;
+
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+		TestToolbar.attach(editor);
+	}
+
+	@Test
+	public void testSelectAllDelete()
+	{
+		Spannable document = createDocument();
+		long nanos = 0;
+		for (int i = 0; i < WARM_UP_ITERATIONS + ITERATIONS; i++)
+		{
+			editor.setText(document);
+			editor.setSelection(0, editor.length());
+			long start = System.nanoTime();
+			editor.getText().delete(0, editor.length());
+			if (i >= WARM_UP_ITERATIONS)
+				nanos += System.nanoTime() - start;
+		}
+
+		if (BENCHMARK)
+		{
+			System.out.println("document operation microseconds");
+			System.out.println(DOCUMENT_CHARS / 1024 + "KB select-all-delete " + nanos / 1000 / ITERATIONS);
+		}
+		assertThat(editor.length(), is(0));
+		assertThat(editor.getText().getSpans(0, 0, CharacterStyle.class).length, is(0));
+	}
+
+	@Test
+	public void testRepeatedBackspace()
+	{
+		Spannable document = createDocument();
+		long nanos = 0;
+		for (int i = 0; i < WARM_UP_ITERATIONS + ITERATIONS; i++)
+		{
+			editor.setText(document);
+			editor.setSelection(editor.length());
+			Editable text = editor.getText();
+			long start = System.nanoTime();
+			for (int j = 0; j < BACKSPACES; j++)
+			{
+				int position = editor.getSelectionStart();
+				text.delete(position - 1, position);
+			}
+			if (i >= WARM_UP_ITERATIONS)
+				nanos += System.nanoTime() - start;
+		}
+
+		if (BENCHMARK)
+		{
+			System.out.println("document operation microseconds");
+			System.out.println(DOCUMENT_CHARS / 1024 + "KB backspace " + nanos / 1000 / ITERATIONS / BACKSPACES);
+		}
+		assertThat(editor.length(), is(DOCUMENT_CHARS - BACKSPACES));
+		// The last word deleted was bold
+		assertThat(editor.boldButton.isChecked(), is(true));
+	}
+
+	/**
+	 * @return Words of five characters with a space, alternately bold, italic, underlined and larger.
+	 */
+	private static Spannable createDocument()
+	{
+		StringBuilder content = new StringBuilder(DOCUMENT_CHARS);
+		while (content.length() < DOCUMENT_CHARS)
+			content.append("word ");
+		SpannableStringBuilder document = new SpannableStringBuilder(content);
+		for (int word = 0; word < DOCUMENT_CHARS / 5; word++)
+		{
+			Object span;
+			switch (word % 4)
+			{
+			case 0:
+				span = new StyleSpan(Typeface.BOLD);
+				break;
+			case 1:
+				span = new StyleSpan(Typeface.ITALIC);
+				break;
+			case 2:
+				span = new MildlyRichTextEditor.CustomUnderlineSpan();
+				break;
+			default:
+				span = new RelativeSizeSpan(16 / 14f);
+				break;
+			}
+			document.setSpan(span, word * 5, word * 5 + 4, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		}
+		return document;
+	}
+}
@@ -0,0 +1,38 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.text.Spanned;
+
+/**
+ * In-process stand-in for the draft service: keeps the document at its latest version and accepts uploaded
+ * deltas.
+ */
+class DeltaSyncServer
+{
+	private final DeltaApplier document;
+	private int bytesReceived;
+
+	DeltaSyncServer(CharSequence base, long version)
+	{
+		document = new DeltaApplier(base, version);
+	}
+
+	/**
+	 * @return The version of the document after applying the uploaded delta.
+	 */
+	long upload(byte[] payload)
+	{
+		document.apply(DocumentDelta.fromByteArray(payload));
+		bytesReceived += payload.length;
+		return document.getVersion();
+	}
+
+	int getBytesReceived()
+	{
+		return bytesReceived;
+	}
+
+	Spanned getDocument()
+	{
+		return document.getDocument();
+	}
+}
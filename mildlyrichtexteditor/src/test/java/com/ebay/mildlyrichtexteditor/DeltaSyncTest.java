@@ -0,0 +1,147 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class DeltaSyncTest
+{
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+	private DeltaSyncServer server;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+
+		StringBuilder description = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			description.append("Line ").append(i).append(" of a long item description.\n");
+		SpannableStringBuilder text = new SpannableStringBuilder(description);
+		text.setSpan(new StyleSpan(Typeface.BOLD), 0, 4, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		text.setSpan(new MildlyRichTextEditor.CustomUnderlineSpan(), 3000, 3500, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		editor.setText(text);
+
+		server = new DeltaSyncServer(editor.getText(), 1);
+		editor.startChangeTracking(1);
+	}
+
+	@Test
+	public void testNoChangesNoDelta()
+	{
+		assertThat(editor.takeDelta(), is(nullValue()));
+	}
+
+	@Test
+	public void testUploadScalesWithEdit()
+	{
+		Editable text = editor.getText();
+		text.insert(100, "new ");
+		text.insert(104, "words");
+		text.delete(2000, 2010);
+
+		byte[] payload = editor.takeDelta().toByteArray();
+		assertThat(server.upload(payload), is(2L));
+		assertThat(payload.length, lessThan(64));
+		assertThat(payload.length * 50, lessThan(editor.getTextHtml().length()));
+		assertSameDocument(server.getDocument(), text);
+	}
+
+	@Test
+	public void testStyleToggleIsSynced()
+	{
+		editor.setSelection(10, 20);
+		editor.toggleStyle(MildlyRichTextEditor.Style.BOLD, null);
+		editor.setSelection(3200, 3300);
+		editor.toggleStyle(MildlyRichTextEditor.Style.UNDERLINE, null);
+
+		server.upload(editor.takeDelta().toByteArray());
+		assertSameDocument(server.getDocument(), editor.getText());
+	}
+
+	@Test
+	public void testInsertedTextTakesStyles()
+	{
+		TestToolbar.attach(editor);
+		editor.getText().insert(4, "xx");
+
+		server.upload(editor.takeDelta().toByteArray());
+		assertSameDocument(server.getDocument(), editor.getText());
+	}
+
+	@Test
+	public void testSuccessiveDeltas()
+	{
+		editor.getText().append("first");
+		server.upload(editor.takeDelta().toByteArray());
+
+		editor.getText().replace(0, 4, "Row");
+		DocumentDelta delta = editor.takeDelta();
+		assertThat(delta.getBaseVersion(), is(2L));
+		assertThat(server.upload(delta.toByteArray()), is(3L));
+		assertSameDocument(server.getDocument(), editor.getText());
+	}
+
+	@Test
+	public void testSetTextReplacesDocument()
+	{
+		editor.setText("Completely new");
+
+		server.upload(editor.takeDelta().toByteArray());
+		assertSameDocument(server.getDocument(), editor.getText());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDeltaForOtherVersionIsRejected()
+	{
+		editor.getText().append("first");
+		editor.takeDelta();
+		editor.getText().append("second");
+
+		server.upload(editor.takeDelta().toByteArray());
+	}
+
+	@Test
+	public void testEncodingRoundTrip()
+	{
+		DocumentDelta delta = new DocumentDelta(300, Arrays.asList(DocumentDelta.Op.text(5, 2, "héllo"),
+			DocumentDelta.Op.style(1, new int[]{3, 200}, new int[]{StyleMask.BOLD, StyleMask.withSize(0, 24)})));
+
+		DocumentDelta decoded = DocumentDelta.fromByteArray(delta.toByteArray());
+		assertThat(decoded.getBaseVersion(), is(300L));
+		assertThat(decoded.getOps().get(0).inserted, is("héllo"));
+		assertThat(decoded.getOps().get(0).removed, is(2));
+		assertThat(decoded.getOps().get(1).runLengths[1], is(200));
+		assertThat(StyleMask.size(decoded.getOps().get(1).runMasks[1]), is(24));
+	}
+
+	private static void assertSameDocument(Spanned actual, Spanned expected)
+	{
+		assertThat(actual.toString(), is(expected.toString()));
+		for (int i = 0; i < expected.length(); i++)
+			assertThat("style at " + i, StyleMask.of(actual, i, i + 1), is(StyleMask.of(expected, i, i + 1)));
+	}
+}
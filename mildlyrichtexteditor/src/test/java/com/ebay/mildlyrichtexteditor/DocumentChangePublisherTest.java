@@ -0,0 +1,146 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.support.annotation.NonNull;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class DocumentChangePublisherTest
+{
+	private static final Executor DIRECT = new Executor()
+	{
+		@Override
+		public void execute(@NonNull Runnable task)
+		{
+			task.run();
+		}
+	};
+
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+	private final RecordingSubscriber subscriber = new RecordingSubscriber();
+
+	private static class RecordingSubscriber implements Subscriber<DocumentChange>
+	{
+		Subscription subscription;
+		final List<DocumentChange> changes = new ArrayList<>();
+		Throwable error;
+
+		@Override
+		public void onSubscribe(Subscription subscription)
+		{
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(DocumentChange change)
+		{
+			changes.add(change);
+		}
+
+		@Override
+		public void onError(Throwable error)
+		{
+			this.error = error;
+		}
+
+		@Override
+		public void onComplete()
+		{
+			throw new AssertionError("the stream never completes");
+		}
+	}
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+		editor.setText("Hello");
+		new DocumentChangePublisher(editor, DIRECT).subscribe(subscriber);
+	}
+
+	@Test
+	public void testNothingIsDeliveredWithoutDemand()
+	{
+		editor.getText().append("a");
+
+		assertThat(subscriber.changes, is(empty()));
+	}
+
+	@Test
+	public void testChangesWaitingForDemandAreConflated()
+	{
+		editor.getText().append("a");
+		editor.getText().append("b");
+		subscriber.subscription.request(1);
+
+		assertThat(subscriber.changes.size(), is(1));
+		DocumentChange change = subscriber.changes.get(0);
+		assertThat(change.getBaseVersion(), is(0L));
+		assertThat(change.getVersion(), is(2L));
+		assertThat(change.getTextStart(), is(5));
+		assertThat(change.getInsertedText(), is("ab"));
+
+		// The request was used up
+		editor.getText().append("c");
+		assertThat(subscriber.changes.size(), is(1));
+	}
+
+	@Test
+	public void testUnboundedDemandDeliversEveryChange()
+	{
+		subscriber.subscription.request(Long.MAX_VALUE);
+		editor.getText().append("a");
+		editor.getText().append("b");
+
+		assertThat(subscriber.changes.size(), is(2));
+		assertThat(subscriber.changes.get(0).getInsertedText(), is("a"));
+		assertThat(subscriber.changes.get(1).getInsertedText(), is("b"));
+		assertThat(subscriber.changes.get(1).getBaseVersion(), is(1L));
+	}
+
+	@Test
+	public void testInvalidRequestFailsTheSubscription()
+	{
+		editor.getText().append("a");
+		subscriber.subscription.request(0);
+
+		assertThat(subscriber.error, is(instanceOf(IllegalArgumentException.class)));
+		subscriber.subscription.request(1);
+		editor.getText().append("b");
+		assertThat(subscriber.changes, is(empty()));
+	}
+
+	@Test
+	public void testCancelStopsTheDelivery()
+	{
+		subscriber.subscription.request(Long.MAX_VALUE);
+		editor.getText().append("a");
+		subscriber.subscription.cancel();
+		editor.getText().append("b");
+
+		assertThat(subscriber.changes.size(), is(1));
+		assertThat(subscriber.error, is(nullValue()));
+	}
+}
@@ -0,0 +1,183 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.support.annotation.NonNull;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class DocumentChangeStreamTest
+{
+	private static final Executor DIRECT = new Executor()
+	{
+		@Override
+		public void execute(@NonNull Runnable task)
+		{
+			task.run();
+		}
+	};
+
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+	private final List<DocumentChange> changes = new ArrayList<>();
+	private final MildlyRichTextEditor.OnDocumentChangeListener listener =
+		new MildlyRichTextEditor.OnDocumentChangeListener()
+		{
+			@Override
+			public void onDocumentChanged(@NonNull DocumentChange change)
+			{
+				changes.add(change);
+			}
+		};
+
+	@Before
+	public void initialize()
+	{
+		// Without style controls the text watcher leaves the styles of entered text alone
+		editor = new MildlyRichTextEditor(context, null);
+		editor.setText("Hello");
+	}
+
+	@Test
+	public void testTextChange()
+	{
+		editor.addOnDocumentChangeListener(listener, DIRECT);
+		editor.getText().insert(5, " world");
+
+		assertThat(changes.size(), is(1));
+		DocumentChange change = changes.get(0);
+		assertThat(change.getBaseVersion(), is(0L));
+		assertThat(change.getVersion(), is(1L));
+		assertThat(change.getTextStart(), is(5));
+		assertThat(change.getRemovedLength(), is(0));
+		assertThat(change.getInsertedText(), is(" world"));
+		assertThat(change.length(), is(11));
+	}
+
+	@Test
+	public void testStyleChange()
+	{
+		editor.addOnDocumentChangeListener(listener, DIRECT);
+		editor.setSelection(0, 4);
+		assertThat(changes, is(empty()));
+
+		editor.toggleStyle(MildlyRichTextEditor.Style.BOLD, null);
+
+		assertThat(changes.size(), is(1));
+		DocumentChange change = changes.get(0);
+		assertThat(change.hasTextChange(), is(false));
+		assertThat(change.getStyleStart(), is(0));
+		assertThat(change.getStyleEnd(), is(4));
+		assertThat(change.getVersion(), is(1L));
+	}
+
+	@Test
+	public void testSetTextReplacesEverything()
+	{
+		editor.addOnDocumentChangeListener(listener, DIRECT);
+		editor.setText("Bye");
+
+		assertThat(changes.size(), is(1));
+		assertThat(changes.get(0).getTextStart(), is(0));
+		assertThat(changes.get(0).getRemovedLength(), is(5));
+		assertThat(changes.get(0).getInsertedText(), is("Bye"));
+	}
+
+	@Test
+	public void testChangesWaitingForTheExecutorAreConflated()
+	{
+		final List<Runnable> tasks = new ArrayList<>();
+		editor.addOnDocumentChangeListener(listener, new Executor()
+		{
+			@Override
+			public void execute(@NonNull Runnable task)
+			{
+				tasks.add(task);
+			}
+		});
+
+		editor.getText().append("a");
+		editor.getText().append("b");
+		editor.setSelection(0, 2);
+		editor.toggleStyle(MildlyRichTextEditor.Style.ITALIC, null);
+		editor.getText().delete(0, 1);
+		assertThat(tasks.size(), is(1));
+
+		tasks.get(0).run();
+		assertThat(changes.size(), is(1));
+		DocumentChange change = changes.get(0);
+		assertThat(change.getBaseVersion(), is(0L));
+		assertThat(change.getVersion(), is(4L));
+		assertThat(change.getConflatedChanges(), is(4));
+		// "Hello" became "elloab": the replacement covers both the deletion and the appended text
+		assertThat(change.getTextStart(), is(0));
+		assertThat(change.getRemovedLength(), is(5));
+		assertThat(change.getInsertedText(), is("elloab"));
+		assertThat(change.getStyleStart(), is(0));
+		assertThat(change.getStyleEnd(), is(1));
+		assertThat(change.length(), is(6));
+	}
+
+	@Test
+	public void testChangesMadeWhileTheListenerRunsComeAfterIt()
+	{
+		final List<String> calls = new ArrayList<>();
+		editor.addOnDocumentChangeListener(new MildlyRichTextEditor.OnDocumentChangeListener()
+		{
+			private boolean running;
+
+			@Override
+			public void onDocumentChanged(@NonNull DocumentChange change)
+			{
+				assertThat("delivered while the listener runs", running, is(false));
+				running = true;
+				calls.add(change.getInsertedText());
+				if (calls.size() == 1)
+				{
+					editor.getText().append("x");
+					editor.getText().append("y");
+				}
+				running = false;
+			}
+		}, DIRECT);
+
+		editor.getText().append("!");
+
+		assertThat(calls.size(), is(2));
+		assertThat(calls.get(0), is("!"));
+		assertThat(calls.get(1), is("xy"));
+	}
+
+	@Test
+	public void testRemovedListenerGetsNothing()
+	{
+		editor.addOnDocumentChangeListener(listener, DIRECT);
+		editor.getText().append("a");
+		editor.removeOnDocumentChangeListener(listener);
+		editor.getText().append("b");
+		assertThat(changes.size(), is(1));
+
+		// Versions go on from the last one delivered
+		editor.addOnDocumentChangeListener(listener, DIRECT);
+		editor.getText().append("c");
+		assertThat(changes.size(), is(2));
+		assertThat(changes.get(1).getBaseVersion(), is(1L));
+		assertThat(changes.get(1).getInsertedText(), is("c"));
+	}
+}
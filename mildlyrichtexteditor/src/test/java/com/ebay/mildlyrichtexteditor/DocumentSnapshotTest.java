@@ -0,0 +1,113 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.Spanned;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.BOLD;
+import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.BULLETED_LIST;
+import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.FONT_SIZE;
+import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.ITALIC;
+import static com.ebay.mildlyrichtexteditor.MildlyRichTextEditor.Style.NUMBERED_LIST;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class DocumentSnapshotTest
+{
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testSnapshotDoesNotFollowEdits()
+	{
+		editor.setText("some bold text");
+		Editable text = editor.getText();
+		StyleSpan bold = new StyleSpan(Typeface.BOLD);
+		text.setSpan(bold, 5, 9, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+
+		DocumentSnapshot snapshot = editor.snapshot();
+		text.removeSpan(bold);
+		text.insert(0, "more ");
+		text.setSpan(new StyleSpan(Typeface.ITALIC), 0, text.length(), Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+
+		assertThat(snapshot.getText(), is("some bold text"));
+		assertThat(snapshot.getText(5, 9), is("bold"));
+		assertThat(snapshot.hasStyle(5, 9, BOLD), is(true));
+		assertThat(snapshot.hasStyle(4, 9, BOLD), is(false));
+		assertThat(snapshot.hasStyle(0, snapshot.length(), ITALIC), is(false));
+
+		DocumentSnapshot next = editor.snapshot();
+		assertThat(next.getText(), is("more some bold text"));
+		assertThat(next.hasStyle(10, 14, BOLD), is(false));
+		assertThat(next.hasStyle(0, next.length(), ITALIC), is(true));
+	}
+
+	@Test
+	public void testStyleRunsAndSizes()
+	{
+		editor.setText("small big small");
+		editor.getText().setSpan(new RelativeSizeSpan(24 / 14f), 6, 9, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+		DocumentSnapshot snapshot = editor.snapshot();
+
+		List<Integer> runEnds = new ArrayList<>();
+		for (int i = 0; i < snapshot.length(); i = snapshot.getStyleRunEnd(i))
+			runEnds.add(snapshot.getStyleRunEnd(i));
+		assertThat(runEnds.toString(), is("[6, 9, 15]"));
+		assertThat(snapshot.getFontSize(7), is(24));
+		assertThat(snapshot.getFontSize(0), is(14));
+		assertThat(snapshot.hasStyle(6, 9, FONT_SIZE), is(true));
+		assertThat(snapshot.hasStyle(5, 9, FONT_SIZE), is(false));
+	}
+
+	@Test
+	public void testListStyles()
+	{
+		editor.setText("intro\none\ntwo");
+		ListMaintainer.toggle(editor.getText(), 6, editor.length(), true);
+		DocumentSnapshot snapshot = editor.snapshot();
+
+		assertThat(snapshot.getListStyle(0), is(nullValue()));
+		assertThat(snapshot.getListStyle(7), is(NUMBERED_LIST));
+		assertThat(snapshot.getListStyle(snapshot.length()), is(NUMBERED_LIST));
+		assertThat(snapshot.hasStyle(6, snapshot.length(), NUMBERED_LIST), is(true));
+		assertThat(snapshot.hasStyle(0, snapshot.length(), NUMBERED_LIST), is(false));
+		assertThat(snapshot.hasStyle(6, 6, BULLETED_LIST), is(false));
+	}
+
+	@Test
+	public void testHtmlMatchesEditor()
+	{
+		editor.setTextHtml("<b>Bold</b> intro, see www.ebay.com<br>\n" +
+			"<ol>\n<li><i>one</i></li>\n<li>two</li>\n</ol>\n" +
+			"<ul>\n<li>three</li>\n</ul>\n");
+		DocumentSnapshot snapshot = editor.snapshot();
+
+		assertThat(snapshot.toHtml(), is(editor.getTextHtml()));
+		editor.setAutoLinkEnabled(false);
+		assertThat(editor.snapshot().toHtml(), is(editor.getTextHtml()));
+	}
+}
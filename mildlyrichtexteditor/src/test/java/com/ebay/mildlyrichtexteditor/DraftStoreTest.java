@@ -0,0 +1,177 @@
+package com.ebay.mildlyrichtexteditor;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class DraftStoreTest
+{
+	private File file;
+	private DraftStore store;
+	private final List<Runnable> compactions = new ArrayList<>();
+
+	@Before
+	public void initialize() throws IOException
+	{
+		file = File.createTempFile("drafts", ".mrtd");
+		file.delete();
+		store = open();
+	}
+
+	@After
+	public void cleanUp() throws IOException
+	{
+		store.close();
+		file.delete();
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException
+	{
+		String html = "<p dir=\"ltr\"><b>Vintage</b> camera, works fine</p>\n";
+		store.save("a", "Camera", html);
+		store.save("b", "Lens", "<p dir=\"ltr\">50mm</p>\n");
+
+		assertThat(store.load("a"), is(html));
+		assertThat(store.load("missing"), is(nullValue()));
+		List<DraftStore.Draft> drafts = store.list();
+		assertThat(drafts.size(), is(2));
+		assertThat(drafts.get(0).getTitle(), is("Lens"));
+		assertThat(drafts.get(1).getId(), is("a"));
+		assertThat(drafts.get(1).getHtmlBytes(), is(html.length()));
+	}
+
+	@Test
+	public void testDraftsSurviveReopening() throws IOException
+	{
+		store.save("a", "First", "<p>one</p>");
+		store.save("b", "Second", "<p>two</p>");
+		store.save("a", "First again", "<p>one, edited</p>");
+		store.delete("b");
+
+		reopen();
+		List<DraftStore.Draft> drafts = store.list();
+		assertThat(drafts.size(), is(1));
+		assertThat(drafts.get(0).getTitle(), is("First again"));
+		assertThat(store.load("a"), is("<p>one, edited</p>"));
+		assertThat(store.load("b"), is(nullValue()));
+		assertThat(store.delete("b"), is(false));
+	}
+
+	@Test
+	public void testRecentDraftsComeFromMemory() throws IOException
+	{
+		store.save("a", "First", "<p>one</p>");
+		reopen();
+
+		String loaded = store.load("a");
+		assertThat(store.load("a"), is(sameInstance(loaded)));
+	}
+
+	@Test
+	public void testCutOffSaveKeepsPreviousVersion() throws IOException
+	{
+		store.save("a", "First", "<p>one</p>");
+		long length = store.getFileBytes();
+		store.save("a", "First", "<p>one, edited, but never completely written</p>");
+		store.save("b", "Second", "<p>two</p>");
+		long damaged = store.getFileBytes() - 3;
+		store.close();
+
+		// Cut off the last record, then damage the end of the one before it
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		raw.setLength(damaged);
+		raw.close();
+		reopen();
+		assertThat(store.list().size(), is(1));
+		assertThat(store.load("a"), is("<p>one, edited, but never completely written</p>"));
+
+		store.close();
+		raw = new RandomAccessFile(file, "rw");
+		raw.seek(raw.length() - 1);
+		raw.write(raw.read() ^ 0xFF);
+		raw.close();
+		reopen();
+		assertThat(store.getFileBytes(), is(length));
+		assertThat(store.load("a"), is("<p>one</p>"));
+
+		store.save("b", "Second", "<p>two</p>");
+		reopen();
+		assertThat(store.load("b"), is("<p>two</p>"));
+	}
+
+	@Test
+	public void testCompaction() throws IOException
+	{
+		// Random digits compress to about half their size
+		Random random = new Random(42);
+		StringBuilder html = new StringBuilder("<p>");
+		for (int i = 0; i < 20000; i++)
+			html.append(Character.forDigit(random.nextInt(16), 16));
+		html.append("</p>");
+		for (int i = 0; i < 100 && compactions.isEmpty(); i++)
+			store.save("a", "Draft " + i, html.toString() + i);
+		store.save("b", "Other", "<p>other</p>");
+		assertThat(compactions.size(), is(1));
+
+		long before = store.getFileBytes();
+		compactions.get(0).run();
+		assertThat(store.getFileBytes(), is(lessThan(before / 4)));
+
+		reopen();
+		assertThat(store.list().size(), is(2));
+		assertThat(store.list().get(0).getId(), is("b"));
+		assertThat(store.load("a").startsWith(html.toString()), is(true));
+		assertThat(store.load("b"), is("<p>other</p>"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testOtherFilesAreRejected() throws IOException
+	{
+		store.close();
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		raw.setLength(0);
+		raw.writeUTF("not a draft store");
+		raw.close();
+		store = open();
+	}
+
+	private DraftStore open() throws IOException
+	{
+		return new DraftStore(file, 1024 * 1024, new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+				compactions.add(command);
+			}
+		});
+	}
+
+	private void reopen() throws IOException
+	{
+		store.close();
+		store = open();
+	}
+}
@@ -0,0 +1,87 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.widget.PopupWindow;
+import android.widget.ToggleButton;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class EditorTracingTest
+{
+	private Application context = RuntimeEnvironment.application;
+
+	@After
+	public void disableTracing()
+	{
+		EditorTracing.setEnabled(false);
+	}
+
+	@Test
+	public void testSwitch()
+	{
+		assertThat(EditorTracing.isEnabled(), is(false));
+		assertThat(EditorTracing.begin(EditorTracing.TOGGLE_STYLE), is(false));
+
+		EditorTracing.setEnabled(true);
+		assertThat(EditorTracing.isEnabled(), is(true));
+		assertThat(EditorTracing.begin(EditorTracing.TOGGLE_STYLE), is(true));
+		EditorTracing.end();
+	}
+
+	@Test
+	public void testTracingDoesNotChangeTheEditing()
+	{
+		String untraced = edit();
+		EditorTracing.setEnabled(true);
+		assertThat(edit(), is(untraced));
+	}
+
+	/**
+	 * Goes through every traced method of the editor.
+	 *
+	 * @return The HTML of the result.
+	 */
+	private String edit()
+	{
+		MildlyRichTextEditor editor = new MildlyRichTextEditor(context, null);
+		ToggleButton bold = new ToggleButton(context);
+		editor.setBoldToggleButton(bold);
+		editor.setItalicsToggleButton(new ToggleButton(context));
+		editor.setUnderlineToggleButton(new ToggleButton(context));
+		editor.fontSizeButtons = new ArrayList<>();
+		for (String size : new String[] {"10", "14", "16"})
+		{
+			ToggleButton button = new ToggleButton(context);
+			button.setText(size);
+			button.setTextOn(size);
+			button.setTextOff(size);
+			button.setChecked("14".equals(size));
+			button.setOnCheckedChangeListener(editor);
+			editor.fontSizeButtons.add(button);
+		}
+		editor.popupWindow = new PopupWindow(context);
+
+		editor.setTextHtml("<p>Some <u>text</u></p>");
+		editor.setSelection(0, 4);
+		editor.toggleStyle(MildlyRichTextEditor.Style.BOLD, null);
+		editor.setSelection(editor.length());
+		bold.setChecked(false);
+		editor.getText().append(" more");
+		editor.getText().delete(0, 1);
+		return editor.getTextHtml();
+	}
+}
@@ -0,0 +1,224 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.os.Parcel;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextPaint;
+import android.text.style.TypefaceSpan;
+import android.widget.ToggleButton;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class FontFamilySpanTest
+{
+	private MildlyRichTextEditor editor;
+	private ToggleButton serifButton;
+	private ToggleButton monospaceButton;
+	private Application context = RuntimeEnvironment.application;
+
+	@Before
+	public void initialize()
+	{
+		editor = createEditor();
+		serifButton = new ToggleButton(context);
+		editor.setSerifToggleButton(serifButton);
+		editor.setSansSerifToggleButton(new ToggleButton(context));
+		monospaceButton = new ToggleButton(context);
+		editor.setMonospaceToggleButton(monospaceButton);
+	}
+
+	@Test
+	public void testTypefacesAreCreatedOncePerFamilyAndStyle()
+	{
+		assertThat(FontFamilySpan.getTypeface(FontFamilySpan.SERIF, Typeface.BOLD),
+			sameInstance(FontFamilySpan.getTypeface(FontFamilySpan.SERIF, Typeface.BOLD)));
+
+		TextPaint first = new TextPaint();
+		new FontFamilySpan(FontFamilySpan.MONOSPACE).updateMeasureState(first);
+		TextPaint second = new TextPaint();
+		new FontFamilySpan(FontFamilySpan.MONOSPACE).updateDrawState(second);
+		assertThat(second.getTypeface(), sameInstance(first.getTypeface()));
+	}
+
+	@Test
+	public void testClearSplitsSpans()
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("serif text here");
+		text.setSpan(new FontFamilySpan(FontFamilySpan.SERIF), 0, 15, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+		RangeStyles.setFamily(text, 6, 10, 0);
+
+		assertThat(familiesOf(text), is("111111    11111"));
+	}
+
+	@Test
+	public void testSetExtendsSpansOfTheSameFamily()
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("abcdef");
+		RangeStyles.setFamily(text, 0, 2, FontFamilySpan.SERIF);
+		RangeStyles.setFamily(text, 2, 4, FontFamilySpan.SERIF);
+		RangeStyles.setFamily(text, 4, 6, FontFamilySpan.MONOSPACE);
+		assertThat(familiesOf(text), is("111133"));
+		assertThat(text.getSpans(0, 6, FontFamilySpan.class).length, is(2));
+
+		RangeStyles.setFamily(text, 3, 4, FontFamilySpan.MONOSPACE);
+		assertThat(familiesOf(text), is("111333"));
+		assertThat(text.getSpans(0, 6, FontFamilySpan.class).length, is(2));
+	}
+
+	@Test
+	public void testToggleFamilyOfSelection()
+	{
+		editor.setText("one two three");
+		editor.setSelection(4, 7);
+		serifButton.performClick();
+		assertThat(familiesOf(editor.getText()), is("    111      "));
+		assertThat(editor.snapshot().hasStyle(4, 7, MildlyRichTextEditor.Style.SERIF), is(true));
+
+		editor.setSelection(0, 13);
+		monospaceButton.performClick();
+		assertThat(familiesOf(editor.getText()), is("3333333333333"));
+		assertThat(editor.getText().getSpans(0, 13, FontFamilySpan.class).length, is(1));
+		assertThat(serifButton.isChecked(), is(false));
+		assertThat(monospaceButton.isChecked(), is(true));
+
+		editor.setSelection(4, 7);
+		monospaceButton.performClick();
+		assertThat(familiesOf(editor.getText()), is("3333   333333"));
+		assertThat(monospaceButton.isChecked(), is(false));
+	}
+
+	@Test
+	public void testTypedTextGetsTheCheckedFamily()
+	{
+		editor.setText("ab");
+		editor.setSelection(2);
+		serifButton.performClick();
+		type("cd");
+		assertThat(familiesOf(editor.getText()), is("  11"));
+		assertThat(editor.getText().getSpans(0, editor.length(), FontFamilySpan.class).length, is(1));
+
+		// Inside the serif text the serif button is checked again, and typing keeps the single span
+		editor.setSelection(3);
+		assertThat(serifButton.isChecked(), is(true));
+		type("x");
+		assertThat(familiesOf(editor.getText()), is("  111"));
+		assertThat(editor.getText().getSpans(0, editor.length(), FontFamilySpan.class).length, is(1));
+
+		monospaceButton.performClick();
+		assertThat(serifButton.isChecked(), is(false));
+		type("y");
+		assertThat(familiesOf(editor.getText()), is("  1131"));
+
+		// Unchecking the family of the text before the cursor leaves the text typed next in the default family
+		editor.setSelection(editor.length());
+		assertThat(serifButton.isChecked(), is(true));
+		serifButton.performClick();
+		type("z");
+		assertThat(familiesOf(editor.getText()), is("  1131 "));
+	}
+
+	@Test
+	public void testHtmlRoundTrip()
+	{
+		SpannableStringBuilder content = new SpannableStringBuilder("serif sans mono plain\nserif");
+		content.setSpan(new FontFamilySpan(FontFamilySpan.SERIF), 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		content.setSpan(new FontFamilySpan(FontFamilySpan.SANS_SERIF), 6, 10, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		content.setSpan(new FontFamilySpan(FontFamilySpan.MONOSPACE), 11, 15, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		content.setSpan(new FontFamilySpan(FontFamilySpan.SERIF), 22, 27, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		editor.setText(content);
+
+		String html = editor.getTextHtml();
+		assertThat(html, containsString("<font face=\"serif\">serif</font>"));
+		assertThat(html, containsString("<font face=\"sans-serif\">sans</font>"));
+		assertThat(html, containsString("<tt>mono</tt>"));
+
+		MildlyRichTextEditor restored = createEditor();
+		restored.setTextHtml(html);
+		assertThat(restored.getText().toString(), is(content.toString()));
+		assertThat(familiesOf(restored.getText()), is("11111 2222 3333       11111"));
+		assertThat(restored.snapshot().toHtml(), is(editor.snapshot().toHtml()));
+	}
+
+	@Test
+	public void testOtherFamiliesAreDropped()
+	{
+		Spanned text = (Spanned)MildlyRichTextEditor.fromHtml("<font face=\"cursive\">a</font><tt>b</tt>");
+		TypefaceSpan[] spans = text.getSpans(0, text.length(), TypefaceSpan.class);
+		assertThat(spans.length, is(1));
+		assertThat(((FontFamilySpan)spans[0]).getFamilyCode(), is(FontFamilySpan.MONOSPACE));
+		assertThat(text.getSpanStart(spans[0]), is(1));
+	}
+
+	@Test
+	public void testRestoringStateKeepsFamilies()
+	{
+		SpannableStringBuilder content = new SpannableStringBuilder("mono text");
+		content.setSpan(new FontFamilySpan(FontFamilySpan.MONOSPACE), 0, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+		editor.setText(content);
+		editor.setSelection(editor.length());
+		serifButton.performClick();
+
+		// Parceling turns the spans into plain TypefaceSpans
+		Parcel parcel = Parcel.obtain();
+		try
+		{
+			editor.onSaveInstanceState().writeToParcel(parcel, 0);
+			parcel.setDataPosition(0);
+			editor.onRestoreInstanceState(MildlyRichTextEditor.EditorState.CREATOR.createFromParcel(parcel));
+		}
+		finally
+		{
+			parcel.recycle();
+		}
+
+		assertThat(familiesOf(editor.getText()), is("3333     "));
+		assertThat(editor.getText().getSpans(0, editor.length(), FontFamilySpan.class).length, is(1));
+		assertThat(serifButton.isChecked(), is(true));
+		assertThat(monospaceButton.isChecked(), is(false));
+	}
+
+	private MildlyRichTextEditor createEditor()
+	{
+		MildlyRichTextEditor editor = new MildlyRichTextEditor(context, null);
+		TestToolbar.attach(editor);
+		return editor;
+	}
+
+	private void type(String characters)
+	{
+		for (int i = 0; i < characters.length(); i++)
+			editor.getText().insert(editor.getSelectionStart(), characters.substring(i, i + 1));
+	}
+
+	/**
+	 * @return The family of every character, as a digit, or a space for the default family.
+	 */
+	private static String familiesOf(Spanned text)
+	{
+		StringBuilder families = new StringBuilder();
+		for (int i = 0; i < text.length(); i++)
+		{
+			FontFamilySpan[] spans = text.getSpans(i, i + 1, FontFamilySpan.class);
+			families.append(spans.length == 1 ? (char)('0' + spans[0].getFamilyCode()) :
+				spans.length == 0 ? ' ' : '?');
+		}
+		return families.toString();
+	}
+}
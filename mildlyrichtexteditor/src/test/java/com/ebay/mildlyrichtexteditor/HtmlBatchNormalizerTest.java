@@ -0,0 +1,226 @@
+package com.ebay.mildlyrichtexteditor;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests the batch normalizer on small trees of descriptions.
+ * <p>
+ * The {@code normalizeDescriptions} Gradle task sets {@code mrte.normalizeIn} and {@code mrte.normalizeOut} to run
+ * the normalizer from the command line through {@link #testNormalizeFromGradle()}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class HtmlBatchNormalizerTest
+{
+	private static final String[] CORPUS = {"small", "medium", "nested", "span-dense"};
+
+	private File input;
+	private File output;
+
+	@Before
+	public void initialize() throws IOException
+	{
+		input = createTempDirectory("in");
+		output = createTempDirectory("out");
+	}
+
+	@After
+	public void cleanUp()
+	{
+		delete(input);
+		delete(output);
+	}
+
+	@Test
+	public void testNormalizingTwiceChangesNothing() throws IOException
+	{
+		for (String name : CORPUS)
+		{
+			String normalized = HtmlBatchNormalizer.normalize(readCorpus(name));
+			assertThat(name, HtmlBatchNormalizer.normalize(normalized), is(normalized));
+		}
+	}
+
+	@Test
+	public void testEquivalentMarkupComesOutTheSame()
+	{
+		String canonical = HtmlBatchNormalizer.normalize("<b>Vintage</b> <i>camera</i>, works <u>fine</u>");
+		assertThat(HtmlBatchNormalizer.normalize("<strong>Vintage</strong> <em>camera</em>, works <u>fine</u>"),
+			is(canonical));
+		assertThat(HtmlBatchNormalizer.normalize("<b>Vin</b><b>tage</b> <i>camera</i>, works <u>f</u><u>ine</u>"),
+			is(canonical));
+		assertThat(HtmlBatchNormalizer.normalize("<span style=\"color: red\"><b>Vintage</b></span> " +
+			"<i onclick=\"alert(1)\">camera</i>, works <u>fine</u>"), is(canonical));
+		assertThat(canonical, containsString("<b>Vintage</b>"));
+	}
+
+	@Test
+	public void testBatchMirrorsTheInputTree() throws IOException, InterruptedException
+	{
+		write(new File(input, "a.html"), "<strong>one</strong>");
+		write(new File(input, "sub/b.html"), "<ol><li>two</li><li>three</li></ol>");
+		write(new File(input, "sub/deeper/c.html"), "<b>fo</b><b>ur</b>");
+
+		// A single character in flight makes every conversion wait for the previous one
+		HtmlBatchNormalizer.Result result = new HtmlBatchNormalizer(2, 1).run(input, output);
+
+		assertThat(result.getDocuments(), is(3L));
+		assertThat(result.getFailed(), is(0L));
+		assertThat(read(new File(output, "a.html")), is(HtmlBatchNormalizer.normalize("<b>one</b>")));
+		assertThat(read(new File(output, "sub/b.html")),
+			is(HtmlBatchNormalizer.normalize("<ol><li>two</li><li>three</li></ol>")));
+		assertThat(read(new File(output, "sub/deeper/c.html")), is(HtmlBatchNormalizer.normalize("<b>four</b>")));
+	}
+
+	@Test
+	public void testFailuresAreReportedAndSkipped() throws IOException, InterruptedException
+	{
+		write(new File(input, "a.html"), "<b>one</b>");
+		write(new File(input, "b.html"), "<b>two</b>");
+		new File(output, "a.html").mkdirs();
+
+		HtmlBatchNormalizer.Result result = new HtmlBatchNormalizer().run(input, output);
+
+		assertThat(result.getDocuments(), is(1L));
+		assertThat(result.getFailed(), is(1L));
+		assertThat(result.getFailures().get(0).getPath(), is("a.html"));
+		assertThat(read(new File(output, "b.html")), is(HtmlBatchNormalizer.normalize("<b>two</b>")));
+	}
+
+	@Test
+	public void testCommandLine() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		assertThat(HtmlBatchNormalizer.run(new String[] {input.getPath()}, new PrintStream(out), new PrintStream(err)),
+			is(2));
+		assertThat(err.toString(), containsString("Usage"));
+
+		write(new File(input, "a.html"), "<b>one</b>");
+		write(new File(input, "b.html"), "<b>two</b>");
+		new File(output, "b.html").mkdirs();
+		err.reset();
+		assertThat(HtmlBatchNormalizer.run(new String[] {input.getPath(), output.getPath(), "1"},
+			new PrintStream(out), new PrintStream(err)), is(1));
+		assertThat(err.toString(), containsString("b.html: "));
+		assertThat(out.toString(), containsString("1 documents, 1 failed"));
+	}
+
+	@Test
+	public void testNormalizeThroughGradleProperties() throws IOException
+	{
+		write(new File(input, "a.html"), "<b>one</b>");
+		System.setProperty("mrte.normalizeIn", input.getPath());
+		System.setProperty("mrte.normalizeOut", output.getPath());
+		try
+		{
+			testNormalizeFromGradle();
+		}
+		finally
+		{
+			System.clearProperty("mrte.normalizeIn");
+			System.clearProperty("mrte.normalizeOut");
+		}
+		assertThat(read(new File(output, "a.html")), is(HtmlBatchNormalizer.normalize("<b>one</b>")));
+	}
+
+	@Test
+	public void testNormalizeFromGradle()
+	{
+		String in = System.getProperty("mrte.normalizeIn");
+		String out = System.getProperty("mrte.normalizeOut");
+		assumeTrue(in != null && out != null);
+		String threads = System.getProperty("mrte.normalizeThreads");
+		String[] args = threads != null ? new String[] {in, out, threads} : new String[] {in, out};
+		assertThat(HtmlBatchNormalizer.run(args, System.out, System.err), is(0));
+	}
+
+	private String readCorpus(String name) throws IOException
+	{
+		InputStream in = getClass().getClassLoader().getResourceAsStream("corpus/" + name + ".html");
+		try
+		{
+			return readFully(in);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static String read(File file) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			return readFully(in);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static String readFully(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		for (int read; (read = in.read(buffer)) > 0; )
+			bytes.write(buffer, 0, read);
+		return bytes.toString("UTF-8");
+	}
+
+	private static void write(File file, String content) throws IOException
+	{
+		file.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(file);
+		try
+		{
+			out.write(content.getBytes("UTF-8"));
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static File createTempDirectory(String prefix) throws IOException
+	{
+		File directory = File.createTempFile(prefix, "");
+		if (!directory.delete() || !directory.mkdir())
+			throw new IOException("Cannot create " + directory);
+		return directory;
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+				delete(child);
+		}
+		file.delete();
+	}
+}
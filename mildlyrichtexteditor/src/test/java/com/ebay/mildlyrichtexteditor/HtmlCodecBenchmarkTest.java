@@ -0,0 +1,169 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.text.Spanned;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Measures the HTML codec over the corpus of listing descriptions in src/test/resources/corpus: the throughput and
+ * allocation of parsing and serializing, both through {@link RichTextEditorUtil} and through the editor, and whether
+ * the HTML is stable after one round trip through the editor.
+ * <p>
+ * By default every operation runs once, which keeps the round trip check in the regular test run. The
+ * {@code benchmarkHtmlCodec} Gradle task sets {@code mrte.benchmark} to run warm-up and measured iterations.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class HtmlCodecBenchmarkTest
+{
+	private static final String[] CORPUS = {"small", "medium", "huge", "nested", "span-dense"};
+	private static final boolean BENCHMARK = Boolean.getBoolean("mrte.benchmark");
+	private static final int WARM_UP_ITERATIONS = BENCHMARK ? 5 : 0;
+	private static final int ITERATIONS = BENCHMARK ? 20 : 1;
+
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+
+	/**
+	 * One operation of the codec, run repeatedly over the same document.
+	 */
+	private interface Operation
+	{
+		Object run(String html);
+	}
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testCorpus() throws IOException
+	{
+		report("document operation KB/s bytes-allocated/KB");
+		for (String name : CORPUS)
+		{
+			String html = readCorpus(name);
+			final Spanned parsed = RichTextEditorUtil.compatFromHtml(html);
+
+			measure(name, "compatFromHtml", html, new Operation()
+			{
+				@Override
+				public Object run(String html)
+				{
+					return RichTextEditorUtil.compatFromHtml(html);
+				}
+			});
+			measure(name, "compatToHtml", html, new Operation()
+			{
+				@Override
+				public Object run(String html)
+				{
+					return RichTextEditorUtil.compatToHtml(parsed);
+				}
+			});
+			measure(name, "setTextHtml", html, new Operation()
+			{
+				@Override
+				public Object run(String html)
+				{
+					editor.setTextHtml(html);
+					return editor;
+				}
+			});
+			measure(name, "getTextHtml", html, new Operation()
+			{
+				@Override
+				public Object run(String html)
+				{
+					return editor.getTextHtml();
+				}
+			});
+
+			editor.setTextHtml(html);
+			String firstPass = editor.getTextHtml();
+			editor.setTextHtml(firstPass);
+			String secondPass = editor.getTextHtml();
+			report(name + " round trip " + (secondPass.equals(firstPass) ? "stable" : "unstable") +
+				" after one pass, " + html.length() + " -> " + firstPass.length() + " chars");
+			assertThat(name + " is stable after one round trip", secondPass, is(firstPass));
+		}
+	}
+
+	/**
+	 * Prints a line of the report when benchmarking, so that the regular test run stays quiet.
+	 */
+	private static void report(String line)
+	{
+		if (BENCHMARK)
+			System.out.println(line);
+	}
+
+	private static void measure(String document, String operation, String html, Operation work)
+	{
+		for (int i = 0; i < WARM_UP_ITERATIONS; i++)
+			work.run(html);
+
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++)
+			work.run(html);
+		long nanos = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+
+		double kilobytes = html.length() / 1024.0 * ITERATIONS;
+		long throughput = Math.round(kilobytes / (Math.max(1, nanos) / 1e9));
+		String allocation = allocatedBefore >= 0 ? Long.toString(Math.round(allocated / kilobytes)) : "n/a";
+		report(document + " " + operation + " " + throughput + " " + allocation);
+	}
+
+	/**
+	 * @return The number of bytes allocated by the current thread so far, or -1 if the JVM does not tell.
+	 */
+	private static long allocatedBytes()
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+		{
+			com.sun.management.ThreadMXBean hotSpotThreads = (com.sun.management.ThreadMXBean)threads;
+			if (hotSpotThreads.isThreadAllocatedMemorySupported() && hotSpotThreads.isThreadAllocatedMemoryEnabled())
+				return hotSpotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private String readCorpus(String name) throws IOException
+	{
+		InputStream in = getClass().getClassLoader().getResourceAsStream("corpus/" + name + ".html");
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int read; (read = in.read(buffer)) > 0; )
+				bytes.write(buffer, 0, read);
+			return bytes.toString("UTF-8");
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class HtmlSanitizerTest
+{
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+	private final HtmlSanitizer sanitizer = new HtmlSanitizer();
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testSupportedMarkupIsKept()
+	{
+		String html = "<p dir=\"ltr\">Hi <b>bold</b> <i>italic</i> <u>underline</u><br><span " +
+			"style=\"font-size:1.5em;\">big</span> &amp; &#233;</p>";
+		HtmlSanitizer.Report report = new HtmlSanitizer.Report();
+
+		assertThat(sanitizer.sanitize(html, report), is(html));
+		assertThat(report.hasDrops(), is(false));
+	}
+
+	@Test
+	public void testUnsupportedMarkupIsDropped()
+	{
+		HtmlSanitizer.Report report = new HtmlSanitizer.Report();
+		String html = "<p onclick=\"steal()\">a<script>alert('<b>')</script><font color=\"red\">b</font>" +
+			"<img src=\"x\"><!-- note --></p>";
+
+		assertThat(sanitizer.sanitize(html, report), is("<p>ab</p>"));
+		assertThat(report.getDroppedElements(), is(3));
+		assertThat(report.getDroppedAttributes(), is(1));
+		assertThat(report.getDroppedTagNames(), containsInAnyOrder("script", "font", "img"));
+	}
+
+	@Test
+	public void testStrayMarkupCharactersAreEscaped()
+	{
+		assertThat(sanitizer.sanitize("a < b & c > d", null), is("a &lt; b &amp; c &gt; d"));
+	}
+
+	@Test
+	public void testUnclosedElementsAreClosed()
+	{
+		assertThat(sanitizer.sanitize("<b><i>text</b> more", null), is("<b><i>text</i></b> more"));
+		assertThat(sanitizer.sanitize("text</u>", null), is("text"));
+	}
+
+	@Test
+	public void testStyleIsReducedToFontSize()
+	{
+		assertThat(sanitizer.sanitize("<span style=\"color:red; font-size:150%\">a</span>", null),
+			is("<span style=\"font-size:1.5em;\">a</span>"));
+	}
+
+	@Test
+	public void testFontIsReducedToFontFamily()
+	{
+		assertThat(sanitizer.sanitize("<font color=\"red\" face=\" Serif\">a</font><font face=\"cursive\">b</font>" +
+			"<tt>c</tt>", null), is("<font face=\"serif\">a</font>b<tt>c</tt>"));
+	}
+
+	@Test
+	public void testWebAndDataImagesAreKept()
+	{
+		// Longer than any other attribute value is allowed to be
+		StringBuilder data = new StringBuilder("data:image/png;base64,");
+		for (int i = 0; i < 1024; i++)
+			data.append("AAAA");
+		assertThat(sanitizer.sanitize("<img alt=\"a\" src=\"https://example.com/a.png\"><img src=\"" + data + "\">",
+			null), is("<img src=\"https://example.com/a.png\"><img src=\"" + data + "\">"));
+		assertThat(sanitizer.sanitize("<img src=\"//example.com/b.png\"><img src=\"data:text/html,c\">", null),
+			is(""));
+	}
+
+	@Test
+	public void testLocalImagesAreOnlyKeptWhenAllowed()
+	{
+		String html = "<img src=\"content://media/1\"><img src=\"/sdcard/b.png\"><img src=\"file:///sdcard/c.png\">";
+		assertThat(sanitizer.sanitize(html, null), is(""));
+
+		HtmlSanitizer local = new HtmlSanitizer(HtmlSanitizer.DEFAULT_MAX_INPUT_LENGTH, HtmlSanitizer.DEFAULT_MAX_DEPTH,
+			true);
+		assertThat(local.isAllowingLocalImages(), is(true));
+		assertThat(local.sanitize(html, null), is(html));
+	}
+
+	@Test
+	public void testNestingIsCapped()
+	{
+		HtmlSanitizer limited = new HtmlSanitizer(HtmlSanitizer.DEFAULT_MAX_INPUT_LENGTH, 2);
+		HtmlSanitizer.Report report = new HtmlSanitizer.Report();
+
+		assertThat(limited.sanitize("<div><div><b><i>deep</i></b></div>after</div>", report),
+			is("<div><div>deep</div>after</div>"));
+		assertThat(report.getDepthLimitedElements(), is(2));
+	}
+
+	@Test
+	public void testInputIsCapped()
+	{
+		HtmlSanitizer limited = new HtmlSanitizer(10, HtmlSanitizer.DEFAULT_MAX_DEPTH);
+		HtmlSanitizer.Report report = new HtmlSanitizer.Report();
+
+		assertThat(limited.sanitize("<b>bold</b> and more", report), is("<b>bold</b>"));
+		assertThat(report.getTruncatedCharacters(), is(10));
+	}
+
+	@Test
+	public void testPathologicalInputIsLinear()
+	{
+		StringBuilder html = new StringBuilder();
+		for (int i = 0; i < 50000; i++)
+			html.append("<div class=\"").append(i).append("\"><blink>");
+
+		HtmlSanitizer.Report report = new HtmlSanitizer.Report();
+		String sanitized = sanitizer.sanitize(html, report);
+
+		assertThat(report.getDepthLimitedElements(), is(50000 - HtmlSanitizer.DEFAULT_MAX_DEPTH));
+		assertThat(sanitized.length() < 16 * HtmlSanitizer.DEFAULT_MAX_DEPTH, is(true));
+	}
+
+	@Test
+	public void testEditorSanitizesImport()
+	{
+		editor.setTextHtml("<p>Hello <b>world</b><script>x()</script></p>");
+
+		assertThat(editor.getText().toString(), is("Hello world"));
+		assertThat(editor.getLastSanitizerReport().getDroppedTagNames(), containsInAnyOrder("script"));
+
+		editor.setHtmlSanitizer(null);
+		editor.setTextHtml("<p>Hello</p>");
+		assertThat(editor.getLastSanitizerReport(), is(nullValue()));
+	}
+}
@@ -0,0 +1,149 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.style.StyleSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class HtmlSizeBudgetTest
+{
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+	private final List<Integer> exceededEstimates = new ArrayList<>();
+	private final MildlyRichTextEditor.OnHtmlBudgetExceededListener listener =
+		new MildlyRichTextEditor.OnHtmlBudgetExceededListener()
+		{
+			@Override
+			public void onHtmlBudgetExceeded(int estimatedBytes, int maxBytes)
+			{
+				exceededEstimates.add(estimatedBytes);
+			}
+		};
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testNoLimitByDefault()
+	{
+		assertThat(editor.getEstimatedHtmlBytes(), is(-1));
+	}
+
+	@Test
+	public void testEstimateCoversExportedHtml()
+	{
+		editor.setMaxHtmlBytes(10000, listener);
+		editor.setTextHtml("<p dir=\"ltr\">Vintage <b>leather</b> bag &amp; <i>wallet</i>, barely  used</p>");
+
+		int htmlBytes = editor.getTextHtml().length();
+		assertThat(editor.getEstimatedHtmlBytes(), greaterThanOrEqualTo(htmlBytes));
+		assertThat(editor.getEstimatedHtmlBytes(), lessThanOrEqualTo(htmlBytes + 32));
+		assertThat(exceededEstimates.isEmpty(), is(true));
+	}
+
+	@Test
+	public void testEstimateFollowsEdits()
+	{
+		editor.setMaxHtmlBytes(10000, listener);
+		editor.setText("abc");
+		int initial = editor.getEstimatedHtmlBytes();
+
+		Editable text = editor.getText();
+		assert text != null;
+		text.append("<");
+		assertThat(editor.getEstimatedHtmlBytes(), is(initial + "&lt;".length()));
+
+		text.delete(3, 4);
+		assertThat(editor.getEstimatedHtmlBytes(), is(initial));
+
+		StyleSpan bold = new StyleSpan(Typeface.BOLD);
+		text.setSpan(bold, 0, 2, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+		assertThat(editor.getEstimatedHtmlBytes(), is(initial + "<b></b>".length()));
+
+		text.removeSpan(bold);
+		assertThat(editor.getEstimatedHtmlBytes(), is(initial));
+	}
+
+	@Test
+	public void testInputIsTrimmedToBudget()
+	{
+		editor.setText("abc");
+		editor.setMaxHtmlBytes("<p dir=\"ltr\">abcdef</p>\n".length(), listener);
+
+		Editable text = editor.getText();
+		assert text != null;
+		text.append("defghi");
+
+		assertThat(text.toString(), is("abcdef"));
+		assertThat(exceededEstimates.size(), is(1));
+		assertThat(exceededEstimates.get(0), greaterThan(editor.getEstimatedHtmlBytes()));
+
+		text.append("x");
+		assertThat(text.toString(), is("abcdef"));
+		assertThat(exceededEstimates.size(), is(2));
+	}
+
+	@Test
+	public void testLoadedTextIsNotTrimmed()
+	{
+		editor.setMaxHtmlBytes(20, listener);
+		String html = "<p dir=\"ltr\">A description written before the limit was lowered</p>\n";
+		editor.setTextHtml(html);
+
+		assertThat(editor.getText().toString().trim(), is("A description written before the limit was lowered"));
+		assertThat(exceededEstimates.size(), is(1));
+
+		// Typing is still held to the limit
+		editor.getText().append("!");
+		assertThat(editor.getText().toString().trim(), is("A description written before the limit was lowered"));
+	}
+
+	@Test
+	public void testListenerFiresWhenStylingCrossesBudget()
+	{
+		editor.setText("abcdef");
+		editor.setMaxHtmlBytes(editor.getTextHtml().length() + 3, listener);
+		assertThat(exceededEstimates.isEmpty(), is(true));
+
+		Editable text = editor.getText();
+		assert text != null;
+		text.setSpan(new StyleSpan(Typeface.ITALIC), 0, 3, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+		assertThat(exceededEstimates.size(), is(1));
+	}
+
+	@Test
+	public void testRemovingLimit()
+	{
+		editor.setMaxHtmlBytes(10, listener);
+		editor.setMaxHtmlBytes(0, null);
+		editor.setText("a text that is clearly longer than ten bytes of HTML");
+
+		assertThat(editor.getEstimatedHtmlBytes(), is(-1));
+		assertThat(editor.getText().length(), greaterThan(10));
+	}
+}
@@ -0,0 +1,126 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.style.StyleSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class HtmlTextLoaderTest
+{
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+	private final List<Runnable> loadTasks = new ArrayList<>();
+	private final List<String> loaded = new ArrayList<>();
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+		editor.setTextLoader(new HtmlTextLoader(new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+				loadTasks.add(command);
+			}
+		}));
+	}
+
+	@Test
+	public void testTextIsSetOnceLoaded()
+	{
+		editor.setText("old");
+		editor.setTextHtmlAsync("<p><b>new</b> text<script>x</script></p>", listener("new"));
+
+		assertThat(editor.getText().toString(), is("old"));
+		assertThat(loaded.size(), is(0));
+
+		loadTasks.get(0).run();
+		Editable text = editor.getText();
+		assertThat(text.toString(), is("new text"));
+		StyleSpan[] styles = text.getSpans(0, text.length(), StyleSpan.class);
+		assertThat(styles.length, is(1));
+		assertThat(styles[0].getStyle(), is(Typeface.BOLD));
+		assertThat(loaded, is(Arrays.asList("new")));
+		assertThat(editor.getLastSanitizerReport(), is(notNullValue()));
+		assertThat(editor.getLastSanitizerReport().hasDrops(), is(true));
+	}
+
+	@Test
+	public void testOnlyLatestLoadIsSet()
+	{
+		editor.setTextHtmlAsync("first", listener("first"));
+		editor.setTextHtmlAsync("second", listener("second"));
+
+		loadTasks.get(1).run();
+		loadTasks.get(0).run();
+		assertThat(editor.getText().toString(), is("second"));
+		assertThat(loaded, is(Arrays.asList("second")));
+	}
+
+	@Test
+	public void testSettingTextCancelsLoad()
+	{
+		editor.setTextHtmlAsync("loaded", listener("loaded"));
+		editor.setText("typed");
+
+		loadTasks.get(0).run();
+		assertThat(editor.getText().toString(), is("typed"));
+		assertThat(loaded.size(), is(0));
+	}
+
+	@Test
+	public void testEmptyHtmlIsDoneRightAway()
+	{
+		editor.setText("kept");
+		editor.setTextHtmlAsync("", listener("empty"));
+
+		assertThat(loadTasks.size(), is(0));
+		assertThat(editor.getText().toString(), is("kept"));
+		assertThat(loaded, is(Arrays.asList("empty")));
+	}
+
+	@Test
+	public void testLoadedTextIsMaintained()
+	{
+		editor.setTextHtmlAsync("<ol><li>one</li><li>two</li></ol>", null);
+		loadTasks.get(0).run();
+
+		Editable text = editor.getText();
+		text.insert(text.length(), "\nthree");
+		assertThat(ListMaintainer.itemAt(text, text.length()).getNumber(), is(3));
+		assertThat(editor.getTextHtml(), is("<ol>\n<li>one</li>\n<li>two</li>\n<li>three</li>\n</ol>\n"));
+	}
+
+	private MildlyRichTextEditor.OnTextLoadedListener listener(final String name)
+	{
+		return new MildlyRichTextEditor.OnTextLoadedListener()
+		{
+			@Override
+			public void onTextLoaded()
+			{
+				loaded.add(name);
+			}
+		};
+	}
+}
@@ -0,0 +1,232 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.TextWatcher;
+import android.text.style.CharacterStyle;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Checks that {@link IndexedEditable} answers span queries exactly like {@link SpannableStringBuilder}, and measures
+ * both on a document with 10,000 spans. By default the measurement runs a single round and reports nothing; the
+ * {@code benchmarkSpanIndex} Gradle task sets {@code mrte.benchmark} for more rounds and a report.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class IndexedEditableTest
+{
+	private static final boolean BENCHMARK = Boolean.getBoolean("mrte.benchmark");
+	private static final int ROUNDS = BENCHMARK ? 20 : 1;
+	private static final int BENCHMARK_SPANS = 10000;
+	private static final int[] FLAGS = {Spanned.SPAN_EXCLUSIVE_EXCLUSIVE, Spanned.SPAN_EXCLUSIVE_INCLUSIVE,
+		Spanned.SPAN_INCLUSIVE_EXCLUSIVE, Spanned.SPAN_INCLUSIVE_INCLUSIVE,
+		Spanned.SPAN_EXCLUSIVE_INCLUSIVE | 10 << Spanned.SPAN_PRIORITY_SHIFT};
+
+	private Application context = RuntimeEnvironment.application;
+
+	private MildlyRichTextEditor editor;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testEditorUsesIndex()
+	{
+		assertThat(editor.getText(), instanceOf(IndexedEditable.class));
+		editor.setTextHtml("<b>bold</b> text");
+		assertThat(editor.getText(), instanceOf(IndexedEditable.class));
+	}
+
+	@Test
+	public void testMatchesSpannableStringBuilder()
+	{
+		Random random = new Random(35);
+		for (int round = 0; round < 50; round++)
+		{
+			final SpannableStringBuilder expected = new SpannableStringBuilder("The quick brown fox jumps");
+			final IndexedEditable actual = new IndexedEditable(expected);
+			Object[] spans = new Object[12];
+			for (int i = 0; i < spans.length; i++)
+				spans[i] = i % 3 == 0 ? new StyleSpan(Typeface.BOLD) : i % 3 == 1 ?
+					new MildlyRichTextEditor.CustomUnderlineSpan() : new RelativeSizeSpan(1.5f);
+
+			// Queries made by watchers in the middle of a change must see the text as it is after the change
+			actual.setSpan(new TextWatcher()
+			{
+				@Override
+				public void beforeTextChanged(CharSequence s, int start, int count, int after)
+				{
+				}
+
+				@Override
+				public void onTextChanged(CharSequence s, int start, int before, int count)
+				{
+					assertSameSpans(expected, actual);
+				}
+
+				@Override
+				public void afterTextChanged(Editable s)
+				{
+				}
+			}, 0, actual.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+
+			for (int step = 0; step < 100; step++)
+			{
+				int length = expected.length();
+				int start = random.nextInt(length + 1);
+				int end = start + random.nextInt(length - start + 1);
+				switch (random.nextInt(5))
+				{
+				case 0:
+					Object span = spans[random.nextInt(spans.length)];
+					int flags = FLAGS[random.nextInt(FLAGS.length)];
+					expected.setSpan(span, start, end, flags);
+					actual.setSpan(span, start, end, flags);
+					break;
+				case 1:
+					span = spans[random.nextInt(spans.length)];
+					expected.removeSpan(span);
+					actual.removeSpan(span);
+					break;
+				case 2:
+					expected.delete(start, end);
+					actual.delete(start, end);
+					break;
+				case 3:
+					SpannableString pasted = new SpannableString("pasted");
+					pasted.setSpan(new StyleSpan(Typeface.ITALIC), 1, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+					expected.replace(start, end, pasted);
+					actual.replace(start, end, pasted);
+					break;
+				default:
+					String typed = "abc".substring(random.nextInt(3));
+					expected.insert(start, typed);
+					actual.insert(start, typed);
+					break;
+				}
+				assertSameSpans(expected, actual);
+			}
+		}
+	}
+
+	@Test
+	public void testClearSpans()
+	{
+		IndexedEditable text = new IndexedEditable("some text");
+		text.setSpan(new StyleSpan(Typeface.BOLD), 0, 4, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+		text.clearSpans();
+		assertThat(text.getSpans(0, text.length(), CharacterStyle.class).length, is(0));
+
+		text.setSpan(new StyleSpan(Typeface.BOLD), 5, 9, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+		text.insert(0, "with ");
+		StyleSpan[] bold = text.getSpans(0, text.length(), StyleSpan.class);
+		assertThat(bold.length, is(1));
+		assertThat(text.getSpanStart(bold[0]), is(10));
+	}
+
+	@Test
+	public void testTenThousandSpans()
+	{
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < BENCHMARK_SPANS; i++)
+			content.append("word ");
+		SpannableStringBuilder plain = new SpannableStringBuilder(content);
+		for (int i = 0; i < BENCHMARK_SPANS; i++)
+		{
+			Object span = i % 2 == 0 ? new StyleSpan(Typeface.BOLD) : new MildlyRichTextEditor.CustomUnderlineSpan();
+			plain.setSpan(span, i * 5, i * 5 + 4, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		}
+		IndexedEditable indexed = new IndexedEditable(plain);
+
+		if (BENCHMARK)
+			System.out.println("editable operation microseconds");
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			boolean report = BENCHMARK && round == ROUNDS - 1;
+			measure(report, "SpannableStringBuilder", new SpannableStringBuilder(plain));
+			measure(report, "IndexedEditable", new IndexedEditable(indexed));
+		}
+		assertSameSpans(plain, indexed);
+	}
+
+	/**
+	 * Times the span lookups the editor does on every cursor move and keystroke.
+	 */
+	private static void measure(boolean report, String name, SpannableStringBuilder text)
+	{
+		int queries = 200;
+		long start = System.nanoTime();
+		for (int i = 0; i < queries; i++)
+		{
+			int position = (int)((long)i * 7919 % text.length()) + 1;
+			for (CharacterStyle span : text.getSpans(position - 1, position, CharacterStyle.class))
+				text.getSpanEnd(span);
+		}
+		long queryNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < queries; i++)
+		{
+			int position = text.length() / 2;
+			text.insert(position, "x");
+			text.getSpans(position, position + 1, StyleSpan.class);
+		}
+		long typingNanos = System.nanoTime() - start;
+
+		if (report)
+		{
+			System.out.println(name + " cursor-query " + queryNanos / 1000 / queries);
+			System.out.println(name + " type-and-query " + typingNanos / 1000 / queries);
+		}
+	}
+
+	private static void assertSameSpans(Spanned expected, Spanned actual)
+	{
+		assertThat(actual.toString(), is(expected.toString()));
+		for (int start = 0; start <= expected.length(); start += 3)
+		{
+			for (int end = start; end <= expected.length(); end += 4)
+			{
+				CharacterStyle[] expectedSpans = expected.getSpans(start, end, CharacterStyle.class);
+				CharacterStyle[] actualSpans = actual.getSpans(start, end, CharacterStyle.class);
+				assertThat(start + "-" + end, Arrays.asList(actualSpans), is(Arrays.asList(expectedSpans)));
+				assertThat(Arrays.asList(actual.getSpans(start, end, StyleSpan.class)),
+					is(Arrays.asList(expected.getSpans(start, end, StyleSpan.class))));
+			}
+		}
+
+		List<Object> spans = Arrays.<Object>asList(expected.getSpans(0, expected.length(), CharacterStyle.class));
+		for (Object span : spans)
+		{
+			assertThat(actual.getSpanStart(span), is(expected.getSpanStart(span)));
+			assertThat(actual.getSpanEnd(span), is(expected.getSpanEnd(span)));
+			assertThat(actual.getSpanFlags(span), is(expected.getSpanFlags(span)));
+		}
+	}
+}
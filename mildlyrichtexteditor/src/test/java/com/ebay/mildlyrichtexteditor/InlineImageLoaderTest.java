@@ -0,0 +1,146 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.text.Editable;
+import android.text.style.ImageSpan;
+import android.util.LruCache;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class InlineImageLoaderTest
+{
+	private static final String SOURCE = "file:///sdcard/listing/photo.jpg";
+
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+	private final List<Runnable> decodeTasks = new ArrayList<>();
+	private final LruCache<String, Bitmap> cache = new LruCache<>(16);
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+		editor.setHtmlSanitizer(new HtmlSanitizer(HtmlSanitizer.DEFAULT_MAX_INPUT_LENGTH,
+			HtmlSanitizer.DEFAULT_MAX_DEPTH, true));
+		editor.setImageLoader(new InlineImageLoader(context, new Executor()
+		{
+			@Override
+			public void execute(Runnable command)
+			{
+				decodeTasks.add(command);
+			}
+		}, cache));
+	}
+
+	@Test
+	public void testPlaceholderIsInsertedRightAway()
+	{
+		editor.setTextHtml("<p>Front <img src=\"" + SOURCE + "\"> back</p>");
+
+		ImageSpan[] images = imageSpans();
+		assertThat(images.length, is(1));
+		assertThat(images[0].getSource(), is(SOURCE));
+		assertThat(((InlineImageDrawable)images[0].getDrawable()).getBitmap(), is(nullValue()));
+		assertThat(decodeTasks.size(), is(1));
+
+		// The file does not exist, so the placeholder stays
+		decodeTasks.get(0).run();
+		assertThat(((InlineImageDrawable)imageSpans()[0].getDrawable()).getBitmap(), is(nullValue()));
+	}
+
+	@Test
+	public void testCachedImageIsShownWithoutDecoding()
+	{
+		int width = context.getResources().getDisplayMetrics().widthPixels;
+		Bitmap bitmap = Bitmap.createBitmap(width * 2, width, Bitmap.Config.ARGB_8888);
+		cache.put(width + " " + SOURCE, bitmap);
+
+		editor.setTextHtml("<img src=\"" + SOURCE + "\">");
+
+		InlineImageDrawable image = (InlineImageDrawable)imageSpans()[0].getDrawable();
+		assertThat(image.getBitmap(), is(bitmap));
+		assertThat(image.getBounds(), is(new Rect(0, 0, width, width / 2)));
+		assertThat(decodeTasks.isEmpty(), is(true));
+	}
+
+	@Test
+	public void testImagesRoundTrip()
+	{
+		editor.setTextHtml("<p>Photo: <img src=\"" + SOURCE + "\"></p>");
+		assertThat(editor.getTextHtml(), containsString("<img src=\"" + SOURCE + "\">"));
+	}
+
+	@Test
+	public void testLocalImagesAreDroppedUnlessAllowed()
+	{
+		editor.setHtmlSanitizer(new HtmlSanitizer());
+		editor.setTextHtml("<p>Photo: <img src=\"" + SOURCE + "\"></p>");
+		assertThat(imageSpans().length, is(0));
+		assertThat(editor.getLastSanitizerReport().getDroppedTagNames().contains("img"), is(true));
+
+		editor.setTextHtml("<p>Photo: <img src=\"https://example.com/photo.jpg\"></p>");
+		assertThat(imageSpans().length, is(1));
+		assertThat(decodeTasks.size(), is(1));
+	}
+
+	@Test
+	public void testSameImageIsDecodedOnce()
+	{
+		editor.setTextHtml("<p><img src=\"" + SOURCE + "\"> and <img src=\"" + SOURCE + "\"></p>");
+		assertThat(imageSpans().length, is(2));
+		assertThat(decodeTasks.size(), is(1));
+
+		// Once the decode is done, the next image decodes again, since the file could not be read
+		decodeTasks.get(0).run();
+		editor.setTextHtml("<p><img src=\"" + SOURCE + "\"></p>");
+		assertThat(decodeTasks.size(), is(2));
+	}
+
+	@Test
+	public void testRelayoutKeepsImageInPlace()
+	{
+		editor.setTextHtml("<p>a <img src=\"" + SOURCE + "\"> b</p>");
+		Editable text = editor.getText();
+		ImageSpan image = imageSpans()[0];
+		int start = text.getSpanStart(image);
+
+		InlineImageLoader.relayoutImage(text, image.getDrawable());
+		assertThat(text.getSpanStart(image), is(start));
+		assertThat(text.getSpanEnd(image), is(start + 1));
+	}
+
+	@Test
+	public void testSampleSize()
+	{
+		assertThat(InlineImageLoader.sampleSize(500, 1000), is(1));
+		assertThat(InlineImageLoader.sampleSize(2000, 1000), is(2));
+		assertThat(InlineImageLoader.sampleSize(3999, 1000), is(2));
+		assertThat(InlineImageLoader.sampleSize(4000, 1000), is(4));
+	}
+
+	private ImageSpan[] imageSpans()
+	{
+		Editable text = editor.getText();
+		return text.getSpans(0, text.length(), ImageSpan.class);
+	}
+}
@@ -0,0 +1,224 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.text.Editable;
+import android.widget.ToggleButton;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class ListMaintainerTest
+{
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+	private ToggleButton bulletedListButton;
+	private ToggleButton numberedListButton;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+		bulletedListButton = new ToggleButton(context);
+		numberedListButton = new ToggleButton(context);
+		editor.setBulletedListToggleButton(bulletedListButton);
+		editor.setNumberedListToggleButton(numberedListButton);
+	}
+
+	@Test
+	public void testToggleWithoutSelection()
+	{
+		editor.setText("intro\nfirst\nsecond");
+		editor.setSelection(8);
+		editor.toggleStyle(MildlyRichTextEditor.Style.NUMBERED_LIST, null);
+
+		assertThat(items(), is("intro|1.first\n|second"));
+		assertThat(numberedListButton.isChecked(), is(true));
+		assertThat(bulletedListButton.isChecked(), is(false));
+
+		editor.setSelection(8, editor.length());
+		editor.toggleStyle(MildlyRichTextEditor.Style.NUMBERED_LIST, null);
+		assertThat(items(), is("intro|1.first\n|2.second"));
+
+		editor.toggleStyle(MildlyRichTextEditor.Style.NUMBERED_LIST, null);
+		assertThat(items(), is("intro|first\n|second"));
+		assertThat(numberedListButton.isChecked(), is(false));
+	}
+
+	@Test
+	public void testEnterAddsItems()
+	{
+		setList(true, "one", "two");
+		Editable text = editor.getText();
+
+		text.insert(2, "\n");
+		assertThat(items(), is("1.on\n|2.e\n|3.two"));
+
+		text.append("\n");
+		assertThat(items(), is("1.on\n|2.e\n|3.two\n|4."));
+
+		text.append("three");
+		assertThat(items(), is("1.on\n|2.e\n|3.two\n|4.three"));
+	}
+
+	@Test
+	public void testEnterOnEmptyItemEndsList()
+	{
+		setList(false, "one");
+		Editable text = editor.getText();
+		text.append("\n");
+		assertThat(items(), is("*one\n|*"));
+
+		text.append("\n");
+		assertThat(text.toString(), is("one\n"));
+		assertThat(items(), is("*one\n|"));
+
+		text.append("after");
+		assertThat(items(), is("*one\n|after"));
+	}
+
+	@Test
+	public void testBackspaceMergesItems()
+	{
+		setList(true, "one", "two", "three");
+		Editable text = editor.getText();
+
+		text.delete(3, 4);
+		assertThat(items(), is("1.onetwo\n|2.three"));
+	}
+
+	@Test
+	public void testDeletingWholeItemKeepsNextParagraph()
+	{
+		editor.setText("one\nplain");
+		ListMaintainer.toggle(editor.getText(), 0, 0, false);
+
+		editor.getText().delete(0, 4);
+		assertThat(items(), is("plain"));
+	}
+
+	@Test
+	public void testPastedLinesBecomeItems()
+	{
+		setList(false, "one");
+		editor.getText().insert(3, " and\ntwo\nthree");
+		assertThat(items(), is("*one and\n|*two\n|*three"));
+	}
+
+	@Test
+	public void testRenumberingStaysInChangedList()
+	{
+		editor.setText("a\nb\nplain\nc\nd");
+		Editable text = editor.getText();
+		ListMaintainer.toggle(text, 0, 3, true);
+		ListMaintainer.toggle(text, 10, text.length(), true);
+		assertThat(items(), is("1.a\n|2.b\n|plain\n|1.c\n|2.d"));
+
+		// A wrong number the maintainer would fix, were it to look at the second list
+		ListMaintainer.itemAt(text, 10).setNumber(42);
+		text.insert(1, "\nx");
+		assertThat(items(), is("1.a\n|2.x\n|3.b\n|plain\n|42.c\n|2.d"));
+	}
+
+	@Test
+	public void testTypingInLongListTouchesOnlyOneItem()
+	{
+		int count = 2000;
+		String[] lines = new String[count];
+		for (int i = 0; i < count; i++)
+			lines[i] = "item " + i;
+		setList(true, lines);
+		Editable text = editor.getText();
+
+		ListItemSpan first = ListMaintainer.itemAt(text, 0);
+		first.setNumber(99); // would be fixed by a pass over the whole list
+		int position = text.toString().indexOf("item 1990");
+		for (char c : "typed".toCharArray())
+			text.insert(position, String.valueOf(c));
+		text.insert(position, "\n");
+
+		assertThat(first.getNumber(), is(99));
+		assertThat(ListMaintainer.itemAt(text, position).getNumber(), is(1991));
+		assertThat(ListMaintainer.itemAt(text, text.length()).getNumber(), is(count + 1));
+	}
+
+	@Test
+	public void testHtmlRoundTrip()
+	{
+		String html = "Intro<br>\n" +
+			"<ul>\n<li>one</li>\n<li><b>two</b></li>\n</ul>\n" +
+			"<br>\n" +
+			"<ol>\n<li>three</li>\n<li></li>\n<li>five</li>\n</ol>\n" +
+			"Outro";
+		editor.setTextHtml(html);
+
+		assertThat(items(), is("Intro\n|*one\n|*two\n|\n|1.three\n|2.\n|3.five\n|Outro"));
+		assertThat(editor.getLastSanitizerReport().hasDrops(), is(false));
+		assertThat(editor.getTextHtml(), is(html));
+	}
+
+	@Test
+	public void testTextWithoutListsIsExportedAsBefore()
+	{
+		editor.setText("plain");
+		assertThat(editor.getTextHtml(), is("<p dir=\"ltr\">plain</p>\n"));
+	}
+
+	@Test
+	public void testForeignListsAreImported()
+	{
+		editor.setTextHtml("<ol><li>one<ul><li>nested</li></ul></li><li>two</li></ol>");
+		assertThat(items(), is("1.one\n|*nested\n|1.two"));
+		assertThat(ListMaintainer.itemAt(editor.getText(), 0), is(ListMaintainer.itemAt(editor.getText(), 1)));
+		assertThat(ListMaintainer.itemAt(editor.getText(), 4).isNumbered(), is(false));
+	}
+
+	private void setList(boolean numbered, String... lines)
+	{
+		StringBuilder text = new StringBuilder();
+		for (String line : Arrays.asList(lines))
+			text.append(text.length() > 0 ? "\n" : "").append(line);
+		editor.setText(text);
+		ListMaintainer.toggle(editor.getText(), 0, editor.length(), numbered);
+	}
+
+	/**
+	 * @return The paragraphs of the text separated by "|", each prefixed by its marker if it is a list item.
+	 */
+	private String items()
+	{
+		Editable text = editor.getText();
+		List<String> paragraphs = new ArrayList<>();
+		for (int p = 0; p >= 0; p = ListMaintainer.nextParagraph(text, p))
+		{
+			int end = ListMaintainer.paragraphEnd(text, p);
+			ListItemSpan item = ListMaintainer.itemAt(text, p);
+			if (item != null)
+			{
+				assertThat(text.getSpanEnd(item), is(end));
+				paragraphs.add((item.isNumbered() ? item.getNumber() + "." : "*") + text.subSequence(p, end));
+			}
+			else
+				paragraphs.add(text.subSequence(p, end).toString());
+		}
+
+		StringBuilder joined = new StringBuilder();
+		for (String paragraph : paragraphs)
+			joined.append(joined.length() > 0 ? "|" : "").append(paragraph);
+		return joined.toString();
+	}
+}
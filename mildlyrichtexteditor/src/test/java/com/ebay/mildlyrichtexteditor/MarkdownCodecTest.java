@@ -0,0 +1,118 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class MarkdownCodecTest
+{
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testExport()
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("plain bold both under big");
+		text.setSpan(new StyleSpan(Typeface.BOLD), 6, 15, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		text.setSpan(new StyleSpan(Typeface.ITALIC), 11, 15, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		text.setSpan(new MildlyRichTextEditor.CustomUnderlineSpan(), 16, 21, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		text.setSpan(new RelativeSizeSpan(24 / 14f), 22, 25, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		editor.setText(text);
+
+		assertThat(editor.getTextMarkdown(), is("plain **bold *both*** ++under++ [big]{size=24}"));
+	}
+
+	@Test
+	public void testExportEscapesMarkupAndSplitsLines() throws IOException
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("2*3 [a]\nnext");
+		text.setSpan(new StyleSpan(Typeface.BOLD), 4, 12, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		editor.setText(text);
+
+		StringBuilder markdown = new StringBuilder();
+		editor.writeTextMarkdown(markdown);
+		assertThat(markdown.toString(), is("2\\*3 **\\[a\\]**\n**next**"));
+	}
+
+	@Test
+	public void testExportEscapesBlockMarkupAtLineStart() throws IOException
+	{
+		String plain = "# not a heading\n- not a list\n> no quote\n12. no number\n  #x a-b 3. snake_case `code`";
+		editor.setText(plain);
+
+		StringBuilder markdown = new StringBuilder();
+		editor.writeTextMarkdown(markdown);
+		assertThat(markdown.toString(), is("\\# not a heading\n\\- not a list\n\\> no quote\n12\\. no number\n" +
+			"  \\#x a-b 3. snake\\_case \\`code\\`"));
+
+		editor.setTextMarkdown(markdown.toString());
+		assertThat(editor.getText().toString(), is(plain));
+	}
+
+	@Test
+	public void testImport()
+	{
+		editor.setTextMarkdown("plain **bold *both*** ++under++ [big]{size=24} \\*");
+		Spannable text = editor.getText();
+
+		assertThat(text.toString(), is("plain bold both under big *"));
+		assertThat(styleAt(text, 8), is(Typeface.BOLD));
+		assertThat(text.getSpans(12, 13, StyleSpan.class).length, is(2));
+		assertThat(text.getSpans(17, 18, MildlyRichTextEditor.CustomUnderlineSpan.class).length, is(1));
+
+		RelativeSizeSpan[] sizes = text.getSpans(23, 24, RelativeSizeSpan.class);
+		assertThat(sizes.length, is(1));
+		assertThat(Math.round(sizes[0].getSizeChange() * 14), is(24));
+		assertThat(text.getSpanStart(sizes[0]), is(22));
+		assertThat(text.getSpanEnd(sizes[0]), is(25));
+	}
+
+	@Test
+	public void testUnbalancedMarkersAreText()
+	{
+		editor.setTextMarkdown("5 * 3 and [not a size] **open");
+
+		assertThat(editor.getText().toString(), is("5 * 3 and [not a size] **open"));
+		assertThat(editor.getText().getSpans(0, editor.length(), StyleSpan.class).length, is(0));
+	}
+
+	@Test
+	public void testRoundTrip()
+	{
+		String markdown = "**Vintage** *leather* bag\n++barely++ [used]{size=10}, [**big**]{size=48}\n\n\\+\\+ 1";
+		editor.setTextMarkdown(markdown);
+
+		assertThat(editor.getTextMarkdown(), is(markdown));
+	}
+
+	private static int styleAt(Spannable text, int index)
+	{
+		StyleSpan[] spans = text.getSpans(index, index + 1, StyleSpan.class);
+		return spans.length == 1 ? spans[0].getStyle() : -1;
+	}
+}
@@ -1,22 +1,32 @@
 package com.ebay.mildlyrichtexteditor;
 
 import android.app.Application;
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Context;
 import android.graphics.Typeface;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.text.Editable;
 import android.text.Selection;
 import android.text.Spannable;
 import android.text.SpannableString;
+import android.text.SpanWatcher;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.TextWatcher;
 import android.text.style.CharacterStyle;
 import android.text.style.RelativeSizeSpan;
 import android.text.style.StyleSpan;
 import android.text.style.UnderlineSpan;
 import android.view.View;
 import android.view.WindowManager;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
 import android.widget.PopupWindow;
+import android.widget.TextView;
 import android.widget.ToggleButton;
 
 import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
@@ -29,6 +39,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -117,12 +128,15 @@ public class MildlyRichTextEditorTest
 	{
 		ToggleButton button1 = new ToggleButton(context);
 		button1.setId(android.R.id.button1);
+		button1.setText("10");
 		button1.setOnCheckedChangeListener(editor);
 		ToggleButton button2 = new ToggleButton(context);
 		button2.setId(android.R.id.button2);
+		button2.setText("14");
 		button2.setOnCheckedChangeListener(editor);
 		ToggleButton button3 = new ToggleButton(context);
 		button3.setId(android.R.id.button3);
+		button3.setText("16");
 		button3.setOnCheckedChangeListener(editor);
 		editor.popupWindow = new PopupWindow(context);
 		editor.fontSizeButtons = new ArrayList<>();
@@ -166,6 +180,74 @@ public class MildlyRichTextEditorTest
 		assertThat(html, containsString("<u>underline</u>"));
 	}
 
+	@Test
+	public void testGetHtmlOfRange() throws Exception
+	{
+		Spannable spannable = new SpannableString("String with bold, italic and underline spans");
+		spannable.setSpan(new StyleSpan(Typeface.BOLD), 12, 16, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		spannable.setSpan(new StyleSpan(Typeface.ITALIC), 18, 24, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		spannable.setSpan(new MildlyRichTextEditor.CustomUnderlineSpan(), 29, 38, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		spannable.setSpan(new RelativeSizeSpan(16 / 14f), 0, 6, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		editor.setText(spannable);
+		// Added by the platform, not by the user
+		editor.getText().setSpan(new UnderlineSpan(), 12, 16, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+		assertThat(editor.getHtml(0, editor.length()), is(editor.getTextHtml()));
+
+		// The spans are clipped to the range
+		SpannableString expected = new SpannableString("ld, italic and under");
+		expected.setSpan(new StyleSpan(Typeface.BOLD), 0, 2, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		expected.setSpan(new StyleSpan(Typeface.ITALIC), 4, 10, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		expected.setSpan(new MildlyRichTextEditor.CustomUnderlineSpan(), 15, 20, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		MildlyRichTextEditor other = new MildlyRichTextEditor(context, null);
+		other.setText(expected);
+		assertThat(editor.getHtml(14, 34), is(other.getTextHtml()));
+
+		StringBuilder out = new StringBuilder();
+		editor.writeHtml(14, 34, out);
+		assertThat(out.toString(), is(editor.getHtml(14, 34)));
+		assertThat(editor.getHtml(5, 5), is(""));
+		assertThat(editor.getHtml(-1, 1000), is(editor.getTextHtml()));
+	}
+
+	@Test
+	public void testGetHtmlOfRangeInList() throws Exception
+	{
+		editor.setTextHtml("<p>intro</p><ul><li>first item</li><li>second item</li></ul>");
+
+		String html = editor.getHtml(editor.getText().toString().indexOf("item"), editor.length());
+		assertThat(html, containsString("<ul>"));
+		assertThat(html, containsString("<li>item</li>"));
+		assertThat(html, containsString("<li>second item</li>"));
+		assertThat(html.contains("intro"), is(false));
+
+		StringBuilder out = new StringBuilder();
+		editor.writeHtml(editor.getText().toString().indexOf("item"), editor.length(), out);
+		assertThat(out.toString(), is(html));
+	}
+
+	@Test
+	public void testCopyPutsHtmlOnTheClipboard()
+	{
+		Spannable spannable = new SpannableString("plain bold plain");
+		spannable.setSpan(new StyleSpan(Typeface.BOLD), 6, 10, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		editor.setText(spannable);
+		ClipboardManager clipboard = (ClipboardManager)context.getSystemService(Context.CLIPBOARD_SERVICE);
+
+		editor.setSelection(3, 12);
+		String html = editor.getHtml(3, 12);
+		assertThat(editor.onTextContextMenuItem(android.R.id.copy), is(true));
+		ClipData.Item item = clipboard.getPrimaryClip().getItemAt(0);
+		assertThat(item.getText().toString(), is("in bold p"));
+		assertThat(item.getHtmlText(), is(html));
+		assertThat(html, containsString("<b>bold</b>"));
+
+		editor.setSelection(0, 6);
+		assertThat(editor.onTextContextMenuItem(android.R.id.cut), is(true));
+		assertThat(editor.getText().toString(), is("bold plain"));
+		assertThat(clipboard.getPrimaryClip().getItemAt(0).getText().toString(), is("plain "));
+	}
+
 	@Test
 	public void testSetTextHtml()
 	{
@@ -364,4 +446,290 @@ public class MildlyRichTextEditorTest
 		assertThat(styles[1], Is.is(instanceOf(StyleSpan.class)));
 		assertThat(styles[2], Is.is(instanceOf(MildlyRichTextEditor.CustomUnderlineSpan.class)));
 	}
+
+	@Test
+	public void testSizeButtonSizesTheSelection()
+	{
+		TestToolbar.attach(editor);
+		editor.setText("small and large");
+		editor.setSelection(10, 15);
+		editor.fontSizeButtons.get(2).setChecked(true);
+
+		RelativeSizeSpan[] sizes = editor.getText().getSpans(0, editor.length(), RelativeSizeSpan.class);
+		assertThat(sizes.length, is(1));
+		assertThat(sizes[0].getSizeChange(), is(16 / 14f));
+		assertThat(editor.getText().getSpanStart(sizes[0]), is(10));
+
+		// Selecting sized text shows its size without applying it again
+		editor.setSelection(0, 5);
+		editor.setSelection(11, 14);
+		assertThat(editor.fontSizeButtons.get(1).isChecked(), is(false));
+		assertThat(editor.fontSizeButtons.get(2).isChecked(), is(true));
+		assertThat(editor.getText().getSpans(0, editor.length(), RelativeSizeSpan.class).length, is(1));
+	}
+
+	@Test
+	public void testRestoringStateKeepsOneTextWatcher() throws Exception
+	{
+		TestToolbar.attach(editor);
+		editor.setTextHtml("<b>Bold</b> and <u>underlined</u><br>\n<ol>\n<li>one</li>\n<li>two</li>\n</ol>\n");
+		String html = editor.getTextHtml();
+
+		rotate(editor);
+		int textWatchers = getTextWatchers(editor).size();
+		int spanWatchers = editor.getText().getSpans(0, editor.length(), SpanWatcher.class).length;
+		for (int i = 0; i < 50; i++)
+			rotate(editor);
+
+		assertThat(getTextWatchers(editor).size(), is(textWatchers));
+		assertThat(getRichTextWatcherCount(editor), is(1));
+		assertThat(editor.getText().getSpans(0, editor.length(), SpanWatcher.class).length, is(spanWatchers));
+		assertThat(editor.getTextHtml(), is(html));
+	}
+
+	@Test
+	public void testRestoringStateOnNewEditor() throws Exception
+	{
+		TestToolbar.attach(editor);
+		editor.setTextHtml("<b>Bold</b> and <u>underlined</u><br>\n<ul>\n<li>one</li>\n<li>two</li>\n</ul>\n");
+		editor.setSelection(editor.length());
+		editor.boldButton.setChecked(true);
+		editor.fontSizeButtons.get(2).setChecked(true);
+		editor.currentRelativeSize = 16 / 14f;
+		Parcelable state = editor.onSaveInstanceState();
+
+		MildlyRichTextEditor restored = new MildlyRichTextEditor(context, null);
+		TestToolbar.attach(restored);
+		restored.onRestoreInstanceState(parcel(state));
+
+		assertThat(getRichTextWatcherCount(restored), is(1));
+		assertThat(restored.getTextHtml(), is(editor.getTextHtml()));
+		assertThat(restored.getText().getSpans(0, restored.length(),
+			MildlyRichTextEditor.CustomUnderlineSpan.class).length, is(1));
+		assertThat(restored.boldButton.isChecked(), is(true));
+		assertThat(restored.italicsButton.isChecked(), is(false));
+		assertThat(restored.fontSizeButtons.get(1).isChecked(), is(false));
+		assertThat(restored.fontSizeButtons.get(2).isChecked(), is(true));
+		assertThat(restored.currentRelativeSize, is(16 / 14f));
+		// Restoring the toolbar does not style the restored text
+		assertThat(restored.getText().getSpans(0, restored.length(), RelativeSizeSpan.class).length,
+			is(editor.getText().getSpans(0, editor.length(), RelativeSizeSpan.class).length));
+
+		// A keystroke in a restored editor costs the same whatever the length of the document
+		String paragraph = "<p><b>Bold</b> and plain</p>";
+		StringBuilder longHtml = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			longHtml.append(paragraph);
+		MildlyRichTextEditor restoredShort = restore(paragraph);
+		MildlyRichTextEditor restoredLong = restore(longHtml.toString());
+		assertThat(getRichTextWatcherCount(restoredLong), is(1));
+		assertThat(callbacksPerKeystroke(restoredLong), is(callbacksPerKeystroke(restoredShort)));
+	}
+
+	/**
+	 * @return A new editor with the saved state of an editor showing the HTML.
+	 */
+	private MildlyRichTextEditor restore(String html)
+	{
+		MildlyRichTextEditor saved = new MildlyRichTextEditor(context, null);
+		TestToolbar.attach(saved);
+		saved.setTextHtml(html);
+		saved.setSelection(saved.length());
+		Parcelable state = saved.onSaveInstanceState();
+
+		MildlyRichTextEditor restored = new MildlyRichTextEditor(context, null);
+		TestToolbar.attach(restored);
+		restored.onRestoreInstanceState(parcel(state));
+		return restored;
+	}
+
+	/**
+	 * Types a character at the end of the editor's text.
+	 *
+	 * @return The number of text and span watcher callbacks the character caused.
+	 */
+	private static int callbacksPerKeystroke(MildlyRichTextEditor editor)
+	{
+		final int[] callbacks = {0};
+		editor.addTextChangedListener(new TextWatcher()
+		{
+			@Override
+			public void beforeTextChanged(CharSequence s, int start, int count, int after)
+			{
+				callbacks[0]++;
+			}
+
+			@Override
+			public void onTextChanged(CharSequence s, int start, int before, int count)
+			{
+				callbacks[0]++;
+			}
+
+			@Override
+			public void afterTextChanged(Editable s)
+			{
+				callbacks[0]++;
+			}
+		});
+		editor.getText().setSpan(new SpanWatcher()
+		{
+			@Override
+			public void onSpanAdded(Spannable text, Object what, int start, int end)
+			{
+				callbacks[0]++;
+			}
+
+			@Override
+			public void onSpanRemoved(Spannable text, Object what, int start, int end)
+			{
+				callbacks[0]++;
+			}
+
+			@Override
+			public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend)
+			{
+				callbacks[0]++;
+			}
+		}, 0, editor.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+
+		editor.setSelection(editor.length());
+		callbacks[0] = 0;
+		editor.onCreateInputConnection(new EditorInfo()).commitText("x", 1);
+		return callbacks[0];
+	}
+
+	/**
+	 * Saves the state of the editor through a parcel and restores it, like a configuration change that keeps the view.
+	 */
+	private static void rotate(MildlyRichTextEditor editor)
+	{
+		editor.onRestoreInstanceState(parcel(editor.onSaveInstanceState()));
+	}
+
+	private static Parcelable parcel(Parcelable state)
+	{
+		Parcel parcel = Parcel.obtain();
+		try
+		{
+			state.writeToParcel(parcel, 0);
+			parcel.setDataPosition(0);
+			return MildlyRichTextEditor.EditorState.CREATOR.createFromParcel(parcel);
+		}
+		finally
+		{
+			parcel.recycle();
+		}
+	}
+
+	private static int getRichTextWatcherCount(TextView view) throws Exception
+	{
+		int watchers = 0;
+		for (TextWatcher watcher : getTextWatchers(view))
+		{
+			if (watcher instanceof MildlyRichTextEditor.RichTextEditorTextWatcher)
+				watchers++;
+		}
+		return watchers;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<TextWatcher> getTextWatchers(TextView view) throws Exception
+	{
+		Field listeners = TextView.class.getDeclaredField("mListeners");
+		listeners.setAccessible(true);
+		List<TextWatcher> watchers = (List<TextWatcher>)listeners.get(view);
+		return watchers != null ? watchers : new ArrayList<TextWatcher>();
+	}
+
+	@Test
+	public void testComposedWordIsStyledOnCommit()
+	{
+		TestToolbar.attach(editor);
+		editor.setText("plain ");
+		editor.setSelection(editor.length());
+		editor.boldButton.setChecked(true);
+		InputConnection connection = editor.onCreateInputConnection(new EditorInfo());
+		final int[] styleChanges = {0};
+		editor.getText().setSpan(new SpanWatcher()
+		{
+			@Override
+			public void onSpanAdded(Spannable text, Object what, int start, int end)
+			{
+				if (what instanceof CharacterStyle)
+					styleChanges[0]++;
+			}
+
+			@Override
+			public void onSpanRemoved(Spannable text, Object what, int start, int end)
+			{
+				if (what instanceof CharacterStyle)
+					styleChanges[0]++;
+			}
+
+			@Override
+			public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend)
+			{
+				if (what instanceof CharacterStyle)
+					styleChanges[0]++;
+			}
+		}, 0, editor.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+
+		// Like a soft keyboard, replace the whole composing word on every keystroke, within a batch edit or not
+		String[] words = {"b", "bo", "bol", "bold"};
+		for (int i = 0; i < words.length; i++)
+		{
+			if (i % 2 == 0)
+				connection.beginBatchEdit();
+			connection.setComposingText(words[i], 1);
+			if (i % 2 == 0)
+				connection.endBatchEdit();
+
+			// The cursor moving along the unstyled word does not turn bold off
+			assertThat(editor.getSelectionStart(), is(6 + words[i].length()));
+			assertThat(editor.boldButton.isChecked(), is(true));
+		}
+		assertThat(styleChanges[0], is(0));
+
+		connection.finishComposingText();
+		StyleSpan[] spans = editor.getText().getSpans(0, editor.length(), StyleSpan.class);
+		assertThat(spans.length, is(1));
+		assertThat(editor.getText().getSpanStart(spans[0]), is(6));
+		assertThat(editor.getText().getSpanEnd(spans[0]), is(10));
+
+		// The styles are the same as after typing the characters one by one, which styles each of them separately
+		MildlyRichTextEditor typed = new MildlyRichTextEditor(context, null);
+		TestToolbar.attach(typed);
+		typed.setText("plain ");
+		typed.setSelection(typed.length());
+		typed.boldButton.setChecked(true);
+		for (char c : "bold".toCharArray())
+			typed.getText().insert(typed.getSelectionStart(), String.valueOf(c));
+		assertThat(editor.snapshot().toHtml(), is(typed.snapshot().toHtml()));
+	}
+
+	@Test
+	public void testDeletingStyledTextShowsItsStyles()
+	{
+		TestToolbar.attach(editor);
+		SpannableStringBuilder content = new SpannableStringBuilder("plain large bold");
+		content.setSpan(new RelativeSizeSpan(16 / 14f), 6, 11, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+		content.setSpan(new StyleSpan(Typeface.BOLD), 12, 16, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+		editor.setText(content);
+		editor.setSelection(editor.length());
+
+		editor.getText().delete(6, 16);
+		assertThat(editor.boldButton.isChecked(), is(true));
+		assertThat(editor.italicsButton.isChecked(), is(false));
+		assertThat(editor.fontSizeButtons.get(1).isChecked(), is(false));
+		assertThat(editor.fontSizeButtons.get(2).isChecked(), is(true));
+		// The emptied spans are gone, the style controls carry their styles
+		assertThat(editor.getText().getSpans(0, editor.length(), CharacterStyle.class).length, is(0));
+
+		editor.getText().insert(editor.getSelectionStart(), "x");
+		StyleSpan[] bold = editor.getText().getSpans(6, 7, StyleSpan.class);
+		assertThat(bold.length, is(1));
+		RelativeSizeSpan[] sizes = editor.getText().getSpans(6, 7, RelativeSizeSpan.class);
+		assertThat(sizes.length, is(1));
+		assertThat(sizes[0].getSizeChange(), is(16 / 14f));
+	}
 }
@@ -0,0 +1,160 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Measures toggling styles over large selections of a 50KB document: bolding all of it, which merges the bold spans
+ * of its words into one, unbolding the middle half of it, which splits that span, and underlining a selection moved
+ * along the document a kilobyte at a time.
+ * <p>
+ * By default every toggle runs once. The {@code benchmarkRangeStyles} Gradle task sets {@code mrte.benchmark} to run
+ * warm-up and measured iterations.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class RangeStylesBenchmarkTest
+{
+	private static final boolean BENCHMARK = Boolean.getBoolean("mrte.benchmark");
+	private static final int WARM_UP_ITERATIONS = BENCHMARK ? 5 : 0;
+	private static final int ITERATIONS = BENCHMARK ? 20 : 1;
+	private static final int DOCUMENT_CHARS = 50 * 1024;
+	private static final int SELECTION_STEPS = 30;
+	private static final int STEP_CHARS = 1024;
+	private static final int SELECTION_CHARS = DOCUMENT_CHARS / 4;
+
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testToggleBoldOverLargeSelections()
+	{
+		Spannable document = createDocument();
+		long boldNanos = 0;
+		long unboldNanos = 0;
+		for (int i = 0; i < WARM_UP_ITERATIONS + ITERATIONS; i++)
+		{
+			editor.setText(document);
+			editor.setSelection(0, editor.length());
+			long start = System.nanoTime();
+			editor.toggleStyle(MildlyRichTextEditor.Style.BOLD, null);
+			long bolded = System.nanoTime();
+			editor.setSelection(DOCUMENT_CHARS / 4, DOCUMENT_CHARS * 3 / 4);
+			long selected = System.nanoTime();
+			editor.toggleStyle(MildlyRichTextEditor.Style.BOLD, null);
+			if (i >= WARM_UP_ITERATIONS)
+			{
+				boldNanos += bolded - start;
+				unboldNanos += System.nanoTime() - selected;
+			}
+		}
+
+		if (BENCHMARK)
+		{
+			System.out.println("document operation microseconds");
+			System.out.println(DOCUMENT_CHARS / 1024 + "KB bold-all " + boldNanos / 1000 / ITERATIONS);
+			System.out.println(DOCUMENT_CHARS / 1024 + "KB unbold-half " + unboldNanos / 1000 / ITERATIONS);
+		}
+		// One span before and one after the middle half
+		assertThat(boldSpans(editor.getText()), is(2));
+		assertThat(editor.getText().getSpans(0, editor.length(), RelativeSizeSpan.class).length,
+			is(DOCUMENT_CHARS / 20));
+	}
+
+	@Test
+	public void testToggleUnderlineOverMovingSelection()
+	{
+		Spannable document = createDocument();
+		long nanos = 0;
+		for (int i = 0; i < WARM_UP_ITERATIONS + ITERATIONS; i++)
+		{
+			editor.setText(document);
+			for (int step = 0; step < SELECTION_STEPS; step++)
+			{
+				editor.setSelection(step * STEP_CHARS, step * STEP_CHARS + SELECTION_CHARS);
+				long start = System.nanoTime();
+				editor.toggleStyle(MildlyRichTextEditor.Style.UNDERLINE, null);
+				if (i >= WARM_UP_ITERATIONS)
+					nanos += System.nanoTime() - start;
+			}
+		}
+
+		if (BENCHMARK)
+		{
+			System.out.println("document operation microseconds");
+			System.out.println(DOCUMENT_CHARS / 1024 + "KB underline-moving-selection " +
+				nanos / 1000 / ITERATIONS / SELECTION_STEPS);
+		}
+		// Each selection is partly underlined, so each toggle extends the span of the one before
+		int end = (SELECTION_STEPS - 1) * STEP_CHARS + SELECTION_CHARS;
+		MildlyRichTextEditor.CustomUnderlineSpan[] spans =
+			editor.getText().getSpans(0, end, MildlyRichTextEditor.CustomUnderlineSpan.class);
+		assertThat(spans.length, is(1));
+		assertThat(editor.getText().getSpanStart(spans[0]), is(0));
+	}
+
+	private static int boldSpans(Spannable text)
+	{
+		int count = 0;
+		for (StyleSpan span : text.getSpans(0, text.length(), StyleSpan.class))
+		{
+			if (span.getStyle() == Typeface.BOLD)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return Words of five characters with a space, alternately bold, italic, underlined and larger.
+	 */
+	private static Spannable createDocument()
+	{
+		StringBuilder content = new StringBuilder(DOCUMENT_CHARS);
+		while (content.length() < DOCUMENT_CHARS)
+			content.append("word ");
+		SpannableStringBuilder document = new SpannableStringBuilder(content);
+		for (int word = 0; word < DOCUMENT_CHARS / 5; word++)
+		{
+			Object span;
+			switch (word % 4)
+			{
+			case 0:
+				span = new StyleSpan(Typeface.BOLD);
+				break;
+			case 1:
+				span = new StyleSpan(Typeface.ITALIC);
+				break;
+			case 2:
+				span = new MildlyRichTextEditor.CustomUnderlineSpan();
+				break;
+			default:
+				span = new RelativeSizeSpan(16 / 14f);
+				break;
+			}
+			document.setSpan(span, word * 5, word * 5 + 4, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		}
+		return document;
+	}
+}
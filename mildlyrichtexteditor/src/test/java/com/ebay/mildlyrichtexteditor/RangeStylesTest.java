@@ -0,0 +1,289 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class RangeStylesTest
+{
+	private static final int BOLD = 0;
+	private static final int ITALIC = 1;
+	private static final int UNDERLINE = 2;
+	private static final int SIZE = 3;
+	private static final int FAMILY = 4;
+	private static final int ATTRIBUTES = 5;
+	private static final int[] SIZES = {0, 10, 16};
+
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testRemovingPartOfASpanKeepsTheRest()
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("one two three four");
+		text.setSpan(new StyleSpan(Typeface.BOLD), 0, 18, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+		RangeStyles.setFlag(text, 4, 13, StyleMask.BOLD, false);
+
+		assertThat(valuesOf(text, BOLD), is("1111         11111"));
+		assertThat(spanCount(text, BOLD), is(2));
+	}
+
+	@Test
+	public void testEqualNeighborsAreMerged()
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("abcdefgh");
+		RangeStyles.setFlag(text, 0, 2, StyleMask.UNDERLINE, true);
+		RangeStyles.setFlag(text, 5, 8, StyleMask.UNDERLINE, true);
+		RangeStyles.setFlag(text, 2, 5, StyleMask.UNDERLINE, true);
+
+		assertThat(valuesOf(text, UNDERLINE), is("11111111"));
+		assertThat(spanCount(text, UNDERLINE), is(1));
+	}
+
+	@Test
+	public void testSizeReplacesOtherSizes()
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("abcdefgh");
+		text.setSpan(new RelativeSizeSpan(10 / 14f), 0, 4, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+		text.setSpan(new RelativeSizeSpan(16 / 14f), 4, 8, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+
+		RangeStyles.setSize(text, 2, 6, 16);
+		assertThat(valuesOf(text, SIZE), is("AAGGGGGG"));
+		assertThat(spanCount(text, SIZE), is(2));
+
+		RangeStyles.setSize(text, 1, 7, StyleMask.DEFAULT_ABSOLUTE_SIZE);
+		assertThat(valuesOf(text, SIZE), is("A      G"));
+		assertThat(spanCount(text, SIZE), is(2));
+	}
+
+	@Test
+	public void testBoldItalicSpansAreSplit()
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("abcdef");
+		text.setSpan(new StyleSpan(Typeface.BOLD_ITALIC), 0, 6, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+		RangeStyles.setFlag(text, 2, 4, StyleMask.BOLD, false);
+
+		assertThat(valuesOf(text, BOLD), is("11  11"));
+		assertThat(valuesOf(text, ITALIC), is("111111"));
+	}
+
+	@Test
+	public void testUntogglingPartOfABoldParagraph()
+	{
+		TestToolbar.attach(editor);
+		editor.setText("one two three four");
+		editor.setSelection(0, 18);
+		editor.toggleStyle(MildlyRichTextEditor.Style.BOLD, null);
+		editor.setSelection(4, 13);
+		editor.toggleStyle(MildlyRichTextEditor.Style.BOLD, null);
+
+		assertThat(valuesOf(editor.getText(), BOLD), is("1111         11111"));
+		assertThat(editor.boldButton.isChecked(), is(false));
+	}
+
+	@Test
+	public void testRepeatedTogglesDoNotPileUpSpans()
+	{
+		editor.setText("one two three four");
+		for (int i = 0; i < 10; i++)
+		{
+			editor.setSelection(i, i + 5);
+			editor.toggleStyle(MildlyRichTextEditor.Style.UNDERLINE, null);
+		}
+
+		// Each toggle underlines a selection that is partly underlined
+		assertThat(valuesOf(editor.getText(), UNDERLINE), is("111111111111111   "));
+		assertThat(spanCount(editor.getText(), UNDERLINE), is(1));
+
+		editor.setSelection(0, 18);
+		editor.toggleStyle(MildlyRichTextEditor.Style.FONT_SIZE, 16 / 14f);
+		editor.setSelection(4, 7);
+		editor.toggleStyle(MildlyRichTextEditor.Style.FONT_SIZE, 16 / 14f);
+		assertThat(valuesOf(editor.getText(), SIZE), is("GGGG   GGGGGGGGGGG"));
+		editor.toggleStyle(MildlyRichTextEditor.Style.FONT_SIZE, 16 / 14f);
+		assertThat(spanCount(editor.getText(), SIZE), is(1));
+	}
+
+	/**
+	 * Sets random values over random ranges of a text and checks every character against a model holding a value
+	 * per character, and that the spans are the fewest possible: no two spans of a value overlap or touch.
+	 */
+	@Test
+	public void testRandomRangesMatchTheModel()
+	{
+		for (long seed = 1; seed <= 50; seed++)
+		{
+			Random random = new Random(seed);
+			int length = 1 + random.nextInt(40);
+			SpannableStringBuilder text = new SpannableStringBuilder();
+			for (int i = 0; i < length; i++)
+				text.append((char)('a' + random.nextInt(26)));
+			int[][] model = new int[ATTRIBUTES][length];
+
+			for (int operation = 0; operation < 200; operation++)
+			{
+				int start = random.nextInt(length + 1);
+				int end = start + random.nextInt(length - start + 1);
+				int attribute = random.nextInt(ATTRIBUTES);
+				int value = set(text, start, end, attribute, random);
+				for (int i = start; i < end; i++)
+					model[attribute][i] = value;
+
+				String reason = "seed " + seed + ", operation " + operation;
+				for (int checked = 0; checked < ATTRIBUTES; checked++)
+				{
+					assertThat(reason, valuesOf(text, checked), is(modelValues(model[checked])));
+					assertThat(reason, spanCount(text, checked), is(runCount(model[checked])));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets a random value of the attribute over the range.
+	 *
+	 * @return The value, as kept by the model.
+	 */
+	private static int set(Spannable text, int start, int end, int attribute, Random random)
+	{
+		switch (attribute)
+		{
+		case BOLD:
+		case ITALIC:
+		case UNDERLINE:
+			boolean on = random.nextBoolean();
+			int flag = attribute == BOLD ? StyleMask.BOLD : attribute == ITALIC ? StyleMask.ITALIC :
+				StyleMask.UNDERLINE;
+			RangeStyles.setFlag(text, start, end, flag, on);
+			return on ? 1 : 0;
+		case SIZE:
+			int size = SIZES[random.nextInt(SIZES.length)];
+			RangeStyles.setSize(text, start, end, size);
+			return size;
+		default:
+			int family = random.nextInt(FontFamilySpan.MONOSPACE + 1);
+			RangeStyles.setFamily(text, start, end, family);
+			return family;
+		}
+	}
+
+	/**
+	 * @return The value of the attribute at every character, as a character, or a space for the default. Overlapping
+	 * 	spans of the attribute fail the test.
+	 */
+	private static String valuesOf(Spanned text, int attribute)
+	{
+		StringBuilder values = new StringBuilder();
+		for (int i = 0; i < text.length(); i++)
+		{
+			int value = 0;
+			int spans = 0;
+			for (Object span : text.getSpans(i, i + 1, Object.class))
+			{
+				int spanValue = valueOf(span, attribute);
+				if (spanValue > 0)
+				{
+					value = spanValue;
+					spans++;
+				}
+			}
+			assertThat("spans of one attribute at " + i, spans, lessThanOrEqualTo(1));
+			values.append(toChar(value));
+		}
+		return values.toString();
+	}
+
+	private static String modelValues(int[] values)
+	{
+		StringBuilder model = new StringBuilder();
+		for (int value : values)
+			model.append(toChar(value));
+		return model.toString();
+	}
+
+	/**
+	 * @return The number of runs of characters with the same value other than the default.
+	 */
+	private static int runCount(int[] values)
+	{
+		int runs = 0;
+		for (int i = 0; i < values.length; i++)
+		{
+			if (values[i] != 0 && (i == 0 || values[i - 1] != values[i]))
+				runs++;
+		}
+		return runs;
+	}
+
+	private static int spanCount(Spanned text, int attribute)
+	{
+		int count = 0;
+		for (Object span : text.getSpans(0, text.length(), Object.class))
+		{
+			if (valueOf(span, attribute) > 0)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return The value the span gives the attribute, or 0 if it does not style the attribute.
+	 */
+	private static int valueOf(Object span, int attribute)
+	{
+		switch (attribute)
+		{
+		case BOLD:
+		case ITALIC:
+			if (!(span instanceof StyleSpan))
+				return 0;
+			int style = ((StyleSpan)span).getStyle();
+			int typeface = attribute == BOLD ? Typeface.BOLD : Typeface.ITALIC;
+			return style == typeface || style == Typeface.BOLD_ITALIC ? 1 : 0;
+		case UNDERLINE:
+			return span instanceof MildlyRichTextEditor.CustomUnderlineSpan ? 1 : 0;
+		case SIZE:
+			return span instanceof RelativeSizeSpan ?
+				StyleMask.size(StyleMask.withSize(0, Math.round(((RelativeSizeSpan)span).getSizeChange() * 14))) : 0;
+		default:
+			return span instanceof FontFamilySpan ? ((FontFamilySpan)span).getFamilyCode() : 0;
+		}
+	}
+
+	/**
+	 * @return A digit for the on/off attributes and the families, a letter for the sizes, counting from 'A' for 10.
+	 */
+	private static char toChar(int value)
+	{
+		return value == 0 ? ' ' : value < 10 ? (char)('0' + value) : (char)('A' + value - 10);
+	}
+}
@@ -0,0 +1,240 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.style.CharacterStyle;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class StyleRunTableTest
+{
+	/**
+	 * Rough heap cost of one span in a SpannableStringBuilder: the span object plus its slots in the start, end,
+	 * flags and span arrays.
+	 */
+	private static final int SPAN_BYTES = 48;
+	private static final boolean BENCHMARK = Boolean.getBoolean("mrte.benchmark");
+
+	private static final int BOLD_ITALIC = StyleMask.BOLD | StyleMask.ITALIC;
+
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testSetMaskSplitsAndCoalesces()
+	{
+		StyleRunTable table = new StyleRunTable();
+		table.replace(0, 0, 10);
+		table.setMask(2, 5, StyleMask.BOLD);
+		assertThat(table.getRunCount(), is(3));
+		assertThat(table.maskAt(1), is(0));
+		assertThat(table.maskAt(2), is(StyleMask.BOLD));
+		assertThat(table.maskAt(5), is(0));
+
+		table.setMask(5, 8, StyleMask.BOLD);
+		assertThat(table.getRunCount(), is(3));
+		assertThat(table.getRunEnd(1), is(8));
+
+		table.setMask(0, 10, 0);
+		assertThat(table.getRunCount(), is(1));
+	}
+
+	@Test
+	public void testReplaceExtendsPrecedingRun()
+	{
+		StyleRunTable table = new StyleRunTable();
+		table.replace(0, 0, 6);
+		table.setMask(0, 3, StyleMask.BOLD);
+
+		table.replace(3, 0, 2);
+		assertThat(table.length(), is(8));
+		assertThat(table.maskAt(4), is(StyleMask.BOLD));
+		assertThat(table.maskAt(5), is(0));
+
+		// Removing the plain text in between merges the bold runs around it
+		table.setMask(6, 8, StyleMask.BOLD);
+		table.replace(5, 1, 0);
+		assertThat(table.getRunCount(), is(1));
+		assertThat(table.length(), is(7));
+	}
+
+	@Test
+	public void testCommonMask()
+	{
+		StyleRunTable table = new StyleRunTable();
+		table.replace(0, 0, 9);
+		table.setMask(0, 3, StyleMask.withSize(BOLD_ITALIC, 24));
+		table.setMask(3, 6, StyleMask.withSize(StyleMask.BOLD, 24));
+		table.setMask(6, 9, StyleMask.withSize(StyleMask.BOLD, 32));
+
+		assertThat(table.commonMask(0, 6), is(StyleMask.withSize(StyleMask.BOLD, 24)));
+		assertThat(table.commonMask(0, 9), is(StyleMask.BOLD));
+		assertThat(table.commonMask(1, 2), is(StyleMask.withSize(BOLD_ITALIC, 24)));
+	}
+
+	@Test
+	public void testCopiesAreIndependent()
+	{
+		StyleRunTable table = new StyleRunTable();
+		table.replace(0, 0, 4);
+		table.setMask(0, 2, StyleMask.UNDERLINE);
+
+		StyleRunTable copy = table.copy();
+		table.setMask(0, 4, StyleMask.ITALIC);
+		copy.replace(0, 2, 0);
+
+		assertThat(table.getRunCount(), is(1));
+		assertThat(table.maskAt(0), is(StyleMask.ITALIC));
+		assertThat(copy.length(), is(2));
+		assertThat(copy.maskAt(0), is(0));
+	}
+
+	@Test
+	public void testMaterializeRestoresStyles()
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("bold and big");
+		text.setSpan(new StyleSpan(Typeface.BOLD), 0, 4, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		text.setSpan(new RelativeSizeSpan(24 / 14f), 9, 12, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+
+		StyleRunTable table = StyleRunTable.of(text);
+		SpannableStringBuilder copy = new SpannableStringBuilder(text.toString());
+		table.materialize(copy, 0, copy.length());
+
+		assertThat(StyleRunTable.of(copy).getRunCount(), is(table.getRunCount()));
+		assertThat(StyleMask.of(copy, 0, 4), is(StyleMask.BOLD));
+		assertThat(StyleMask.size(StyleMask.of(copy, 9, 12)), is(24));
+	}
+
+	@Test
+	public void testEditorStylesFollowSpans()
+	{
+		TestToolbar.attach(editor);
+		editor.setText("plain bold");
+		Editable text = editor.getText();
+		text.setSpan(new StyleSpan(Typeface.BOLD), 6, 10, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+
+		editor.setSelection(8);
+		assertThat(editor.boldButton.isChecked(), is(true));
+		editor.setSelection(3);
+		assertThat(editor.boldButton.isChecked(), is(false));
+
+		editor.setSelection(10);
+		text.insert(10, "er");
+		editor.setSelection(3);
+		editor.setSelection(12);
+		assertThat(editor.boldButton.isChecked(), is(true));
+
+		editor.setSelection(0, 12);
+		assertThat(editor.boldButton.isChecked(), is(false));
+		editor.setSelection(6, 12);
+		assertThat(editor.boldButton.isChecked(), is(true));
+	}
+
+	/**
+	 * The editor keeps its spans and the table both, so the table only saves memory by letting the editor replace
+	 * fragmented spans by fewer ones.
+	 */
+	@Test
+	public void testCompactedSpansAndTableCostLessThanFragmentedSpans()
+	{
+		// A span-dense document, as pasted from a page that wraps every few characters in its own tags
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 2000; i++)
+			content.append("word ");
+		SpannableStringBuilder text = new SpannableStringBuilder(content);
+		for (int i = 0; i + 5 <= text.length(); i += 5)
+		{
+			text.setSpan(new StyleSpan(Typeface.BOLD), i, i + 5, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+			if (i % 50 < 25)
+				text.setSpan(new StyleSpan(Typeface.ITALIC), i, i + 5, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		}
+
+		int spansBefore = text.getSpans(0, text.length(), CharacterStyle.class).length;
+		StyleRunTable table = StyleRunTable.of(text);
+		editor.setText(text);
+		Editable compacted = editor.getText();
+		int spansAfter = compacted.getSpans(0, compacted.length(), CharacterStyle.class).length;
+
+		int tableBytes = table.estimatedBytes();
+		int bytesBefore = spansBefore * SPAN_BYTES + tableBytes;
+		int bytesAfter = spansAfter * SPAN_BYTES + tableBytes;
+		if (BENCHMARK)
+		{
+			System.out.println(String.format("%d runs, %d bytes of run table: %d spans, %d bytes with the table " +
+				"before compacting, %d spans, %d bytes after", table.getRunCount(), tableBytes, spansBefore,
+				bytesBefore, spansAfter, bytesAfter));
+		}
+
+		// One bold span over all of the text and one italic span per 25 characters
+		assertThat(table.getRunCount(), is(text.length() / 25));
+		assertThat(spansAfter, is(1 + text.length() / 50));
+		assertThat(StyleRunTable.of(compacted).getRunCount(), is(table.getRunCount()));
+		for (int i = 0; i < table.getRunCount(); i++)
+			assertThat(StyleRunTable.of(compacted).getRunMask(i), is(table.getRunMask(i)));
+		// Even with the table on top, the spans take less memory than before
+		assertThat(bytesAfter, lessThan(spansBefore * SPAN_BYTES));
+	}
+
+	@Test
+	public void testEditsCompactFragmentedSpans()
+	{
+		editor.setText("");
+		Editable text = editor.getText();
+		for (int i = 0; i < 100; i++)
+		{
+			text.append("a");
+			text.setSpan(new StyleSpan(Typeface.BOLD), i, i + 1, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+		}
+
+		StyleSpan[] spans = text.getSpans(0, text.length(), StyleSpan.class);
+		assertThat(spans.length, lessThan(20));
+		assertThat(StyleRunTable.of(text).getRunCount(), is(1));
+		assertThat(StyleRunTable.of(text).getRunMask(0), is(StyleMask.BOLD));
+	}
+
+	@Test
+	public void testReplaceKeepsRunsBeforeTheChange()
+	{
+		StyleRunTable table = new StyleRunTable();
+		table.replace(0, 0, 12);
+		table.setMask(0, 4, StyleMask.BOLD);
+		table.setMask(8, 12, StyleMask.ITALIC);
+
+		table.replace(5, 5, 0);
+		assertThat(table.getRunCount(), is(3));
+		assertThat(table.getRunEnd(0), is(4));
+		assertThat(table.getRunEnd(1), is(5));
+		assertThat(table.getRunEnd(2), is(7));
+		assertThat(table.getRunMask(2), is(StyleMask.ITALIC));
+
+		// Removing the plain run merges the runs around it
+		table.replace(4, 1, 0);
+		table.setMask(4, 6, StyleMask.BOLD);
+		assertThat(table.getRunCount(), is(1));
+		assertThat(table.length(), is(6));
+	}
+}
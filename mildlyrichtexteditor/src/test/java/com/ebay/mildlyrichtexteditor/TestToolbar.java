@@ -0,0 +1,42 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.content.Context;
+import android.widget.PopupWindow;
+import android.widget.ToggleButton;
+
+import java.util.ArrayList;
+
+/**
+ * Gives an editor the style controls of its toolbar, for tests that style text through them or look at their state.
+ * Without them, the editor's text watcher leaves typed and deleted text alone.
+ */
+final class TestToolbar
+{
+	private TestToolbar()
+	{
+		// static methods only
+	}
+
+	/**
+	 * Sets bold, italic and underline buttons and the font size buttons of the editor, with 14 checked.
+	 */
+	static void attach(MildlyRichTextEditor editor)
+	{
+		Context context = editor.getContext();
+		editor.boldButton = new ToggleButton(context);
+		editor.italicsButton = new ToggleButton(context);
+		editor.underlineButton = new ToggleButton(context);
+		editor.fontSizeButtons = new ArrayList<>();
+		for (String size : new String[] {"10", "14", "16", "18", "24", "32", "48"})
+		{
+			ToggleButton button = new ToggleButton(context);
+			button.setText(size);
+			button.setTextOn(size);
+			button.setTextOff(size);
+			button.setChecked("14".equals(size));
+			button.setOnCheckedChangeListener(editor);
+			editor.fontSizeButtons.add(button);
+		}
+		editor.popupWindow = new PopupWindow(context);
+	}
+}
@@ -0,0 +1,147 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.startsWith;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class TextSearchTest
+{
+	private MildlyRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testFind()
+	{
+		List<TextSearch.Match> matches = TextSearch.find("Red shoes, RED bag, reddish scarf", "red", 0);
+		assertThat(matches, is(Arrays.asList(new TextSearch.Match(0, 3), new TextSearch.Match(11, 14),
+			new TextSearch.Match(20, 23))));
+
+		matches = TextSearch.find("Red shoes, RED bag, reddish scarf", "red", TextSearch.MATCH_CASE);
+		assertThat(matches, is(Arrays.asList(new TextSearch.Match(20, 23))));
+
+		matches = TextSearch.find("Red shoes, RED bag, reddish scarf", "red", TextSearch.WHOLE_WORD);
+		assertThat(matches, is(Arrays.asList(new TextSearch.Match(0, 3), new TextSearch.Match(11, 14))));
+	}
+
+	@Test
+	public void testFindNonOverlappingWithPartialPrefixes()
+	{
+		assertThat(TextSearch.find("aaaa", "aa", 0), is(Arrays.asList(new TextSearch.Match(0, 2),
+			new TextSearch.Match(2, 4))));
+		assertThat(TextSearch.find("abababc", "ababc", 0), is(Arrays.asList(new TextSearch.Match(2, 7))));
+		assertThat(TextSearch.find("abc", "", 0).isEmpty(), is(true));
+		assertThat(TextSearch.find("ab", "abc", 0).isEmpty(), is(true));
+	}
+
+	@Test
+	public void testFindInSpannedText()
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("Vintage bag, vintage shoes");
+		text.setSpan(new StyleSpan(Typeface.BOLD), 0, 7, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+		editor.setText(text);
+
+		assertThat(editor.find("vintage", 0), is(Arrays.asList(new TextSearch.Match(0, 7),
+			new TextSearch.Match(13, 20))));
+	}
+
+	@Test
+	public void testReplaceAllKeepsCoveringStyles()
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("a new bag and a new hat");
+		StyleSpan bold = new StyleSpan(Typeface.BOLD);
+		text.setSpan(bold, 2, 5, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+		RelativeSizeSpan size = new RelativeSizeSpan(1.5f);
+		text.setSpan(size, 0, 23, Spannable.SPAN_EXCLUSIVE_INCLUSIVE);
+		editor.setText(text);
+
+		int replaced = editor.replaceAll("new", "barely used", 0);
+
+		Editable result = editor.getText();
+		assert result != null;
+		assertThat(replaced, is(2));
+		assertThat(result.toString(), is("a barely used bag and a barely used hat"));
+		StyleSpan[] boldSpans = result.getSpans(0, result.length(), StyleSpan.class);
+		assertThat(boldSpans.length, is(1));
+		assertThat(result.getSpanStart(boldSpans[0]), is(2));
+		assertThat(result.getSpanEnd(boldSpans[0]), is(13));
+		RelativeSizeSpan[] sizeSpans = result.getSpans(0, result.length(), RelativeSizeSpan.class);
+		assertThat(sizeSpans.length, is(1));
+		assertThat(result.getSpanStart(sizeSpans[0]), is(0));
+		assertThat(result.getSpanEnd(sizeSpans[0]), is(result.length()));
+	}
+
+	@Test
+	public void testReplaceAllWithinHtmlBudget()
+	{
+		SpannableStringBuilder text = new SpannableStringBuilder("a bag, new");
+		StyleSpan bold = new StyleSpan(Typeface.BOLD);
+		text.setSpan(bold, 7, 10, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+		editor.setText(text);
+		editor.setMaxHtmlBytes(Integer.MAX_VALUE, null);
+		int maxBytes = editor.getEstimatedHtmlBytes() + 4;
+		editor.setMaxHtmlBytes(maxBytes, null);
+
+		assertThat(editor.replaceAll("new", "barely used", 0), is(1));
+
+		// The budget shortens the replacement, and the style covering it ends with the text
+		Editable result = editor.getText();
+		assert result != null;
+		assertThat(result.toString(), startsWith("a bag, b"));
+		assertThat(result.length(), lessThan("a bag, barely used".length()));
+		assertThat(editor.getEstimatedHtmlBytes(), lessThanOrEqualTo(maxBytes));
+		StyleSpan[] boldSpans = result.getSpans(0, result.length(), StyleSpan.class);
+		assertThat(boldSpans.length, is(1));
+		assertThat(result.getSpanStart(boldSpans[0]), is(7));
+		assertThat(result.getSpanEnd(boldSpans[0]), is(result.length()));
+	}
+
+	@Test
+	public void testReplaceAllIgnoresStyleControls()
+	{
+		TestToolbar.attach(editor);
+		editor.setText("old and old");
+		editor.boldButton.setChecked(true);
+
+		assertThat(editor.replaceAll("old", "new", 0), is(2));
+		assertThat(editor.getText().toString(), is("new and new"));
+		assertThat(editor.getText().getSpans(0, 11, StyleSpan.class).length, is(0));
+	}
+
+	@Test
+	public void testReplaceAllWithoutMatches()
+	{
+		editor.setText("nothing to see");
+		assertThat(editor.replaceAll("missing", "x", 0), is(0));
+		assertThat(editor.getText().toString(), is("nothing to see"));
+	}
+}
@@ -0,0 +1,174 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Application;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Replays the recorded input traces in src/test/resources/traces and checks that they reproduce the recorded text.
+ * <p>
+ * The latency of every kind of event is only reported when the {@code mrte.traceBaselinesOut} system property is
+ * set, which the {@code recordTraceBaselines} Gradle task does to record the p90 latencies as baselines. Latencies
+ * depend on the machine, so no baselines are committed and none are checked.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class TraceReplayTest
+{
+	private static final String[] TRACES = {"typing", "paste", "delete-repeat", "selection-styling"};
+	private static final double[] PERCENTILES = {50, 90, 99};
+	private static final double BASELINE_PERCENTILE = 90;
+
+	private Application context = RuntimeEnvironment.application;
+
+	private MildlyRichTextEditor editor;
+
+	@Before
+	public void initialize()
+	{
+		editor = new MildlyRichTextEditor(context, null);
+		TestToolbar.attach(editor);
+	}
+
+	@Test
+	public void testRecordedTraceReplays() throws IOException
+	{
+		StringBuilder trace = new StringBuilder();
+		editor.setTraceRecorder(new EditorTraceRecorder(trace));
+		editor.getText().append("Hello\nworld");
+		editor.setSelection(0, 5);
+		editor.toggleStyle(MildlyRichTextEditor.Style.BOLD, null);
+		editor.getText().delete(3, 7);
+		editor.setTraceRecorder(null);
+
+		initialize();
+		TraceReplayer.Result result = TraceReplayer.replay(editor, new BufferedReader(new StringReader(
+			trace.toString())));
+
+		assertThat(result.actualText, is("Helorld"));
+		assertThat(result.actualText, is(result.expectedText));
+		assertThat(result.latencies.get(EditorTraceRecorder.TOGGLE).getCount(), is(1));
+	}
+
+	@Test
+	public void testRecordedComposingReplays() throws IOException
+	{
+		StringBuilder trace = new StringBuilder();
+		editor.setTraceRecorder(new EditorTraceRecorder(trace));
+		InputConnection connection = editor.onCreateInputConnection(new EditorInfo());
+		connection.setComposingText("w", 1);
+		connection.setComposingText("wo", 1);
+		connection.setComposingText("word", 1);
+		connection.finishComposingText();
+		connection.setComposingRegion(0, 4);
+		connection.commitText("words", 1);
+		editor.setTraceRecorder(null);
+
+		// The edits of the input method are replayed through its calls, not recorded a second time
+		assertThat(trace.toString(), not(containsString("\n" + EditorTraceRecorder.REPLACE + " ")));
+
+		initialize();
+		TraceReplayer.Result result = TraceReplayer.replay(editor, new BufferedReader(new StringReader(
+			trace.toString())));
+
+		assertThat(result.actualText, is("words"));
+		assertThat(result.actualText, is(result.expectedText));
+		assertThat(result.latencies.get(EditorTraceRecorder.COMPOSE).getCount(), is(3));
+		assertThat(result.latencies.get(EditorTraceRecorder.COMPOSING_REGION).getCount(), is(1));
+		assertThat(result.latencies.get(EditorTraceRecorder.FINISH_COMPOSING).getCount(), is(1));
+		assertThat(result.latencies.get(EditorTraceRecorder.COMMIT).getCount(), is(1));
+	}
+
+	@Test
+	public void testRecordedTraceKeepsLists() throws IOException
+	{
+		editor.setTextHtml("<ul>\n<li>one</li>\n<li>two</li>\n</ul>\n");
+		String html = editor.getTextHtml();
+		StringBuilder trace = new StringBuilder();
+		editor.setTraceRecorder(new EditorTraceRecorder(trace));
+		editor.setTraceRecorder(null);
+
+		initialize();
+		TraceReplayer.replay(editor, new BufferedReader(new StringReader(trace.toString())));
+
+		assertThat(editor.getTextHtml(), is(html));
+	}
+
+	@Test
+	public void testReplayLatencies() throws IOException
+	{
+		String baselinesOut = System.getProperty("mrte.traceBaselinesOut");
+		Properties recorded = new Properties();
+
+		for (String name : TRACES)
+		{
+			initialize();
+			InputStream traceStream = getClass().getClassLoader().getResourceAsStream("traces/" + name + ".trace");
+			TraceReplayer.Result result;
+			try
+			{
+				result = TraceReplayer.replay(editor, new BufferedReader(new InputStreamReader(traceStream, "UTF-8")));
+			}
+			finally
+			{
+				traceStream.close();
+			}
+			assertThat(name + " replays to the recorded text", result.actualText, is(result.expectedText));
+
+			for (Map.Entry<String, TraceReplayer.Latencies> entry : result.latencies.entrySet())
+			{
+				TraceReplayer.Latencies latencies = entry.getValue();
+				StringBuilder report = new StringBuilder(name).append(' ').append(entry.getKey()).append(" x")
+					.append(latencies.getCount());
+				for (double percentile : PERCENTILES)
+				{
+					report.append(" p").append((int)percentile).append('=')
+						.append(latencies.percentileMicros(percentile)).append("us");
+				}
+				if (baselinesOut != null)
+					System.out.println(report);
+
+				String key = name + "." + entry.getKey() + ".p" + (int)BASELINE_PERCENTILE;
+				recorded.setProperty(key, Long.toString(latencies.percentileMicros(BASELINE_PERCENTILE)));
+			}
+		}
+
+		if (baselinesOut != null)
+		{
+			OutputStream out = new FileOutputStream(baselinesOut);
+			try
+			{
+				recorded.store(out, "p" + (int)BASELINE_PERCENTILE + " replay latencies in microseconds, recorded " +
+					"by ./gradlew :mildlyrichtexteditor:recordTraceBaselines");
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+	}
+}
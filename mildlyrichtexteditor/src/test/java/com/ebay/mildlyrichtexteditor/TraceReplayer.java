@@ -0,0 +1,163 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.text.Editable;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replays a trace recorded by {@link EditorTraceRecorder} against an editor, timing how long the editor takes to
+ * process every event.
+ */
+class TraceReplayer
+{
+	/**
+	 * The latencies of all events with the same name.
+	 */
+	static final class Latencies
+	{
+		private long[] nanos = new long[64];
+		private int count;
+		private boolean sorted;
+
+		void add(long latency)
+		{
+			if (count == nanos.length)
+				nanos = Arrays.copyOf(nanos, count * 2);
+			nanos[count++] = latency;
+			sorted = false;
+		}
+
+		int getCount()
+		{
+			return count;
+		}
+
+		/**
+		 * @param percentile Between 0 and 100.
+		 * @return The latency below which the given percentage of the events fall, in microseconds.
+		 */
+		long percentileMicros(double percentile)
+		{
+			if (!sorted)
+			{
+				Arrays.sort(nanos, 0, count);
+				sorted = true;
+			}
+			int index = (int)Math.ceil(percentile / 100 * count) - 1;
+			return nanos[Math.max(0, Math.min(count - 1, index))] / 1000;
+		}
+	}
+
+	/**
+	 * The outcome of a replay.
+	 */
+	static final class Result
+	{
+		final Map<String, Latencies> latencies = new LinkedHashMap<>();
+		String expectedText;
+		String actualText;
+	}
+
+	private TraceReplayer()
+	{
+	}
+
+	static Result replay(MildlyRichTextEditor editor, BufferedReader trace) throws IOException
+	{
+		if (!EditorTraceRecorder.HEADER.equals(trace.readLine()))
+			throw new IOException("Not an editor trace");
+
+		// Composing events go through an input connection, like those of the input method that was recorded
+		InputConnection connection = editor.onCreateInputConnection(new EditorInfo());
+		Result result = new Result();
+		String line;
+		while ((line = trace.readLine()) != null)
+		{
+			if (line.isEmpty())
+				continue;
+
+			// name, elapsed time, arguments
+			String[] fields = line.split(" ", 3);
+			String name = fields[0];
+			String arguments = fields.length > 2 ? fields[2] : "";
+			if (EditorTraceRecorder.END.equals(name))
+			{
+				result.expectedText = EditorTraceRecorder.unescape(arguments);
+				continue;
+			}
+
+			long start = System.nanoTime();
+			dispatch(editor, connection, name, arguments);
+			long latency = System.nanoTime() - start;
+
+			Latencies latencies = result.latencies.get(name);
+			if (latencies == null)
+			{
+				latencies = new Latencies();
+				result.latencies.put(name, latencies);
+			}
+			latencies.add(latency);
+		}
+
+		result.actualText = editor.getText().toString();
+		return result;
+	}
+
+	private static void dispatch(MildlyRichTextEditor editor, InputConnection connection, String name,
+		String arguments) throws IOException
+	{
+		String[] values = arguments.split(" ", 3);
+		switch (name)
+		{
+		case EditorTraceRecorder.INIT:
+			editor.setText("");
+			editor.setTextHtml(EditorTraceRecorder.unescape(arguments));
+			break;
+		case EditorTraceRecorder.REPLACE:
+			int start = Integer.parseInt(values[0]);
+			int end = start + Integer.parseInt(values[1]);
+			Editable text = editor.getText();
+			text.replace(start, end, EditorTraceRecorder.unescape(values.length > 2 ? values[2] : ""));
+			break;
+		case EditorTraceRecorder.SELECT:
+			int length = editor.length();
+			editor.setSelection(Math.min(length, Integer.parseInt(values[0])),
+				Math.min(length, Integer.parseInt(values[1])));
+			break;
+		case EditorTraceRecorder.TOGGLE:
+			MildlyRichTextEditor.Style style = MildlyRichTextEditor.Style.valueOf(values[0]);
+			editor.toggleStyle(style, EditorTraceRecorder.NO_VALUE.equals(values[1]) ? null : Float.valueOf(values[1]));
+			break;
+		case EditorTraceRecorder.COMPOSE:
+			String[] composed = arguments.split(" ", 2);
+			connection.setComposingText(EditorTraceRecorder.unescape(composed.length > 1 ? composed[1] : ""),
+				Integer.parseInt(composed[0]));
+			break;
+		case EditorTraceRecorder.COMPOSING_REGION:
+			connection.setComposingRegion(Integer.parseInt(values[0]), Integer.parseInt(values[1]));
+			break;
+		case EditorTraceRecorder.FINISH_COMPOSING:
+			connection.finishComposingText();
+			break;
+		case EditorTraceRecorder.COMMIT:
+			String[] committed = arguments.split(" ", 2);
+			connection.commitText(EditorTraceRecorder.unescape(committed.length > 1 ? committed[1] : ""),
+				Integer.parseInt(committed[0]));
+			break;
+		case EditorTraceRecorder.BATCH:
+			if (EditorTraceRecorder.BEGIN.equals(values[0]))
+				editor.beginBatchEdit();
+			else
+				editor.endBatchEdit();
+			break;
+		default:
+			throw new IOException("Unknown trace event " + name);
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package com.ebay.mildlyrichtexteditor;
+
+import android.app.Activity;
+import android.app.Application;
+import android.graphics.Typeface;
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.style.StyleSpan;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.inputmethod.EditorInfo;
+import android.widget.ToggleButton;
+
+import com.ebay.mildlyrichtexteditorlibrary.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 18)
+public class VirtualizedRichTextEditorTest
+{
+	private VirtualizedRichTextEditor editor;
+	private Application context = RuntimeEnvironment.application;
+
+	@Before
+	public void initialize()
+	{
+		editor = new VirtualizedRichTextEditor(context, null);
+	}
+
+	@Test
+	public void testEmptyDocument()
+	{
+		assertThat(editor.getParagraphCount(), is(1));
+		assertThat(editor.getTextHtml(), is("<br>\n"));
+	}
+
+	@Test
+	public void testSetTextHtmlSplitsParagraphs()
+	{
+		editor.setTextHtml("First <b>line</b><br>Second <i>line</i><br>Third line");
+
+		assertThat(editor.getParagraphCount(), is(3));
+		assertThat(editor.paragraphs.get(0).toString(), is("First line"));
+		assertThat(editor.paragraphs.get(1).toString(), is("Second line"));
+		assertThat(editor.paragraphs.get(2).toString(), is("Third line"));
+		StyleSpan[] italic = editor.paragraphs.get(1).getSpans(0, 11, StyleSpan.class);
+		assertThat(italic.length, is(1));
+		assertThat(editor.paragraphs.get(1).getSpanStart(italic[0]), is(7));
+	}
+
+	@Test
+	public void testGetTextHtmlConcatenatesParagraphs()
+	{
+		editor.setTextHtml("First <b>line</b><br>Second <u>line</u>");
+		String html = editor.getTextHtml();
+
+		assertThat(html, containsString("First <b>line</b>"));
+		assertThat(html, containsString("Second <u>line</u>"));
+		assertThat(html.indexOf("First") < html.indexOf("Second"), is(true));
+	}
+
+	@Test
+	public void testGetTextHtmlKeepsLists()
+	{
+		String html = "Items:<br><ul><li>one</li><li>two</li></ul><ol><li>first</li></ol>After";
+		editor.setTextHtml(html);
+		MildlyRichTextEditor single = new MildlyRichTextEditor(context, null);
+		single.setTextHtml(html);
+
+		assertThat(editor.getTextHtml(), containsString("<ul>\n<li>one</li>\n<li>two</li>\n</ul>"));
+		assertThat(editor.getTextHtml(), is(single.getTextHtml()));
+	}
+
+	@Test
+	public void testReleasedControlsNoLongerStyleTheParagraph()
+	{
+		MildlyRichTextEditor paragraph = new MildlyRichTextEditor(context, null);
+		ToggleButton bold = new ToggleButton(context);
+		paragraph.setBoldToggleButton(bold);
+		paragraph.setText("Bold");
+		paragraph.setSelection(0, 4);
+
+		paragraph.clearToolbar();
+		bold.performClick();
+
+		assertThat(paragraph.getText().getSpans(0, 4, StyleSpan.class).length, is(0));
+	}
+
+	@Test
+	public void testSplitParagraph()
+	{
+		editor.setTextHtml("Bold and plain");
+		Editable paragraph = editor.paragraphs.get(0);
+		paragraph.setSpan(new StyleSpan(Typeface.BOLD), 0, 8, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+		paragraph.insert(5, "\n");
+
+		editor.splitParagraph(0);
+
+		assertThat(editor.getParagraphCount(), is(2));
+		assertThat(editor.paragraphs.get(0).toString(), is("Bold "));
+		assertThat(editor.paragraphs.get(1).toString(), is("and plain"));
+		StyleSpan[] bold = editor.paragraphs.get(1).getSpans(0, 9, StyleSpan.class);
+		assertThat(bold.length, is(1));
+		assertThat(editor.paragraphs.get(1).getSpanEnd(bold[0]), is(3));
+	}
+
+	@Test
+	public void testMergeWithPrevious()
+	{
+		editor.setTextHtml("One<br>Two<br>Three");
+
+		editor.mergeWithPrevious(1);
+
+		assertThat(editor.getParagraphCount(), is(2));
+		assertThat(editor.paragraphs.get(0).toString(), is("OneTwo"));
+		assertThat(editor.paragraphs.get(1).toString(), is("Three"));
+
+		editor.mergeWithPrevious(0);
+		assertThat(editor.getParagraphCount(), is(2));
+	}
+
+	@Test
+	public void testRowsEditTheParagraphsInPlace()
+	{
+		editor.setTextHtml("One<br>Two<br>Three");
+		layOut();
+
+		for (int i = 0; i < 3; i++)
+			assertThat(row(i).getText(), is(sameInstance(editor.paragraphs.get(i))));
+
+		row(1).getText().append(" more");
+		assertThat(editor.paragraphs.get(1).toString(), is("Two more"));
+		assertThat(editor.getTextHtml(), containsString("Two more"));
+	}
+
+	@Test
+	public void testLineBreakInARowSplitsItsParagraph()
+	{
+		editor.setTextHtml("One<br>TwoThree");
+		layOut();
+
+		row(1).getText().insert(3, "\n");
+		layOut();
+
+		assertThat(editor.getParagraphCount(), is(3));
+		assertThat(editor.paragraphs.get(1).toString(), is("Two"));
+		assertThat(editor.paragraphs.get(2).toString(), is("Three"));
+		assertThat(row(1).getText().toString(), is("Two"));
+		assertThat(row(2).getText().toString(), is("Three"));
+	}
+
+	@Test
+	public void testStyleControlsFollowTheFocus()
+	{
+		editor.setTextHtml("One<br>Two");
+		ToggleButton bold = new ToggleButton(context);
+		editor.setBoldToggleButton(bold);
+		layOut();
+		row(0).requestFocus();
+		row(0).setSelection(3);
+
+		pressKey(row(0), KeyEvent.KEYCODE_DPAD_DOWN);
+		assertThat(row(1).hasFocus(), is(true));
+		row(1).setSelection(0, 3);
+		bold.performClick();
+
+		assertThat(editor.paragraphs.get(0).getSpans(0, 3, StyleSpan.class).length, is(0));
+		assertThat(editor.paragraphs.get(1).getSpans(0, 3, StyleSpan.class).length, is(1));
+		assertThat(editor.getTextHtml(), containsString("<b>Two</b>"));
+	}
+
+	@Test
+	public void testArrowKeysCrossParagraphs()
+	{
+		editor.setTextHtml("One<br>Two<br>Three");
+		layOut();
+		row(1).requestFocus();
+
+		row(1).setSelection(3);
+		pressKey(row(1), KeyEvent.KEYCODE_DPAD_DOWN);
+		assertThat(row(2).hasFocus(), is(true));
+		assertThat(row(2).getSelectionStart(), is(0));
+
+		pressKey(row(2), KeyEvent.KEYCODE_DPAD_UP);
+		assertThat(row(1).hasFocus(), is(true));
+		assertThat(row(1).getSelectionStart(), is(3));
+
+		pressKey(row(1), KeyEvent.KEYCODE_DPAD_UP);
+		pressKey(row(0), KeyEvent.KEYCODE_DPAD_UP);
+		assertThat(row(0).hasFocus(), is(true));
+		assertThat(row(0).getSelectionStart(), is(3));
+	}
+
+	@Test
+	public void testBackspaceAtParagraphStartMerges()
+	{
+		editor.setTextHtml("One<br>Two<br>Three");
+		layOut();
+		row(1).requestFocus();
+		row(1).setSelection(0);
+
+		pressKey(row(1), KeyEvent.KEYCODE_DEL);
+		layOut();
+
+		assertThat(editor.getParagraphCount(), is(2));
+		assertThat(editor.paragraphs.get(0).toString(), is("OneTwo"));
+		assertThat(row(0).hasFocus(), is(true));
+		assertThat(row(0).getSelectionStart(), is(3));
+
+		// Within a paragraph, backspace deletes as usual
+		row(0).setSelection(6);
+		pressKey(row(0), KeyEvent.KEYCODE_DEL);
+		assertThat(editor.getParagraphCount(), is(2));
+		assertThat(editor.paragraphs.get(0).toString(), is("OneTw"));
+	}
+
+	@Test
+	public void testSoftKeyboardBackspaceAtParagraphStartMerges()
+	{
+		editor.setTextHtml("One<br>Two");
+		layOut();
+		row(1).requestFocus();
+		row(1).setSelection(0);
+
+		row(1).onCreateInputConnection(new EditorInfo()).deleteSurroundingText(1, 0);
+
+		assertThat(editor.getParagraphCount(), is(1));
+		assertThat(editor.paragraphs.get(0).toString(), is("OneTwo"));
+	}
+
+	/**
+	 * Shows the editor in an activity and lays it out, which binds the paragraphs on screen to rows.
+	 */
+	private void layOut()
+	{
+		if (editor.getParent() == null)
+			Robolectric.setupActivity(Activity.class).setContentView(editor);
+		editor.measure(View.MeasureSpec.makeMeasureSpec(480, View.MeasureSpec.EXACTLY),
+			View.MeasureSpec.makeMeasureSpec(800, View.MeasureSpec.EXACTLY));
+		editor.layout(0, 0, 480, 800);
+	}
+
+	private MildlyRichTextEditor row(int position)
+	{
+		return (MildlyRichTextEditor)editor.findViewHolderForAdapterPosition(position).itemView;
+	}
+
+	private static void pressKey(View view, int keyCode)
+	{
+		view.dispatchKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, keyCode));
+		view.dispatchKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, keyCode));
+	}
+}